@@ -0,0 +1,98 @@
+package com.ctrip.hermes.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.unidal.tuple.Pair;
+
+import com.ctrip.hermes.broker.ack.internal.AckHolder;
+import com.ctrip.hermes.broker.ack.internal.DefaultAckHolder;
+import com.ctrip.hermes.broker.ack.internal.SlidingWindowAckHolder;
+
+/**
+ * Compares DefaultAckHolder with SlidingWindowAckHolder on the AckManager worker pattern: a window of outstanding
+ * batches whose head message is acked late. Every op delivers one new batch, acks all but the head message of it,
+ * acks the head message of the oldest batch and scans.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AckHolderBenchmark {
+
+	@Param({ "default", "slidingWindow" })
+	public String m_holderType;
+
+	@Param({ "10", "100", "1000" })
+	public int m_outstandingBatches;
+
+	@Param({ "20" })
+	public int m_batchSize;
+
+	private AckHolder<Object> m_holder;
+
+	private long m_nextOffset;
+
+	private long m_nextLateAckOffset;
+
+	private Object m_ctx = new Object();
+
+	@Setup
+	public void setup() {
+		m_holder = "default".equals(m_holderType) ? new DefaultAckHolder<Object>(Integer.MAX_VALUE) {
+			@Override
+			protected boolean isTimeout(long start, int timeout) {
+				return false;
+			}
+		} : new SlidingWindowAckHolder<Object>(Integer.MAX_VALUE) {
+			@Override
+			protected boolean isTimeout(long start, int timeout) {
+				return false;
+			}
+		};
+
+		m_nextOffset = 0;
+		m_nextLateAckOffset = 0;
+		for (int i = 0; i < m_outstandingBatches; i++) {
+			deliverAndAckTail();
+		}
+	}
+
+	@Benchmark
+	public void deliverAckScan(Blackhole bh) {
+		deliverAndAckTail();
+
+		m_holder.acked(m_nextLateAckOffset, true);
+		m_nextLateAckOffset += m_batchSize;
+
+		bh.consume(m_holder.scan());
+	}
+
+	private void deliverAndAckTail() {
+		long start = m_nextOffset;
+		List<Pair<Long, Object>> batch = new ArrayList<>(m_batchSize);
+		for (int i = 0; i < m_batchSize; i++) {
+			batch.add(new Pair<Long, Object>(m_nextOffset++, m_ctx));
+		}
+		m_holder.delivered(batch, 0L);
+
+		for (long offset = start + 1; offset < m_nextOffset; offset++) {
+			m_holder.acked(offset, true);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.ctrip.hermes.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.ctrip.hermes.core.message.ProducerMessage;
+import com.ctrip.hermes.core.message.PropertiesHolder;
+
+/**
+ * Builds the messages used by the benchmarks, the topic must be defined in meta-local.xml with json codec.
+ */
+public class BenchmarkMessages {
+
+	public static final String TOPIC = "topic";
+
+	private static final String CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+	private static final Random RANDOM = new Random(20150601L);
+
+	public static ProducerMessage<String> producerMessage(int bodySize, int propertyCount, int partition) {
+		ProducerMessage<String> msg = new ProducerMessage<String>(TOPIC, randomString(bodySize));
+		msg.setBornTime(System.currentTimeMillis());
+		msg.setKey(randomString(32));
+		msg.setPartitionKey("partitionKey");
+		msg.setPartition(partition);
+		msg.setPriority(true);
+
+		PropertiesHolder propertiesHolder = new PropertiesHolder();
+		for (Map.Entry<String, String> entry : properties(propertyCount).entrySet()) {
+			propertiesHolder.addDurableAppProperty(entry.getKey(), entry.getValue());
+		}
+		propertiesHolder.addVolatileProperty("volatile", randomString(16));
+		msg.setPropertiesHolder(propertiesHolder);
+
+		return msg;
+	}
+
+	public static Map<String, String> properties(int count) {
+		Map<String, String> properties = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			properties.put("key-" + i, randomString(24));
+		}
+		return properties;
+	}
+
+	public static String randomString(int length) {
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append(CHARS.charAt(RANDOM.nextInt(CHARS.length())));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,193 @@
+package com.ctrip.hermes.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ctrip.hermes.core.bo.Tpp;
+import com.ctrip.hermes.core.message.TppConsumerMessageBatch;
+import com.ctrip.hermes.core.message.TppConsumerMessageBatch.MessageMeta;
+import com.ctrip.hermes.core.message.codec.internal.MessageCodecBinaryV1Handler;
+import com.ctrip.hermes.core.result.SendResult;
+import com.ctrip.hermes.core.transport.TransferCallback;
+import com.ctrip.hermes.core.transport.command.AbstractCommand;
+import com.ctrip.hermes.core.transport.command.AckMessageCommand;
+import com.ctrip.hermes.core.transport.command.Header;
+import com.ctrip.hermes.core.transport.command.PullMessageResultCommand;
+import com.ctrip.hermes.core.transport.command.SendMessageCommand;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Round trips of the commands on the message path: send, pull result and ack.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+
+	@State(Scope.Thread)
+	public static class SendState {
+
+		@Param({ "1", "20", "100" })
+		public int m_messageCount;
+
+		@Param({ "128", "4096" })
+		public int m_bodySize;
+
+		private SendMessageCommand m_cmd;
+
+		private ByteBuf m_encoded;
+
+		private ByteBuf m_out;
+
+		@Setup
+		public void setup() {
+			m_cmd = new SendMessageCommand(BenchmarkMessages.TOPIC, 0);
+			for (int i = 0; i < m_messageCount; i++) {
+				m_cmd.addMessage(BenchmarkMessages.producerMessage(m_bodySize, 5, 0), SettableFuture.<SendResult> create());
+			}
+
+			m_encoded = Unpooled.buffer();
+			m_cmd.toBytes(m_encoded);
+			m_out = Unpooled.buffer(m_encoded.readableBytes() * 2);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class PullState {
+
+		@Param({ "1", "20", "100" })
+		public int m_messageCount;
+
+		@Param({ "128", "4096" })
+		public int m_bodySize;
+
+		private PullMessageResultCommand m_cmd;
+
+		private ByteBuf m_encoded;
+
+		private ByteBuf m_out;
+
+		@Setup
+		public void setup() {
+			MessageCodecBinaryV1Handler handler = new MessageCodecBinaryV1Handler();
+			final ByteBuf frames = Unpooled.buffer();
+			TppConsumerMessageBatch batch = new TppConsumerMessageBatch();
+			batch.setTopic(BenchmarkMessages.TOPIC);
+			batch.setPartition(0);
+			batch.setPriority(0);
+			batch.setResend(false);
+			for (int i = 0; i < m_messageCount; i++) {
+				handler.encode(BenchmarkMessages.producerMessage(m_bodySize, 5, 0), frames);
+				batch.addMessageMeta(new MessageMeta(i, 3, i, 0, false));
+			}
+			batch.setTransferCallback(new TransferCallback() {
+
+				@Override
+				public void transfer(ByteBuf out) {
+					out.writeBytes(frames, frames.readerIndex(), frames.readableBytes());
+				}
+			});
+
+			m_cmd = new PullMessageResultCommand();
+			m_cmd.addBatches(Arrays.asList(batch));
+
+			m_encoded = Unpooled.buffer();
+			m_cmd.toBytes(m_encoded);
+			m_out = Unpooled.buffer(m_encoded.readableBytes() * 2);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class AckState {
+
+		@Param({ "10", "1000" })
+		public int m_ackCount;
+
+		private AckMessageCommand m_cmd;
+
+		private ByteBuf m_encoded;
+
+		private ByteBuf m_out;
+
+		@Setup
+		public void setup() {
+			Tpp tpp = new Tpp(BenchmarkMessages.TOPIC, 0, true);
+			long now = System.currentTimeMillis();
+
+			m_cmd = new AckMessageCommand(AckMessageCommand.VERSION_RANGES);
+			for (int i = 0; i < m_ackCount; i++) {
+				// a nack every 100 messages breaks the ack runs
+				if (i % 100 == 99) {
+					m_cmd.addNackMsg(tpp, "group", false, i, 3, now, now + 1);
+				} else {
+					m_cmd.addAckMsg(tpp, "group", false, i, 3, now, now + 1);
+				}
+			}
+
+			m_encoded = Unpooled.buffer();
+			m_cmd.toBytes(m_encoded);
+			m_out = Unpooled.buffer(m_encoded.readableBytes() * 2);
+		}
+	}
+
+	@Benchmark
+	public ByteBuf sendToBytes(SendState state) {
+		state.m_out.clear();
+		state.m_cmd.toBytes(state.m_out);
+		return state.m_out;
+	}
+
+	@Benchmark
+	public SendMessageCommand sendParse(SendState state) {
+		return parse(new SendMessageCommand(), state.m_encoded);
+	}
+
+	@Benchmark
+	public ByteBuf pullResultToBytes(PullState state) {
+		state.m_out.clear();
+		state.m_cmd.toBytes(state.m_out);
+		return state.m_out;
+	}
+
+	@Benchmark
+	public PullMessageResultCommand pullResultParse(PullState state) {
+		return parse(new PullMessageResultCommand(), state.m_encoded);
+	}
+
+	@Benchmark
+	public ByteBuf ackToBytes(AckState state) {
+		state.m_out.clear();
+		state.m_cmd.toBytes(state.m_out);
+		return state.m_out;
+	}
+
+	@Benchmark
+	public AckMessageCommand ackParse(AckState state) {
+		return parse(new AckMessageCommand(), state.m_encoded);
+	}
+
+	private <T extends AbstractCommand> T parse(T cmd, ByteBuf encoded) {
+		ByteBuf buf = encoded.duplicate();
+		Header header = new Header();
+		header.parse(buf);
+		cmd.parse(buf, header);
+		return cmd;
+	}
+}
@@ -0,0 +1,87 @@
+package com.ctrip.hermes.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ctrip.hermes.core.message.BaseConsumerMessage;
+import com.ctrip.hermes.core.message.PartialDecodedMessage;
+import com.ctrip.hermes.core.message.ProducerMessage;
+import com.ctrip.hermes.core.message.codec.MessageCodecHandler;
+import com.ctrip.hermes.core.message.codec.MessageCodecVersion;
+
+/**
+ * Message codec handlers on the producer (encode), broker (decodePartial and re-encode) and consumer (decode) paths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+	@Param({ "128", "1024", "16384" })
+	public int m_bodySize;
+
+	@Param({ "0", "10", "50" })
+	public int m_propertyCount;
+
+	@Param({ "1", "2" })
+	public byte m_codecVersion;
+
+	private MessageCodecHandler m_handler;
+
+	private ProducerMessage<String> m_msg;
+
+	private ByteBuf m_encoded;
+
+	private ByteBuf m_out;
+
+	@Setup
+	public void setup() {
+		m_handler = MessageCodecVersion.valueOf(m_codecVersion).getHandler();
+		m_msg = BenchmarkMessages.producerMessage(m_bodySize, m_propertyCount, 0);
+
+		m_encoded = Unpooled.buffer();
+		m_handler.encode(m_msg, m_encoded);
+		m_out = Unpooled.buffer(m_encoded.readableBytes() * 2);
+	}
+
+	@Benchmark
+	public ByteBuf encode() {
+		m_out.clear();
+		m_handler.encode(m_msg, m_out);
+		return m_out;
+	}
+
+	@Benchmark
+	public PartialDecodedMessage decodePartial() {
+		return m_handler.decodePartial(m_encoded.duplicate());
+	}
+
+	@Benchmark
+	public ByteBuf decodePartialAndEncode() {
+		m_out.clear();
+		m_handler.encode(m_handler.decodePartial(m_encoded.duplicate()), m_out);
+		return m_out;
+	}
+
+	@Benchmark
+	public BaseConsumerMessage<?> decode() {
+		return m_handler.decode(BenchmarkMessages.TOPIC, m_encoded.duplicate(), String.class);
+	}
+}
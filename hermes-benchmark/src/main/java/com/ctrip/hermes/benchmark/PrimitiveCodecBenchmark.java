@@ -0,0 +1,96 @@
+package com.ctrip.hermes.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ctrip.hermes.core.utils.HermesPrimitiveCodec;
+
+/**
+ * HermesPrimitiveCodec string and string map paths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimitiveCodecBenchmark {
+
+	@Param({ "16", "256", "4096" })
+	public int m_stringLength;
+
+	@Param({ "10" })
+	public int m_mapSize;
+
+	private String m_string;
+
+	private Map<String, String> m_map;
+
+	private ByteBuf m_out;
+
+	private ByteBuf m_encodedString;
+
+	private ByteBuf m_encodedMap;
+
+	@Setup
+	public void setup() {
+		m_string = BenchmarkMessages.randomString(m_stringLength);
+		m_map = BenchmarkMessages.properties(m_mapSize);
+		m_out = Unpooled.buffer(m_stringLength * 4 + m_mapSize * 128);
+
+		m_encodedString = Unpooled.buffer();
+		new HermesPrimitiveCodec(m_encodedString).writeString(m_string);
+
+		m_encodedMap = Unpooled.buffer();
+		new HermesPrimitiveCodec(m_encodedMap).writeStringStringMap(m_map);
+	}
+
+	@Benchmark
+	public ByteBuf writeString() {
+		m_out.clear();
+		new HermesPrimitiveCodec(m_out).writeString(m_string);
+		return m_out;
+	}
+
+	@Benchmark
+	public String readString() {
+		return new HermesPrimitiveCodec(m_encodedString.duplicate()).readString();
+	}
+
+	@Benchmark
+	public String readCachedString() {
+		return new HermesPrimitiveCodec(m_encodedString.duplicate()).readCachedString();
+	}
+
+	@Benchmark
+	public ByteBuf writeStringStringMap() {
+		m_out.clear();
+		new HermesPrimitiveCodec(m_out).writeStringStringMap(m_map);
+		return m_out;
+	}
+
+	@Benchmark
+	public Map<String, String> readStringStringMap() {
+		return new HermesPrimitiveCodec(m_encodedMap.duplicate()).readStringStringMap();
+	}
+
+	@Benchmark
+	public String readLazyStringStringMapAndGet() {
+		return new HermesPrimitiveCodec(m_encodedMap.duplicate()).readLazyStringStringMap().get("key-0");
+	}
+}
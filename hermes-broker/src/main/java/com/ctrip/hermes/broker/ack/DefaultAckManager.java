@@ -1,6 +1,7 @@
 package com.ctrip.hermes.broker.ack;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
@@ -11,6 +12,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.codehaus.plexus.personality.plexus.lifecycle.phase.Initializable;
 import org.codehaus.plexus.personality.plexus.lifecycle.phase.InitializationException;
@@ -26,6 +28,7 @@ import com.ctrip.hermes.broker.ack.internal.BatchResult;
 import com.ctrip.hermes.broker.ack.internal.ContinuousRange;
 import com.ctrip.hermes.broker.ack.internal.DefaultAckHolder;
 import com.ctrip.hermes.broker.ack.internal.EnumRange;
+import com.ctrip.hermes.broker.ack.internal.SlidingWindowAckHolder;
 import com.ctrip.hermes.broker.config.BrokerConfig;
 import com.ctrip.hermes.broker.queue.MessageQueueManager;
 import com.ctrip.hermes.core.bo.Tpp;
@@ -34,24 +37,31 @@ import com.ctrip.hermes.core.meta.MetaService;
 import com.ctrip.hermes.core.service.SystemClockService;
 import com.ctrip.hermes.core.transport.command.AckMessageCommand.AckContext;
 import com.ctrip.hermes.core.utils.HermesThreadFactory;
+import com.dianping.cat.status.StatusExtension;
+import com.dianping.cat.status.StatusExtensionRegister;
 
 /**
+ * Ack and nack come from netty I/O threads and are queued without blocking. One not fitting in its shard's queue is
+ * dropped and counted, the messages it covers are timed out and resent, not lost.
+ * <p>
+ * Deliveries come from long polling worker threads and wait for room in the queue, as a dropped delivery would leave its
+ * messages in no holder, never timed out or resent. They only give up once the manager is stopped. Dropped operations,
+ * waiting deliveries and queue depths are reported in cat heartbeats.
+ *
  * @author Leo Liang(jhliang@ctrip.com)
  *
  */
 @Named(type = AckManager.class)
-public class DefaultAckManager implements AckManager, Initializable {
+public class DefaultAckManager implements AckManager, Initializable, StatusExtension {
 
 	private static final Logger log = LoggerFactory.getLogger(DefaultAckManager.class);
 
-	// TODO while consumer disconnect, clear holder and offset
-	private ConcurrentMap<Pair<Tpp, String>, AckHolder<MessageMeta>> m_holders = new ConcurrentHashMap<>();
-
-	private ConcurrentMap<Pair<Tpp, String>, AckHolder<MessageMeta>> m_resendHolders = new ConcurrentHashMap<>();
+	private static final int DROP_LOG_INTERVAL = 1000;
 
-	private BlockingQueue<Operation> m_opQueue;
+	private static final long DELIVERED_OFFER_INTERVAL_MILLIS = 100;
 
-	private ScheduledExecutorService m_scheduledExecutorService;
+	// each key is always handled by the same shard, so operations of one key keep their order
+	private AckShard[] m_shards;
 
 	@Inject
 	private MessageQueueManager m_queueManager;
@@ -65,37 +75,28 @@ public class DefaultAckManager implements AckManager, Initializable {
 	@Inject
 	private SystemClockService m_systemClockService;
 
-	private AckTask m_ackTask;
-
 	private AtomicBoolean m_stopped = new AtomicBoolean(false);
 
 	@Override
 	public void initialize() throws InitializationException {
-		m_opQueue = new LinkedBlockingQueue<>(m_config.getAckManagerOpQueueSize());
+		int shardCount = Math.max(1, m_config.getAckManagerShardCount());
+		int queueSize = Math.max(1, m_config.getAckManagerOpQueueSize() / shardCount);
 
-		m_scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(HermesThreadFactory.create(
-		      "AckManagerWorker", false));
-		m_ackTask = new AckTask();
-		m_scheduledExecutorService.scheduleWithFixedDelay(m_ackTask, 0, m_config.getAckManagerCheckIntervalMillis(),
-		      TimeUnit.MILLISECONDS);
+		m_shards = new AckShard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			m_shards[i] = new AckShard(i, queueSize);
+		}
 
+		StatusExtensionRegister.getInstance().register(this);
 	}
 
 	@Override
 	public void stop() {
 		if (m_stopped.compareAndSet(false, true)) {
-			m_scheduledExecutorService.shutdown();
-
-			while (!m_scheduledExecutorService.isTerminated()) {
-				try {
-					m_scheduledExecutorService.awaitTermination(1, TimeUnit.SECONDS);
-				} catch (InterruptedException e) {
-					// ignore
-				}
+			StatusExtensionRegister.getInstance().unregister(this);
+			for (AckShard shard : m_shards) {
+				shard.stop();
 			}
-
-			// do the remaining job
-			m_ackTask.run();
 		}
 	}
 
@@ -108,22 +109,15 @@ public class DefaultAckManager implements AckManager, Initializable {
 		resetTppIfResend(tpp, resend);
 
 		Pair<Tpp, String> key = new Pair<>(tpp, groupId);
-		ensureMapEntryExist(key, resend);
+		AckShard shard = findShard(key);
+		shard.ensureMapEntryExist(key, resend);
 
 		List<Pair<Long, MessageMeta>> msgId2Metas = new ArrayList<>(msgMetas.size());
 		for (MessageMeta msgMeta : msgMetas) {
 			msgId2Metas.add(new Pair<>(msgMeta.getId(), msgMeta));
 		}
 
-		boolean offered = m_opQueue.offer(new Operation(key, resend, Type.DELIVERED, msgId2Metas, m_systemClockService
-		      .now()));
-		logOfferFail("delivered", offered);
-	}
-
-	private void logOfferFail(String type, boolean offered) {
-		if (!offered) {
-			log.warn("Operation queue full when doing {}", type);
-		}
+		shard.put(new Operation(key, resend, Type.DELIVERED, msgId2Metas, m_systemClockService.now()));
 	}
 
 	private void resetTppIfResend(Tpp tpp, boolean resend) {
@@ -132,55 +126,187 @@ public class DefaultAckManager implements AckManager, Initializable {
 		}
 	}
 
-	private void ensureMapEntryExist(Pair<Tpp, String> key, boolean isResend) {
-		ConcurrentMap<Pair<Tpp, String>, AckHolder<MessageMeta>> holders = getHolders(isResend);
-
-		if (!holders.containsKey(key)) {
-			int timeout = m_metaService.getAckTimeoutSecondsByTopicAndConsumerGroup(key.getKey().getTopic(),
-			      key.getValue()) * 1000;
-			DefaultAckHolder<MessageMeta> newHolder = new DefaultAckHolder<MessageMeta>(timeout);
-			holders.putIfAbsent(key, newHolder);
-		}
-
+	private AckShard findShard(Pair<Tpp, String> key) {
+		return m_shards[(key.hashCode() & Integer.MAX_VALUE) % m_shards.length];
 	}
 
 	@Override
 	public void acked(Tpp tpp, String groupId, boolean resend, List<AckContext> ackContexts) {
-		if (m_stopped.get()) {
-			return;
-		}
-		resetTppIfResend(tpp, resend);
-		Pair<Tpp, String> key = new Pair<>(tpp, groupId);
-		ensureMapEntryExist(key, resend);
-		for (AckContext context : ackContexts) {
-			boolean offered = m_opQueue.offer(new Operation(key, resend, Type.ACK, context.getMsgSeq(),
-			      m_systemClockService.now()));
-			logOfferFail("acked", offered);
-		}
+		ackedOrNacked(tpp, groupId, resend, ackContexts, Type.ACK);
 	}
 
 	@Override
 	public void nacked(Tpp tpp, String groupId, boolean resend, List<AckContext> nackContexts) {
-		if (m_stopped.get()) {
+		ackedOrNacked(tpp, groupId, resend, nackContexts, Type.NACK);
+	}
+
+	private void ackedOrNacked(Tpp tpp, String groupId, boolean resend, List<AckContext> contexts, Type type) {
+		if (m_stopped.get() || contexts == null || contexts.isEmpty()) {
 			return;
 		}
 		resetTppIfResend(tpp, resend);
 		Pair<Tpp, String> key = new Pair<>(tpp, groupId);
-		ensureMapEntryExist(key, resend);
-		for (AckContext context : nackContexts) {
-			boolean offered = m_opQueue.offer(new Operation(key, resend, Type.NACK, context.getMsgSeq(),
-			      m_systemClockService.now()));
-			logOfferFail("nacked", offered);
+		AckShard shard = findShard(key);
+		shard.ensureMapEntryExist(key, resend);
+
+		// one operation for the whole command instead of one per message
+		long[] msgSeqs = new long[contexts.size()];
+		for (int i = 0; i < msgSeqs.length; i++) {
+			msgSeqs[i] = contexts.get(i).getMsgSeq();
 		}
+		shard.offer(new Operation(key, resend, type, msgSeqs, m_systemClockService.now()));
 	}
 
-	private ConcurrentMap<Pair<Tpp, String>, AckHolder<MessageMeta>> getHolders(boolean isResend) {
-		return isResend ? m_resendHolders : m_holders;
+	public long getDroppedOperationCount() {
+		long count = 0;
+		for (AckShard shard : m_shards) {
+			count += shard.m_droppedCount.get();
+		}
+		return count;
+	}
+
+	public long getDeliveredWaitCount() {
+		long count = 0;
+		for (AckShard shard : m_shards) {
+			count += shard.m_deliveredWaitCount.get();
+		}
+		return count;
+	}
+
+	protected AckHolder<MessageMeta> createAckHolder(int timeout) {
+		return m_config.isAckHolderSlidingWindowEnabled() ? new SlidingWindowAckHolder<MessageMeta>(timeout)
+		      : new DefaultAckHolder<MessageMeta>(timeout);
+	}
+
+	@Override
+	public String getId() {
+		return "AckManager";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Broker ack manager";
+	}
+
+	@Override
+	public Map<String, String> getProperties() {
+		Map<String, String> properties = new LinkedHashMap<>();
+		properties.put("ops.dropped", String.valueOf(getDroppedOperationCount()));
+		properties.put("ops.delivered.waits", String.valueOf(getDeliveredWaitCount()));
+		for (AckShard shard : m_shards) {
+			properties.put("shard." + shard.m_index + ".queue.depth", String.valueOf(shard.m_opQueue.size()));
+		}
+		return properties;
+	}
+
+	private class AckShard {
+
+		private int m_index;
+
+		// TODO while consumer disconnect, clear holder and offset
+		private ConcurrentMap<Pair<Tpp, String>, AckHolder<MessageMeta>> m_holders = new ConcurrentHashMap<>();
+
+		private ConcurrentMap<Pair<Tpp, String>, AckHolder<MessageMeta>> m_resendHolders = new ConcurrentHashMap<>();
+
+		private BlockingQueue<Operation> m_opQueue;
+
+		private ScheduledExecutorService m_scheduledExecutorService;
+
+		private AckTask m_ackTask;
+
+		private AtomicLong m_droppedCount = new AtomicLong(0);
+
+		private AtomicLong m_deliveredWaitCount = new AtomicLong(0);
+
+		public AckShard(int index, int queueSize) {
+			m_index = index;
+			m_opQueue = new LinkedBlockingQueue<>(queueSize);
+
+			m_scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(HermesThreadFactory.create(
+			      "AckManagerWorker-" + index, false));
+			m_ackTask = new AckTask(this);
+			long interval = m_config.getAckManagerCheckIntervalMillis();
+			m_scheduledExecutorService.scheduleWithFixedDelay(m_ackTask, interval, interval, TimeUnit.MILLISECONDS);
+		}
+
+		public void offer(Operation op) {
+			if (!m_opQueue.offer(op)) {
+				drop(op);
+			}
+		}
+
+		/**
+		 * Waits for room in the queue, gives up only when the manager is stopped or the thread interrupted.
+		 */
+		public void put(Operation op) {
+			if (m_opQueue.offer(op)) {
+				return;
+			}
+
+			m_deliveredWaitCount.incrementAndGet();
+			try {
+				while (!m_opQueue.offer(op, DELIVERED_OFFER_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+					if (m_stopped.get()) {
+						drop(op);
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				drop(op);
+			}
+		}
+
+		private void drop(Operation op) {
+			long dropped = m_droppedCount.incrementAndGet();
+			if (dropped % DROP_LOG_INTERVAL == 1) {
+				log.warn(
+				      "Operation queue of ack shard {} full when doing {}(topic={}, partition={}, groupId={}), {} dropped so far.",
+				      m_index, op.getType(), op.getKey().getKey().getTopic(), op.getKey().getKey().getPartition(),
+				      op.getKey().getValue(), dropped);
+			}
+		}
+
+		private void ensureMapEntryExist(Pair<Tpp, String> key, boolean isResend) {
+			ConcurrentMap<Pair<Tpp, String>, AckHolder<MessageMeta>> holders = getHolders(isResend);
+
+			if (!holders.containsKey(key)) {
+				int timeout = m_metaService.getAckTimeoutSecondsByTopicAndConsumerGroup(key.getKey().getTopic(),
+				      key.getValue()) * 1000;
+				holders.putIfAbsent(key, createAckHolder(timeout));
+			}
+
+		}
+
+		private ConcurrentMap<Pair<Tpp, String>, AckHolder<MessageMeta>> getHolders(boolean isResend) {
+			return isResend ? m_resendHolders : m_holders;
+		}
+
+		public void stop() {
+			m_scheduledExecutorService.shutdown();
+
+			while (!m_scheduledExecutorService.isTerminated()) {
+				try {
+					m_scheduledExecutorService.awaitTermination(1, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+			}
+
+			// do the remaining job
+			m_ackTask.run();
+		}
 	}
 
 	private class AckTask implements Runnable {
+		private AckShard m_shard;
+
 		private List<Operation> m_todos = new ArrayList<Operation>();
 
+		public AckTask(AckShard shard) {
+			m_shard = shard;
+		}
+
 		@Override
 		public void run() {
 			try {
@@ -196,7 +322,7 @@ public class DefaultAckManager implements AckManager, Initializable {
 		private void handleOperations() {
 			try {
 				if (m_todos.isEmpty()) {
-					m_opQueue.drainTo(m_todos, m_config.getAckManagerOpHandlingBatchSize());
+					m_shard.m_opQueue.drainTo(m_todos, m_config.getAckManagerOpHandlingBatchSize());
 				}
 
 				if (m_todos.isEmpty()) {
@@ -204,17 +330,21 @@ public class DefaultAckManager implements AckManager, Initializable {
 				}
 
 				for (Operation op : m_todos) {
-					ConcurrentMap<Pair<Tpp, String>, AckHolder<MessageMeta>> holder = getHolders(op.isResend());
+					AckHolder<MessageMeta> holder = m_shard.getHolders(op.isResend()).get(op.getKey());
 
 					switch (op.getType()) {
 					case ACK:
-						holder.get(op.getKey()).acked((Long) op.getData(), true);
+						for (long msgSeq : (long[]) op.getData()) {
+							holder.acked(msgSeq, true);
+						}
 						break;
 					case NACK:
-						holder.get(op.getKey()).acked((Long) op.getData(), false);
+						for (long msgSeq : (long[]) op.getData()) {
+							holder.acked(msgSeq, false);
+						}
 						break;
 					case DELIVERED:
-						holder.get(op.getKey()).delivered((List<Pair<Long, MessageMeta>>) op.getData(), op.getCreateTime());
+						holder.delivered((List<Pair<Long, MessageMeta>>) op.getData(), op.getCreateTime());
 						break;
 
 					default:
@@ -229,7 +359,7 @@ public class DefaultAckManager implements AckManager, Initializable {
 		}
 
 		private void checkHolders(boolean isResend) {
-			ConcurrentMap<Pair<Tpp, String>, AckHolder<MessageMeta>> holders = getHolders(isResend);
+			ConcurrentMap<Pair<Tpp, String>, AckHolder<MessageMeta>> holders = m_shard.getHolders(isResend);
 
 			for (Map.Entry<Pair<Tpp, String>, AckHolder<MessageMeta>> entry : holders.entrySet()) {
 				AckHolder<MessageMeta> holder = entry.getValue();
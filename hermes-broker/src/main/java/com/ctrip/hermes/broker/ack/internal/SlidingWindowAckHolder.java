@@ -0,0 +1,365 @@
+package com.ctrip.hermes.broker.ack.internal;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.unidal.tuple.Pair;
+
+import com.ctrip.hermes.core.service.SystemClockService;
+import com.ctrip.hermes.core.utils.PlexusComponentLocator;
+
+/**
+ * AckHolder keeping outstanding messages in primitive ring buffers instead of a TreeMap per batch.
+ * <p>
+ * Every delivered message gets a monotonically increasing sequence, its slot in the entry ring is
+ * <code>seq & mask</code>. Batches are kept in their own ring as [start seq, end seq) windows. An open addressing
+ * offset -> seq index makes ack lookup O(1) without boxing the offset.
+ * <p>
+ * An offset repeated within one delivery is tracked once. An offset redelivered while its earlier delivery is still
+ * outstanding is indexed to the new delivery, the earlier one is superseded and no longer holds its batch back.
+ * <p>
+ * Like DefaultAckHolder, it is not thread safe and must only be touched by the AckManager worker.
+ */
+public class SlidingWindowAckHolder<T> implements AckHolder<T> {
+
+	private final static Logger log = LoggerFactory.getLogger(SlidingWindowAckHolder.class);
+
+	private static final byte STATE_INIT = 0;
+
+	private static final byte STATE_SUCCESS = 1;
+
+	private static final byte STATE_FAIL = 2;
+
+	private static final byte STATE_SUPERSEDED = 3;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private int m_timeout;
+
+	// entries, indexed by seq & m_entryMask
+	private long[] m_entryOffsets;
+
+	private byte[] m_entryStates;
+
+	private Object[] m_entryCtxs;
+
+	private long[] m_entryBatchSeqs;
+
+	private int m_entryMask;
+
+	private long m_entryHead;
+
+	private long m_entryTail;
+
+	// batches, indexed by batch seq & m_batchMask
+	private long[] m_batchEnds;
+
+	private long[] m_batchTimes;
+
+	private int[] m_batchPendings;
+
+	private int m_batchMask;
+
+	private long m_batchHead;
+
+	private long m_batchTail;
+
+	// offset -> seq + 1, linear probing, 0 means empty slot
+	private long[] m_indexKeys;
+
+	private long[] m_indexValues;
+
+	private int m_indexMask;
+
+	private int m_indexSize;
+
+	public SlidingWindowAckHolder(int timeout) {
+		m_timeout = timeout;
+
+		m_entryOffsets = new long[INITIAL_CAPACITY];
+		m_entryStates = new byte[INITIAL_CAPACITY];
+		m_entryCtxs = new Object[INITIAL_CAPACITY];
+		m_entryBatchSeqs = new long[INITIAL_CAPACITY];
+		m_entryMask = INITIAL_CAPACITY - 1;
+
+		m_batchEnds = new long[INITIAL_CAPACITY];
+		m_batchTimes = new long[INITIAL_CAPACITY];
+		m_batchPendings = new int[INITIAL_CAPACITY];
+		m_batchMask = INITIAL_CAPACITY - 1;
+
+		m_indexKeys = new long[INITIAL_CAPACITY * 2];
+		m_indexValues = new long[INITIAL_CAPACITY * 2];
+		m_indexMask = INITIAL_CAPACITY * 2 - 1;
+	}
+
+	@Override
+	public void delivered(List<Pair<Long, T>> offsets, long develiveredTime) {
+		if (offsets == null || offsets.isEmpty()) {
+			return;
+		}
+
+		ensureEntryCapacity(offsets.size());
+		ensureBatchCapacity();
+
+		long batchSeq = m_batchTail;
+		long batchStart = m_entryTail;
+		for (Pair<Long, T> pair : offsets) {
+			long offset = pair.getKey();
+			long prevSeq = indexGet(offset);
+
+			if (prevSeq >= batchStart) {
+				// repeated in this delivery, it is acked only once
+				continue;
+			}
+			if (prevSeq >= 0) {
+				supersede(prevSeq);
+			}
+
+			long seq = m_entryTail++;
+			int slot = (int) (seq & m_entryMask);
+
+			m_entryOffsets[slot] = offset;
+			m_entryStates[slot] = STATE_INIT;
+			m_entryCtxs[slot] = pair.getValue();
+			m_entryBatchSeqs[slot] = batchSeq;
+
+			indexPut(offset, seq);
+		}
+
+		int batchSlot = (int) (batchSeq & m_batchMask);
+		m_batchEnds[batchSlot] = m_entryTail;
+		m_batchTimes[batchSlot] = develiveredTime;
+		m_batchPendings[batchSlot] = (int) (m_entryTail - batchStart);
+		m_batchTail++;
+	}
+
+	@Override
+	public void acked(long offset, boolean success) {
+		long seq = indexGet(offset);
+
+		if (seq < 0) {
+			// same as DefaultAckHolder, the batch must have been timeout in the last scan.
+			return;
+		}
+
+		int slot = (int) (seq & m_entryMask);
+		byte oldState = m_entryStates[slot];
+		m_entryStates[slot] = success ? STATE_SUCCESS : STATE_FAIL;
+		if (oldState == STATE_INIT) {
+			m_batchPendings[(int) (m_entryBatchSeqs[slot] & m_batchMask)]--;
+		}
+	}
+
+	@Override
+	public BatchResult<T> scan() {
+		EnumRange<T> failRange = null;
+		boolean done = false;
+		long doneStart = Long.MAX_VALUE;
+		long doneEnd = Long.MIN_VALUE;
+
+		while (m_batchHead < m_batchTail) {
+			int batchSlot = (int) (m_batchHead & m_batchMask);
+			if (m_batchPendings[batchSlot] != 0 && !isTimeout(m_batchTimes[batchSlot], m_timeout)) {
+				break;
+			}
+
+			long end = m_batchEnds[batchSlot];
+			doneStart = Math.min(doneStart, m_entryOffsets[(int) (m_entryHead & m_entryMask)]);
+			doneEnd = Math.max(doneEnd, m_entryOffsets[(int) ((end - 1) & m_entryMask)]);
+			done = true;
+
+			for (long seq = m_entryHead; seq < end; seq++) {
+				int slot = (int) (seq & m_entryMask);
+				long offset = m_entryOffsets[slot];
+				byte state = m_entryStates[slot];
+
+				if (state == STATE_INIT || state == STATE_FAIL) {
+					if (failRange == null) {
+						failRange = new EnumRange<>();
+					}
+					@SuppressWarnings("unchecked")
+					T ctx = (T) m_entryCtxs[slot];
+					failRange.addOffset(offset, ctx);
+
+					if (state == STATE_INIT) {
+						log.warn("message {} didn't receive ack or nack before timeout, treat as nack", offset);
+					} else {
+						log.warn("message {} received nack ", offset);
+					}
+				}
+
+				indexRemove(offset, seq);
+				m_entryCtxs[slot] = null;
+			}
+
+			m_entryHead = end;
+			m_batchHead++;
+		}
+
+		return done ? new BatchResult<>(failRange, new ContinuousRange(doneStart, doneEnd)) : null;
+	}
+
+	// the redelivery decides the message's result, the earlier delivery is neither acked nor nacked
+	private void supersede(long seq) {
+		int slot = (int) (seq & m_entryMask);
+		if (m_entryStates[slot] == STATE_INIT) {
+			m_entryStates[slot] = STATE_SUPERSEDED;
+			m_batchPendings[(int) (m_entryBatchSeqs[slot] & m_batchMask)]--;
+		}
+	}
+
+	protected boolean isTimeout(long start, int timeout) {
+		return PlexusComponentLocator.lookup(SystemClockService.class).now() > start + timeout;
+	}
+
+	private void ensureEntryCapacity(int count) {
+		long required = m_entryTail - m_entryHead + count;
+		if (required <= m_entryOffsets.length) {
+			return;
+		}
+
+		int capacity = m_entryOffsets.length;
+		while (capacity < required) {
+			capacity <<= 1;
+		}
+		int mask = capacity - 1;
+
+		long[] offsets = new long[capacity];
+		byte[] states = new byte[capacity];
+		Object[] ctxs = new Object[capacity];
+		long[] batchSeqs = new long[capacity];
+		for (long seq = m_entryHead; seq < m_entryTail; seq++) {
+			int oldSlot = (int) (seq & m_entryMask);
+			int newSlot = (int) (seq & mask);
+			offsets[newSlot] = m_entryOffsets[oldSlot];
+			states[newSlot] = m_entryStates[oldSlot];
+			ctxs[newSlot] = m_entryCtxs[oldSlot];
+			batchSeqs[newSlot] = m_entryBatchSeqs[oldSlot];
+		}
+
+		m_entryOffsets = offsets;
+		m_entryStates = states;
+		m_entryCtxs = ctxs;
+		m_entryBatchSeqs = batchSeqs;
+		m_entryMask = mask;
+
+		// keep index load factor under 0.5 for the grown window
+		resizeIndex(capacity * 2);
+	}
+
+	private void ensureBatchCapacity() {
+		if (m_batchTail - m_batchHead < m_batchEnds.length) {
+			return;
+		}
+
+		int capacity = m_batchEnds.length << 1;
+		int mask = capacity - 1;
+
+		long[] ends = new long[capacity];
+		long[] times = new long[capacity];
+		int[] pendings = new int[capacity];
+		for (long seq = m_batchHead; seq < m_batchTail; seq++) {
+			int oldSlot = (int) (seq & m_batchMask);
+			int newSlot = (int) (seq & mask);
+			ends[newSlot] = m_batchEnds[oldSlot];
+			times[newSlot] = m_batchTimes[oldSlot];
+			pendings[newSlot] = m_batchPendings[oldSlot];
+		}
+
+		m_batchEnds = ends;
+		m_batchTimes = times;
+		m_batchPendings = pendings;
+		m_batchMask = mask;
+	}
+
+	private static int hash(long offset) {
+		long h = offset * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private long indexGet(long offset) {
+		int pos = hash(offset) & m_indexMask;
+		while (m_indexValues[pos] != 0) {
+			if (m_indexKeys[pos] == offset) {
+				return m_indexValues[pos] - 1;
+			}
+			pos = (pos + 1) & m_indexMask;
+		}
+		return -1;
+	}
+
+	private void indexPut(long offset, long seq) {
+		int pos = hash(offset) & m_indexMask;
+		while (m_indexValues[pos] != 0) {
+			if (m_indexKeys[pos] == offset) {
+				m_indexValues[pos] = seq + 1;
+				return;
+			}
+			pos = (pos + 1) & m_indexMask;
+		}
+		m_indexKeys[pos] = offset;
+		m_indexValues[pos] = seq + 1;
+		m_indexSize++;
+	}
+
+	private void indexRemove(long offset, long seq) {
+		int pos = hash(offset) & m_indexMask;
+		while (m_indexValues[pos] != 0) {
+			if (m_indexKeys[pos] == offset) {
+				if (m_indexValues[pos] == seq + 1) {
+					shiftIndexBack(pos);
+					m_indexSize--;
+				}
+				return;
+			}
+			pos = (pos + 1) & m_indexMask;
+		}
+	}
+
+	// backward shift deletion, keeps probe chains intact without tombstones
+	private void shiftIndexBack(int pos) {
+		int gap = pos;
+		int cur = (pos + 1) & m_indexMask;
+		while (m_indexValues[cur] != 0) {
+			int home = hash(m_indexKeys[cur]) & m_indexMask;
+			if (((cur - home) & m_indexMask) >= ((cur - gap) & m_indexMask)) {
+				m_indexKeys[gap] = m_indexKeys[cur];
+				m_indexValues[gap] = m_indexValues[cur];
+				gap = cur;
+			}
+			cur = (cur + 1) & m_indexMask;
+		}
+		m_indexKeys[gap] = 0;
+		m_indexValues[gap] = 0;
+	}
+
+	private void resizeIndex(int capacity) {
+		if (capacity <= m_indexKeys.length) {
+			return;
+		}
+
+		long[] oldKeys = m_indexKeys;
+		long[] oldValues = m_indexValues;
+
+		m_indexKeys = new long[capacity];
+		m_indexValues = new long[capacity];
+		m_indexMask = capacity - 1;
+		m_indexSize = 0;
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != 0) {
+				indexPut(oldKeys[i], oldValues[i] - 1);
+			}
+		}
+	}
+
+	int outstanding() {
+		return (int) (m_entryTail - m_entryHead);
+	}
+
+	int indexSize() {
+		return m_indexSize;
+	}
+
+}
@@ -21,15 +21,18 @@ import com.ctrip.hermes.broker.longpolling.LongPollingService;
 import com.ctrip.hermes.broker.queue.DefaultMessageQueueManager;
 import com.ctrip.hermes.broker.queue.MessageQueueManager;
 import com.ctrip.hermes.broker.queue.MessageQueuePartitionFactory;
+import com.ctrip.hermes.broker.queue.storage.file.FileMessageQueueStorage;
 import com.ctrip.hermes.broker.queue.storage.kafka.KafkaMessageQueueStorage;
 import com.ctrip.hermes.broker.queue.storage.mysql.MySQLMessageQueueStorage;
 import com.ctrip.hermes.broker.queue.storage.mysql.dal.HermesTableProvider;
 import com.ctrip.hermes.broker.queue.storage.mysql.dal.MessageDataSourceProvider;
 import com.ctrip.hermes.broker.registry.DefaultBrokerRegistry;
+import com.ctrip.hermes.broker.selector.DefaultSelector;
 import com.ctrip.hermes.broker.shutdown.ShutdownRequestMonitor;
 import com.ctrip.hermes.broker.transport.NettyServer;
 import com.ctrip.hermes.broker.transport.NettyServerConfig;
 import com.ctrip.hermes.broker.transport.command.processor.AckMessageCommandProcessor;
+import com.ctrip.hermes.broker.transport.command.processor.FetchMessageCommandProcessor;
 import com.ctrip.hermes.broker.transport.command.processor.PullMessageCommandProcessor;
 import com.ctrip.hermes.broker.transport.command.processor.SendMessageCommandProcessor;
 import com.ctrip.hermes.broker.zk.ZKClient;
@@ -66,12 +69,19 @@ public class ComponentsConfigurator extends AbstractJdbcResourceConfigurator {
 		      .req(BrokerConfig.class)//
 		      .req(MetaService.class)//
 		);
+		all.add(C(CommandProcessor.class, CommandType.MESSAGE_FETCH.toString(), FetchMessageCommandProcessor.class)//
+		      .req(LongPollingService.class)//
+		      .req(BrokerLeaseContainer.class)//
+		      .req(BrokerConfig.class)//
+		      .req(MetaService.class)//
+		);
 		all.add(C(CommandProcessor.class, CommandType.MESSAGE_ACK.toString(), AckMessageCommandProcessor.class)//
 		      .req(AckManager.class) //
 		      .req(BizLogger.class) //
 		);
 
 		all.add(A(DefaultLongPollingService.class));
+		all.add(A(DefaultSelector.class));
 		all.add(A(BrokerLeaseManager.class));
 		all.add(A(BrokerLeaseContainer.class));
 
@@ -80,6 +90,7 @@ public class ComponentsConfigurator extends AbstractJdbcResourceConfigurator {
 		all.add(A(DefaultAckManager.class));
 		all.add(A(MySQLMessageQueueStorage.class));
 		all.add(A(KafkaMessageQueueStorage.class));
+		all.add(A(FileMessageQueueStorage.class));
 
 		all.add(C(TableProvider.class, "message-priority", HermesTableProvider.class) //
 		      .req(MetaService.class));
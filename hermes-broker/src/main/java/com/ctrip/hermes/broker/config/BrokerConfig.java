@@ -20,6 +20,8 @@ public class BrokerConfig {
 
 	private static final int DEFAULT_SHUTDOWN_PORT = 4888;
 
+	private static final String DEFAULT_FILE_STORAGE_DIR = "/opt/data/hermes/storage";
+
 	public String getSessionId() {
 		return m_sessionId;
 	}
@@ -40,8 +42,16 @@ public class BrokerConfig {
 		return 3;
 	}
 
+	/**
+	 * Parked pull requests are woken up by new writes, this is only the interval to re-check for messages which do not
+	 * come with a write, like resend ones.
+	 */
 	public long getLongPollingCheckIntervalMillis() {
-		return 100L;
+		return 1000L;
+	}
+
+	public long getLongPollingTimerTickMillis() {
+		return 10L;
 	}
 
 	public int getDumperBatchSize() {
@@ -60,10 +70,21 @@ public class BrokerConfig {
 		return 5000;
 	}
 
+	/**
+	 * Total size of operation queues, split evenly between ack manager shards.
+	 */
 	public int getAckManagerOpQueueSize() {
 		return 500000;
 	}
 
+	public int getAckManagerShardCount() {
+		return 4;
+	}
+
+	public boolean isAckHolderSlidingWindowEnabled() {
+		return true;
+	}
+
 	public int getLeaseContainerThreadCount() {
 		return 10;
 	}
@@ -85,6 +106,29 @@ public class BrokerConfig {
 		}
 	}
 
+	public boolean isNettyNativeEpollEnabled() {
+		return !"false".equalsIgnoreCase(System.getProperty("nettyNativeEpoll", "true"));
+	}
+
+	public int getNettyServerBossThreadCount() {
+		return 1;
+	}
+
+	/**
+	 * 0 for netty's default, twice the number of processors.
+	 */
+	public int getNettyServerWorkerThreadCount() {
+		return 0;
+	}
+
+	public int getNettyServerWriteBufferHighWaterMark() {
+		return 1024 * 1024;
+	}
+
+	public int getNettyServerWriteBufferLowWaterMark() {
+		return 512 * 1024;
+	}
+
 	public int getClientMaxIdleSeconds() {
 		return 3600;
 	}
@@ -97,4 +141,48 @@ public class BrokerConfig {
 			return Integer.valueOf(port);
 		}
 	}
+
+	public boolean isMessageQueueTailCacheEnabled() {
+		return true;
+	}
+
+	public long getMessageQueueTailCacheSizeBytes() {
+		return 16 * 1024 * 1024L;
+	}
+
+	public int getMessageQueueTailCacheMaxMessages() {
+		return 100000;
+	}
+
+	public String getFileStorageBaseDir() {
+		return System.getProperty("brokerFileStorageDir", DEFAULT_FILE_STORAGE_DIR);
+	}
+
+	public int getFileStorageSegmentSize() {
+		return 128 * 1024 * 1024;
+	}
+
+	public int getFileStorageIndexIntervalBytes() {
+		return 4096;
+	}
+
+	public boolean isFileStorageFlushOnAppend() {
+		return true;
+	}
+
+	public long getFileStorageFlushIntervalMillis() {
+		return 1000L;
+	}
+
+	public long getFileStorageRetentionMillis() {
+		return 3 * 24 * 3600 * 1000L;
+	}
+
+	/**
+	 * Bytes of compressed ranges kept for pulls of compressed topics, so groups pulling the same range share one
+	 * compression. 0 disables it.
+	 */
+	public long getFileStorageCompressedCacheBytes() {
+		return 32 * 1024 * 1024L;
+	}
 }
@@ -9,8 +9,10 @@ import com.ctrip.hermes.broker.ack.AckManager;
 import com.ctrip.hermes.broker.config.BrokerConfig;
 import com.ctrip.hermes.broker.queue.MessageQueueManager;
 import com.ctrip.hermes.core.message.TppConsumerMessageBatch;
+import com.ctrip.hermes.core.meta.MetaService;
 import com.ctrip.hermes.core.service.SystemClockService;
 import com.ctrip.hermes.core.transport.command.PullMessageResultCommand;
+import com.ctrip.hermes.core.transport.compress.Compression;
 
 /**
  * @author Leo Liang(jhliang@ctrip.com)
@@ -29,18 +31,45 @@ public abstract class AbstractLongPollingService implements LongPollingService {
 	@Inject
 	protected SystemClockService m_systemClockService;
 
+	@Inject
+	protected MetaService m_metaService;
+
 	protected AtomicBoolean m_stopped = new AtomicBoolean(false);
 
 	protected void response(PullMessageTask pullTask, List<TppConsumerMessageBatch> batches) {
 		PullMessageResultCommand cmd = new PullMessageResultCommand();
 		if (batches != null) {
 			cmd.addBatches(batches);
+			// clients older than compression don't announce it and get uncompressed results
+			if (!batches.isEmpty() && pullTask.isCompressionAccepted()) {
+				cmd.setCompression(compressionOf(batches));
+			}
 		}
+		cmd.setHeldMillis(pullTask.getHeldMillis());
 		cmd.getHeader().setCorrelationId(pullTask.getCorrelationId());
 
 		pullTask.getChannel().writeAndFlush(cmd);
 	}
 
+	/**
+	 * A result carries one compression, batches of topics configured differently are not compressed.
+	 */
+	private Compression compressionOf(List<TppConsumerMessageBatch> batches) {
+		Compression compression = null;
+		String lastTopic = null;
+		for (TppConsumerMessageBatch batch : batches) {
+			if (!batch.getTopic().equals(lastTopic)) {
+				lastTopic = batch.getTopic();
+				Compression topicCompression = Compression.valueOf(m_metaService.findTopicByName(lastTopic));
+				if (compression != null && compression != topicCompression) {
+					return Compression.NONE;
+				}
+				compression = topicCompression;
+			}
+		}
+		return compression == null ? Compression.NONE : compression;
+	}
+
 	@Override
 	public void stop() {
 		if (m_stopped.compareAndSet(false, true)) {
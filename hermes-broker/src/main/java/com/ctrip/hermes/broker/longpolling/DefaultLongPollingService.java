@@ -1,8 +1,14 @@
 package com.ctrip.hermes.broker.longpolling;
 
 import io.netty.channel.Channel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -15,6 +21,8 @@ import org.unidal.lookup.annotation.Inject;
 import org.unidal.lookup.annotation.Named;
 
 import com.ctrip.hermes.broker.queue.MessageQueueCursor;
+import com.ctrip.hermes.broker.selector.Selector;
+import com.ctrip.hermes.broker.selector.TpgWatcher;
 import com.ctrip.hermes.core.bo.Tpg;
 import com.ctrip.hermes.core.bo.Tpp;
 import com.ctrip.hermes.core.lease.Lease;
@@ -26,6 +34,10 @@ import com.ctrip.hermes.core.transport.netty.NettyUtils;
 import com.ctrip.hermes.core.utils.HermesThreadFactory;
 
 /**
+ * Pull tasks with nothing to read are parked on the {@link Selector} and executed again once the dumper publishes a
+ * write to any of their partitions. A wheel timer re-checks parked tasks periodically and answers them when they
+ * expire.
+ *
  * @author Leo Liang(jhliang@ctrip.com)
  *
  */
@@ -35,31 +47,60 @@ public class DefaultLongPollingService extends AbstractLongPollingService implem
 	@Inject
 	private BizLogger m_bizLogger;
 
+	@Inject
+	private Selector m_selector;
+
 	private static final Logger log = LoggerFactory.getLogger(DefaultLongPollingService.class);
 
 	private ScheduledExecutorService m_scheduledThreadPool;
 
+	private Timer m_timer;
+
 	@Override
 	public void initialize() throws InitializationException {
 		m_scheduledThreadPool = Executors.newScheduledThreadPool(m_config.getLongPollingServiceThreadCount(),
 		      HermesThreadFactory.create("LongPollingService", false));
+		m_timer = new HashedWheelTimer(HermesThreadFactory.create("LongPollingTimer", true),
+		      m_config.getLongPollingTimerTickMillis(), TimeUnit.MILLISECONDS);
 	}
 
 	@Override
 	public void schedulePush(Tpg tpg, long correlationId, int batchSize, Channel channel, long expireTime,
-	      Lease brokerLease) {
+	      Lease brokerLease, boolean compressionAccepted) {
 		if (log.isDebugEnabled()) {
 			log.debug("Schedule push for client(correlationId={}, topic={}, partition={}, groupId={})", correlationId,
 			      tpg.getTopic(), tpg.getPartition(), tpg.getGroupId());
 		}
 
 		final PullMessageTask pullMessageTask = new PullMessageTask(tpg, correlationId, batchSize, channel, expireTime,
-		      brokerLease);
+		      brokerLease, compressionAccepted);
 
 		if (m_stopped.get()) {
 			response(pullMessageTask, null);
+			return;
+		}
+
+		submit(pullMessageTask);
+	}
+
+	@Override
+	public void scheduleFetch(List<PullEntry> entries, long correlationId, Channel channel, long expireTime,
+	      boolean compressionAccepted) {
+		if (log.isDebugEnabled()) {
+			log.debug("Schedule fetch for client(correlationId={}, partitions={})", correlationId, entries.size());
+		}
+
+		PullMessageTask pullMessageTask = new PullMessageTask(entries, correlationId, channel, expireTime, compressionAccepted);
+
+		if (m_stopped.get() || entries.isEmpty()) {
+			response(pullMessageTask, null);
+			return;
 		}
 
+		submit(pullMessageTask);
+	}
+
+	private void submit(final PullMessageTask pullMessageTask) {
 		m_scheduledThreadPool.submit(new Runnable() {
 
 			@Override
@@ -75,33 +116,38 @@ public class DefaultLongPollingService extends AbstractLongPollingService implem
 			return;
 		}
 		try {
-			// skip expired task
-			if (pullMessageTask.getExpireTime() < m_systemClockService.now()) {
+			// answer expired task with empty result, so the client can pull again at once
+			if (pullMessageTask.getExpireTime() <= m_systemClockService.now()) {
 				if (log.isDebugEnabled()) {
-					log.debug("Client expired(correlationId={}, topic={}, partition={}, groupId={})", pullMessageTask
-					      .getCorrelationId(), pullMessageTask.getTpg().getTopic(), pullMessageTask.getTpg().getPartition(),
-					      pullMessageTask.getTpg().getGroupId());
+					log.debug("Client expired(correlationId={}, {})", pullMessageTask.getCorrelationId(),
+					      describe(pullMessageTask));
 				}
+				response(pullMessageTask, null);
 				return;
 			}
 
-			if (!pullMessageTask.getBrokerLease().isExpired()) {
-				if (!queryAndResponseData(pullMessageTask)) {
-					if (!m_stopped.get()) {
-						m_scheduledThreadPool.schedule(new Runnable() {
+			List<PullEntry> leasedEntries = new ArrayList<>(pullMessageTask.getEntries().size());
+			for (PullEntry entry : pullMessageTask.getEntries()) {
+				if (!entry.getBrokerLease().isExpired()) {
+					leasedEntries.add(entry);
+				}
+			}
 
-							@Override
-							public void run() {
-								executeTask(pullMessageTask);
-							}
-						}, m_config.getLongPollingCheckIntervalMillis(), TimeUnit.MILLISECONDS);
+			if (!leasedEntries.isEmpty()) {
+				// taken before querying, so a write landing after the query still wakes the task up
+				List<List<Long>> writeOffsets = new ArrayList<>(leasedEntries.size());
+				for (PullEntry entry : leasedEntries) {
+					writeOffsets.add(m_selector.getWriteOffsets(entry.getTpg()));
+				}
+				if (!queryAndResponseData(pullMessageTask, leasedEntries)) {
+					if (!m_stopped.get()) {
+						park(pullMessageTask, leasedEntries, writeOffsets);
 					}
 				}
 			} else {
 				if (log.isDebugEnabled()) {
-					log.debug("Broker no lease for this request(correlationId={}, topic={}, partition={}, groupId={})",
-					      pullMessageTask.getCorrelationId(), pullMessageTask.getTpg().getTopic(), pullMessageTask.getTpg()
-					            .getPartition(), pullMessageTask.getTpg().getGroupId());
+					log.debug("Broker no lease for this request(correlationId={}, {})", pullMessageTask.getCorrelationId(),
+					      describe(pullMessageTask));
 				}
 				// no lease, return empty cmd
 				response(pullMessageTask, null);
@@ -111,36 +157,101 @@ public class DefaultLongPollingService extends AbstractLongPollingService implem
 		}
 	}
 
-	private boolean queryAndResponseData(PullMessageTask pullTask) {
-		Tpg tpg = pullTask.getTpg();
+	private void park(final PullMessageTask pullMessageTask, List<PullEntry> entries, List<List<Long>> writeOffsets) {
+		long now = m_systemClockService.now();
+		final long parkId = pullMessageTask.park(now);
 
-		MessageQueueCursor cursor = m_queueManager.getCursor(tpg, pullTask.getBrokerLease());
+		long delay = Math.min(pullMessageTask.getExpireTime() - now, m_config.getLongPollingCheckIntervalMillis());
 
-		if (cursor == null) {
-			return false;
+		final List<TpgWatcher> watchers = new CopyOnWriteArrayList<>();
+
+		final Timeout timeout = m_timer.newTimeout(new TimerTask() {
+
+			@Override
+			public void run(Timeout timeout) throws Exception {
+				if (pullMessageTask.unpark(parkId, m_systemClockService.now())) {
+					cancel(watchers);
+					// expired tasks are answered by executeTask
+					submit(pullMessageTask);
+				}
+			}
+		}, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+
+		Runnable wakeup = new Runnable() {
+
+			@Override
+			public void run() {
+				if (pullMessageTask.unpark(parkId, m_systemClockService.now())) {
+					timeout.cancel();
+					cancel(watchers);
+					submit(pullMessageTask);
+				}
+			}
+		};
+		for (int i = 0; i < entries.size(); i++) {
+			watchers.add(m_selector.registerReadOp(entries.get(i).getTpg(), writeOffsets.get(i), wakeup));
+		}
+
+		// the timer or another watcher may have fired before all watchers were known
+		if (!pullMessageTask.isParked(parkId)) {
+			cancel(watchers);
+		}
+	}
+
+	private void cancel(List<TpgWatcher> watchers) {
+		for (TpgWatcher watcher : watchers) {
+			m_selector.cancel(watcher);
 		}
+	}
 
-		List<TppConsumerMessageBatch> batches = null;
+	private boolean queryAndResponseData(PullMessageTask pullTask, List<PullEntry> entries) {
+		List<TppConsumerMessageBatch> allBatches = new ArrayList<>();
+		String ip = null;
 
-		batches = cursor.next(pullTask.getBatchSize());
+		for (PullEntry entry : entries) {
+			Tpg tpg = entry.getTpg();
 
-		if (batches != null && !batches.isEmpty()) {
+			MessageQueueCursor cursor = m_queueManager.getCursor(tpg, entry.getBrokerLease());
 
-			String ip = NettyUtils.parseChannelRemoteAddr(pullTask.getChannel(), false);
-			for (TppConsumerMessageBatch batch : batches) {
-				m_ackManager.delivered(new Tpp(batch.getTopic(), batch.getPartition(), batch.isPriority()),
-				      tpg.getGroupId(), batch.isResend(), batch.getMessageMetas());
+			if (cursor == null) {
+				continue;
+			}
+
+			List<TppConsumerMessageBatch> batches = cursor.next(entry.getBatchSize());
+
+			if (batches != null && !batches.isEmpty()) {
+				if (ip == null) {
+					ip = NettyUtils.parseChannelRemoteAddr(pullTask.getChannel(), false);
+				}
+				for (TppConsumerMessageBatch batch : batches) {
+					m_ackManager.delivered(new Tpp(batch.getTopic(), batch.getPartition(), batch.isPriority()),
+					      tpg.getGroupId(), batch.isResend(), batch.getMessageMetas());
 
-				bizLogDelivered(ip, batch.getMessageMetas(), tpg);
+					bizLogDelivered(ip, batch.getMessageMetas(), tpg);
+				}
+				allBatches.addAll(batches);
 			}
+		}
 
-			response(pullTask, batches);
+		if (!allBatches.isEmpty()) {
+			response(pullTask, allBatches);
 			return true;
 		} else {
 			return false;
 		}
 	}
 
+	private String describe(PullMessageTask pullMessageTask) {
+		List<PullEntry> entries = pullMessageTask.getEntries();
+		if (entries.size() == 1) {
+			Tpg tpg = entries.get(0).getTpg();
+			return String.format("topic=%s, partition=%s, groupId=%s", tpg.getTopic(), tpg.getPartition(),
+			      tpg.getGroupId());
+		} else {
+			return String.format("partitions=%s", entries.size());
+		}
+	}
+
 	private void bizLogDelivered(String ip, List<MessageMeta> metas, Tpg tpg) {
 		for (MessageMeta meta : metas) {
 			BizEvent event = new BizEvent("Message.Delivered");
@@ -155,6 +266,7 @@ public class DefaultLongPollingService extends AbstractLongPollingService implem
 
 	@Override
 	protected void doStop() {
+		m_timer.stop();
 		m_scheduledThreadPool.shutdown();
 	}
 }
@@ -2,6 +2,8 @@ package com.ctrip.hermes.broker.longpolling;
 
 import io.netty.channel.Channel;
 
+import java.util.List;
+
 import com.ctrip.hermes.core.bo.Tpg;
 import com.ctrip.hermes.core.lease.Lease;
 
@@ -11,7 +13,18 @@ import com.ctrip.hermes.core.lease.Lease;
  */
 public interface LongPollingService {
 
-	void schedulePush(Tpg tpg, long correlationId, int batchSize, Channel channel, long expireTime, Lease brokerLease);
+	/**
+	 * @param compressionAccepted
+	 *           whether the client can decompress results, results of compressed topics are sent uncompressed if not
+	 */
+	void schedulePush(Tpg tpg, long correlationId, int batchSize, Channel channel, long expireTime, Lease brokerLease,
+	      boolean compressionAccepted);
+
+	/**
+	 * Like {@link #schedulePush}, but for many topic-partition-groups answered with one result.
+	 */
+	void scheduleFetch(List<PullEntry> entries, long correlationId, Channel channel, long expireTime,
+	      boolean compressionAccepted);
 
 	void stop();
 }
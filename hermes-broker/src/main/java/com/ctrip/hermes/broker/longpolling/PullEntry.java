@@ -0,0 +1,34 @@
+package com.ctrip.hermes.broker.longpolling;
+
+import com.ctrip.hermes.core.bo.Tpg;
+import com.ctrip.hermes.core.lease.Lease;
+
+/**
+ * One topic-partition-group of a pull, with the broker lease it is served under.
+ */
+public class PullEntry {
+	private Tpg m_tpg;
+
+	private int m_batchSize;
+
+	private Lease m_brokerLease;
+
+	public PullEntry(Tpg tpg, int batchSize, Lease brokerLease) {
+		m_tpg = tpg;
+		m_batchSize = batchSize;
+		m_brokerLease = brokerLease;
+	}
+
+	public Tpg getTpg() {
+		return m_tpg;
+	}
+
+	public int getBatchSize() {
+		return m_batchSize;
+	}
+
+	public Lease getBrokerLease() {
+		return m_brokerLease;
+	}
+
+}
@@ -2,54 +2,99 @@ package com.ctrip.hermes.broker.longpolling;
 
 import io.netty.channel.Channel;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
 import com.ctrip.hermes.core.bo.Tpg;
 import com.ctrip.hermes.core.lease.Lease;
 
+/**
+ * A pull of one or more topic-partition-groups, answered as soon as any of them has messages.
+ */
 class PullMessageTask {
-	private Tpg m_tpg;
+	private List<PullEntry> m_entries;
 
 	private long m_correlationId;
 
-	private int m_batchSize;
-
 	private Channel m_channel;
 
 	private long m_expireTime;
 
-	private Lease m_brokerLease;
+	private boolean m_compressionAccepted;
+
+	// id of the current parking, 0 if the task is not parked
+	private AtomicLong m_parkedId = new AtomicLong(0);
+
+	private volatile long m_lastParkId = 0;
+
+	private volatile long m_parkTime;
+
+	// time spent parked waiting for messages, answers report it so clients can tell it from round trip time
+	private volatile long m_heldMillis = 0;
 
 	public PullMessageTask(Tpg tpg, long correlationId, int batchSize, Channel channel, long expireTime,
-	      Lease brokerLease) {
-		m_tpg = tpg;
+	      Lease brokerLease, boolean compressionAccepted) {
+		this(Arrays.asList(new PullEntry(tpg, batchSize, brokerLease)), correlationId, channel, expireTime,
+		      compressionAccepted);
+	}
+
+	public PullMessageTask(List<PullEntry> entries, long correlationId, Channel channel, long expireTime,
+	      boolean compressionAccepted) {
+		m_entries = entries;
 		m_correlationId = correlationId;
-		m_batchSize = batchSize;
 		m_channel = channel;
 		m_expireTime = expireTime;
-		m_brokerLease = brokerLease;
+		m_compressionAccepted = compressionAccepted;
 	}
 
 	public long getExpireTime() {
 		return m_expireTime;
 	}
 
-	public Tpg getTpg() {
-		return m_tpg;
+	public List<PullEntry> getEntries() {
+		return m_entries;
 	}
 
 	public long getCorrelationId() {
 		return m_correlationId;
 	}
 
-	public int getBatchSize() {
-		return m_batchSize;
-	}
-
 	public Channel getChannel() {
 		return m_channel;
 	}
 
-	public Lease getBrokerLease() {
-		return m_brokerLease;
+	public boolean isCompressionAccepted() {
+		return m_compressionAccepted;
+	}
+
+	/**
+	 * @return id to unpark with, wake-ups of earlier parkings can not unpark this one
+	 */
+	public long park(long now) {
+		long id = ++m_lastParkId;
+		m_parkTime = now;
+		m_parkedId.set(id);
+		return id;
+	}
+
+	public boolean isParked(long parkId) {
+		return m_parkedId.get() == parkId;
+	}
+
+	/**
+	 * @return true if the caller won the parked task and may execute it
+	 */
+	public boolean unpark(long parkId, long now) {
+		if (m_parkedId.compareAndSet(parkId, 0)) {
+			m_heldMillis += Math.max(now - m_parkTime, 0L);
+			return true;
+		}
+		return false;
+	}
+
+	public long getHeldMillis() {
+		return m_heldMillis;
 	}
 
-}
\ No newline at end of file
+}
@@ -10,7 +10,9 @@ import com.ctrip.hermes.core.bo.Tpg;
 import com.ctrip.hermes.core.bo.Tpp;
 import com.ctrip.hermes.core.lease.Lease;
 import com.ctrip.hermes.core.message.TppConsumerMessageBatch.MessageMeta;
+import com.ctrip.hermes.core.message.codec.MessageCodec;
 import com.ctrip.hermes.core.meta.MetaService;
+import com.ctrip.hermes.core.utils.PlexusComponentLocator;
 
 /**
  * @author Leo Liang(jhliang@ctrip.com)
@@ -22,21 +24,46 @@ public class DefaultMessageQueue extends AbstractMessageQueue {
 
 	private BrokerConfig m_config;
 
+	private MessageQueueTailCache m_priorityTailCache;
+
+	private MessageQueueTailCache m_nonPriorityTailCache;
+
 	public DefaultMessageQueue(String topic, int partition, MessageQueueStorage storage, MetaService metaService,
-	      BrokerConfig config) {
+	      BrokerConfig config, boolean tailCacheEnabled) {
 		super(topic, partition, storage);
 		m_metaService = metaService;
 		m_config = config;
+
+		if (tailCacheEnabled) {
+			MessageCodec codec = PlexusComponentLocator.lookup(MessageCodec.class);
+			m_priorityTailCache = new MessageQueueTailCache(new Tpp(topic, partition, true),
+			      m_config.getMessageQueueTailCacheSizeBytes(), m_config.getMessageQueueTailCacheMaxMessages(), codec);
+			m_nonPriorityTailCache = new MessageQueueTailCache(new Tpp(topic, partition, false),
+			      m_config.getMessageQueueTailCacheSizeBytes(), m_config.getMessageQueueTailCacheMaxMessages(), codec);
+		}
 	}
 
 	@Override
 	protected MessageQueueDumper createDumper(Lease lease) {
-		return new DefaultMessageQueueDumper(m_topic, m_partition, m_storage, m_config, lease);
+		// messages may have been appended by other brokers while we did not hold the lease
+		clearTailCaches();
+		return new DefaultMessageQueueDumper(m_topic, m_partition, m_storage, m_config, lease, m_priorityTailCache,
+		      m_nonPriorityTailCache);
 	}
 
 	@Override
 	protected MessageQueueCursor create(String groupId, Lease lease) {
-		return new DefaultMessageQueueCursor(new Tpg(m_topic, m_partition, groupId), lease, m_storage, m_metaService);
+		return new DefaultMessageQueueCursor(new Tpg(m_topic, m_partition, groupId), lease, m_storage, m_metaService,
+		      m_priorityTailCache, m_nonPriorityTailCache);
+	}
+
+	private void clearTailCaches() {
+		if (m_priorityTailCache != null) {
+			m_priorityTailCache.clear();
+		}
+		if (m_nonPriorityTailCache != null) {
+			m_nonPriorityTailCache.clear();
+		}
 	}
 
 	@Override
@@ -51,7 +78,7 @@ public class DefaultMessageQueue extends AbstractMessageQueue {
 
 	@Override
 	protected void doStop() {
-
+		clearTailCaches();
 	}
 
 }
@@ -3,6 +3,7 @@ package com.ctrip.hermes.broker.queue;
 import com.ctrip.hermes.broker.queue.storage.MessageQueueStorage;
 import com.ctrip.hermes.broker.queue.storage.MessageQueueStorage.FetchResult;
 import com.ctrip.hermes.core.bo.Tpg;
+import com.ctrip.hermes.core.bo.Tpp;
 import com.ctrip.hermes.core.lease.Lease;
 import com.ctrip.hermes.core.meta.MetaService;
 
@@ -13,9 +14,16 @@ import com.ctrip.hermes.core.meta.MetaService;
 public class DefaultMessageQueueCursor extends AbstractMessageQueueCursor {
 	private MessageQueueStorage m_storage;
 
-	public DefaultMessageQueueCursor(Tpg tpg, Lease lease, MessageQueueStorage storage, MetaService metaService) {
+	private MessageQueueTailCache m_priorityTailCache;
+
+	private MessageQueueTailCache m_nonPriorityTailCache;
+
+	public DefaultMessageQueueCursor(Tpg tpg, Lease lease, MessageQueueStorage storage, MetaService metaService,
+	      MessageQueueTailCache priorityTailCache, MessageQueueTailCache nonPriorityTailCache) {
 		super(tpg, lease, metaService);
 		m_storage = storage;
+		m_priorityTailCache = priorityTailCache;
+		m_nonPriorityTailCache = nonPriorityTailCache;
 	}
 
 	@Override
@@ -54,7 +62,7 @@ public class DefaultMessageQueueCursor extends AbstractMessageQueueCursor {
 	@Override
 	protected FetchResult fetchPriortyMessages(int batchSize) {
 		if (!m_stopped.get()) {
-			return m_storage.fetchMessages(m_priorityTpp, m_priorityOffset, batchSize);
+			return fetchMessages(m_priorityTailCache, m_priorityTpp, m_priorityOffset, batchSize);
 		} else {
 			return null;
 		}
@@ -63,12 +71,23 @@ public class DefaultMessageQueueCursor extends AbstractMessageQueueCursor {
 	@Override
 	protected FetchResult fetchNonPriortyMessages(int batchSize) {
 		if (!m_stopped.get()) {
-			return m_storage.fetchMessages(m_nonPriorityTpp, m_nonPriorityOffset, batchSize);
+			return fetchMessages(m_nonPriorityTailCache, m_nonPriorityTpp, m_nonPriorityOffset, batchSize);
 		} else {
 			return null;
 		}
 	}
 
+	private FetchResult fetchMessages(MessageQueueTailCache tailCache, Tpp tpp, Object offset, int batchSize) {
+		if (tailCache != null) {
+			FetchResult result = tailCache.fetch(offset, batchSize);
+			if (result != null) {
+				return result;
+			}
+		}
+
+		return m_storage.fetchMessages(tpp, offset, batchSize);
+	}
+
 	@Override
 	protected FetchResult fetchResendMessages(int batchSize) {
 		if (!m_stopped.get()) {
@@ -1,6 +1,11 @@
 package com.ctrip.hermes.broker.queue;
 
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
@@ -9,11 +14,13 @@ import org.unidal.tuple.Pair;
 
 import com.ctrip.hermes.broker.config.BrokerConfig;
 import com.ctrip.hermes.broker.queue.storage.MessageQueueStorage;
+import com.ctrip.hermes.broker.selector.Selector;
 import com.ctrip.hermes.core.bo.Tpp;
 import com.ctrip.hermes.core.lease.Lease;
 import com.ctrip.hermes.core.log.BizEvent;
 import com.ctrip.hermes.core.message.PartialDecodedMessage;
 import com.ctrip.hermes.core.transport.command.SendMessageCommand.MessageBatchWithRawData;
+import com.ctrip.hermes.core.utils.PlexusComponentLocator;
 import com.google.common.base.Function;
 import com.google.common.collect.Collections2;
 
@@ -27,18 +34,35 @@ public class DefaultMessageQueueDumper extends AbstractMessageQueueDumper {
 
 	private MessageQueueStorage m_storage;
 
+	private MessageQueueTailCache m_priorityTailCache;
+
+	private MessageQueueTailCache m_nonPriorityTailCache;
+
+	private Selector m_selector;
+
 	public DefaultMessageQueueDumper(String topic, int partition, MessageQueueStorage storage, BrokerConfig config,
-	      Lease lease) {
+	      Lease lease, MessageQueueTailCache priorityTailCache, MessageQueueTailCache nonPriorityTailCache) {
 		super(topic, partition, config, lease);
 		m_storage = storage;
+		m_priorityTailCache = priorityTailCache;
+		m_nonPriorityTailCache = nonPriorityTailCache;
+		m_selector = PlexusComponentLocator.lookup(Selector.class);
 	}
 
 	@Override
 	protected void doAppendMessageSync(boolean isPriority,
 	      Collection<Pair<MessageBatchWithRawData, Map<Integer, Boolean>>> todos) {
 
+		if (todos.isEmpty()) {
+			return;
+		}
+
+		MessageQueueTailCache tailCache = isPriority ? m_priorityTailCache : m_nonPriorityTailCache;
+		Tpp tpp = new Tpp(m_topic, m_partition, isPriority);
 		try {
-			m_storage.appendMessages(new Tpp(m_topic, m_partition, isPriority), Collections2.transform(todos,
+			// encoded before storing, the storage reads the message buffers
+			List<ByteBuf> frames = tailCache == null ? null : tailCache.encode(collectMessages(todos));
+			List<Long> offsets = m_storage.appendMessages(tpp, Collections2.transform(todos,
 			      new Function<Pair<MessageBatchWithRawData, Map<Integer, Boolean>>, MessageBatchWithRawData>() {
 
 				      @Override
@@ -47,13 +71,34 @@ public class DefaultMessageQueueDumper extends AbstractMessageQueueDumper {
 				      }
 			      }));
 
+			if (tailCache != null) {
+				tailCache.append(offsets, frames);
+			}
+			// wake up pull requests waiting on this partition
+			if (offsets != null && !offsets.isEmpty()) {
+				m_selector.updateWriteOffset(tpp, Collections.max(offsets));
+			}
+
 			setBatchesResult(todos, true);
 		} catch (Exception e) {
+			if (tailCache != null) {
+				// part of the messages may have been stored
+				tailCache.clear();
+			}
 			setBatchesResult(todos, false);
 			log.error("Failed to append messages.", e);
 		}
 	}
 
+	private List<PartialDecodedMessage> collectMessages(
+	      Collection<Pair<MessageBatchWithRawData, Map<Integer, Boolean>>> todos) {
+		List<PartialDecodedMessage> msgs = new ArrayList<>();
+		for (Pair<MessageBatchWithRawData, Map<Integer, Boolean>> todo : todos) {
+			msgs.addAll(todo.getKey().getMessages());
+		}
+		return msgs;
+	}
+
 	private void setBatchesResult(Collection<Pair<MessageBatchWithRawData, Map<Integer, Boolean>>> todos, boolean success) {
 		for (Pair<MessageBatchWithRawData, Map<Integer, Boolean>> todo : todos) {
 			bizLog(todo.getKey(), success);
@@ -24,8 +24,10 @@ public class MessageQueuePartitionFactory extends ContainerHolder {
 	public MessageQueue getMessageQueue(String topic, int partition) {
 		Storage storage = m_metaService.findStorageByTopic(topic);
 		try {
+			// frames are cached as mysql storage delivers them, file storage reads recent messages from page cache
+			boolean tailCacheEnabled = m_config.isMessageQueueTailCacheEnabled() && Storage.MYSQL.equals(storage.getType());
 			return new DefaultMessageQueue(topic, partition, lookup(MessageQueueStorage.class, storage.getType()),
-			      m_metaService, m_config);
+			      m_metaService, m_config, tailCacheEnabled);
 		} catch (Exception e) {
 			throw new IllegalArgumentException("Unsupported storage type " + storage.getType(), e);
 		}
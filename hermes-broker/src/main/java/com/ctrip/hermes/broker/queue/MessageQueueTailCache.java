@@ -0,0 +1,274 @@
+package com.ctrip.hermes.broker.queue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ctrip.hermes.broker.queue.storage.MessageQueueStorage.FetchResult;
+import com.ctrip.hermes.core.bo.Tpp;
+import com.ctrip.hermes.core.message.PartialDecodedMessage;
+import com.ctrip.hermes.core.message.TppConsumerMessageBatch;
+import com.ctrip.hermes.core.message.TppConsumerMessageBatch.MessageMeta;
+import com.ctrip.hermes.core.message.codec.MessageCodec;
+import com.ctrip.hermes.core.transport.ZeroCopyTransferCallback;
+
+/**
+ * Ring of the most recently appended messages of one Tpp, shared by all cursors of the partition. Caught-up cursors are
+ * served from here instead of the storage.
+ *
+ * All messages with offset greater than <tt>m_coveredAfter</tt> are in the ring, so a fetch after an offset inside that
+ * window can be answered without the storage.
+ *
+ * Frames are kept as {@link com.ctrip.hermes.broker.queue.storage.mysql.MySQLMessageQueueStorage} delivers stored
+ * messages, see {@link #encode(List)}, so a consumer gets the same bytes from the cache and from the database.
+ * Cached frames are unpooled heap buffers reclaimed by GC, the ring never releases them, so a fetched batch stays
+ * readable after its frames are evicted and owns no reference until {@link ZeroCopyTransferCallback#region()} hands
+ * retained ones to the caller.
+ *
+ */
+public class MessageQueueTailCache {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private Tpp m_tpp;
+
+	private long m_maxBytes;
+
+	private int m_maxMessages;
+
+	private MessageCodec m_codec;
+
+	private long[] m_offsets = new long[INITIAL_CAPACITY];
+
+	private ByteBuf[] m_frames = new ByteBuf[INITIAL_CAPACITY];
+
+	private int m_head = 0;
+
+	private int m_size = 0;
+
+	private long m_bytes = 0;
+
+	private long m_coveredAfter = -1L;
+
+	private AtomicLong m_hitCount = new AtomicLong();
+
+	private AtomicLong m_missCount = new AtomicLong();
+
+	public MessageQueueTailCache(Tpp tpp, long maxBytes, int maxMessages, MessageCodec codec) {
+		m_tpp = tpp;
+		m_maxBytes = maxBytes;
+		m_maxMessages = maxMessages;
+		m_codec = codec;
+	}
+
+	/**
+	 * Encodes messages the way the storage delivers them: durable properties only and no remaining retries. Call it
+	 * before the messages are stored, storing reads their buffers.
+	 *
+	 * @return one unpooled frame per message, to be passed to {@link #append(List, List)}
+	 */
+	public List<ByteBuf> encode(List<PartialDecodedMessage> msgs) {
+		List<ByteBuf> frames = new ArrayList<>(msgs.size());
+		for (PartialDecodedMessage msg : msgs) {
+			PartialDecodedMessage partialMsg = new PartialDecodedMessage();
+			partialMsg.setRemainingRetries(0);
+			partialMsg.setDurableProperties(msg.getDurableProperties());
+			partialMsg.setBody(msg.getBody());
+			partialMsg.setBornTime(msg.getBornTime());
+			partialMsg.setKey(msg.getKey());
+			partialMsg.setBodyCodecType(msg.getBodyCodecType());
+
+			ByteBuf frame = Unpooled.buffer();
+			m_codec.encode(partialMsg, frame);
+			frames.add(frame);
+		}
+		return frames;
+	}
+
+	/**
+	 * @param offsets
+	 *           storage offsets of the frames, in append order
+	 * @param frames
+	 *           frames from {@link #encode(List)}, kept by the cache as they are
+	 */
+	public synchronized void append(List<Long> offsets, List<ByteBuf> frames) {
+		if (offsets == null || frames == null || offsets.size() != frames.size()) {
+			// can not tell which messages are missing, start over
+			clear();
+			return;
+		}
+
+		for (int i = 0; i < offsets.size(); i++) {
+			long offset = offsets.get(i);
+			if (m_size > 0 && offset <= lastOffset()) {
+				clear();
+			}
+			if (m_coveredAfter < 0) {
+				m_coveredAfter = offset - 1;
+			}
+
+			ByteBuf frame = frames.get(i);
+			if (frame.readableBytes() > m_maxBytes) {
+				clear();
+				// coverage restarts after the message which does not fit
+				m_coveredAfter = offset;
+				continue;
+			}
+
+			while (m_size > 0 && (m_size >= m_maxMessages || m_bytes + frame.readableBytes() > m_maxBytes)) {
+				evictFirst();
+			}
+
+			ensureCapacity();
+			int idx = index(m_size);
+			m_offsets[idx] = offset;
+			m_frames[idx] = frame;
+			m_size++;
+			m_bytes += frame.readableBytes();
+		}
+	}
+
+	/**
+	 * @return null if messages after the offset are not all in the cache, the storage must be asked then. A result with
+	 *         no batch means there is no message after the offset.
+	 */
+	public FetchResult fetch(Object startOffset, int batchSize) {
+		FetchResult result = doFetch(startOffset, batchSize);
+		if (result == null) {
+			m_missCount.incrementAndGet();
+		} else {
+			m_hitCount.incrementAndGet();
+		}
+		return result;
+	}
+
+	private synchronized FetchResult doFetch(Object startOffset, int batchSize) {
+		if (!(startOffset instanceof Long) || m_size == 0) {
+			return null;
+		}
+
+		long afterOffset = (Long) startOffset;
+		if (afterOffset < m_coveredAfter || afterOffset > lastOffset()) {
+			return null;
+		}
+
+		FetchResult result = new FetchResult();
+		result.setOffset(afterOffset);
+
+		int from = firstAfter(afterOffset);
+		int count = Math.min(batchSize, m_size - from);
+		if (count <= 0) {
+			return result;
+		}
+
+		TppConsumerMessageBatch batch = new TppConsumerMessageBatch();
+		final ByteBuf[] frames = new ByteBuf[count];
+		long biggestOffset = afterOffset;
+		for (int i = 0; i < count; i++) {
+			int idx = index(from + i);
+			long offset = m_offsets[idx];
+			batch.addMessageMeta(new MessageMeta(offset, 0, offset, m_tpp.getPriorityInt(), false));
+			frames[i] = m_frames[idx];
+			biggestOffset = offset;
+		}
+		batch.setTopic(m_tpp.getTopic());
+		batch.setPartition(m_tpp.getPartition());
+		batch.setResend(false);
+		batch.setPriority(m_tpp.getPriorityInt());
+		batch.setTransferCallback(new ZeroCopyTransferCallback() {
+
+			@Override
+			public void transfer(ByteBuf out) {
+				for (ByteBuf frame : frames) {
+					out.writeBytes(frame, frame.readerIndex(), frame.readableBytes());
+				}
+			}
+
+			@Override
+			public ByteBuf region() {
+				ByteBuf[] retained = new ByteBuf[frames.length];
+				for (int i = 0; i < frames.length; i++) {
+					retained[i] = frames[i].duplicate().retain();
+				}
+				return Unpooled.wrappedBuffer(retained.length, retained);
+			}
+		});
+
+		result.setBatch(batch);
+		result.setOffset(biggestOffset);
+		return result;
+	}
+
+	public synchronized void clear() {
+		while (m_size > 0) {
+			evictFirst();
+		}
+		m_coveredAfter = -1L;
+	}
+
+	public long getHitCount() {
+		return m_hitCount.get();
+	}
+
+	public long getMissCount() {
+		return m_missCount.get();
+	}
+
+	public synchronized long getBytes() {
+		return m_bytes;
+	}
+
+	public synchronized int size() {
+		return m_size;
+	}
+
+	private void evictFirst() {
+		m_coveredAfter = m_offsets[m_head];
+		m_bytes -= m_frames[m_head].readableBytes();
+		m_frames[m_head] = null;
+		m_head = (m_head + 1) % m_frames.length;
+		m_size--;
+	}
+
+	private int firstAfter(long afterOffset) {
+		int low = 0;
+		int high = m_size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (m_offsets[index(mid)] <= afterOffset) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private long lastOffset() {
+		return m_offsets[index(m_size - 1)];
+	}
+
+	private int index(int i) {
+		return (m_head + i) % m_frames.length;
+	}
+
+	private void ensureCapacity() {
+		if (m_size < m_frames.length) {
+			return;
+		}
+
+		int newCapacity = m_frames.length * 2;
+		long[] offsets = new long[newCapacity];
+		ByteBuf[] frames = new ByteBuf[newCapacity];
+		for (int i = 0; i < m_size; i++) {
+			offsets[i] = m_offsets[index(i)];
+			frames[i] = m_frames[index(i)];
+		}
+		m_offsets = offsets;
+		m_frames = frames;
+		m_head = 0;
+	}
+}
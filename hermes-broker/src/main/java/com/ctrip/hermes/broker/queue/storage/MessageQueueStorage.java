@@ -17,7 +17,10 @@ import com.ctrip.hermes.core.transport.command.SendMessageCommand.MessageBatchWi
  */
 public interface MessageQueueStorage {
 
-	void appendMessages(Tpp tpp, Collection<MessageBatchWithRawData> batches) throws Exception;
+	/**
+	 * @return offsets assigned to the appended messages in order, or null if the storage can not tell
+	 */
+	List<Long> appendMessages(Tpp tpp, Collection<MessageBatchWithRawData> batches) throws Exception;
 
 	Object findLastOffset(Tpp tpp, int groupId) throws Exception;
 
@@ -0,0 +1,113 @@
+package com.ctrip.hermes.broker.queue.storage.file;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Acked offsets of each consumer group, kept in memory and checkpointed to a small text file of
+ * <tt>groupId=offset</tt> lines.
+ *
+ */
+class ConsumerOffsetCheckpoint {
+	static final String FILE_NAME = "consumer.offsets";
+
+	private File m_file;
+
+	private ConcurrentHashMap<Integer, Long> m_offsets = new ConcurrentHashMap<>();
+
+	private volatile boolean m_dirty = false;
+
+	public ConsumerOffsetCheckpoint(File file) throws IOException {
+		m_file = file;
+		load();
+	}
+
+	private void load() throws IOException {
+		if (!m_file.isFile()) {
+			return;
+		}
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(m_file),
+		      StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int idx = line.indexOf('=');
+				if (idx > 0) {
+					m_offsets.put(Integer.valueOf(line.substring(0, idx).trim()),
+					      Long.valueOf(line.substring(idx + 1).trim()));
+				}
+			}
+		}
+	}
+
+	public Long get(int groupId) {
+		return m_offsets.get(groupId);
+	}
+
+	public Map<Integer, Long> snapshot() {
+		return new HashMap<>(m_offsets);
+	}
+
+	public Long putIfAbsent(int groupId, long offset) {
+		Long existing = m_offsets.putIfAbsent(groupId, offset);
+		if (existing == null) {
+			m_dirty = true;
+		}
+		return existing;
+	}
+
+	/**
+	 * Offsets only move forward, acks arriving out of order are ignored.
+	 */
+	public void update(int groupId, long offset) {
+		while (true) {
+			Long current = m_offsets.get(groupId);
+			if (current == null) {
+				if (m_offsets.putIfAbsent(groupId, offset) == null) {
+					break;
+				}
+			} else if (current >= offset || m_offsets.replace(groupId, current, offset)) {
+				break;
+			}
+		}
+		m_dirty = true;
+	}
+
+	public synchronized void checkpoint() throws IOException {
+		if (!m_dirty) {
+			return;
+		}
+		m_dirty = false;
+
+		File tmp = new File(m_file.getParentFile(), m_file.getName() + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(tmp)) {
+			Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+			for (Map.Entry<Integer, Long> entry : m_offsets.entrySet()) {
+				writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+			}
+			writer.flush();
+			out.getFD().sync();
+		} catch (IOException e) {
+			m_dirty = true;
+			throw e;
+		}
+
+		if (!tmp.renameTo(m_file)) {
+			// rename does not replace an existing file on some platforms
+			if (!m_file.delete() || !tmp.renameTo(m_file)) {
+				m_dirty = true;
+				throw new IOException(String.format("Failed to write checkpoint %s", m_file.getAbsolutePath()));
+			}
+		}
+	}
+}
@@ -0,0 +1,444 @@
+package com.ctrip.hermes.broker.queue.storage.file;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Initializable;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.InitializationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.unidal.lookup.annotation.Inject;
+import org.unidal.lookup.annotation.Named;
+import org.unidal.tuple.Pair;
+import org.unidal.tuple.Triple;
+
+import com.ctrip.hermes.broker.config.BrokerConfig;
+import com.ctrip.hermes.broker.queue.storage.MessageQueueStorage;
+import com.ctrip.hermes.broker.queue.storage.file.LogSegment.LogRecord;
+import com.ctrip.hermes.core.bo.Tpg;
+import com.ctrip.hermes.core.bo.Tpp;
+import com.ctrip.hermes.core.log.BizEvent;
+import com.ctrip.hermes.core.log.BizLogger;
+import com.ctrip.hermes.core.message.PartialDecodedMessage;
+import com.ctrip.hermes.core.message.TppConsumerMessageBatch;
+import com.ctrip.hermes.core.message.TppConsumerMessageBatch.MessageMeta;
+import com.ctrip.hermes.core.message.retry.RetryPolicy;
+import com.ctrip.hermes.core.meta.MetaService;
+import com.ctrip.hermes.core.service.SystemClockService;
+import com.ctrip.hermes.core.transport.CompressibleTransferCallback;
+import com.ctrip.hermes.core.transport.TransferCallback;
+import com.ctrip.hermes.core.transport.ZeroCopyTransferCallback;
+import com.ctrip.hermes.core.transport.command.SendMessageCommand.MessageBatchWithRawData;
+import com.ctrip.hermes.core.transport.compress.Compression;
+import com.ctrip.hermes.core.utils.HermesThreadFactory;
+import com.ctrip.hermes.meta.entity.Storage;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * Stores each Tpp in local append-only segment files under {@link BrokerConfig#getFileStorageBaseDir()}. Messages are
+ * kept in their encoded form and handed to the transport as views of the mapped files, nothing is decoded, copied or
+ * checksummed again on delivery.
+ *
+ * Nacked messages are copied into a resend log per consumer group, records of which carry a {@link #RESEND_HEADER_LENGTH}
+ * bytes header of schedule time, remaining retries, priority and origin offset before the frame. Resend records are
+ * delivered in append order, a record not due yet holds back the ones after it. Messages running out of retries are
+ * copied into a dead letter log per consumer group.
+ *
+ */
+@Named(type = MessageQueueStorage.class, value = Storage.FILE)
+public class FileMessageQueueStorage implements MessageQueueStorage, Initializable {
+	private static final Logger log = LoggerFactory.getLogger(FileMessageQueueStorage.class);
+
+	private static final int RESEND_HEADER_LENGTH = 8 + 4 + 4 + 8;
+
+	@Inject
+	private BizLogger m_bizLogger;
+
+	@Inject
+	private MetaService m_metaService;
+
+	@Inject
+	private BrokerConfig m_config;
+
+	@Inject
+	private SystemClockService m_systemClockService;
+
+	private Map<File, MessageLog> m_logs = new ConcurrentHashMap<>();
+
+	// key: log, first offset, last offset
+	private Cache<Triple<MessageLog, Long, Long>, Pair<Compression, byte[]>> m_compressedRanges;
+
+	private ScheduledExecutorService m_housekeeper;
+
+	@Override
+	public void initialize() throws InitializationException {
+		m_compressedRanges = CacheBuilder.newBuilder().maximumWeight(m_config.getFileStorageCompressedCacheBytes())
+		      .weigher(new Weigher<Triple<MessageLog, Long, Long>, Pair<Compression, byte[]>>() {
+
+			      @Override
+			      public int weigh(Triple<MessageLog, Long, Long> key, Pair<Compression, byte[]> value) {
+				      return value.getValue().length;
+			      }
+		      }).build();
+
+		m_housekeeper = Executors.newSingleThreadScheduledExecutor(HermesThreadFactory.create(
+		      "FileStorageHousekeeper", true));
+
+		m_housekeeper.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				for (MessageLog messageLog : m_logs.values()) {
+					try {
+						if (!m_config.isFileStorageFlushOnAppend()) {
+							messageLog.flush();
+						}
+						messageLog.getConsumerOffsets().checkpoint();
+					} catch (Exception e) {
+						log.error("Failed to flush message log.", e);
+					}
+				}
+			}
+		}, m_config.getFileStorageFlushIntervalMillis(), m_config.getFileStorageFlushIntervalMillis(),
+		      TimeUnit.MILLISECONDS);
+
+		m_housekeeper.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				long expireBefore = System.currentTimeMillis() - m_config.getFileStorageRetentionMillis();
+				for (MessageLog messageLog : m_logs.values()) {
+					try {
+						messageLog.deleteExpiredSegments(expireBefore);
+					} catch (Exception e) {
+						log.error("Failed to delete expired segments.", e);
+					}
+				}
+			}
+		}, 1, 1, TimeUnit.MINUTES);
+	}
+
+	private MessageLog getMessageLog(Tpp tpp) throws IOException {
+		return getLog(tpp.getTopic(), tpp.getPartition() + "-" + tpp.getPriorityInt());
+	}
+
+	private MessageLog getResendLog(String topic, int partition, int groupId) throws IOException {
+		return getLog(topic, partition + "-resend-" + groupId);
+	}
+
+	private MessageLog getDeadLetterLog(String topic, int partition, int groupId) throws IOException {
+		return getLog(topic, partition + "-dead-" + groupId);
+	}
+
+	private MessageLog getLog(String topic, String name) throws IOException {
+		File dir = new File(new File(m_config.getFileStorageBaseDir(), topic), name);
+
+		MessageLog messageLog = m_logs.get(dir);
+		if (messageLog == null) {
+			synchronized (m_logs) {
+				messageLog = m_logs.get(dir);
+				if (messageLog == null) {
+					messageLog = new MessageLog(dir, m_config.getFileStorageSegmentSize(),
+					      m_config.getFileStorageIndexIntervalBytes());
+					m_logs.put(dir, messageLog);
+				}
+			}
+		}
+
+		return messageLog;
+	}
+
+	@Override
+	public List<Long> appendMessages(Tpp tpp, Collection<MessageBatchWithRawData> batches) throws Exception {
+		MessageLog messageLog = getMessageLog(tpp);
+		List<Long> offsets = new ArrayList<>();
+
+		for (MessageBatchWithRawData batch : batches) {
+			List<PartialDecodedMessage> pdmsgs = batch.getMessages();
+			List<ByteBuf> frames = batch.getMessageFrames();
+			for (int i = 0; i < pdmsgs.size(); i++) {
+				// store the frame as the producer encoded it, so it can be delivered without re-encoding
+				long offset = messageLog.append(frames.get(i));
+				offsets.add(offset);
+
+				bizLog(pdmsgs.get(i).getKey(), offset);
+			}
+		}
+
+		if (m_config.isFileStorageFlushOnAppend()) {
+			messageLog.flush();
+		}
+
+		return offsets;
+	}
+
+	private void bizLog(String refKey, long offset) {
+		BizEvent event = new BizEvent("RefKey.Transformed");
+		event.addData("refKey", refKey);
+		event.addData("msgId", offset);
+
+		m_bizLogger.log(event);
+	}
+
+	@Override
+	public Object findLastOffset(Tpp tpp, int groupId) throws Exception {
+		MessageLog messageLog = getMessageLog(tpp);
+		ConsumerOffsetCheckpoint offsets = messageLog.getConsumerOffsets();
+
+		Long offset = offsets.get(groupId);
+		if (offset == null) {
+			// new consumer group starts from the latest message
+			offset = messageLog.getLastOffset();
+			Long existing = offsets.putIfAbsent(groupId, offset);
+			if (existing != null) {
+				offset = existing;
+			}
+		}
+
+		return offset;
+	}
+
+	@Override
+	public Object findLastResendOffset(Tpg tpg) throws Exception {
+		int groupId = m_metaService.translateToIntGroupId(tpg.getTopic(), tpg.getGroupId());
+		Long offset = getResendLog(tpg.getTopic(), tpg.getPartition(), groupId).getConsumerOffsets().get(groupId);
+		return offset == null ? 0L : offset;
+	}
+
+	@Override
+	public FetchResult fetchMessages(Tpp tpp, Object startOffset, int batchSize) {
+		try {
+			List<LogRecord> records = getMessageLog(tpp).read((Long) startOffset, batchSize);
+
+			if (!records.isEmpty()) {
+				TppConsumerMessageBatch batch = new TppConsumerMessageBatch();
+				long biggestOffset = 0L;
+				for (LogRecord record : records) {
+					batch.addMessageMeta(new MessageMeta(record.getOffset(), 0, record.getOffset(), tpp.getPriorityInt(),
+					      false));
+					biggestOffset = Math.max(biggestOffset, record.getOffset());
+				}
+				batch.setTopic(tpp.getTopic());
+				batch.setPartition(tpp.getPartition());
+				batch.setResend(false);
+				batch.setPriority(tpp.getPriorityInt());
+
+				batch.setTransferCallback(new RecordsTransferCallback(getMessageLog(tpp), records));
+
+				FetchResult result = new FetchResult();
+				result.setBatch(batch);
+				result.setOffset(biggestOffset);
+				return result;
+			}
+		} catch (Exception e) {
+			log.error("Failed to fetch message(topic={}, partition={}, priority={}).", tpp.getTopic(), tpp.getPartition(),
+			      tpp.isPriority(), e);
+		}
+
+		return null;
+	}
+
+	@Override
+	public FetchResult fetchResendMessages(Tpg tpg, Object startOffset, int batchSize) {
+		try {
+			int groupId = m_metaService.translateToIntGroupId(tpg.getTopic(), tpg.getGroupId());
+			List<LogRecord> records = getResendLog(tpg.getTopic(), tpg.getPartition(), groupId).read((Long) startOffset,
+			      batchSize);
+
+			long now = m_systemClockService.now();
+			TppConsumerMessageBatch batch = new TppConsumerMessageBatch();
+			final List<LogRecord> dueRecords = new ArrayList<>();
+			long biggestOffset = 0L;
+			for (LogRecord record : records) {
+				ByteBuf header = record.getFrame();
+				if (header.readLong() > now) {
+					break;
+				}
+				int remainingRetries = header.readInt();
+				int priority = header.readInt();
+				long originId = header.readLong();
+				batch.addMessageMeta(new MessageMeta(record.getOffset(), remainingRetries, originId, priority, true));
+				dueRecords.add(record);
+				biggestOffset = record.getOffset();
+			}
+
+			if (!dueRecords.isEmpty()) {
+				batch.setTopic(tpg.getTopic());
+				batch.setPartition(tpg.getPartition());
+				batch.setResend(true);
+
+				batch.setTransferCallback(new TransferCallback() {
+
+					@Override
+					public void transfer(ByteBuf out) {
+						for (LogRecord record : dueRecords) {
+							ByteBuf frame = record.getFrame();
+							out.writeBytes(frame, frame.readerIndex() + RESEND_HEADER_LENGTH, frame.readableBytes()
+							      - RESEND_HEADER_LENGTH);
+						}
+					}
+
+				});
+
+				FetchResult result = new FetchResult();
+				result.setBatch(batch);
+				result.setOffset(biggestOffset);
+				return result;
+			}
+		} catch (Exception e) {
+			log.error("Failed to fetch resend messages(topic={}, partition={}, groupId={}).", tpg.getTopic(),
+			      tpg.getPartition(), tpg.getGroupId(), e);
+		}
+
+		return null;
+	}
+
+	@Override
+	public void nack(Tpp tpp, String groupId, boolean resend, List<Pair<Long, MessageMeta>> msgId2Metas) {
+		if (msgId2Metas == null || msgId2Metas.isEmpty()) {
+			return;
+		}
+
+		try {
+			RetryPolicy retryPolicy = m_metaService.findRetryPolicyByTopicAndGroup(tpp.getTopic(), groupId);
+			int intGroupId = m_metaService.translateToIntGroupId(tpp.getTopic(), groupId);
+			MessageLog resendLog = getResendLog(tpp.getTopic(), tpp.getPartition(), intGroupId);
+			MessageLog sourceLog = resend ? resendLog : getMessageLog(tpp);
+			MessageLog deadLetterLog = null;
+			long now = m_systemClockService.now();
+
+			for (Pair<Long, MessageMeta> pair : msgId2Metas) {
+				MessageMeta meta = pair.getValue();
+				LogRecord record = sourceLog.find(pair.getKey());
+				if (record == null) {
+					log.warn("Nacked message already deleted by retention(topic={}, partition={}, groupId={}, id={}, resend={}).",
+					      tpp.getTopic(), tpp.getPartition(), groupId, pair.getKey(), resend);
+					continue;
+				}
+
+				ByteBuf frame = record.getFrame();
+				long originId = pair.getKey();
+				int priority = tpp.getPriorityInt();
+				if (resend) {
+					frame.skipBytes(8 + 4);
+					priority = frame.readInt();
+					originId = frame.readLong();
+					meta.setRemainingRetries(meta.getRemainingRetries() - 1);
+				} else {
+					meta.setRemainingRetries(retryPolicy.getRetryTimes());
+				}
+
+				if (meta.getRemainingRetries() <= 0) {
+					if (deadLetterLog == null) {
+						deadLetterLog = getDeadLetterLog(tpp.getTopic(), tpp.getPartition(), intGroupId);
+					}
+					deadLetterLog.append(frame);
+				} else {
+					int retryTimes = retryPolicy.getRetryTimes() - meta.getRemainingRetries();
+					ByteBuf header = Unpooled.buffer(RESEND_HEADER_LENGTH);
+					header.writeLong(retryPolicy.nextScheduleTimeMillis(retryTimes, now));
+					header.writeInt(meta.getRemainingRetries());
+					header.writeInt(priority);
+					header.writeLong(originId);
+					resendLog.append(Unpooled.wrappedBuffer(header, frame));
+				}
+			}
+
+			if (m_config.isFileStorageFlushOnAppend()) {
+				resendLog.flush();
+				if (deadLetterLog != null) {
+					deadLetterLog.flush();
+				}
+			}
+		} catch (Exception e) {
+			log.error("Failed to nack messages(topic={}, partition={}, priority={}, groupId={}).", tpp.getTopic(),
+			      tpp.getPartition(), tpp.isPriority(), groupId, e);
+		}
+	}
+
+	@Override
+	public void ack(Tpp tpp, String groupId, boolean resend, long msgSeq) {
+		try {
+			int intGroupId = m_metaService.translateToIntGroupId(tpp.getTopic(), groupId);
+			MessageLog messageLog = resend ? getResendLog(tpp.getTopic(), tpp.getPartition(), intGroupId)
+			      : getMessageLog(tpp);
+			messageLog.getConsumerOffsets().update(intGroupId, msgSeq);
+		} catch (Exception e) {
+			log.error("Failed to ack messages(topic={}, partition={}, priority={}, groupId={}).", tpp.getTopic(),
+			      tpp.getPartition(), tpp.isPriority(), groupId, e);
+		}
+	}
+
+	/**
+	 * Records of the message log are delivered as they are stored, or compressed once per range for compressed topics.
+	 * Producers' compressed batches are not stored as they are, since pulls start at any offset and rarely line up with
+	 * them, a range is cached compressed instead so consumer groups pulling the same range don't compress it again.
+	 */
+	private class RecordsTransferCallback implements ZeroCopyTransferCallback, CompressibleTransferCallback {
+
+		private MessageLog m_messageLog;
+
+		private List<LogRecord> m_records;
+
+		public RecordsTransferCallback(MessageLog messageLog, List<LogRecord> records) {
+			m_messageLog = messageLog;
+			m_records = records;
+		}
+
+		@Override
+		public void transfer(ByteBuf out) {
+			for (LogRecord record : m_records) {
+				out.writeBytes(record.getFrame());
+			}
+		}
+
+		@Override
+		public ByteBuf region() {
+			// segments are kept until the returned buffer is released
+			ByteBuf[] frames = new ByteBuf[m_records.size()];
+			for (int i = 0; i < frames.length; i++) {
+				frames[i] = m_records.get(i).retainFrame();
+			}
+			return Unpooled.wrappedBuffer(frames.length, frames);
+		}
+
+		@Override
+		public ByteBuf compressed(Compression compression) {
+			// records of an offset never change, a cached range stays valid until evicted
+			Triple<MessageLog, Long, Long> key = new Triple<>(m_messageLog, m_records.get(0).getOffset(), m_records.get(
+			      m_records.size() - 1).getOffset());
+			Pair<Compression, byte[]> cached = m_compressedRanges.getIfPresent(key);
+			if (cached != null && cached.getKey() == compression) {
+				return Unpooled.wrappedBuffer(cached.getValue());
+			}
+
+			ByteBuf data = Unpooled.buffer();
+			ByteBuf compressed;
+			try {
+				transfer(data);
+				compressed = compression.compress(data);
+			} finally {
+				data.release();
+			}
+
+			byte[] bytes = new byte[compressed.readableBytes()];
+			compressed.readBytes(bytes);
+			compressed.release();
+			m_compressedRanges.put(key, new Pair<Compression, byte[]>(compression, bytes));
+			return Unpooled.wrappedBuffer(bytes);
+		}
+	}
+}
@@ -0,0 +1,379 @@
+package com.ctrip.hermes.broker.queue.storage.file;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.buffer.UnpooledDirectByteBuf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One memory-mapped, preallocated log file plus its sparse offset index.
+ *
+ * Record layout: [int frameLength][long offset][frame bytes]. A zero length marks the end of written data. Only one
+ * thread appends, readers only see records below the published write position.
+ *
+ * The owning {@link MessageLog} holds one reference, each frame handed to the transport by
+ * {@link LogRecord#retainFrame()} holds another one. Files are closed and deleted when the last reference is released.
+ *
+ */
+class LogSegment {
+	private static final Logger log = LoggerFactory.getLogger(LogSegment.class);
+
+	static final String LOG_SUFFIX = ".log";
+
+	static final String INDEX_SUFFIX = ".index";
+
+	static final int RECORD_HEADER_LENGTH = 4 + 8;
+
+	private static final int INDEX_ENTRY_LENGTH = 8 + 4;
+
+	private long m_baseOffset;
+
+	private File m_logFile;
+
+	private File m_indexFile;
+
+	private RandomAccessFile m_logRaf;
+
+	private FileChannel m_indexChannel;
+
+	private MappedByteBuffer m_mapped;
+
+	private int m_capacity;
+
+	private int m_indexIntervalBytes;
+
+	private int m_bytesSinceLastIndexEntry = 0;
+
+	private volatile int m_writePosition = 0;
+
+	private volatile long m_lastOffset;
+
+	// entry i: offset at [2 * i], position at [2 * i + 1]
+	private volatile long[] m_index = new long[128];
+
+	private volatile int m_indexSize = 0;
+
+	private volatile long m_lastModified;
+
+	private AtomicInteger m_refCnt = new AtomicInteger(1);
+
+	private LogSegment(File dir, long baseOffset, int capacity, int indexIntervalBytes) {
+		m_baseOffset = baseOffset;
+		m_capacity = capacity;
+		m_indexIntervalBytes = indexIntervalBytes;
+		m_lastOffset = baseOffset - 1;
+		m_logFile = new File(dir, fileName(baseOffset, LOG_SUFFIX));
+		m_indexFile = new File(dir, fileName(baseOffset, INDEX_SUFFIX));
+	}
+
+	static LogSegment create(File dir, long baseOffset, int capacity, int indexIntervalBytes) throws IOException {
+		LogSegment segment = new LogSegment(dir, baseOffset, capacity, indexIntervalBytes);
+		segment.open();
+		return segment;
+	}
+
+	static LogSegment load(File dir, long baseOffset, int capacity, int indexIntervalBytes) throws IOException {
+		LogSegment segment = new LogSegment(dir, baseOffset, capacity, indexIntervalBytes);
+		segment.open();
+		segment.recover();
+		return segment;
+	}
+
+	static String fileName(long baseOffset, String suffix) {
+		return String.format("%020d%s", baseOffset, suffix);
+	}
+
+	private void open() throws IOException {
+		m_logRaf = new RandomAccessFile(m_logFile, "rw");
+		if (m_logRaf.length() < m_capacity) {
+			m_logRaf.setLength(m_capacity);
+		} else {
+			m_capacity = (int) Math.min(Integer.MAX_VALUE, m_logRaf.length());
+		}
+		m_mapped = m_logRaf.getChannel().map(MapMode.READ_WRITE, 0, m_capacity);
+		m_indexChannel = new RandomAccessFile(m_indexFile, "rw").getChannel();
+		m_lastModified = m_logFile.lastModified();
+	}
+
+	/**
+	 * Rebuild the in-memory index from the index file, then walk the records after the last trustworthy index entry to
+	 * find the end of the written data.
+	 */
+	private void recover() throws IOException {
+		ByteBuffer indexBuf = ByteBuffer.allocate((int) m_indexChannel.size());
+		m_indexChannel.read(indexBuf, 0);
+		indexBuf.flip();
+
+		int position = 0;
+		while (indexBuf.remaining() >= INDEX_ENTRY_LENGTH) {
+			long offset = indexBuf.getLong();
+			int entryPosition = indexBuf.getInt();
+			if (!isRecordAt(entryPosition, offset)) {
+				break;
+			}
+			addIndexEntry(offset, entryPosition);
+			position = entryPosition;
+		}
+		// drop index entries pointing at data which did not survive
+		m_indexChannel.truncate((long) m_indexSize * INDEX_ENTRY_LENGTH);
+		m_indexChannel.position(m_indexChannel.size());
+
+		long lastOffset = m_baseOffset - 1;
+		while (position + RECORD_HEADER_LENGTH <= m_capacity) {
+			int length = m_mapped.getInt(position);
+			long offset = length > 0 ? m_mapped.getLong(position + 4) : 0L;
+			if (length <= 0 || offset <= lastOffset || position + RECORD_HEADER_LENGTH + length > m_capacity) {
+				break;
+			}
+			lastOffset = offset;
+			position += RECORD_HEADER_LENGTH + length;
+		}
+
+		m_lastOffset = lastOffset;
+		m_writePosition = position;
+		// wipe a possibly torn tail so the next recovery stops at the same place
+		if (position + 4 <= m_capacity) {
+			m_mapped.putInt(position, 0);
+		}
+	}
+
+	private boolean isRecordAt(int position, long offset) {
+		return position >= 0 && position + RECORD_HEADER_LENGTH <= m_capacity && m_mapped.getInt(position) > 0
+		      && m_mapped.getLong(position + 4) == offset;
+	}
+
+	public boolean hasRoomFor(int frameLength) {
+		return m_writePosition + RECORD_HEADER_LENGTH + frameLength <= m_capacity;
+	}
+
+	public boolean isEmpty() {
+		return m_writePosition == 0;
+	}
+
+	/**
+	 * Caller must check {@link #hasRoomFor(int)} first.
+	 */
+	public void append(long offset, ByteBuf frame) throws IOException {
+		int position = m_writePosition;
+		int frameLength = frame.readableBytes();
+		int recordLength = RECORD_HEADER_LENGTH + frameLength;
+
+		ByteBuffer dst = m_mapped.duplicate();
+		dst.position(position);
+		dst.limit(position + recordLength);
+		dst.putInt(frameLength);
+		dst.putLong(offset);
+		frame.getBytes(frame.readerIndex(), dst);
+
+		if (m_indexSize == 0 || m_bytesSinceLastIndexEntry >= m_indexIntervalBytes) {
+			appendIndexEntry(offset, position);
+			m_bytesSinceLastIndexEntry = 0;
+		}
+		m_bytesSinceLastIndexEntry += recordLength;
+
+		m_lastOffset = offset;
+		m_lastModified = System.currentTimeMillis();
+		// publish
+		m_writePosition = position + recordLength;
+	}
+
+	private void appendIndexEntry(long offset, int position) throws IOException {
+		ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_LENGTH);
+		entry.putLong(offset);
+		entry.putInt(position);
+		entry.flip();
+		while (entry.hasRemaining()) {
+			m_indexChannel.write(entry);
+		}
+		addIndexEntry(offset, position);
+	}
+
+	private void addIndexEntry(long offset, int position) {
+		long[] index = m_index;
+		int size = m_indexSize;
+		if (2 * size + 2 > index.length) {
+			long[] newIndex = new long[index.length * 2];
+			System.arraycopy(index, 0, newIndex, 0, 2 * size);
+			index = newIndex;
+		}
+		index[2 * size] = offset;
+		index[2 * size + 1] = position;
+		m_index = index;
+		m_indexSize = size + 1;
+	}
+
+	/**
+	 * Position of the last indexed record whose offset is less than or equal to the given one, 0 if none.
+	 */
+	private int lookup(long offset) {
+		int size = m_indexSize;
+		long[] index = m_index;
+
+		int low = 0;
+		int high = size - 1;
+		int found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (index[2 * mid] <= offset) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		return found < 0 ? 0 : (int) index[2 * found + 1];
+	}
+
+	/**
+	 * Collect records whose offset is greater than <tt>afterOffset</tt>. The returned frames are views of the mapped
+	 * file, no bytes are copied.
+	 */
+	public void read(long afterOffset, int maxCount, List<LogRecord> out) {
+		int end = m_writePosition;
+		int position = lookup(afterOffset);
+
+		while (position < end && out.size() < maxCount) {
+			int frameLength = m_mapped.getInt(position);
+			long offset = m_mapped.getLong(position + 4);
+			if (offset > afterOffset) {
+				ByteBuffer frame = m_mapped.duplicate();
+				frame.position(position + RECORD_HEADER_LENGTH);
+				frame.limit(position + RECORD_HEADER_LENGTH + frameLength);
+				out.add(new LogRecord(this, offset, frame.slice()));
+			}
+			position += RECORD_HEADER_LENGTH + frameLength;
+		}
+	}
+
+	public void flush() throws IOException {
+		m_mapped.force();
+		m_indexChannel.force(false);
+	}
+
+	public void close() throws IOException {
+		flush();
+		m_indexChannel.close();
+		m_logRaf.close();
+	}
+
+	/**
+	 * @return false if the segment is already released by its log and in-flight transfers
+	 */
+	public boolean retain() {
+		while (true) {
+			int refCnt = m_refCnt.get();
+			if (refCnt <= 0) {
+				return false;
+			}
+			if (m_refCnt.compareAndSet(refCnt, refCnt + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Files are deleted on releasing the last reference. Mapped pages are released by GC, so frames handed out by
+	 * {@link #read(long, int, List)} stay readable after the files are gone.
+	 */
+	public void release() {
+		if (m_refCnt.decrementAndGet() == 0) {
+			try {
+				m_indexChannel.close();
+				m_logRaf.close();
+				if (!m_logFile.delete() || !m_indexFile.delete()) {
+					throw new IOException("File not deleted");
+				}
+				log.info("Segment {} deleted", m_logFile.getAbsolutePath());
+			} catch (IOException e) {
+				log.error("Failed to delete segment {}", m_logFile.getAbsolutePath(), e);
+			}
+		}
+	}
+
+	int refCnt() {
+		return m_refCnt.get();
+	}
+
+	public long getBaseOffset() {
+		return m_baseOffset;
+	}
+
+	public long getLastOffset() {
+		return m_lastOffset;
+	}
+
+	public long getLastModified() {
+		return m_lastModified;
+	}
+
+	public File getLogFile() {
+		return m_logFile;
+	}
+
+	static class LogRecord {
+		private LogSegment m_segment;
+
+		private long m_offset;
+
+		private ByteBuffer m_frame;
+
+		public LogRecord(LogSegment segment, long offset, ByteBuffer frame) {
+			m_segment = segment;
+			m_offset = offset;
+			m_frame = frame;
+		}
+
+		public long getOffset() {
+			return m_offset;
+		}
+
+		/**
+		 * @return view of the frame, not keeping the segment from being deleted
+		 */
+		public ByteBuf getFrame() {
+			return Unpooled.wrappedBuffer(m_frame.duplicate());
+		}
+
+		/**
+		 * @return view of the frame holding a reference of the segment until it is released, or a copy if the segment
+		 *         is already deleted
+		 */
+		public ByteBuf retainFrame() {
+			if (m_segment.retain()) {
+				return new SegmentFrameBuf(m_segment, m_frame.duplicate());
+			} else {
+				return Unpooled.copiedBuffer(m_frame.duplicate());
+			}
+		}
+
+	}
+
+	private static class SegmentFrameBuf extends UnpooledDirectByteBuf {
+		private LogSegment m_segment;
+
+		public SegmentFrameBuf(LogSegment segment, ByteBuffer frame) {
+			super(UnpooledByteBufAllocator.DEFAULT, frame, frame.remaining());
+			m_segment = segment;
+		}
+
+		@Override
+		protected void deallocate() {
+			super.deallocate();
+			m_segment.release();
+		}
+	}
+}
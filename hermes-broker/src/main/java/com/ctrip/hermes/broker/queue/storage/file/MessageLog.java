@@ -0,0 +1,199 @@
+package com.ctrip.hermes.broker.queue.storage.file;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ctrip.hermes.broker.queue.storage.file.LogSegment.LogRecord;
+
+/**
+ * Append-only log of one Tpp, made of {@link LogSegment}s. Offsets start from 1 and grow by one per message.
+ *
+ */
+class MessageLog {
+	private static final Logger log = LoggerFactory.getLogger(MessageLog.class);
+
+	private File m_dir;
+
+	private int m_segmentSize;
+
+	private int m_indexIntervalBytes;
+
+	private NavigableMap<Long, LogSegment> m_segments = new ConcurrentSkipListMap<>();
+
+	private volatile LogSegment m_activeSegment;
+
+	private boolean m_dirty = false;
+
+	private ConsumerOffsetCheckpoint m_consumerOffsets;
+
+	public MessageLog(File dir, int segmentSize, int indexIntervalBytes) throws IOException {
+		m_dir = dir;
+		m_segmentSize = segmentSize;
+		m_indexIntervalBytes = indexIntervalBytes;
+
+		if (!m_dir.isDirectory() && !m_dir.mkdirs()) {
+			throw new IOException(String.format("Can not create message log dir %s", m_dir.getAbsolutePath()));
+		}
+
+		loadSegments();
+		m_consumerOffsets = new ConsumerOffsetCheckpoint(new File(m_dir, ConsumerOffsetCheckpoint.FILE_NAME));
+	}
+
+	private void loadSegments() throws IOException {
+		File[] logFiles = m_dir.listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(LogSegment.LOG_SUFFIX);
+			}
+		});
+
+		List<Long> baseOffsets = new ArrayList<>();
+		if (logFiles != null) {
+			for (File logFile : logFiles) {
+				String name = logFile.getName();
+				baseOffsets.add(Long.parseLong(name.substring(0, name.length() - LogSegment.LOG_SUFFIX.length())));
+			}
+		}
+		Collections.sort(baseOffsets);
+
+		for (Long baseOffset : baseOffsets) {
+			LogSegment segment = LogSegment.load(m_dir, baseOffset, m_segmentSize, m_indexIntervalBytes);
+			m_segments.put(baseOffset, segment);
+			m_activeSegment = segment;
+		}
+
+		if (m_activeSegment == null) {
+			m_activeSegment = LogSegment.create(m_dir, 1L, m_segmentSize, m_indexIntervalBytes);
+			m_segments.put(1L, m_activeSegment);
+		}
+
+		log.info("Message log {} loaded, {} segments, last offset {}", m_dir.getAbsolutePath(), m_segments.size(),
+		      getLastOffset());
+	}
+
+	/**
+	 * @return offset assigned to the frame
+	 */
+	public synchronized long append(ByteBuf frame) throws IOException {
+		int frameLength = frame.readableBytes();
+		if (LogSegment.RECORD_HEADER_LENGTH + frameLength > m_segmentSize) {
+			throw new IOException(String.format("Message of %d bytes exceeds segment size %d", frameLength,
+			      m_segmentSize));
+		}
+
+		long offset = m_activeSegment.getLastOffset() + 1;
+		if (!m_activeSegment.hasRoomFor(frameLength)) {
+			roll(offset);
+		}
+
+		m_activeSegment.append(offset, frame);
+		m_dirty = true;
+
+		return offset;
+	}
+
+	private void roll(long baseOffset) throws IOException {
+		LogSegment sealed = m_activeSegment;
+		sealed.flush();
+
+		LogSegment segment = LogSegment.create(m_dir, baseOffset, m_segmentSize, m_indexIntervalBytes);
+		m_segments.put(baseOffset, segment);
+		m_activeSegment = segment;
+
+		log.info("Message log {} rolled to segment {}", m_dir.getAbsolutePath(), baseOffset);
+	}
+
+	/**
+	 * Group commit: one fsync covers everything appended since the previous flush.
+	 */
+	public synchronized void flush() throws IOException {
+		if (m_dirty) {
+			m_activeSegment.flush();
+			m_dirty = false;
+		}
+	}
+
+	public List<LogRecord> read(long afterOffset, int maxCount) {
+		List<LogRecord> records = new ArrayList<>();
+
+		Map.Entry<Long, LogSegment> entry = m_segments.floorEntry(afterOffset + 1);
+		if (entry == null) {
+			// requested offset already deleted by retention, start from the oldest one
+			entry = m_segments.firstEntry();
+		}
+
+		for (LogSegment segment : m_segments.tailMap(entry.getKey(), true).values()) {
+			if (records.size() >= maxCount) {
+				break;
+			}
+			if (segment.getLastOffset() > afterOffset) {
+				segment.read(afterOffset, maxCount, records);
+			}
+		}
+
+		return records;
+	}
+
+	/**
+	 * @return null if there is no message of the offset, or it's already deleted by retention
+	 */
+	public LogRecord find(long offset) {
+		List<LogRecord> records = read(offset - 1, 1);
+		if (records.isEmpty() || records.get(0).getOffset() != offset) {
+			return null;
+		}
+		return records.get(0);
+	}
+
+	public long getLastOffset() {
+		return m_activeSegment.getLastOffset();
+	}
+
+	public ConsumerOffsetCheckpoint getConsumerOffsets() {
+		return m_consumerOffsets;
+	}
+
+	/**
+	 * Delete sealed segments not modified since <tt>expireBefore</tt>. The active segment is always kept. Files of a
+	 * deleted segment stay until frames being transferred from it are released.
+	 */
+	public void deleteExpiredSegments(long expireBefore) {
+		for (LogSegment segment : m_segments.values()) {
+			if (segment == m_activeSegment || segment.getLastModified() >= expireBefore) {
+				break;
+			}
+
+			for (Map.Entry<Integer, Long> entry : m_consumerOffsets.snapshot().entrySet()) {
+				if (entry.getValue() < segment.getLastOffset()) {
+					log.warn("Expired segment {} is deleted before consumer group {} acked it, messages from offset {} to {} are lost",
+					      segment.getLogFile().getAbsolutePath(), entry.getKey(),
+					      Math.max(entry.getValue() + 1, segment.getBaseOffset()), segment.getLastOffset());
+				}
+			}
+
+			m_segments.remove(segment.getBaseOffset());
+			segment.release();
+			log.info("Expired segment {} released", segment.getLogFile().getAbsolutePath());
+		}
+	}
+
+	public synchronized void close() throws IOException {
+		for (LogSegment segment : m_segments.values()) {
+			segment.close();
+		}
+		m_consumerOffsets.checkpoint();
+	}
+}
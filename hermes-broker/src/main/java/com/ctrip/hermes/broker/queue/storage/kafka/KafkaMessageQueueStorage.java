@@ -36,7 +36,7 @@ public class KafkaMessageQueueStorage implements MessageQueueStorage {
 	private Map<String, KafkaMessageBrokerSender> m_senders = new HashMap<>();
 
 	@Override
-	public void appendMessages(Tpp tpp, Collection<MessageBatchWithRawData> batches) throws Exception {
+	public List<Long> appendMessages(Tpp tpp, Collection<MessageBatchWithRawData> batches) throws Exception {
 
 		KafkaMessageBrokerSender sender = getSender(tpp.getTopic());
 
@@ -63,6 +63,8 @@ public class KafkaMessageQueueStorage implements MessageQueueStorage {
 		}
 
 		bizLog(msgs);
+
+		return null;
 	}
 
 	private void bizLog(List<MessagePriority> msgs) {
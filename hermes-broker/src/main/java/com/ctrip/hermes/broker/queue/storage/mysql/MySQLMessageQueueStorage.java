@@ -90,7 +90,7 @@ public class MySQLMessageQueueStorage implements MessageQueueStorage {
 	private Map<Pair<Tpp, Integer>, OffsetMessage> m_offsetMessageCache = new ConcurrentHashMap<>();
 
 	@Override
-	public void appendMessages(Tpp tpp, Collection<MessageBatchWithRawData> batches) throws Exception {
+	public List<Long> appendMessages(Tpp tpp, Collection<MessageBatchWithRawData> batches) throws Exception {
 		List<MessagePriority> msgs = new ArrayList<>();
 		for (MessageBatchWithRawData batch : batches) {
 			List<PartialDecodedMessage> pdmsgs = batch.getMessages();
@@ -115,6 +115,12 @@ public class MySQLMessageQueueStorage implements MessageQueueStorage {
 		m_msgDao.insert(msgs.toArray(new MessagePriority[msgs.size()]));
 
 		bizLog(msgs);
+
+		List<Long> offsets = new ArrayList<>(msgs.size());
+		for (MessagePriority msg : msgs) {
+			offsets.add(msg.getId());
+		}
+		return offsets;
 	}
 
 	private void bizLog(List<MessagePriority> msgs) {
@@ -7,66 +7,104 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Initializable;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.InitializationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.unidal.lookup.annotation.Named;
+import org.unidal.tuple.Pair;
+
 import com.ctrip.hermes.core.bo.Tpg;
 import com.ctrip.hermes.core.bo.Tpp;
 import com.ctrip.hermes.core.utils.HermesThreadFactory;
 
-public class DefaultSelector implements Selector {
+/**
+ * Registrations, cancellations and write offset updates are all applied by one selector thread, so a watcher can not
+ * miss a write published between its read and its registration.
+ *
+ */
+@Named(type = Selector.class)
+public class DefaultSelector implements Selector, Initializable {
+	private static final Logger log = LoggerFactory.getLogger(DefaultSelector.class);
 
 	private BlockingQueue<Runnable> m_tasks = new LinkedBlockingQueue<Runnable>();
 
-	private Map<Tpp, Long> m_writeOffsets = new HashMap<>();
+	private Map<Tpp, Long> m_writeOffsets = new ConcurrentHashMap<>();
+
+	// only touched by the selector thread
+	private Map<Pair<String, Integer>, List<TpgWatcher>> m_watchers = new HashMap<>();
+
+	private Thread m_selectorThread;
 
-	private List<TpgWatcher> m_watchers = new LinkedList<>();
+	@Override
+	public void initialize() throws InitializationException {
+		select();
+	}
 
 	@Override
-	public void registerReadOp(final Tpg tpg, final Runnable runnable) {
+	public List<Long> getWriteOffsets(Tpg tpg) {
+		return Arrays.asList(findTppWriteOffset(new Tpp(tpg.getTopic(), tpg.getPartition(), true)),
+		      findTppWriteOffset(new Tpp(tpg.getTopic(), tpg.getPartition(), false)));
+	}
+
+	@Override
+	public TpgWatcher registerReadOp(final Tpg tpg, List<Long> readOffsets, Runnable runnable) {
+		final TpgWatcher watcher = new TpgWatcher(tpg, readOffsets, runnable);
+
 		m_tasks.offer(new Runnable() {
 
 			@Override
 			public void run() {
-				initWriteOffsets(tpg);
-				m_watchers.add(new TpgWatcher(tpg, queryReadOffset(tpg.getTopic(), tpg.getPartition()), runnable));
+				if (watcher.isCancelled()) {
+					return;
+				}
+
+				if (isReadable(watcher)) {
+					fire(watcher);
+				} else {
+					Pair<String, Integer> tp = new Pair<>(tpg.getTopic(), tpg.getPartition());
+					List<TpgWatcher> watchers = m_watchers.get(tp);
+					if (watchers == null) {
+						watchers = new LinkedList<>();
+						m_watchers.put(tp, watchers);
+					}
+					watchers.add(watcher);
+				}
 			}
 
 		});
+
+		return watcher;
 	}
 
-	private void initWriteOffsets(final Tpg tpg) {
-		// TODO
-		for (int priority = 0; priority < 2; priority++) {
-			Tpp tpp = new Tpp(tpg.getTopic(), tpg.getPartition(), priority == 0 ? true : false);
-			if (m_writeOffsets.get(tpp) == null) {
-				addInitWriteOffsetTask(tpp);
-			}
+	@Override
+	public void cancel(final TpgWatcher watcher) {
+		if (watcher == null) {
+			return;
 		}
-	}
 
-	private void addInitWriteOffsetTask(final Tpp tpp) {
+		watcher.cancel();
 		m_tasks.offer(new Runnable() {
 
 			@Override
 			public void run() {
-				if (!m_writeOffsets.containsKey(tpp)) {
-					m_writeOffsets.put(tpp, queryWriteOffset(tpp));
+				Tpg tpg = watcher.getTpg();
+				Pair<String, Integer> tp = new Pair<>(tpg.getTopic(), tpg.getPartition());
+				List<TpgWatcher> watchers = m_watchers.get(tp);
+				if (watchers != null) {
+					watchers.remove(watcher);
+					if (watchers.isEmpty()) {
+						m_watchers.remove(tp);
+					}
 				}
 			}
 
 		});
 	}
 
-	private List<Long> queryReadOffset(String topic, int partition) {
-		// TODO
-		return Arrays.asList(0L, 0L);
-	}
-
-	private long queryWriteOffset(Tpp tpp) {
-		// TODO
-		return 0;
-	}
-
 	@Override
 	public void updateWriteOffset(final Tpp tpp, final long newWriteOffset) {
 		m_tasks.offer(new Runnable() {
@@ -76,58 +114,85 @@ public class DefaultSelector implements Selector {
 				Long oldWriteOffset = m_writeOffsets.get(tpp);
 				if (oldWriteOffset == null || newWriteOffset > oldWriteOffset) {
 					m_writeOffsets.put(tpp, newWriteOffset);
-					scan();
+					scan(new Pair<>(tpp.getTopic(), tpp.getPartition()));
 				}
 			}
 
 		});
 	}
 
-	private void scan() {
-		Iterator<TpgWatcher> iter = m_watchers.iterator();
+	private void scan(Pair<String, Integer> tp) {
+		List<TpgWatcher> watchers = m_watchers.get(tp);
+		if (watchers == null) {
+			return;
+		}
 
+		Iterator<TpgWatcher> iter = watchers.iterator();
 		while (iter.hasNext()) {
 			TpgWatcher watcher = iter.next();
-			Tpg tpg = watcher.getTpg();
-			boolean readable = false;
-
-			// TODO
-			for (int priority = 0; priority < 2; priority++) {
-				Tpp tpp = new Tpp(tpg.getTopic(), tpg.getPartition(), priority == 0 ? true : false);
-				Long writeOffset = findTppWriteOffset(tpp);
-				if (writeOffset != null) {
-					if (watcher.isReadable(writeOffset, priority)) {
-						readable = true;
-						break;
-					}
-				}
+			if (watcher.isCancelled()) {
+				iter.remove();
+			} else if (isReadable(watcher)) {
+				iter.remove();
+				fire(watcher);
 			}
+		}
 
-			if (readable) {
-				iter.remove();
-				watcher.getRunnable().run();
+		if (watchers.isEmpty()) {
+			m_watchers.remove(tp);
+		}
+	}
+
+	private boolean isReadable(TpgWatcher watcher) {
+		List<Long> writeOffsets = getWriteOffsets(watcher.getTpg());
+		for (int priority = 0; priority < 2; priority++) {
+			if (watcher.isReadable(writeOffsets.get(priority), priority)) {
+				return true;
 			}
+		}
+		return false;
+	}
 
+	private void fire(TpgWatcher watcher) {
+		try {
+			watcher.getRunnable().run();
+		} catch (Exception e) {
+			log.error("Exception occurred while notifying watcher of {}", watcher.getTpg(), e);
 		}
 	}
 
-	private Long findTppWriteOffset(Tpp tpp) {
-		return m_writeOffsets.get(tpp);
+	private long findTppWriteOffset(Tpp tpp) {
+		Long writeOffset = m_writeOffsets.get(tpp);
+		return writeOffset == null ? -1L : writeOffset;
 	}
 
 	@Override
-	public void select() {
-		HermesThreadFactory.create("HermesSelector", false).newThread(new Runnable() {
+	public synchronized void select() {
+		if (m_selectorThread != null) {
+			return;
+		}
+
+		m_selectorThread = HermesThreadFactory.create("HermesSelector", true).newThread(new Runnable() {
 			public void run() {
 				while (!Thread.interrupted()) {
 					try {
 						m_tasks.take().run();
 					} catch (InterruptedException e) {
 						Thread.currentThread().interrupt();
+					} catch (Exception e) {
+						log.error("Exception occurred in selector", e);
 					}
 				}
 
 			}
-		}).start();
+		});
+		m_selectorThread.start();
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (m_selectorThread != null) {
+			m_selectorThread.interrupt();
+		}
 	}
 }
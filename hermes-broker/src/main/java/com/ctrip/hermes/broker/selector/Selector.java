@@ -1,14 +1,29 @@
 package com.ctrip.hermes.broker.selector;
 
+import java.util.List;
+
 import com.ctrip.hermes.core.bo.Tpg;
 import com.ctrip.hermes.core.bo.Tpp;
 
 public interface Selector {
 
-	void registerReadOp(Tpg tpg, Runnable runnable);
+	/**
+	 * Write offsets of the priority and non-priority queue of the Tpg, -1 if nothing was written since startup.
+	 */
+	List<Long> getWriteOffsets(Tpg tpg);
+
+	/**
+	 * Run <tt>runnable</tt> once any write offset of the Tpg goes beyond the given read offsets. The runnable is called
+	 * on the selector thread and must not block.
+	 */
+	TpgWatcher registerReadOp(Tpg tpg, List<Long> readOffsets, Runnable runnable);
+
+	void cancel(TpgWatcher watcher);
 
 	void updateWriteOffset(Tpp tpp, long newWriteOffset);
 
 	void select();
 
+	void stop();
+
 }
@@ -12,6 +12,8 @@ public class TpgWatcher {
 
 	private Runnable m_runnable;
 
+	private volatile boolean m_cancelled = false;
+
 	public TpgWatcher(Tpg tpg, List<Long> readOffsets, Runnable runnable) {
 		m_tpg = tpg;
 		m_readOffsets = readOffsets;
@@ -34,4 +36,12 @@ public class TpgWatcher {
 		return m_readOffsets.get(priority) < writeOffset;
 	}
 
+	public boolean isCancelled() {
+		return m_cancelled;
+	}
+
+	void cancel() {
+		m_cancelled = true;
+	}
+
 }
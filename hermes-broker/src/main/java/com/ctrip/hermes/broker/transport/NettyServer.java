@@ -5,10 +5,7 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.timeout.IdleStateHandler;
 
 import org.unidal.lookup.ContainerHolder;
@@ -19,9 +16,10 @@ import com.ctrip.hermes.broker.config.BrokerConfig;
 import com.ctrip.hermes.core.transport.command.processor.CommandProcessorManager;
 import com.ctrip.hermes.core.transport.endpoint.DefaultServerChannelInboundHandler;
 import com.ctrip.hermes.core.transport.netty.DefaultNettyChannelOutboundHandler;
-import com.ctrip.hermes.core.transport.netty.MagicNumberPrepender;
+import com.ctrip.hermes.core.transport.netty.MagicNumberAndLengthPrepender;
 import com.ctrip.hermes.core.transport.netty.NettyDecoder;
 import com.ctrip.hermes.core.transport.netty.NettyEncoder;
+import com.ctrip.hermes.core.transport.netty.NettyTransport;
 import com.ctrip.hermes.core.utils.HermesThreadFactory;
 
 @Named(type = NettyServer.class)
@@ -30,30 +28,38 @@ public class NettyServer extends ContainerHolder {
 	@Inject
 	private BrokerConfig m_config;
 
-	private EventLoopGroup m_bossGroup = new NioEventLoopGroup(0, HermesThreadFactory.create("NettyServer-boss", false));
+	private EventLoopGroup m_bossGroup;
 
-	private EventLoopGroup m_workerGroup = new NioEventLoopGroup(0, HermesThreadFactory.create("NettyServer-worker",
-	      false));
+	private EventLoopGroup m_workerGroup;
 
 	public ChannelFuture start(int port) {
+		NettyTransport transport = new NettyTransport(m_config.isNettyNativeEpollEnabled());
+		m_bossGroup = transport.newEventLoopGroup(m_config.getNettyServerBossThreadCount(),
+		      HermesThreadFactory.create("NettyServer-boss", false));
+		m_workerGroup = transport.newEventLoopGroup(m_config.getNettyServerWorkerThreadCount(),
+		      HermesThreadFactory.create("NettyServer-worker", false));
+
 		ServerBootstrap b = new ServerBootstrap();
 		b.group(m_bossGroup, m_workerGroup)//
-		      .channel(NioServerSocketChannel.class)//
+		      .channel(transport.getServerSocketChannelClass())//
 		      .childHandler(new ChannelInitializer<SocketChannel>() {
 			      @Override
 			      public void initChannel(SocketChannel ch) throws Exception {
+				      NettyTransport.setWriteBufferWaterMark(ch, m_config.getNettyServerWriteBufferLowWaterMark(),
+				            m_config.getNettyServerWriteBufferHighWaterMark());
 				      ch.pipeline().addLast(
 				            new DefaultNettyChannelOutboundHandler(),//
 				            new NettyDecoder(), //
-				            new MagicNumberPrepender(), //
-				            new LengthFieldPrepender(4), //
+				            new MagicNumberAndLengthPrepender(), //
 				            new NettyEncoder(), //
 				            new IdleStateHandler(0, 0, m_config.getClientMaxIdleSeconds()),//
 				            new DefaultServerChannelInboundHandler(lookup(CommandProcessorManager.class), m_config
 				                  .getClientMaxIdleSeconds()));
 			      }
 		      }).option(ChannelOption.SO_BACKLOG, 128) // TODO set tcp options
-		      .childOption(ChannelOption.SO_KEEPALIVE, true);
+		      .option(ChannelOption.ALLOCATOR, NettyTransport.ALLOCATOR)//
+		      .childOption(ChannelOption.SO_KEEPALIVE, true)//
+		      .childOption(ChannelOption.ALLOCATOR, NettyTransport.ALLOCATOR);
 
 		// Bind and start to accept incoming connections.
 		ChannelFuture f = b.bind(port);
@@ -62,8 +68,12 @@ public class NettyServer extends ContainerHolder {
 	}
 
 	public void stop() {
-		m_workerGroup.shutdownGracefully();
-		m_bossGroup.shutdownGracefully();
+		if (m_workerGroup != null) {
+			m_workerGroup.shutdownGracefully();
+		}
+		if (m_bossGroup != null) {
+			m_bossGroup.shutdownGracefully();
+		}
 	}
 
 }
\ No newline at end of file
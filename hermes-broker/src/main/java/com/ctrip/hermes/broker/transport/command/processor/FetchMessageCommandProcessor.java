@@ -0,0 +1,97 @@
+package com.ctrip.hermes.broker.transport.command.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.unidal.lookup.annotation.Inject;
+
+import com.ctrip.hermes.broker.config.BrokerConfig;
+import com.ctrip.hermes.broker.lease.BrokerLeaseContainer;
+import com.ctrip.hermes.broker.longpolling.LongPollingService;
+import com.ctrip.hermes.broker.longpolling.PullEntry;
+import com.ctrip.hermes.core.bo.Tpg;
+import com.ctrip.hermes.core.lease.Lease;
+import com.ctrip.hermes.core.meta.MetaService;
+import com.ctrip.hermes.core.transport.command.CommandType;
+import com.ctrip.hermes.core.transport.command.FetchMessageCommand;
+import com.ctrip.hermes.core.transport.command.PullMessageCommand;
+import com.ctrip.hermes.core.transport.command.PullMessageResultCommand;
+import com.ctrip.hermes.core.transport.command.processor.CommandProcessor;
+import com.ctrip.hermes.core.transport.command.processor.CommandProcessorContext;
+import com.ctrip.hermes.core.transport.compress.Compression;
+
+/**
+ * Long polls all partitions of a fetch at once, partitions this broker holds no lease of are left out.
+ */
+public class FetchMessageCommandProcessor implements CommandProcessor {
+
+	private static final Logger log = LoggerFactory.getLogger(FetchMessageCommandProcessor.class);
+
+	@Inject
+	private LongPollingService m_longPollingService;
+
+	@Inject
+	private BrokerLeaseContainer m_leaseContainer;
+
+	@Inject
+	private BrokerConfig m_config;
+
+	@Inject
+	private MetaService m_metaService;
+
+	@Override
+	public List<CommandType> commandTypes() {
+		return Arrays.asList(CommandType.MESSAGE_FETCH);
+	}
+
+	@Override
+	public void process(CommandProcessorContext ctx) {
+		FetchMessageCommand reqCmd = (FetchMessageCommand) ctx.getCommand();
+		long correlationId = reqCmd.getHeader().getCorrelationId();
+
+		List<PullEntry> entries = new ArrayList<>(reqCmd.getPulls().size());
+		for (PullMessageCommand pull : reqCmd.getPulls()) {
+			try {
+				if (m_metaService.containsConsumerGroup(pull.getTopic(), pull.getGroupId())) {
+					Lease lease = m_leaseContainer.acquireLease(pull.getTopic(), pull.getPartition(), m_config.getSessionId());
+
+					if (lease != null) {
+						entries.add(new PullEntry(new Tpg(pull.getTopic(), pull.getPartition(), pull.getGroupId()), pull
+						      .getSize(), lease));
+					} else {
+						if (log.isDebugEnabled()) {
+							log.debug(
+							      "No broker lease to handle client fetch message reqeust(correlationId={}, topic={}, partition={}, groupId={})",
+							      correlationId, pull.getTopic(), pull.getPartition(), pull.getGroupId());
+						}
+					}
+				} else {
+					if (log.isDebugEnabled()) {
+						log.debug("Consumer group not found for topic (correlationId={}, topic={}, partition={}, groupId={})",
+						      correlationId, pull.getTopic(), pull.getPartition(), pull.getGroupId());
+					}
+				}
+			} catch (Exception e) {
+				if (log.isDebugEnabled()) {
+					log.debug(
+					      "Exception occurred while handling client fetch message reqeust(correlationId={}, topic={}, partition={}, groupId={})",
+					      correlationId, pull.getTopic(), pull.getPartition(), pull.getGroupId(), e);
+				}
+			}
+		}
+
+		if (!entries.isEmpty()) {
+			m_longPollingService.scheduleFetch(entries, correlationId, ctx.getChannel(), reqCmd.getExpireTime(),
+			      Compression.isAccepted(reqCmd.getHeader()));
+		} else {
+			// no lease of any partition, response with empty result
+			PullMessageResultCommand cmd = new PullMessageResultCommand();
+			cmd.getHeader().setCorrelationId(correlationId);
+
+			ctx.getChannel().writeAndFlush(cmd);
+		}
+	}
+}
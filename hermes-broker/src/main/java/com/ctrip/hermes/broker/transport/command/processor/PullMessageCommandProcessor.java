@@ -18,6 +18,7 @@ import com.ctrip.hermes.core.transport.command.PullMessageCommand;
 import com.ctrip.hermes.core.transport.command.PullMessageResultCommand;
 import com.ctrip.hermes.core.transport.command.processor.CommandProcessor;
 import com.ctrip.hermes.core.transport.command.processor.CommandProcessorContext;
+import com.ctrip.hermes.core.transport.compress.Compression;
 
 public class PullMessageCommandProcessor implements CommandProcessor {
 
@@ -53,7 +54,8 @@ public class PullMessageCommandProcessor implements CommandProcessor {
 				if (lease != null) {
 					m_longPollingService.schedulePush(
 					      new Tpg(reqCmd.getTopic(), reqCmd.getPartition(), reqCmd.getGroupId()), correlationId,
-					      reqCmd.getSize(), ctx.getChannel(), reqCmd.getExpireTime(), lease);
+					      reqCmd.getSize(), ctx.getChannel(), reqCmd.getExpireTime(), lease,
+					      Compression.isAccepted(reqCmd.getHeader()));
 					return;
 				} else {
 					if (log.isDebugEnabled()) {
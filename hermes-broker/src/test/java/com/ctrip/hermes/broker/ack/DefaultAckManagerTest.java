@@ -0,0 +1,241 @@
+package com.ctrip.hermes.broker.ack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Test;
+import org.unidal.tuple.Pair;
+
+import com.ctrip.hermes.broker.ack.internal.AckHolder;
+import com.ctrip.hermes.broker.ack.internal.SlidingWindowAckHolder;
+import com.ctrip.hermes.broker.config.BrokerConfig;
+import com.ctrip.hermes.broker.queue.MessageQueueCursor;
+import com.ctrip.hermes.broker.queue.MessageQueueManager;
+import com.ctrip.hermes.core.bo.Tpg;
+import com.ctrip.hermes.core.bo.Tpp;
+import com.ctrip.hermes.core.lease.Lease;
+import com.ctrip.hermes.core.message.TppConsumerMessageBatch.MessageMeta;
+import com.ctrip.hermes.core.meta.MetaService;
+import com.ctrip.hermes.core.service.SystemClockService;
+import com.ctrip.hermes.core.transport.command.AckMessageCommand.AckContext;
+import com.ctrip.hermes.core.transport.command.SendMessageCommand.MessageBatchWithRawData;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class DefaultAckManagerTest {
+
+	private TestAckManager m_ackManager;
+
+	@After
+	public void after() {
+		if (m_ackManager != null) {
+			m_ackManager.stop();
+		}
+	}
+
+	@Test
+	public void testKeysAckedOnTheirOwnShards() throws Exception {
+		m_ackManager = new TestAckManager(4, 1000, 10);
+
+		int keyCount = 20;
+		for (int i = 0; i < keyCount; i++) {
+			Tpp tpp = new Tpp("topic", i, true);
+			m_ackManager.delivered(tpp, "group", false, metas(0, 10));
+			m_ackManager.nacked(tpp, "group", false, contexts(3));
+			m_ackManager.acked(tpp, "group", false, contexts(0, 1, 2, 4, 5, 6, 7, 8, 9));
+		}
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (m_ackManager.m_queueManager.m_acked.size() < keyCount && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		assertEquals(keyCount, m_ackManager.m_queueManager.m_acked.size());
+		for (int i = 0; i < keyCount; i++) {
+			assertEquals(Long.valueOf(9), m_ackManager.m_queueManager.m_acked.get(i));
+			assertEquals(1, m_ackManager.m_queueManager.m_nacked.get(i).size());
+			assertEquals(Long.valueOf(3), m_ackManager.m_queueManager.m_nacked.get(i).get(0).getKey());
+		}
+		assertEquals(0, m_ackManager.getDroppedOperationCount());
+	}
+
+	@Test
+	public void testFullShardDropsWithoutBlocking() throws Exception {
+		// workers never run before stop, a shard queue holds one operation
+		m_ackManager = new TestAckManager(2, 2, 3600 * 1000L);
+
+		Tpp tpp = new Tpp("topic", 0, true);
+		m_ackManager.delivered(tpp, "group", false, metas(0, 1));
+
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 1000; i++) {
+			m_ackManager.acked(tpp, "group", false, contexts(0));
+		}
+		assertTrue(System.currentTimeMillis() - start < 1000);
+
+		assertEquals(1000, m_ackManager.getDroppedOperationCount());
+		assertEquals("1000", m_ackManager.getProperties().get("ops.dropped"));
+
+		assertEquals(1, queueDepth());
+	}
+
+	@Test
+	public void testFullShardDeliveredWaits() throws Exception {
+		// a shard queue holds one operation, workers drain it every 300ms
+		m_ackManager = new TestAckManager(2, 2, 300);
+
+		Tpp tpp = new Tpp("topic", 0, true);
+		m_ackManager.delivered(tpp, "group", false, metas(0, 5));
+
+		long start = System.currentTimeMillis();
+		m_ackManager.delivered(tpp, "group", false, metas(5, 5));
+		assertTrue(System.currentTimeMillis() - start >= 100);
+		assertEquals(1, m_ackManager.getDeliveredWaitCount());
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (queueDepth() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		m_ackManager.acked(tpp, "group", false, contexts(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+
+		while (!Long.valueOf(9).equals(m_ackManager.m_queueManager.m_acked.get(0))
+		      && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		// both deliveries were registered
+		assertEquals(Long.valueOf(9), m_ackManager.m_queueManager.m_acked.get(0));
+		assertEquals(0, m_ackManager.getDroppedOperationCount());
+		assertEquals("1", m_ackManager.getProperties().get("ops.delivered.waits"));
+	}
+
+	private int queueDepth() {
+		int depth = 0;
+		for (Map.Entry<String, String> entry : m_ackManager.getProperties().entrySet()) {
+			if (entry.getKey().endsWith(".queue.depth")) {
+				depth += Integer.parseInt(entry.getValue());
+			}
+		}
+		return depth;
+	}
+
+	private List<MessageMeta> metas(long start, int count) {
+		List<MessageMeta> metas = new ArrayList<>();
+		for (long id = start; id < start + count; id++) {
+			metas.add(new MessageMeta(id, 3, id, 0, false));
+		}
+		return metas;
+	}
+
+	private List<AckContext> contexts(long... msgSeqs) {
+		List<AckContext> contexts = new ArrayList<>();
+		for (long msgSeq : msgSeqs) {
+			contexts.add(new AckContext(msgSeq, 3, 0, 0));
+		}
+		return contexts;
+	}
+
+	private static void inject(Object target, String fieldName, Object value) throws Exception {
+		Field field = DefaultAckManager.class.getDeclaredField(fieldName);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+
+	private static class TestAckManager extends DefaultAckManager {
+
+		private TestQueueManager m_queueManager = new TestQueueManager();
+
+		public TestAckManager(final int shardCount, final int queueSize, final long checkIntervalMillis) throws Exception {
+			inject(this, "m_queueManager", m_queueManager);
+			inject(this, "m_metaService", metaService());
+			inject(this, "m_systemClockService", new SystemClockService() {
+				@Override
+				public long now() {
+					return System.currentTimeMillis();
+				}
+			});
+			inject(this, "m_config", new BrokerConfig() {
+				@Override
+				public int getAckManagerShardCount() {
+					return shardCount;
+				}
+
+				@Override
+				public int getAckManagerOpQueueSize() {
+					return queueSize;
+				}
+
+				@Override
+				public long getAckManagerCheckIntervalMillis() {
+					return checkIntervalMillis;
+				}
+			});
+			initialize();
+		}
+
+		@Override
+		protected AckHolder<MessageMeta> createAckHolder(int timeout) {
+			return new SlidingWindowAckHolder<MessageMeta>(timeout) {
+				@Override
+				protected boolean isTimeout(long start, int timeout) {
+					return false;
+				}
+			};
+		}
+
+		private static MetaService metaService() {
+			return (MetaService) Proxy.newProxyInstance(MetaService.class.getClassLoader(),
+			      new Class<?>[] { MetaService.class }, new InvocationHandler() {
+				      @Override
+				      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					      if ("getAckTimeoutSecondsByTopicAndConsumerGroup".equals(method.getName())) {
+						      return 30;
+					      }
+					      throw new UnsupportedOperationException(method.getName());
+				      }
+			      });
+		}
+	}
+
+	private static class TestQueueManager implements MessageQueueManager {
+
+		// partition -> last acked offset
+		private Map<Integer, Long> m_acked = new ConcurrentHashMap<>();
+
+		private Map<Integer, List<Pair<Long, MessageMeta>>> m_nacked = new ConcurrentHashMap<>();
+
+		@Override
+		public ListenableFuture<Map<Integer, Boolean>> appendMessageAsync(Tpp tpp, MessageBatchWithRawData data,
+		      Lease lease) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public MessageQueueCursor getCursor(Tpg tpg, Lease lease) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void nack(Tpp tpp, String groupId, boolean resend, List<Pair<Long, MessageMeta>> msgId2Metas) {
+			m_nacked.put(tpp.getPartition(), msgId2Metas);
+		}
+
+		@Override
+		public void ack(Tpp tpp, String groupId, boolean resend, long msgSeq) {
+			m_acked.put(tpp.getPartition(), msgSeq);
+		}
+
+		@Override
+		public void stop() {
+		}
+	}
+}
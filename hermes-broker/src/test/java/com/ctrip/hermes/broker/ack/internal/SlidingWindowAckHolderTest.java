@@ -0,0 +1,205 @@
+package com.ctrip.hermes.broker.ack.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.unidal.tuple.Pair;
+
+public class SlidingWindowAckHolderTest {
+
+	@Test
+	public void testAllAcked() throws Exception {
+		SlidingWindowAckHolder<String> holder = new TestHolder(false);
+		holder.delivered(batch(10, 3), 0);
+		holder.delivered(batch(13, 2), 0);
+
+		holder.acked(10, true);
+		holder.acked(11, true);
+		holder.acked(12, true);
+		holder.acked(14, true);
+
+		// second batch still waiting for 13
+		BatchResult<String> result = holder.scan();
+		assertEquals(new ContinuousRange(10, 12), result.getDoneRange());
+		assertNull(result.getFailRange());
+		assertNull(holder.scan());
+
+		holder.acked(13, true);
+		result = holder.scan();
+		assertEquals(new ContinuousRange(13, 14), result.getDoneRange());
+		assertNull(result.getFailRange());
+
+		assertEquals(0, holder.outstanding());
+		assertEquals(0, holder.indexSize());
+	}
+
+	@Test
+	public void testHeadBatchBlocksLaterBatches() throws Exception {
+		SlidingWindowAckHolder<String> holder = new TestHolder(false);
+		holder.delivered(batch(10, 2), 0);
+		holder.delivered(batch(12, 2), 0);
+
+		holder.acked(12, true);
+		holder.acked(13, true);
+		assertNull(holder.scan());
+
+		holder.acked(10, true);
+		holder.acked(11, false);
+
+		BatchResult<String> result = holder.scan();
+		assertEquals(new ContinuousRange(10, 13), result.getDoneRange());
+		assertEquals(offsets(11), failOffsets(result));
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		TestHolder holder = new TestHolder(false);
+		holder.delivered(batch(10, 4), 0);
+		holder.acked(11, true);
+		holder.acked(12, false);
+
+		holder.m_timeout = true;
+		BatchResult<String> result = holder.scan();
+		assertEquals(new ContinuousRange(10, 13), result.getDoneRange());
+		assertEquals(offsets(10, 12, 13), failOffsets(result));
+		assertEquals("ctx-10", result.getFailRange().getOffsets().get(0).getValue());
+
+		// ack after timeout is ignored
+		holder.acked(13, true);
+		assertNull(holder.scan());
+	}
+
+	@Test
+	public void testGrowAndWrap() throws Exception {
+		SlidingWindowAckHolder<String> holder = new TestHolder(false);
+
+		long offset = 0;
+		for (int round = 0; round < 20; round++) {
+			for (int i = 0; i < 50; i++) {
+				holder.delivered(batch(offset + i * 7, 7), 0);
+			}
+			for (int i = 0; i < 350; i++) {
+				if (i % 100 != 0) {
+					holder.acked(offset + i, true);
+				} else {
+					holder.acked(offset + i, false);
+				}
+			}
+
+			BatchResult<String> result = holder.scan();
+			assertEquals(new ContinuousRange(offset, offset + 349), result.getDoneRange());
+			assertEquals(offsets(offset, offset + 100, offset + 200, offset + 300), failOffsets(result));
+			assertEquals(0, holder.outstanding());
+			assertEquals(0, holder.indexSize());
+
+			offset += 350;
+		}
+	}
+
+	@Test
+	public void testDuplicatedOffsetInOneBatch() throws Exception {
+		SlidingWindowAckHolder<String> holder = new TestHolder(false);
+		List<Pair<Long, String>> batch = batch(10, 3);
+		batch.add(1, new Pair<>(10L, "ctx-10"));
+		batch.add(new Pair<>(12L, "ctx-12"));
+		holder.delivered(batch, 0);
+		assertEquals(3, holder.outstanding());
+
+		holder.acked(10, true);
+		holder.acked(11, true);
+		holder.acked(12, true);
+
+		BatchResult<String> result = holder.scan();
+		assertEquals(new ContinuousRange(10, 12), result.getDoneRange());
+		assertNull(result.getFailRange());
+		assertEquals(0, holder.outstanding());
+		assertEquals(0, holder.indexSize());
+	}
+
+	@Test
+	public void testRedeliveredOffsetAckedToLatestDelivery() throws Exception {
+		SlidingWindowAckHolder<String> holder = new TestHolder(false);
+		holder.delivered(batch(10, 2), 0);
+		holder.delivered(batch(11, 2), 0);
+
+		// 11 of the first batch is superseded, the first batch only waits for 10
+		holder.acked(10, true);
+		BatchResult<String> result = holder.scan();
+		assertEquals(new ContinuousRange(10, 11), result.getDoneRange());
+		assertNull(result.getFailRange());
+		assertNull(holder.scan());
+
+		holder.acked(11, false);
+		holder.acked(12, true);
+		result = holder.scan();
+		assertEquals(new ContinuousRange(11, 12), result.getDoneRange());
+		assertEquals(offsets(11), failOffsets(result));
+		assertEquals(0, holder.outstanding());
+		assertEquals(0, holder.indexSize());
+	}
+
+	@Test
+	public void testRedeliveredOffsetAfterAck() throws Exception {
+		TestHolder holder = new TestHolder(false);
+		holder.delivered(batch(10, 1), 0);
+		holder.acked(10, true);
+		holder.delivered(batch(10, 1), 0);
+
+		BatchResult<String> result = holder.scan();
+		assertEquals(new ContinuousRange(10, 10), result.getDoneRange());
+		assertNull(result.getFailRange());
+		assertEquals(1, holder.outstanding());
+		assertEquals(1, holder.indexSize());
+
+		// the redelivery still waits for its own ack
+		holder.m_timeout = true;
+		result = holder.scan();
+		assertEquals(offsets(10), failOffsets(result));
+		assertEquals(0, holder.indexSize());
+	}
+
+	private List<Pair<Long, String>> batch(long start, int size) {
+		List<Pair<Long, String>> batch = new ArrayList<>();
+		for (long offset = start; offset < start + size; offset++) {
+			batch.add(new Pair<>(offset, "ctx-" + offset));
+		}
+		return batch;
+	}
+
+	private Set<Long> offsets(long... offsets) {
+		Set<Long> set = new HashSet<>();
+		for (long offset : offsets) {
+			set.add(offset);
+		}
+		return set;
+	}
+
+	private Set<Long> failOffsets(BatchResult<String> result) {
+		Set<Long> set = new HashSet<>();
+		for (Pair<Long, String> pair : result.getFailRange().getOffsets()) {
+			set.add(pair.getKey());
+		}
+		return set;
+	}
+
+	private static class TestHolder extends SlidingWindowAckHolder<String> {
+
+		private boolean m_timeout;
+
+		public TestHolder(boolean timeout) {
+			super(5000);
+			m_timeout = timeout;
+		}
+
+		@Override
+		protected boolean isTimeout(long start, int timeout) {
+			return m_timeout;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.ctrip.hermes.broker.queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.unidal.dal.jdbc.DalException;
+import org.unidal.dal.jdbc.Readset;
+
+import com.ctrip.hermes.broker.dal.hermes.MessagePriority;
+import com.ctrip.hermes.broker.dal.hermes.MessagePriorityDao;
+import com.ctrip.hermes.broker.queue.storage.MessageQueueStorage.FetchResult;
+import com.ctrip.hermes.broker.queue.storage.mysql.MySQLMessageQueueStorage;
+import com.ctrip.hermes.core.bo.Tpg;
+import com.ctrip.hermes.core.bo.Tpp;
+import com.ctrip.hermes.core.lease.Lease;
+import com.ctrip.hermes.core.message.PartialDecodedMessage;
+import com.ctrip.hermes.core.message.codec.DefaultMessageCodec;
+import com.ctrip.hermes.core.message.codec.MessageCodec;
+import com.ctrip.hermes.core.meta.MetaService;
+
+public class DefaultMessageQueueCursorTest {
+
+	private AtomicInteger m_daoQueries = new AtomicInteger();
+
+	// rows of table message_priority
+	private List<MessagePriority> m_rows = new ArrayList<>();
+
+	@Test
+	public void testCaughtUpCursorDoesNotQueryDao() throws Exception {
+		MessageCodec codec = new DefaultMessageCodec();
+		MySQLMessageQueueStorage storage = new MySQLMessageQueueStorage();
+		inject(storage, "m_messageCodec", codec);
+		inject(storage, "m_msgDao", new MessagePriorityDao() {
+			@Override
+			public List<MessagePriority> findIdAfter(String topic, int partition, int priority, long startId, int batchSize,
+			      Readset<MessagePriority> readset) throws DalException {
+				m_daoQueries.incrementAndGet();
+				List<MessagePriority> rows = new ArrayList<>();
+				for (MessagePriority row : m_rows) {
+					if (row.getId() > startId && rows.size() < batchSize) {
+						rows.add(row);
+					}
+				}
+				return rows;
+			}
+		});
+
+		MessageQueueTailCache cache = new MessageQueueTailCache(new Tpp("topic", 0, true), 1024 * 1024, 100, codec);
+		DefaultMessageQueueCursor cursor = new DefaultMessageQueueCursor(new Tpg("topic", 0, "group"), new Lease(1,
+		      Long.MAX_VALUE), storage, metaService(), cache, null);
+		cursor.m_priorityOffset = 10L;
+
+		// what the dumper does: encode, store, cache
+		List<PartialDecodedMessage> msgs = Arrays.asList(message("key-11", "body-11"), message("key-12", "body-12"));
+		List<ByteBuf> frames = cache.encode(msgs);
+		store(11L, msgs.get(0));
+		store(12L, msgs.get(1));
+		cache.append(Arrays.asList(11L, 12L), frames);
+
+		FetchResult cached = cursor.fetchPriortyMessages(10);
+		assertEquals(2, cached.getBatch().size());
+		assertEquals(12L, cached.getOffset());
+		assertEquals(0, m_daoQueries.get());
+
+		// caught up, still nothing from the database
+		cursor.m_priorityOffset = 12L;
+		assertNull(cursor.fetchPriortyMessages(10).getBatch());
+		assertEquals(0, m_daoQueries.get());
+
+		// the database delivers the same bytes
+		cache.clear();
+		cursor.m_priorityOffset = 10L;
+		FetchResult stored = cursor.fetchPriortyMessages(10);
+		assertEquals(1, m_daoQueries.get());
+		assertEquals(transfer(stored), transfer(cached));
+	}
+
+	private PartialDecodedMessage message(String key, String body) {
+		PartialDecodedMessage msg = new PartialDecodedMessage();
+		msg.setKey(key);
+		msg.setBody(Unpooled.wrappedBuffer(body.getBytes()));
+		msg.setBornTime(System.currentTimeMillis());
+		msg.setBodyCodecType("json");
+		msg.setRemainingRetries(3);
+		msg.setDurableProperties(Unpooled.wrappedBuffer(("durable-" + key).getBytes()));
+		msg.setVolatileProperties(Unpooled.wrappedBuffer(("volatile-" + key).getBytes()));
+		return msg;
+	}
+
+	private void store(long id, PartialDecodedMessage msg) {
+		// as MySQLMessageQueueStorage.appendMessages, it reads the message buffers
+		MessagePriority row = new MessagePriority();
+		row.setId(id);
+		row.setAttributes(msg.readDurableProperties());
+		row.setPayload(msg.readBody());
+		row.setCreationDate(new Date(msg.getBornTime()));
+		row.setRefKey(msg.getKey());
+		row.setCodecType(msg.getBodyCodecType());
+		m_rows.add(row);
+	}
+
+	private ByteBuf transfer(FetchResult result) {
+		ByteBuf out = Unpooled.buffer();
+		result.getBatch().getTransferCallback().transfer(out);
+		return out;
+	}
+
+	private static void inject(Object target, String fieldName, Object value) throws Exception {
+		Field field = target.getClass().getDeclaredField(fieldName);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+
+	private static MetaService metaService() {
+		return (MetaService) Proxy.newProxyInstance(MetaService.class.getClassLoader(),
+		      new Class<?>[] { MetaService.class }, new InvocationHandler() {
+			      @Override
+			      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				      if ("translateToIntGroupId".equals(method.getName())) {
+					      return 1;
+				      }
+				      throw new UnsupportedOperationException(method.getName());
+			      }
+		      });
+	}
+}
@@ -0,0 +1,87 @@
+package com.ctrip.hermes.broker.queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ctrip.hermes.broker.queue.storage.MessageQueueStorage.FetchResult;
+import com.ctrip.hermes.core.bo.Tpp;
+import com.ctrip.hermes.core.message.codec.DefaultMessageCodec;
+import com.ctrip.hermes.core.transport.ZeroCopyTransferCallback;
+
+public class MessageQueueTailCacheTest {
+
+	@Test
+	public void testServeAndEvict() throws Exception {
+		// room for 3 frames of 10 bytes
+		MessageQueueTailCache cache = new MessageQueueTailCache(new Tpp("topic", 0, true), 30, 100,
+		      new DefaultMessageCodec());
+		append(cache, 11, 12, 13);
+
+		FetchResult result = cache.fetch(10L, 2);
+		assertEquals(2, result.getBatch().size());
+		assertEquals(12L, result.getOffset());
+
+		// caught up, nothing new
+		result = cache.fetch(13L, 10);
+		assertNull(result.getBatch());
+
+		append(cache, 15);
+		assertEquals(3, cache.size());
+		// 11 evicted, messages after it are all cached
+		assertNull(cache.fetch(10L, 10));
+		result = cache.fetch(11L, 10);
+		assertEquals(3, result.getBatch().size());
+		assertEquals(15L, result.getOffset());
+
+		// cursor ahead of the cache
+		assertNull(cache.fetch(16L, 10));
+
+		assertEquals(3, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void testFetchedBatchSurvivesEviction() throws Exception {
+		MessageQueueTailCache cache = new MessageQueueTailCache(new Tpp("topic", 0, true), 20, 100,
+		      new DefaultMessageCodec());
+		append(cache, 1, 2);
+
+		// fetched but never written, nothing to release
+		cache.fetch(0L, 10);
+
+		FetchResult result = cache.fetch(0L, 10);
+		append(cache, 3, 4);
+		cache.clear();
+
+		ZeroCopyTransferCallback callback = (ZeroCopyTransferCallback) result.getBatch().getTransferCallback();
+		ByteBuf out = Unpooled.buffer();
+		callback.transfer(out);
+		assertEquals(20, out.readableBytes());
+
+		ByteBuf region = callback.region();
+		assertEquals(20, region.readableBytes());
+		assertTrue(region.release());
+		// the cached frames are still readable by later regions
+		region = callback.region();
+		assertEquals(20, region.readableBytes());
+		region.release();
+	}
+
+	private void append(MessageQueueTailCache cache, long... offsets) {
+		List<Long> offsetList = new ArrayList<>();
+		List<ByteBuf> frames = new ArrayList<>();
+		for (long offset : offsets) {
+			offsetList.add(offset);
+			frames.add(Unpooled.wrappedBuffer(new byte[10]));
+		}
+		cache.append(offsetList, frames);
+	}
+}
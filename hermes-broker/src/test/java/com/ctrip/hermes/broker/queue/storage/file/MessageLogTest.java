@@ -0,0 +1,90 @@
+package com.ctrip.hermes.broker.queue.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ctrip.hermes.broker.queue.storage.file.LogSegment.LogRecord;
+
+public class MessageLogTest {
+
+	private File m_dir;
+
+	@Before
+	public void before() throws Exception {
+		m_dir = File.createTempFile("message-log", "");
+		m_dir.delete();
+	}
+
+	@After
+	public void after() {
+		delete(m_dir);
+	}
+
+	@Test
+	public void testAppendRollAndRecover() throws Exception {
+		MessageLog messageLog = new MessageLog(m_dir, 256, 64);
+		for (int i = 1; i <= 50; i++) {
+			assertEquals(i, messageLog.append(Unpooled.wrappedBuffer(("msg-" + i).getBytes(StandardCharsets.UTF_8))));
+		}
+		messageLog.close();
+
+		messageLog = new MessageLog(m_dir, 256, 64);
+		assertEquals(50L, messageLog.getLastOffset());
+
+		List<LogRecord> records = messageLog.read(17L, 10);
+		assertEquals(10, records.size());
+		for (int i = 0; i < records.size(); i++) {
+			LogRecord record = records.get(i);
+			assertEquals(18L + i, record.getOffset());
+			assertEquals("msg-" + (18 + i), record.getFrame().toString(StandardCharsets.UTF_8));
+		}
+
+		assertEquals(51L, messageLog.append(Unpooled.wrappedBuffer("msg-51".getBytes(StandardCharsets.UTF_8))));
+		assertEquals(0, messageLog.read(51L, 10).size());
+		messageLog.close();
+	}
+
+	@Test
+	public void testExpiredSegmentKeptUntilFramesReleased() throws Exception {
+		MessageLog messageLog = new MessageLog(m_dir, 256, 64);
+		for (int i = 1; i <= 50; i++) {
+			messageLog.append(Unpooled.wrappedBuffer(("msg-" + i).getBytes(StandardCharsets.UTF_8)));
+		}
+
+		LogRecord record = messageLog.find(1L);
+		File firstSegment = new File(m_dir, LogSegment.fileName(1L, LogSegment.LOG_SUFFIX));
+		ByteBuf frame = record.retainFrame();
+
+		messageLog.deleteExpiredSegments(Long.MAX_VALUE);
+		assertNull(messageLog.find(1L));
+		assertTrue(firstSegment.exists());
+		assertEquals("msg-1", frame.toString(StandardCharsets.UTF_8));
+
+		frame.release();
+		assertFalse(firstSegment.exists());
+		assertEquals(50L, messageLog.getLastOffset());
+		messageLog.close();
+	}
+
+	private void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -1,6 +1,12 @@
 package com.ctrip.hermes.broker.selector;
 
-import java.io.IOException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
@@ -10,24 +16,55 @@ import com.ctrip.hermes.core.bo.Tpp;
 public class SelectorTest {
 
 	@Test
-	public void test() throws IOException {
+	public void test() throws Exception {
 		Selector s = new DefaultSelector();
+		s.select();
 		int partition = 0;
 		final Tpg tpg = new Tpg("order_new", partition, "group1");
 		Tpp tpp = new Tpp("order_new", partition, true);
 
-		s.registerReadOp(tpg, new Runnable() {
+		assertEquals(Arrays.asList(-1L, -1L), s.getWriteOffsets(tpg));
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		s.registerReadOp(tpg, Arrays.asList(10L, 10L), new Runnable() {
 
 			@Override
-         public void run() {
-				System.out.println("Read from " + tpg);
-         }
-			
+			public void run() {
+				latch.countDown();
+			}
+
 		});
+
+		s.updateWriteOffset(tpp, 10);
+		assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+
 		s.updateWriteOffset(tpp, 11);
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+
+		s.stop();
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		Selector s = new DefaultSelector();
 		s.select();
+		final Tpg tpg = new Tpg("order_new", 0, "group1");
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		TpgWatcher watcher = s.registerReadOp(tpg, Arrays.asList(-1L, -1L), new Runnable() {
+
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+
+		});
+		s.cancel(watcher);
+
+		s.updateWriteOffset(new Tpp("order_new", 0, false), 1);
+		assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
 
-		System.in.read();
+		s.stop();
 	}
 
 }
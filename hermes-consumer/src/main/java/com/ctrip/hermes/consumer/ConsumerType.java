@@ -7,5 +7,7 @@ package com.ctrip.hermes.consumer;
 public enum ConsumerType {
 //	PUSH, //
 	LONG_POLLING, //
+	// long polling on threads shared by all partitions
+	EVENT_LOOP, //
 	;
 }
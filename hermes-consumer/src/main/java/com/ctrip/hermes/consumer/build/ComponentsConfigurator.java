@@ -9,14 +9,18 @@ import org.unidal.lookup.configuration.Component;
 import com.ctrip.hermes.consumer.ConsumerType;
 import com.ctrip.hermes.consumer.DefaultConsumer;
 import com.ctrip.hermes.consumer.engine.DefaultEngine;
+import com.ctrip.hermes.consumer.engine.ack.DefaultAckMessageAggregator;
 import com.ctrip.hermes.consumer.engine.bootstrap.BrokerConsumerBootstrap;
 import com.ctrip.hermes.consumer.engine.bootstrap.DefaultConsumerBootstrapManager;
 import com.ctrip.hermes.consumer.engine.bootstrap.DefaultConsumerBootstrapRegistry;
 import com.ctrip.hermes.consumer.engine.bootstrap.strategy.BrokerConsumptionStrategy;
+import com.ctrip.hermes.consumer.engine.bootstrap.strategy.BrokerEventLoopConsumptionStrategy;
 import com.ctrip.hermes.consumer.engine.bootstrap.strategy.BrokerLongPollingConsumptionStrategy;
 import com.ctrip.hermes.consumer.engine.bootstrap.strategy.DefaultBrokerConsumptionRegistry;
 import com.ctrip.hermes.consumer.engine.config.ConsumerConfig;
 import com.ctrip.hermes.consumer.engine.consumer.pipeline.internal.ConsumerTracingValve;
+import com.ctrip.hermes.consumer.engine.fetch.DefaultFetchSessionManager;
+import com.ctrip.hermes.consumer.engine.fetch.FetchSessionManager;
 import com.ctrip.hermes.consumer.engine.lease.ConsumerLeaseManager;
 import com.ctrip.hermes.consumer.engine.monitor.DefaultPullMessageResultMonitor;
 import com.ctrip.hermes.consumer.engine.monitor.PullMessageResultMonitor;
@@ -25,9 +29,12 @@ import com.ctrip.hermes.consumer.engine.notifier.DefaultConsumerNotifier;
 import com.ctrip.hermes.consumer.engine.pipeline.ConsumerPipeline;
 import com.ctrip.hermes.consumer.engine.pipeline.ConsumerValveRegistry;
 import com.ctrip.hermes.consumer.engine.pipeline.DefaultConsumerPipelineSink;
+import com.ctrip.hermes.consumer.engine.runtime.ConsumerRuntime;
+import com.ctrip.hermes.consumer.engine.runtime.DefaultConsumerRuntime;
 import com.ctrip.hermes.consumer.engine.transport.command.processor.PullMessageResultCommandProcessor;
 import com.ctrip.hermes.core.env.ClientEnvironment;
 import com.ctrip.hermes.core.lease.LeaseManager;
+import com.ctrip.hermes.core.message.AckMessageAggregator;
 import com.ctrip.hermes.core.message.codec.MessageCodec;
 import com.ctrip.hermes.core.service.SystemClockService;
 import com.ctrip.hermes.core.transport.command.CommandType;
@@ -64,7 +71,26 @@ public class ComponentsConfigurator extends AbstractResourceConfigurator {
 		      .req(SystemClockService.class)//
 		      .req(MessageCodec.class)//
 		      .req(ClientEnvironment.class)//
-		      .req(PullMessageResultMonitor.class));
+		      .req(PullMessageResultMonitor.class)//
+		      .req(AckMessageAggregator.class));
+		all.add(C(BrokerConsumptionStrategy.class, ConsumerType.EVENT_LOOP.toString(),
+		      BrokerEventLoopConsumptionStrategy.class)//
+		      .req(ConsumerNotifier.class)//
+		      .req(EndpointManager.class)//
+		      .req(EndpointClient.class)//
+		      .req(LeaseManager.class, BuildConstants.CONSUMER)//
+		      .req(ConsumerConfig.class)//
+		      .req(SystemClockService.class)//
+		      .req(MessageCodec.class)//
+		      .req(ClientEnvironment.class)//
+		      .req(PullMessageResultMonitor.class)//
+		      .req(AckMessageAggregator.class)//
+		      .req(ConsumerRuntime.class)//
+		      .req(FetchSessionManager.class));
+
+		// runtime shared by event loop consumers
+		all.add(A(DefaultConsumerRuntime.class));
+		all.add(A(DefaultFetchSessionManager.class));
 
 		all.add(A(DefaultConsumerPipelineSink.class));
 
@@ -73,6 +99,7 @@ public class ComponentsConfigurator extends AbstractResourceConfigurator {
 		      .req(PullMessageResultMonitor.class));
 
 		all.add(A(DefaultPullMessageResultMonitor.class));
+		all.add(A(DefaultAckMessageAggregator.class));
 
 		// notifier
 		all.add(A(DefaultConsumerNotifier.class));
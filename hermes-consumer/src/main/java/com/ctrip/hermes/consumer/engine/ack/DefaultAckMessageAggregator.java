@@ -0,0 +1,195 @@
+package com.ctrip.hermes.consumer.engine.ack;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Initializable;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.InitializationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.unidal.lookup.annotation.Inject;
+import org.unidal.lookup.annotation.Named;
+import org.unidal.tuple.Pair;
+
+import com.ctrip.hermes.consumer.engine.config.ConsumerConfig;
+import com.ctrip.hermes.core.bo.Tpp;
+import com.ctrip.hermes.core.message.AckMessageAggregator;
+import com.ctrip.hermes.core.transport.command.AckMessageCommand;
+import com.ctrip.hermes.core.utils.HermesThreadFactory;
+
+/**
+ * Acks of the same channel and correlation id are merged into one {@link AckMessageCommand}, which is sent once it
+ * holds {@link ConsumerConfig#getAckBatchSize()} entries or every {@link ConsumerConfig#getAckFlushIntervalMillis()}.
+ * Commands are encoded in the highest version the broker behind the channel told in {@link #BROKER_ACK_VERSION}.
+ *
+ */
+@Named(type = AckMessageAggregator.class)
+public class DefaultAckMessageAggregator implements AckMessageAggregator, Initializable {
+	private static final Logger log = LoggerFactory.getLogger(DefaultAckMessageAggregator.class);
+
+	/**
+	 * Ack command version accepted by the broker of a channel, learned from its pull results.
+	 */
+	public static final AttributeKey<Integer> BROKER_ACK_VERSION = AttributeKey.valueOf("brokerAckVersion");
+
+	@Inject
+	private ConsumerConfig m_config;
+
+	private ConcurrentMap<Pair<Channel, Long>, PendingAcks> m_pendingAcks = new ConcurrentHashMap<>();
+
+	private ScheduledExecutorService m_flusher;
+
+	@Override
+	public void initialize() throws InitializationException {
+		m_flusher = Executors.newSingleThreadScheduledExecutor(HermesThreadFactory.create("AckMessageFlusher", true));
+		m_flusher.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					flushAll();
+				} catch (Exception e) {
+					log.error("Exception occurred while flushing acks.", e);
+				}
+			}
+		}, m_config.getAckFlushIntervalMillis(), m_config.getAckFlushIntervalMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void ack(Channel channel, long correlationId, Tpp tpp, String groupId, boolean resend, long msgSeq,
+	      int remainingRetries, long onMessageStartTimeMillis, long onMessageEndTimeMillis) {
+		add(channel, correlationId, true, tpp, groupId, resend, msgSeq, remainingRetries, onMessageStartTimeMillis,
+		      onMessageEndTimeMillis);
+	}
+
+	@Override
+	public void nack(Channel channel, long correlationId, Tpp tpp, String groupId, boolean resend, long msgSeq,
+	      int remainingRetries, long onMessageStartTimeMillis, long onMessageEndTimeMillis) {
+		add(channel, correlationId, false, tpp, groupId, resend, msgSeq, remainingRetries, onMessageStartTimeMillis,
+		      onMessageEndTimeMillis);
+	}
+
+	private void add(Channel channel, long correlationId, boolean ack, Tpp tpp, String groupId, boolean resend,
+	      long msgSeq, int remainingRetries, long onMessageStartTimeMillis, long onMessageEndTimeMillis) {
+		Pair<Channel, Long> key = new Pair<>(channel, correlationId);
+		while (true) {
+			PendingAcks pendingAcks = m_pendingAcks.get(key);
+			if (pendingAcks == null) {
+				synchronized (m_pendingAcks) {
+					pendingAcks = m_pendingAcks.get(key);
+					if (pendingAcks == null) {
+						pendingAcks = new PendingAcks(channel, correlationId);
+						m_pendingAcks.put(key, pendingAcks);
+					}
+				}
+			}
+
+			if (pendingAcks.add(ack, tpp, groupId, resend, msgSeq, remainingRetries, onMessageStartTimeMillis,
+			      onMessageEndTimeMillis)) {
+				AckMessageCommand full = pendingAcks.drainIfFull(m_config.getAckBatchSize());
+				if (full != null) {
+					channel.writeAndFlush(full);
+				}
+				return;
+			}
+
+			// flushed and removed meanwhile
+			m_pendingAcks.remove(key, pendingAcks);
+		}
+	}
+
+	/**
+	 * Entries are removed once flushed, so finished pulls of long-lived channels leave nothing behind. Acks arriving
+	 * later for the same pull start a new entry.
+	 */
+	private void flushAll() {
+		for (Map.Entry<Pair<Channel, Long>, PendingAcks> entry : m_pendingAcks.entrySet()) {
+			PendingAcks pendingAcks = entry.getValue();
+			AckMessageCommand cmd = pendingAcks.close();
+			m_pendingAcks.remove(entry.getKey(), pendingAcks);
+			// acks of a closed channel can not be delivered any more, the broker will resend the messages
+			if (cmd != null && pendingAcks.getChannel().isActive()) {
+				pendingAcks.getChannel().writeAndFlush(cmd);
+			}
+		}
+	}
+
+	private static class PendingAcks {
+		private Channel m_channel;
+
+		private long m_correlationId;
+
+		private AckMessageCommand m_cmd;
+
+		private int m_size;
+
+		private boolean m_closed = false;
+
+		public PendingAcks(Channel channel, long correlationId) {
+			m_channel = channel;
+			m_correlationId = correlationId;
+		}
+
+		public Channel getChannel() {
+			return m_channel;
+		}
+
+		/**
+		 * @return false if the acks are already closed by a flush
+		 */
+		public synchronized boolean add(boolean ack, Tpp tpp, String groupId, boolean resend, long msgSeq,
+		      int remainingRetries, long onMessageStartTimeMillis, long onMessageEndTimeMillis) {
+			if (m_closed) {
+				return false;
+			}
+
+			if (m_cmd == null) {
+				Integer version = m_channel.attr(BROKER_ACK_VERSION).get();
+				m_cmd = new AckMessageCommand(version == null ? AckMessageCommand.VERSION_ENTRIES : version);
+				m_cmd.getHeader().setCorrelationId(m_correlationId);
+			}
+
+			if (ack) {
+				m_cmd.addAckMsg(tpp, groupId, resend, msgSeq, remainingRetries, onMessageStartTimeMillis,
+				      onMessageEndTimeMillis);
+			} else {
+				m_cmd.addNackMsg(tpp, groupId, resend, msgSeq, remainingRetries, onMessageStartTimeMillis,
+				      onMessageEndTimeMillis);
+			}
+			m_size++;
+			return true;
+		}
+
+		/**
+		 * @return the pending command if it is full, null otherwise
+		 */
+		public synchronized AckMessageCommand drainIfFull(int batchSize) {
+			if (m_size < batchSize) {
+				return null;
+			}
+
+			AckMessageCommand cmd = m_cmd;
+			m_cmd = null;
+			m_size = 0;
+			return cmd;
+		}
+
+		/**
+		 * @return the pending command, null if none
+		 */
+		public synchronized AckMessageCommand close() {
+			m_closed = true;
+			AckMessageCommand cmd = m_cmd;
+			m_cmd = null;
+			m_size = 0;
+			return cmd;
+		}
+	}
+}
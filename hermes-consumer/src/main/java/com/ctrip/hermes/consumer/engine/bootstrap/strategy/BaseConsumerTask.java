@@ -0,0 +1,356 @@
+package com.ctrip.hermes.consumer.engine.bootstrap.strategy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ctrip.hermes.consumer.engine.ConsumerContext;
+import com.ctrip.hermes.consumer.engine.config.ConsumerConfig;
+import com.ctrip.hermes.consumer.engine.lease.ConsumerLeaseManager.ConsumerLeaseKey;
+import com.ctrip.hermes.consumer.engine.monitor.PullMessageResultMonitor;
+import com.ctrip.hermes.consumer.engine.notifier.ConsumerNotifier;
+import com.ctrip.hermes.consumer.engine.prefetch.PrefetchController;
+import com.ctrip.hermes.core.bo.Tpp;
+import com.ctrip.hermes.core.lease.Lease;
+import com.ctrip.hermes.core.lease.LeaseAcquireResponse;
+import com.ctrip.hermes.core.lease.LeaseManager;
+import com.ctrip.hermes.core.message.AckMessageAggregator;
+import com.ctrip.hermes.core.message.BaseConsumerMessage;
+import com.ctrip.hermes.core.message.BrokerConsumerMessage;
+import com.ctrip.hermes.core.message.ConsumerMessage;
+import com.ctrip.hermes.core.message.TppConsumerMessageBatch;
+import com.ctrip.hermes.core.message.TppConsumerMessageBatch.MessageMeta;
+import com.ctrip.hermes.core.message.codec.MessageCodec;
+import com.ctrip.hermes.core.service.SystemClockService;
+import com.ctrip.hermes.core.transport.command.PullMessageResultCommand;
+import com.ctrip.hermes.core.transport.compress.Compression;
+import com.ctrip.hermes.core.transport.endpoint.EndpointClient;
+import com.ctrip.hermes.core.transport.endpoint.EndpointManager;
+import com.dianping.cat.status.StatusExtensionRegister;
+
+/**
+ * Lease, local cache and decoding shared by the consumer tasks of one topic-partition-group, subclasses decide which
+ * threads pull messages and renew the lease.
+ */
+public abstract class BaseConsumerTask implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(BaseConsumerTask.class);
+
+	protected ConsumerNotifier m_consumerNotifier;
+
+	protected MessageCodec m_messageCodec;
+
+	protected EndpointManager m_endpointManager;
+
+	protected EndpointClient m_endpointClient;
+
+	protected LeaseManager<ConsumerLeaseKey> m_leaseManager;
+
+	protected SystemClockService m_systemClockService;
+
+	protected ConsumerConfig m_config;
+
+	protected ScheduledExecutorService m_renewLeaseTaskExecutorService;
+
+	protected PullMessageResultMonitor m_pullMessageResultMonitor;
+
+	protected AckMessageAggregator m_ackMessageAggregator;
+
+	protected BlockingQueue<ConsumerMessage<?>> m_msgs;
+
+	protected int m_cacheSize;
+
+	protected int m_localCachePrefetchThreshold;
+
+	protected ConsumerContext m_context;
+
+	protected int m_partitionId;
+
+	protected AtomicReference<Lease> m_lease = new AtomicReference<>(null);
+
+	// pulls are sized by message count if null
+	protected PrefetchController m_prefetchController;
+
+	// counts messages processed by listener for the prefetch controller
+	private AckMessageAggregator m_processedCounter = new AckMessageAggregator() {
+
+		@Override
+		public void ack(Channel channel, long correlationId, Tpp tpp, String groupId, boolean resend, long msgSeq,
+		      int remainingRetries, long onMessageStartTimeMillis, long onMessageEndTimeMillis) {
+			processed();
+			m_ackMessageAggregator.ack(channel, correlationId, tpp, groupId, resend, msgSeq, remainingRetries,
+			      onMessageStartTimeMillis, onMessageEndTimeMillis);
+		}
+
+		@Override
+		public void nack(Channel channel, long correlationId, Tpp tpp, String groupId, boolean resend, long msgSeq,
+		      int remainingRetries, long onMessageStartTimeMillis, long onMessageEndTimeMillis) {
+			processed();
+			m_ackMessageAggregator.nack(channel, correlationId, tpp, groupId, resend, msgSeq, remainingRetries,
+			      onMessageStartTimeMillis, onMessageEndTimeMillis);
+		}
+	};
+
+	private AtomicBoolean m_closed = new AtomicBoolean(false);
+
+	public BaseConsumerTask(ConsumerContext context, int partitionId, int cacheSize, int prefetchThreshold,
+	      SystemClockService systemClockService) {
+		m_context = context;
+		m_partitionId = partitionId;
+		m_cacheSize = cacheSize;
+		m_localCachePrefetchThreshold = prefetchThreshold;
+		m_msgs = new LinkedBlockingQueue<ConsumerMessage<?>>(m_cacheSize);
+		m_systemClockService = systemClockService;
+	}
+
+	public void setPullMessageResultMonitor(PullMessageResultMonitor pullMessageResultMonitor) {
+		m_pullMessageResultMonitor = pullMessageResultMonitor;
+	}
+
+	public void setAckMessageAggregator(AckMessageAggregator ackMessageAggregator) {
+		m_ackMessageAggregator = ackMessageAggregator;
+	}
+
+	private void processed() {
+		if (m_prefetchController.onProcessed(1)) {
+			onRoomForPull();
+		}
+	}
+
+	/**
+	 * Called on listener threads once processed messages leave room for a pull, with adaptive prefetch only.
+	 */
+	protected void onRoomForPull() {
+	}
+
+	public void setPrefetchController(PrefetchController prefetchController) {
+		m_prefetchController = prefetchController;
+	}
+
+	public void setConfig(ConsumerConfig config) {
+		m_config = config;
+	}
+
+	public void setSystemClockService(SystemClockService systemClockService) {
+		m_systemClockService = systemClockService;
+	}
+
+	public void setConsumerNotifier(ConsumerNotifier consumerNotifier) {
+		m_consumerNotifier = consumerNotifier;
+	}
+
+	public void setMessageCodec(MessageCodec messageCodec) {
+		m_messageCodec = messageCodec;
+	}
+
+	public void setEndpointManager(EndpointManager endpointManager) {
+		m_endpointManager = endpointManager;
+	}
+
+	public void setEndpointClient(EndpointClient endpointClient) {
+		m_endpointClient = endpointClient;
+	}
+
+	public void setLeaseManager(LeaseManager<ConsumerLeaseKey> leaseManager) {
+		m_leaseManager = leaseManager;
+	}
+
+	protected boolean isClosed() {
+		return m_closed.get();
+	}
+
+	/**
+	 * Try to acquire the lease once, the lease is renewed on {@link #m_renewLeaseTaskExecutorService} once acquired.
+	 *
+	 * @return 0 if acquired, otherwise when to try again
+	 */
+	protected long tryAcquireLease(ConsumerLeaseKey key) {
+		LeaseAcquireResponse response = m_leaseManager.tryAcquireLease(key);
+
+		if (response != null && response.isAcquired() && !response.getLease().isExpired()) {
+			m_lease.set(response.getLease());
+			scheduleRenewLeaseTask(key, m_lease.get().getRemainingTime() - m_config.getRenewLeaseTimeMillisBeforeExpired());
+
+			if (log.isDebugEnabled()) {
+				log.debug(
+				      "Acquire consumer lease success(topic={}, partition={}, groupId={}, sessionId={}, leaseId={}, expireTime={})",
+				      m_context.getTopic().getName(), m_partitionId, m_context.getGroupId(), m_context.getSessionId(),
+				      response.getLease().getId(), new Date(response.getLease().getExpireTime()));
+			}
+			return 0L;
+		} else {
+			if (log.isDebugEnabled()) {
+				log.debug("Unable to acquire consumer lease(topic={}, partition={}, groupId={}, sessionId={}), ignore it",
+				      m_context.getTopic().getName(), m_partitionId, m_context.getGroupId(), m_context.getSessionId());
+			}
+
+			if (response != null && response.getNextTryTime() > 0) {
+				return response.getNextTryTime();
+			} else {
+				return m_systemClockService.now() + m_config.getDefaultLeaseAcquireDelayMillis();
+			}
+		}
+	}
+
+	protected void scheduleRenewLeaseTask(final ConsumerLeaseKey key, long delay) {
+		m_renewLeaseTaskExecutorService.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				if (isClosed()) {
+					return;
+				}
+
+				Lease lease = m_lease.get();
+				if (lease != null) {
+					if (lease.getRemainingTime() > 0) {
+						LeaseAcquireResponse response = m_leaseManager.tryRenewLease(key, lease);
+						if (response != null && response.isAcquired()) {
+							lease.setExpireTime(response.getLease().getExpireTime());
+							scheduleRenewLeaseTask(key,
+							      lease.getRemainingTime() - m_config.getRenewLeaseTimeMillisBeforeExpired());
+							if (log.isDebugEnabled()) {
+								log.debug("Consumer renew lease success(topic={}, partition={}, groupId={}, sessionId={})",
+								      m_context.getTopic().getName(), m_partitionId, m_context.getGroupId(),
+								      m_context.getSessionId());
+							}
+						} else {
+							if (response != null && response.getNextTryTime() > 0) {
+								scheduleRenewLeaseTask(key, response.getNextTryTime() - m_systemClockService.now());
+							} else {
+								scheduleRenewLeaseTask(key, m_config.getDefaultLeaseRenewDelayMillis());
+							}
+
+							if (log.isDebugEnabled()) {
+								log.debug(
+								      "Unable to renew consumer lease(topic={}, partition={}, groupId={}, sessionId={}), ignore it",
+								      m_context.getTopic().getName(), m_partitionId, m_context.getGroupId(),
+								      m_context.getSessionId());
+							}
+						}
+					}
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return messages to pull now, 0 if the local cache has enough
+	 */
+	protected int nextPullSize() {
+		if (m_prefetchController != null) {
+			return m_prefetchController.nextPullSize();
+		}
+
+		int size = m_msgs.size();
+		return size <= m_localCachePrefetchThreshold ? m_cacheSize - size : 0;
+	}
+
+	protected void onPullSent(int size) {
+		if (m_prefetchController != null) {
+			m_prefetchController.onPullSent(size);
+		}
+	}
+
+	/**
+	 * @param result
+	 *           null if the pull failed
+	 */
+	protected void onPullDone(PullMessageResultCommand result, int received) {
+		if (m_prefetchController != null) {
+			m_prefetchController.onPullDone(received, result == null ? -1L : result.getHeldMillis());
+		}
+	}
+
+	/**
+	 * An empty result coming back quickly means broker has nothing to long poll with, e.g. no lease, pulling again at
+	 * once would only spin.
+	 *
+	 * @return how long to wait before the next pull
+	 */
+	protected long pullBackoffMillis(long pullStartTime, int received) {
+		if (received > 0) {
+			return 0L;
+		}
+		return Math.max(pullStartTime + m_config.getNoMessageWaitIntervalMillis() - m_systemClockService.now(), 0L);
+	}
+
+	/**
+	 * Drain the local cache and hand the messages to the notifier.
+	 */
+	protected void consumeMessages(long correlationId, int maxItems) {
+		List<ConsumerMessage<?>> msgs = new ArrayList<>(maxItems <= 0 ? 100 : maxItems);
+
+		if (maxItems <= 0) {
+			m_msgs.drainTo(msgs);
+		} else {
+			m_msgs.drainTo(msgs, maxItems);
+		}
+
+		m_consumerNotifier.messageReceived(correlationId, msgs);
+	}
+
+	@SuppressWarnings("rawtypes")
+	protected List<ConsumerMessage<?>> decodeBatches(List<TppConsumerMessageBatch> batches, Class bodyClazz,
+	      Channel channel, Compression compression) {
+		List<ConsumerMessage<?>> msgs = new ArrayList<>();
+		boolean lazy = m_config.isLazyDecodeEnabled();
+		AckMessageAggregator ackMessageAggregator = m_prefetchController == null ? m_ackMessageAggregator
+		      : m_processedCounter;
+		long bytes = 0;
+		for (TppConsumerMessageBatch batch : batches) {
+			List<MessageMeta> msgMetas = batch.getMessageMetas();
+			ByteBuf batchData = batch.getData();
+			if (compression != Compression.NONE) {
+				batchData = compression.decompress(batchData);
+			}
+			bytes += batchData.readableBytes();
+
+			int partition = batch.getPartition();
+
+			for (int j = 0; j < msgMetas.size(); j++) {
+				BaseConsumerMessage baseMsg = lazy ? m_messageCodec.decodeLazy(batch.getTopic(), batchData, bodyClazz)
+				      : m_messageCodec.decode(batch.getTopic(), batchData, bodyClazz);
+				BrokerConsumerMessage brokerMsg = new BrokerConsumerMessage(baseMsg);
+				MessageMeta messageMeta = msgMetas.get(j);
+				brokerMsg.setPartition(partition);
+				brokerMsg.setPriority(messageMeta.getPriority() == 0 ? true : false);
+				brokerMsg.setResend(messageMeta.isResend());
+				brokerMsg.setChannel(channel);
+				brokerMsg.setAckMessageAggregator(ackMessageAggregator);
+				brokerMsg.setMsgSeq(messageMeta.getId());
+
+				msgs.add(brokerMsg);
+			}
+
+			if (compression != Compression.NONE) {
+				// lazily decoded messages copied their bodies
+				batchData.release();
+			}
+		}
+
+		if (m_prefetchController != null) {
+			m_prefetchController.onReceived(msgs.size(), bytes);
+		}
+		return msgs;
+	}
+
+	public void close() {
+		m_closed.set(true);
+		if (m_prefetchController != null) {
+			StatusExtensionRegister.getInstance().unregister(m_prefetchController);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.ctrip.hermes.consumer.engine.bootstrap.strategy;
+
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Initializable;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.InitializationException;
+import org.unidal.lookup.annotation.Inject;
+
+import com.ctrip.hermes.consumer.engine.ConsumerContext;
+import com.ctrip.hermes.consumer.engine.fetch.FetchSessionManager;
+import com.ctrip.hermes.consumer.engine.runtime.ConsumerRuntime;
+
+/**
+ * Long polling consumption with all partitions sharing the threads of {@link ConsumerRuntime}. If fetch is enabled,
+ * pulls of partitions on the same broker are sent together through {@link FetchSessionManager}.
+ */
+public class BrokerEventLoopConsumptionStrategy extends BrokerLongPollingConsumptionStrategy implements Initializable {
+
+	@Inject
+	private ConsumerRuntime m_runtime;
+
+	@Inject
+	private FetchSessionManager m_fetchSessionManager;
+
+	private boolean m_fetchEnabled;
+
+	@Override
+	public void initialize() throws InitializationException {
+		m_fetchEnabled = Boolean.valueOf(m_clientEnv.getGlobalConfig().getProperty("consumer.fetch.enabled",
+		      m_config.getDefaultFetchEnabled()));
+	}
+
+	@Override
+	protected BaseConsumerTask createConsumerTask(ConsumerContext context, int partitionId, int localCacheSize,
+	      int prefetchSize) {
+		EventLoopConsumerTask consumerTask = new EventLoopConsumerTask(//
+		      context, //
+		      partitionId,//
+		      localCacheSize, //
+		      prefetchSize,//
+		      m_systemClockService,//
+		      m_runtime);
+		if (m_fetchEnabled) {
+			consumerTask.setFetchSessionManager(m_fetchSessionManager);
+		}
+		return consumerTask;
+	}
+
+	@Override
+	protected void startConsumerTask(ConsumerContext context, int partitionId, BaseConsumerTask consumerTask) {
+		consumerTask.run();
+	}
+}
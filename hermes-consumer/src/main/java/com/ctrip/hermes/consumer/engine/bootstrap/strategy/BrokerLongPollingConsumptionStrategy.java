@@ -8,13 +8,16 @@ import com.ctrip.hermes.consumer.engine.config.ConsumerConfig;
 import com.ctrip.hermes.consumer.engine.lease.ConsumerLeaseManager.ConsumerLeaseKey;
 import com.ctrip.hermes.consumer.engine.monitor.PullMessageResultMonitor;
 import com.ctrip.hermes.consumer.engine.notifier.ConsumerNotifier;
+import com.ctrip.hermes.consumer.engine.prefetch.PrefetchController;
 import com.ctrip.hermes.core.env.ClientEnvironment;
 import com.ctrip.hermes.core.lease.LeaseManager;
+import com.ctrip.hermes.core.message.AckMessageAggregator;
 import com.ctrip.hermes.core.message.codec.MessageCodec;
 import com.ctrip.hermes.core.service.SystemClockService;
 import com.ctrip.hermes.core.transport.endpoint.EndpointClient;
 import com.ctrip.hermes.core.transport.endpoint.EndpointManager;
 import com.ctrip.hermes.core.utils.HermesThreadFactory;
+import com.dianping.cat.status.StatusExtensionRegister;
 
 /**
  * @author Leo Liang(jhliang@ctrip.com)
@@ -38,16 +41,19 @@ public class BrokerLongPollingConsumptionStrategy implements BrokerConsumptionSt
 	private MessageCodec m_messageCodec;
 
 	@Inject
-	private ConsumerConfig m_config;
+	protected ConsumerConfig m_config;
 
 	@Inject
-	private SystemClockService m_systemClockService;
+	protected SystemClockService m_systemClockService;
 
 	@Inject
 	private PullMessageResultMonitor m_pullMessageResultMonitor;
 
 	@Inject
-	private ClientEnvironment m_clientEnv;
+	protected ClientEnvironment m_clientEnv;
+
+	@Inject
+	private AckMessageAggregator m_ackMessageAggregator;
 
 	@Override
 	public SubscribeHandle start(ConsumerContext context, int partitionId) {
@@ -60,12 +66,21 @@ public class BrokerLongPollingConsumptionStrategy implements BrokerConsumptionSt
 			      "consumer.localcache.prefetch.threshold.percentage",
 			      m_config.getDefaultLocalCachePrefetchThresholdPercentage()));
 
-			LongPollingConsumerTask consumerTask = new LongPollingConsumerTask(//
-			      context, //
-			      partitionId,//
-			      localCachSize, //
-			      prefetchSize,//
-			      m_systemClockService);
+			BaseConsumerTask consumerTask = createConsumerTask(context, partitionId, localCachSize, prefetchSize);
+
+			boolean adaptivePrefetch = Boolean.valueOf(m_clientEnv.getConsumerConfig(context.getTopic().getName())
+			      .getProperty("consumer.prefetch.adaptive.enabled", m_config.getDefaultAdaptivePrefetchEnabled()));
+			if (adaptivePrefetch) {
+				long maxBytes = Long.valueOf(m_clientEnv.getConsumerConfig(context.getTopic().getName()).getProperty(
+				      "consumer.prefetch.max.bytes", m_config.getDefaultPrefetchMaxBytes()));
+				long stallMillis = Long.valueOf(m_clientEnv.getConsumerConfig(context.getTopic().getName()).getProperty(
+				      "consumer.prefetch.stall.millis", m_config.getDefaultPrefetchStallMillis()));
+				PrefetchController prefetchController = new PrefetchController(String.format(
+				      "Hermes.Consumer.Prefetch-%s-%s-%s", context.getTopic().getName(), partitionId,
+				      context.getGroupId()), maxBytes, localCachSize, stallMillis, m_systemClockService);
+				StatusExtensionRegister.getInstance().register(prefetchController);
+				consumerTask.setPrefetchController(prefetchController);
+			}
 
 			consumerTask.setEndpointClient(m_endpointClient);
 			consumerTask.setConsumerNotifier(m_consumerNotifier);
@@ -75,11 +90,9 @@ public class BrokerLongPollingConsumptionStrategy implements BrokerConsumptionSt
 			consumerTask.setSystemClockService(m_systemClockService);
 			consumerTask.setConfig(m_config);
 			consumerTask.setPullMessageResultMonitor(m_pullMessageResultMonitor);
+			consumerTask.setAckMessageAggregator(m_ackMessageAggregator);
 
-			Thread thread = HermesThreadFactory.create(
-			      String.format("LongPollingExecutorThread-%s-%s-%s", context.getTopic().getName(), partitionId,
-			            context.getGroupId()), false).newThread(consumerTask);
-			thread.start();
+			startConsumerTask(context, partitionId, consumerTask);
 			return new BrokerLongPollingSubscribeHandler(consumerTask);
 		} catch (Exception e) {
 			throw new RuntimeException(String.format("Start Consumer failed(topic=%s, partition=%s, groupId=%s)", context
@@ -87,11 +100,28 @@ public class BrokerLongPollingConsumptionStrategy implements BrokerConsumptionSt
 		}
 	}
 
+	protected BaseConsumerTask createConsumerTask(ConsumerContext context, int partitionId, int localCacheSize,
+	      int prefetchSize) {
+		return new LongPollingConsumerTask(//
+		      context, //
+		      partitionId,//
+		      localCacheSize, //
+		      prefetchSize,//
+		      m_systemClockService);
+	}
+
+	protected void startConsumerTask(ConsumerContext context, int partitionId, BaseConsumerTask consumerTask) {
+		Thread thread = HermesThreadFactory.create(
+		      String.format("LongPollingExecutorThread-%s-%s-%s", context.getTopic().getName(), partitionId,
+		            context.getGroupId()), false).newThread(consumerTask);
+		thread.start();
+	}
+
 	private static class BrokerLongPollingSubscribeHandler implements SubscribeHandle {
 
-		private LongPollingConsumerTask m_consumerTask;
+		private BaseConsumerTask m_consumerTask;
 
-		public BrokerLongPollingSubscribeHandler(LongPollingConsumerTask consumerTask) {
+		public BrokerLongPollingSubscribeHandler(BaseConsumerTask consumerTask) {
 			m_consumerTask = consumerTask;
 		}
 
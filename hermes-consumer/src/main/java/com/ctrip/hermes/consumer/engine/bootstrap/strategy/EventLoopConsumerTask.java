@@ -0,0 +1,442 @@
+package com.ctrip.hermes.consumer.engine.bootstrap.strategy;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ctrip.hermes.consumer.engine.ConsumerContext;
+import com.ctrip.hermes.consumer.engine.fetch.FetchSessionManager;
+import com.ctrip.hermes.consumer.engine.lease.ConsumerLeaseManager.ConsumerLeaseKey;
+import com.ctrip.hermes.consumer.engine.runtime.ConsumerRuntime;
+import com.ctrip.hermes.core.bo.Tpg;
+import com.ctrip.hermes.core.lease.Lease;
+import com.ctrip.hermes.core.message.ConsumerMessage;
+import com.ctrip.hermes.core.message.TppConsumerMessageBatch;
+import com.ctrip.hermes.core.service.SystemClockService;
+import com.ctrip.hermes.core.transport.command.CorrelationIdGenerator;
+import com.ctrip.hermes.core.transport.command.PullMessageCommand;
+import com.ctrip.hermes.core.transport.command.PullMessageResultCommand;
+import com.ctrip.hermes.core.transport.compress.Compression;
+import com.ctrip.hermes.meta.entity.Endpoint;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Consumer task of one topic-partition-group without threads of its own.
+ * <p>
+ * Pulling and dispatching are steps scheduled on the shared {@link ConsumerRuntime#getScheduler()}, none of them waits
+ * for broker's reply. Lease acquiring and renewing block on meta server, so they run on
+ * {@link ConsumerRuntime#getLeaseScheduler()} and consuming is handed back to the scheduler once the lease is acquired.
+ * Messages are delivered on {@link ConsumerRuntime#getListenerExecutor()}, one batch at a time so a partition is still
+ * consumed in order.
+ */
+public class EventLoopConsumerTask extends BaseConsumerTask {
+
+	private static final Logger log = LoggerFactory.getLogger(EventLoopConsumerTask.class);
+
+	private ScheduledExecutorService m_scheduler;
+
+	private ScheduledExecutorService m_leaseScheduler;
+
+	private Executor m_listenerExecutor;
+
+	private ConsumerLeaseKey m_leaseKey;
+
+	// pulls are sent one by one if null
+	private FetchSessionManager m_fetchSessionManager;
+
+	// correlation id of current lease, guarded by this, -1 if not consuming
+	private long m_correlationId = -1L;
+
+	private AtomicBoolean m_pulling = new AtomicBoolean(false);
+
+	private AtomicBoolean m_dispatching = new AtomicBoolean(false);
+
+	// listener tasks of the dispatching batch, plus one held by dispatch itself until all tasks are handed over
+	private AtomicInteger m_pendingDeliveries = new AtomicInteger(0);
+
+	private AtomicBoolean m_consumeScheduled = new AtomicBoolean(false);
+
+	private AtomicBoolean m_consumeTimerScheduled = new AtomicBoolean(false);
+
+	private Runnable m_acquireLeaseTask = new Runnable() {
+
+		@Override
+		public void run() {
+			acquireLease();
+		}
+	};
+
+	private Runnable m_startConsumingTask = new Runnable() {
+
+		@Override
+		public void run() {
+			startConsuming();
+		}
+	};
+
+	private Runnable m_consumeTask = new Runnable() {
+
+		@Override
+		public void run() {
+			m_consumeScheduled.set(false);
+			consume();
+		}
+	};
+
+	private Runnable m_pullDoneTask = new Runnable() {
+
+		@Override
+		public void run() {
+			m_pulling.set(false);
+			wakeup();
+		}
+	};
+
+	private Runnable m_consumeTimerTask = new Runnable() {
+
+		@Override
+		public void run() {
+			m_consumeTimerScheduled.set(false);
+			consume();
+		}
+	};
+
+	// messages of a partition are delivered one batch at a time, a batch may be split into lanes by the notifier
+	private Executor m_dispatchExecutor = new Executor() {
+
+		@Override
+		public void execute(final Runnable command) {
+			m_pendingDeliveries.incrementAndGet();
+			try {
+				m_listenerExecutor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							command.run();
+						} finally {
+							deliveryDone();
+						}
+					}
+				});
+			} catch (RuntimeException e) {
+				deliveryDone();
+				throw e;
+			}
+		}
+	};
+
+	public EventLoopConsumerTask(ConsumerContext context, int partitionId, int cacheSize, int prefetchThreshold,
+	      SystemClockService systemClockService, ConsumerRuntime runtime) {
+		super(context, partitionId, cacheSize, prefetchThreshold, systemClockService);
+
+		m_scheduler = runtime.getScheduler();
+		m_listenerExecutor = runtime.getListenerExecutor();
+		m_leaseScheduler = runtime.getLeaseScheduler();
+		m_renewLeaseTaskExecutorService = m_leaseScheduler;
+		m_leaseKey = new ConsumerLeaseKey(new Tpg(m_context.getTopic().getName(), m_partitionId, m_context.getGroupId()),
+		      m_context.getSessionId());
+	}
+
+	public void setFetchSessionManager(FetchSessionManager fetchSessionManager) {
+		m_fetchSessionManager = fetchSessionManager;
+	}
+
+	/**
+	 * Start the task on the shared runtime and return immediately.
+	 */
+	@Override
+	public void run() {
+		log.info("Consumer started(topic={}, partition={}, groupId={}, sessionId={})", m_context.getTopic().getName(),
+		      m_partitionId, m_context.getGroupId(), m_context.getSessionId());
+		m_leaseScheduler.execute(m_acquireLeaseTask);
+	}
+
+	private void acquireLease() {
+		if (isClosed()) {
+			stopped();
+			return;
+		}
+
+		long nextTryTime;
+		try {
+			nextTryTime = tryAcquireLease(m_leaseKey);
+		} catch (Exception e) {
+			log.error("Exception occurred while acquiring lease(topic={}, partition={}, groupId={}, sessionId={})",
+			      m_context.getTopic().getName(), m_partitionId, m_context.getGroupId(), m_context.getSessionId(), e);
+			nextTryTime = m_systemClockService.now() + m_config.getDefaultLeaseAcquireDelayMillis();
+		}
+
+		if (nextTryTime == 0L) {
+			m_scheduler.execute(m_startConsumingTask);
+		} else {
+			m_leaseScheduler.schedule(m_acquireLeaseTask, Math.max(0L, nextTryTime - m_systemClockService.now()),
+			      TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private synchronized void startConsuming() {
+		m_correlationId = CorrelationIdGenerator.generateCorrelationId();
+		log.info(
+		      "Consumer continue consuming(topic={}, partition={}, groupId={}, correlationId={}, sessionId={}), since lease acquired",
+		      m_context.getTopic().getName(), m_partitionId, m_context.getGroupId(), m_correlationId,
+		      m_context.getSessionId());
+
+		m_consumerNotifier.register(m_correlationId, m_context, m_dispatchExecutor);
+		consume();
+	}
+
+	@Override
+	protected void onRoomForPull() {
+		wakeup();
+	}
+
+	@Override
+	public void close() {
+		super.close();
+		wakeup();
+	}
+
+	private void wakeup() {
+		if (m_consumeScheduled.compareAndSet(false, true)) {
+			m_scheduler.execute(m_consumeTask);
+		}
+	}
+
+	private synchronized void consume() {
+		if (m_correlationId < 0) {
+			return;
+		}
+
+		try {
+			Lease lease = m_lease.get();
+			if (isClosed() || lease == null
+			      || lease.getRemainingTime() <= m_config.getStopConsumerTimeMillsBeforLeaseExpired()) {
+				// let the delivering batch finish first, so batches are not delivered in parallel
+				if (!m_dispatching.get()) {
+					pauseConsuming();
+					return;
+				}
+			} else {
+				if (nextPullSize() > 0 && m_pulling.compareAndSet(false, true)) {
+					pullMessages(m_correlationId);
+				}
+
+				if (!m_msgs.isEmpty() && m_dispatching.compareAndSet(false, true)) {
+					dispatch(m_cacheSize);
+				}
+			}
+		} catch (Exception e) {
+			log.error("Exception occurred while consuming message(topic={}, partition={}, groupId={}, sessionId={})",
+			      m_context.getTopic().getName(), m_partitionId, m_context.getGroupId(), m_context.getSessionId(), e);
+		}
+
+		// pulls, deliveries, acks and close wake it up, the timer only fires when it's time to pause for lease expiry
+		if (m_consumeTimerScheduled.compareAndSet(false, true)) {
+			Lease lease = m_lease.get();
+			long delay = lease == null ? 0L : lease.getRemainingTime()
+			      - m_config.getStopConsumerTimeMillsBeforLeaseExpired();
+			m_scheduler.schedule(m_consumeTimerTask, Math.max(delay, m_config.getNoMessageWaitIntervalMillis()),
+			      TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void dispatch(int maxItems) {
+		m_pendingDeliveries.incrementAndGet();
+		try {
+			consumeMessages(m_correlationId, maxItems);
+		} finally {
+			deliveryDone();
+		}
+	}
+
+	private void deliveryDone() {
+		if (m_pendingDeliveries.decrementAndGet() == 0) {
+			m_dispatching.set(false);
+			wakeup();
+		}
+	}
+
+	private void pauseConsuming() {
+		if (log.isDebugEnabled()) {
+			log.debug(
+			      "Consumer pre-pause(topic={}, partition={}, groupId={}, correlationId={}, sessionId={}), since lease will be expired soon",
+			      m_context.getTopic().getName(), m_partitionId, m_context.getGroupId(), m_correlationId,
+			      m_context.getSessionId());
+		}
+
+		// consume all remaining messages
+		if (!m_msgs.isEmpty()) {
+			m_dispatching.set(true);
+			dispatch(0);
+		}
+
+		m_consumerNotifier.deregister(m_correlationId);
+		m_lease.set(null);
+
+		log.info(
+		      "Consumer pause consuming(topic={}, partition={}, groupId={}, correlationId={}, sessionId={}), since lease expired",
+		      m_context.getTopic().getName(), m_partitionId, m_context.getGroupId(), m_correlationId,
+		      m_context.getSessionId());
+		m_correlationId = -1L;
+
+		if (isClosed()) {
+			stopped();
+		} else {
+			m_leaseScheduler.execute(m_acquireLeaseTask);
+		}
+	}
+
+	private void stopped() {
+		log.info("Consumer stopped(topic={}, partition={}, groupId={}, sessionId={})", m_context.getTopic().getName(),
+		      m_partitionId, m_context.getGroupId(), m_context.getSessionId());
+	}
+
+	private void pullMessages(long correlationId) {
+		Endpoint endpoint = m_endpointManager.getEndpoint(m_context.getTopic().getName(), m_partitionId);
+
+		if (endpoint == null) {
+			log.warn("No endpoint found for topic {} partition {}, will retry later", m_context.getTopic().getName(),
+			      m_partitionId);
+			m_scheduler.schedule(m_pullDoneTask, m_config.getNoEndpointWaitIntervalMillis(), TimeUnit.MILLISECONDS);
+			return;
+		}
+
+		Lease lease = m_lease.get();
+		long timeout = lease == null ? 0L : lease.getRemainingTime();
+		int size = nextPullSize();
+		if (timeout <= 0 || size <= 0) {
+			m_pulling.set(false);
+			return;
+		}
+
+		SettableFuture<PullMessageResultCommand> future = SettableFuture.create();
+		PullMessageCommand cmd = new PullMessageCommand(m_context.getTopic().getName(), m_partitionId,
+		      m_context.getGroupId(), size, m_systemClockService.now() + timeout - 500L);
+		cmd.getHeader().setCorrelationId(correlationId);
+		cmd.setFuture(future);
+
+		final PullCallback callback = new PullCallback(correlationId);
+		Futures.addCallback(future, callback, m_scheduler);
+		callback.m_timeoutFuture = m_scheduler.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				callback.onFailure(new TimeoutException());
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+
+		try {
+			onPullSent(size);
+			if (m_fetchSessionManager != null) {
+				m_fetchSessionManager.fetch(endpoint, cmd);
+			} else {
+				m_pullMessageResultMonitor.monitor(cmd);
+				m_endpointClient.writeCommand(endpoint, cmd, m_partitionId, timeout, TimeUnit.MILLISECONDS);
+			}
+		} catch (RuntimeException e) {
+			callback.onFailure(e);
+		}
+	}
+
+	private class PullCallback implements FutureCallback<PullMessageResultCommand> {
+
+		private long m_correlationId;
+
+		private long m_startTime;
+
+		private volatile ScheduledFuture<?> m_timeoutFuture;
+
+		// the result may arrive after timeout, and only one of them counts
+		private AtomicBoolean m_done = new AtomicBoolean(false);
+
+		public PullCallback(long correlationId) {
+			m_correlationId = correlationId;
+			m_startTime = m_systemClockService.now();
+		}
+
+		@Override
+		public void onSuccess(PullMessageResultCommand ack) {
+			if (!m_done.compareAndSet(false, true)) {
+				if (ack != null) {
+					ack.release();
+				}
+				return;
+			}
+
+			int received = 0;
+			try {
+				if (m_timeoutFuture != null) {
+					m_timeoutFuture.cancel(false);
+				}
+
+				if (ack == null) {
+					return;
+				}
+				List<TppConsumerMessageBatch> batches = ack.getBatches();
+				if (batches != null && !batches.isEmpty()) {
+					ConsumerContext context = m_consumerNotifier.find(m_correlationId);
+					if (context != null) {
+						Class<?> bodyClazz = context.getMessageClazz();
+
+						List<ConsumerMessage<?>> msgs = decodeBatches(batches, bodyClazz, ack.getChannel(),
+						      Compression.valueOf(ack.getHeader()));
+						m_msgs.addAll(msgs);
+						received = msgs.size();
+					} else {
+						log.info(
+						      "Can not find consumerContext(topic={}, partition={}, groupId={}, sessionId={}), maybe has been stopped.",
+						      m_context.getTopic().getName(), m_partitionId, m_context.getGroupId(),
+						      m_context.getSessionId());
+					}
+				}
+			} catch (Exception e) {
+				log.warn("Exception occurred while pulling message(topic={}, partition={}, groupId={}, sessionId={}).",
+				      m_context.getTopic().getName(), m_partitionId, m_context.getGroupId(), m_context.getSessionId(), e);
+			} finally {
+				onPullDone(ack, received);
+				if (ack != null) {
+					ack.release();
+				}
+				long backoff = pullBackoffMillis(m_startTime, received);
+				if (backoff > 0) {
+					m_scheduler.schedule(m_pullDoneTask, backoff, TimeUnit.MILLISECONDS);
+				} else {
+					m_pullDoneTask.run();
+				}
+			}
+		}
+
+		@Override
+		public void onFailure(Throwable t) {
+			if (!m_done.compareAndSet(false, true)) {
+				return;
+			}
+
+			if (m_timeoutFuture != null) {
+				m_timeoutFuture.cancel(false);
+			}
+			onPullDone(null, 0);
+			if (!(t instanceof TimeoutException)) {
+				log.warn("Exception occurred while pulling message(topic={}, partition={}, groupId={}, sessionId={}).",
+				      m_context.getTopic().getName(), m_partitionId, m_context.getGroupId(), m_context.getSessionId(), t);
+			}
+			long backoff = pullBackoffMillis(m_startTime, 0);
+			if (backoff > 0) {
+				m_scheduler.schedule(m_pullDoneTask, backoff, TimeUnit.MILLISECONDS);
+			} else {
+				m_pullDoneTask.run();
+			}
+		}
+	}
+}
@@ -17,6 +17,27 @@ public class ConsumerConfig {
 		return 2 * 1000L;
 	}
 
+	/**
+	 * Size pulls by measured listener rate and pull round trip instead of local cache thresholds.
+	 */
+	public String getDefaultAdaptivePrefetchEnabled() {
+		return "false";
+	}
+
+	/**
+	 * Bytes of messages buffered per partition with adaptive prefetch, from being pulled until acked.
+	 */
+	public String getDefaultPrefetchMaxBytes() {
+		return String.valueOf(16 * 1024 * 1024);
+	}
+
+	/**
+	 * With adaptive prefetch, buffered messages are written off once nothing is received or acked for so long.
+	 */
+	public String getDefaultPrefetchStallMillis() {
+		return "30000";
+	}
+
 	public long getStopConsumerTimeMillsBeforLeaseExpired() {
 		return 500L;
 	}
@@ -45,4 +66,65 @@ public class ConsumerConfig {
 		return "1";
 	}
 
+	/**
+	 * Lanes consuming a partition in parallel, messages of the same key stay in one lane.
+	 */
+	public String getDefaultNotifierLaneCount() {
+		return "1";
+	}
+
+	public String getDefaultRuntimeSchedulerThreadCount() {
+		return String.valueOf(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Threads of the shared consumer runtime calling meta server for leases, a slow meta server only delays leases of
+	 * other partitions, never pulls or deliveries.
+	 */
+	public String getDefaultRuntimeLeaseThreadCount() {
+		return "2";
+	}
+
+	/**
+	 * Listener threads of the shared consumer runtime, used if virtual threads are disabled or not supported by the JDK.
+	 */
+	public String getDefaultRuntimeListenerThreadCount() {
+		return String.valueOf(2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	public String getDefaultRuntimeListenerVirtualThreadsEnabled() {
+		return "true";
+	}
+
+	/**
+	 * Event loop consumers send pulls of the same group and broker in one fetch, brokers must support fetch.
+	 */
+	public String getDefaultFetchEnabled() {
+		return "false";
+	}
+
+	public String getDefaultFetchLingerMillis() {
+		return "5";
+	}
+
+	public String getDefaultFetchMaxPartitions() {
+		return "64";
+	}
+
+	public long getAckFlushIntervalMillis() {
+		return 20L;
+	}
+
+	public int getAckBatchSize() {
+		return 2000;
+	}
+
+	/**
+	 * Decode message body on first access in listener instead of on the pull thread, at the cost of one more copy of
+	 * each body. Off by default.
+	 */
+	public boolean isLazyDecodeEnabled() {
+		return false;
+	}
+
 }
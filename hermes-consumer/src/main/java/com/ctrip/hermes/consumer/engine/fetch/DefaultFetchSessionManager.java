@@ -0,0 +1,153 @@
+package com.ctrip.hermes.consumer.engine.fetch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Initializable;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.InitializationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.unidal.lookup.annotation.Inject;
+import org.unidal.lookup.annotation.Named;
+import org.unidal.tuple.Pair;
+
+import com.ctrip.hermes.consumer.engine.config.ConsumerConfig;
+import com.ctrip.hermes.consumer.engine.monitor.PullMessageResultMonitor;
+import com.ctrip.hermes.consumer.engine.runtime.ConsumerRuntime;
+import com.ctrip.hermes.core.env.ClientEnvironment;
+import com.ctrip.hermes.core.service.SystemClockService;
+import com.ctrip.hermes.core.transport.command.FetchMessageCommand;
+import com.ctrip.hermes.core.transport.command.PullMessageCommand;
+import com.ctrip.hermes.core.transport.endpoint.EndpointClient;
+import com.ctrip.hermes.meta.entity.Endpoint;
+
+/**
+ * Pulls wait up to a linger time for other pulls of the same group and broker, then are sent as one fetch. A session
+ * is flushed at once when it has enough partitions.
+ * <p>
+ * Sessions are per consumer group, since batches of a fetch result are told apart by topic and partition only.
+ */
+@Named(type = FetchSessionManager.class)
+public class DefaultFetchSessionManager implements FetchSessionManager, Initializable {
+
+	private static final Logger log = LoggerFactory.getLogger(DefaultFetchSessionManager.class);
+
+	@Inject
+	private EndpointClient m_endpointClient;
+
+	@Inject
+	private PullMessageResultMonitor m_pullMessageResultMonitor;
+
+	@Inject
+	private ConsumerRuntime m_runtime;
+
+	@Inject
+	private SystemClockService m_systemClockService;
+
+	@Inject
+	private ConsumerConfig m_config;
+
+	@Inject
+	private ClientEnvironment m_clientEnv;
+
+	private long m_lingerMillis;
+
+	private int m_maxPartitions;
+
+	private ConcurrentMap<Pair<String, String>, FetchSession> m_sessions = new ConcurrentHashMap<>();
+
+	@Override
+	public void fetch(Endpoint endpoint, PullMessageCommand cmd) {
+		Pair<String, String> key = new Pair<String, String>(endpoint.getId(), cmd.getGroupId());
+		FetchSession session = m_sessions.get(key);
+		if (session == null) {
+			m_sessions.putIfAbsent(key, new FetchSession(endpoint));
+			session = m_sessions.get(key);
+		}
+
+		session.add(cmd);
+	}
+
+	@Override
+	public void initialize() throws InitializationException {
+		m_lingerMillis = Long.valueOf(m_clientEnv.getGlobalConfig().getProperty("consumer.fetch.linger.millis",
+		      m_config.getDefaultFetchLingerMillis()));
+		m_maxPartitions = Integer.valueOf(m_clientEnv.getGlobalConfig().getProperty("consumer.fetch.max.partitions",
+		      m_config.getDefaultFetchMaxPartitions()));
+	}
+
+	private class FetchSession implements Runnable {
+
+		private Endpoint m_endpoint;
+
+		private List<PullMessageCommand> m_pending = new ArrayList<>();
+
+		private boolean m_flushScheduled = false;
+
+		public FetchSession(Endpoint endpoint) {
+			m_endpoint = endpoint;
+		}
+
+		public void add(PullMessageCommand cmd) {
+			List<PullMessageCommand> full = null;
+			synchronized (this) {
+				m_pending.add(cmd);
+				if (m_pending.size() >= m_maxPartitions) {
+					full = drain();
+				} else if (!m_flushScheduled) {
+					m_flushScheduled = true;
+					m_runtime.getScheduler().schedule(this, m_lingerMillis, TimeUnit.MILLISECONDS);
+				}
+			}
+
+			if (full != null) {
+				send(full);
+			}
+		}
+
+		@Override
+		public void run() {
+			List<PullMessageCommand> pulls;
+			synchronized (this) {
+				m_flushScheduled = false;
+				pulls = drain();
+			}
+
+			if (!pulls.isEmpty()) {
+				send(pulls);
+			}
+		}
+
+		private List<PullMessageCommand> drain() {
+			List<PullMessageCommand> pulls = m_pending;
+			m_pending = new ArrayList<>();
+			return pulls;
+		}
+
+		private void send(List<PullMessageCommand> pulls) {
+			FetchMessageCommand fetch = new FetchMessageCommand();
+			for (PullMessageCommand pull : pulls) {
+				fetch.addPull(pull);
+			}
+
+			long timeout = fetch.getExpireTime() - m_systemClockService.now();
+			if (timeout <= 0) {
+				fetch.onTimeout();
+				return;
+			}
+
+			try {
+				m_pullMessageResultMonitor.monitor(fetch);
+				// a fetch spans partitions, spread the sessions over the pool by consumer group
+				m_endpointClient.writeCommand(m_endpoint, fetch, pulls.get(0).getGroupId().hashCode(), timeout,
+				      TimeUnit.MILLISECONDS);
+			} catch (RuntimeException e) {
+				log.warn("Send fetch to broker {} failed, pulls will be retried", m_endpoint.getId(), e);
+				fetch.onTimeout();
+			}
+		}
+	}
+}
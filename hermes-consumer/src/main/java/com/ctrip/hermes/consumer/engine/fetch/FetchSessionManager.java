@@ -0,0 +1,17 @@
+package com.ctrip.hermes.consumer.engine.fetch;
+
+import com.ctrip.hermes.core.transport.command.PullMessageCommand;
+import com.ctrip.hermes.meta.entity.Endpoint;
+
+/**
+ * Merges pulls of one consumer group to the same broker into {@link com.ctrip.hermes.core.transport.command.FetchMessageCommand}s.
+ */
+public interface FetchSessionManager {
+
+	/**
+	 * Send the pull along with other pending pulls of its group to <code>endpoint</code>, the result or failure is set
+	 * to the pull's future.
+	 */
+	void fetch(Endpoint endpoint, PullMessageCommand cmd);
+
+}
@@ -1,63 +1,91 @@
 package com.ctrip.hermes.consumer.engine.monitor;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
-
-import org.codehaus.plexus.personality.plexus.lifecycle.phase.Initializable;
-import org.codehaus.plexus.personality.plexus.lifecycle.phase.InitializationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.unidal.lookup.annotation.Inject;
 import org.unidal.lookup.annotation.Named;
 
 import com.ctrip.hermes.core.service.SystemClockService;
+import com.ctrip.hermes.core.transport.command.FetchMessageCommand;
 import com.ctrip.hermes.core.transport.command.PullMessageCommand;
 import com.ctrip.hermes.core.transport.command.PullMessageResultCommand;
-import com.ctrip.hermes.core.utils.HermesThreadFactory;
+import com.ctrip.hermes.core.transport.monitor.RequestTracker;
+import com.ctrip.hermes.core.transport.monitor.RequestTracker.TimeoutHandler;
 
 /**
  * @author Leo Liang(jhliang@ctrip.com)
  *
  */
 @Named(type = PullMessageResultMonitor.class)
-public class DefaultPullMessageResultMonitor implements PullMessageResultMonitor, Initializable {
+public class DefaultPullMessageResultMonitor implements PullMessageResultMonitor {
 	private static final Logger log = LoggerFactory.getLogger(DefaultPullMessageResultMonitor.class);
 
+	// broker may still be answering right at expire time, wait a little longer before giving up
+	private static final long TIMEOUT_GRACE_MILLIS = 4000L;
+
 	@Inject
 	private SystemClockService m_systemClockService;
 
-	private Map<Long, PullMessageCommand> m_cmds = new ConcurrentHashMap<>();
+	private RequestTracker<PullMessageCommand> m_cmds = new RequestTracker<>(new TimeoutHandler<PullMessageCommand>() {
 
-	private ReentrantLock m_lock = new ReentrantLock();
+		@Override
+		public void onTimeout(long correlationId, PullMessageCommand cmd) {
+			if (log.isDebugEnabled()) {
+				log.debug(
+				      "No result received for PullMessageCommand(correlationId={}) until timeout, will cancel waiting automatically",
+				      correlationId);
+			}
+			cmd.onTimeout();
+		}
+	});
+
+	private RequestTracker<FetchMessageCommand> m_fetches = new RequestTracker<>(
+	      new TimeoutHandler<FetchMessageCommand>() {
+
+		      @Override
+		      public void onTimeout(long correlationId, FetchMessageCommand cmd) {
+			      if (log.isDebugEnabled()) {
+				      log.debug(
+				            "No result received for FetchMessageCommand(correlationId={}) until timeout, will cancel waiting automatically",
+				            correlationId);
+			      }
+			      cmd.onTimeout();
+		      }
+	      });
 
 	@Override
 	public void monitor(PullMessageCommand cmd) {
 		if (cmd != null) {
-			m_lock.lock();
-			try {
-				m_cmds.put(cmd.getHeader().getCorrelationId(), cmd);
-			} finally {
-				m_lock.unlock();
-			}
+			m_cmds.track(cmd.getHeader().getCorrelationId(), cmd, timeoutOf(cmd.getExpireTime()));
 		}
 	}
 
+	@Override
+	public void monitor(FetchMessageCommand cmd) {
+		if (cmd != null) {
+			m_fetches.track(cmd.getHeader().getCorrelationId(), cmd, timeoutOf(cmd.getExpireTime()));
+		}
+	}
+
+	private long timeoutOf(long expireTime) {
+		return expireTime + TIMEOUT_GRACE_MILLIS - m_systemClockService.now();
+	}
+
 	@Override
 	public void resultReceived(PullMessageResultCommand result) {
 		if (result != null) {
-			PullMessageCommand pullMessageCommand = null;
-			m_lock.lock();
-			try {
-				pullMessageCommand = m_cmds.remove(result.getHeader().getCorrelationId());
-			} finally {
-				m_lock.unlock();
+			FetchMessageCommand fetchMessageCommand = null;
+			PullMessageCommand pullMessageCommand = m_cmds.remove(result.getHeader().getCorrelationId());
+			if (pullMessageCommand == null) {
+				fetchMessageCommand = m_fetches.remove(result.getHeader().getCorrelationId());
 			}
-			if (pullMessageCommand != null) {
+			if (fetchMessageCommand != null) {
+				try {
+					fetchMessageCommand.onResultReceived(result);
+				} catch (Exception e) {
+					log.warn("Exception occurred while calling resultReceived", e);
+				}
+			} else if (pullMessageCommand != null) {
 				try {
 					pullMessageCommand.onResultReceived(result);
 				} catch (Exception e) {
@@ -68,47 +96,4 @@ public class DefaultPullMessageResultMonitor implements PullMessageResultMonitor
 			}
 		}
 	}
-
-	@Override
-	public void initialize() throws InitializationException {
-		Executors.newSingleThreadScheduledExecutor(
-		      HermesThreadFactory.create("PullMessageResultMonitor-HouseKeeper", true)).scheduleWithFixedDelay(
-		      new Runnable() {
-
-			      @Override
-			      public void run() {
-				      try {
-					      List<PullMessageCommand> timeoutCmds = new LinkedList<>();
-
-					      m_lock.lock();
-					      try {
-						      for (Map.Entry<Long, PullMessageCommand> entry : m_cmds.entrySet()) {
-							      PullMessageCommand cmd = entry.getValue();
-							      Long correlationId = entry.getKey();
-							      if (cmd.getExpireTime() + 4000L < m_systemClockService.now()) {
-								      timeoutCmds.add(m_cmds.remove(correlationId));
-							      }
-						      }
-
-					      } finally {
-						      m_lock.unlock();
-					      }
-
-					      for (PullMessageCommand timeoutCmd : timeoutCmds) {
-						      if (log.isDebugEnabled()) {
-							      log.debug(
-							            "No result received for PullMessageCommand(correlationId={}) until timeout, will cancel waiting automatically",
-							            timeoutCmd.getHeader().getCorrelationId());
-						      }
-						      timeoutCmd.onTimeout();
-					      }
-				      } catch (Exception e) {
-					      // ignore
-					      if (log.isDebugEnabled()) {
-						      log.debug("Exception occurred while running PullMessageResultMonitor-HouseKeeper", e);
-					      }
-				      }
-			      }
-		      }, 5, 5, TimeUnit.SECONDS);
-	}
 }
@@ -1,5 +1,6 @@
 package com.ctrip.hermes.consumer.engine.monitor;
 
+import com.ctrip.hermes.core.transport.command.FetchMessageCommand;
 import com.ctrip.hermes.core.transport.command.PullMessageResultCommand;
 import com.ctrip.hermes.core.transport.command.PullMessageCommand;
 
@@ -11,6 +12,8 @@ public interface PullMessageResultMonitor {
 
 	void monitor(PullMessageCommand cmd);
 
+	void monitor(FetchMessageCommand cmd);
+
 	void resultReceived(PullMessageResultCommand ack);
 
 }
@@ -1,6 +1,7 @@
 package com.ctrip.hermes.consumer.engine.notifier;
 
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import com.ctrip.hermes.consumer.engine.ConsumerContext;
 import com.ctrip.hermes.core.message.ConsumerMessage;
@@ -13,6 +14,15 @@ public interface ConsumerNotifier {
 
 	void register(long correlationId, ConsumerContext consumerContext);
 
+	/**
+	 * Register with messages delivered on <code>executor</code> instead of threads owned by the notifier.
+	 * <p>
+	 * If messages are split into lanes, each lane of a batch is a separate task on <code>executor</code>. The caller
+	 * must not hand over the next batch before all tasks of the previous one are done, otherwise messages of a key may
+	 * be consumed out of order.
+	 */
+	void register(long correlationId, ConsumerContext consumerContext, Executor executor);
+
 	void deregister(long correlationId);
 
 	void messageReceived(long correlationId, List<ConsumerMessage<?>> msgs);
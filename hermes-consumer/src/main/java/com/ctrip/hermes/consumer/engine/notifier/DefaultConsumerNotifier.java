@@ -1,8 +1,12 @@
 package com.ctrip.hermes.consumer.engine.notifier;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -23,6 +27,10 @@ import com.ctrip.hermes.core.service.SystemClockService;
 import com.ctrip.hermes.core.utils.HermesThreadFactory;
 
 /**
+ * If a topic's consumer config sets <code>consumer.notifier.lanes</code> above one, each delivered batch is split into
+ * lanes by hash of message key, lanes are delivered to the listener in parallel. Messages of the same key always go to
+ * the same lane, and a lane is delivered serially, so they are still consumed in order.
+ *
  * @author Leo Liang(jhliang@ctrip.com)
  *
  */
@@ -31,7 +39,11 @@ public class DefaultConsumerNotifier implements ConsumerNotifier {
 
 	private static final Logger log = LoggerFactory.getLogger(DefaultConsumerNotifier.class);
 
-	private ConcurrentMap<Long, Pair<ConsumerContext, ExecutorService>> m_consumerContexs = new ConcurrentHashMap<>();
+	// executors of each lane
+	private ConcurrentMap<Long, Pair<ConsumerContext, Executor[]>> m_consumerContexs = new ConcurrentHashMap<>();
+
+	// thread pools created by the notifier, executors passed in by register are owned by the caller
+	private ConcurrentMap<Long, List<ExecutorService>> m_ownedExecutors = new ConcurrentHashMap<>();
 
 	@Inject(BuildConstants.CONSUMER)
 	private Pipeline<Void> m_pipeline;
@@ -55,39 +67,111 @@ public class DefaultConsumerNotifier implements ConsumerNotifier {
 
 			int threadCount = Integer.valueOf(m_clientEnv.getConsumerConfig(context.getTopic().getName()).getProperty(
 			      "consumer.notifier.threadcount", m_config.getDefaultNotifierThreadCount()));
+			int laneCount = getLaneCount(context);
+
+			String threadNamePrefix = String.format("ConsumerNotifier-%s-%s-%s", context.getTopic().getName(),
+			      context.getGroupId(), correlationId);
+			List<ExecutorService> executorServices = new ArrayList<>(laneCount);
+			if (laneCount == 1) {
+				executorServices.add(Executors.newFixedThreadPool(threadCount,
+				      HermesThreadFactory.create(threadNamePrefix, false)));
+			} else {
+				// lanes must be serial to keep order of keys
+				for (int i = 0; i < laneCount; i++) {
+					executorServices.add(Executors.newSingleThreadExecutor(HermesThreadFactory.create(threadNamePrefix
+					      + "-" + i, false)));
+				}
+			}
 
-			m_consumerContexs.putIfAbsent(
-			      correlationId,
-			      new Pair<>(context, Executors.newFixedThreadPool(
-			            threadCount,
-			            HermesThreadFactory.create(
-			                  String.format("ConsumerNotifier-%s-%s-%s", context.getTopic().getName(),
-			                        context.getGroupId(), correlationId), false))));
+			Executor[] lanes = executorServices.toArray(new Executor[laneCount]);
+			if (m_consumerContexs.putIfAbsent(correlationId, new Pair<ConsumerContext, Executor[]>(context, lanes)) == null) {
+				m_ownedExecutors.put(correlationId, executorServices);
+			} else {
+				for (ExecutorService executorService : executorServices) {
+					executorService.shutdown();
+				}
+			}
 		} catch (Exception e) {
 			throw new RuntimeException("Register consumer notifier failed", e);
 		}
 	}
 
+	@Override
+	public void register(long correlationId, ConsumerContext context, Executor executor) {
+		if (log.isDebugEnabled()) {
+			log.debug("Registered(correlationId={}, topic={}, groupId={}, sessionId={})", correlationId, context
+			      .getTopic().getName(), context.getGroupId(), context.getSessionId());
+		}
+
+		try {
+			Executor[] lanes = new Executor[getLaneCount(context)];
+			Arrays.fill(lanes, executor);
+			m_consumerContexs.putIfAbsent(correlationId, new Pair<ConsumerContext, Executor[]>(context, lanes));
+		} catch (Exception e) {
+			throw new RuntimeException("Register consumer notifier failed", e);
+		}
+	}
+
+	private int getLaneCount(ConsumerContext context) throws IOException {
+		int laneCount = Integer.valueOf(m_clientEnv.getConsumerConfig(context.getTopic().getName()).getProperty(
+		      "consumer.notifier.lanes", m_config.getDefaultNotifierLaneCount()));
+		return Math.max(laneCount, 1);
+	}
+
 	@Override
 	public void deregister(long correlationId) {
 
-		Pair<ConsumerContext, ExecutorService> pair = m_consumerContexs.remove(correlationId);
+		Pair<ConsumerContext, Executor[]> pair = m_consumerContexs.remove(correlationId);
 		ConsumerContext context = pair.getKey();
 		if (log.isDebugEnabled()) {
 			log.debug("Deregistered(correlationId={}, topic={}, groupId={}, sessionId={})", correlationId, context
 			      .getTopic().getName(), context.getGroupId(), context.getSessionId());
 		}
-		pair.getValue().shutdown();
+		List<ExecutorService> executorServices = m_ownedExecutors.remove(correlationId);
+		if (executorServices != null) {
+			for (ExecutorService executorService : executorServices) {
+				executorService.shutdown();
+			}
+		}
 		return;
 	}
 
 	@Override
 	public void messageReceived(final long correlationId, final List<ConsumerMessage<?>> msgs) {
-		Pair<ConsumerContext, ExecutorService> pair = m_consumerContexs.get(correlationId);
-		final ConsumerContext context = pair.getKey();
-		ExecutorService executorService = pair.getValue();
+		Pair<ConsumerContext, Executor[]> pair = m_consumerContexs.get(correlationId);
+		ConsumerContext context = pair.getKey();
+		Executor[] lanes = pair.getValue();
+
+		if (lanes.length == 1) {
+			deliver(lanes[0], correlationId, context, msgs);
+		} else {
+			List<List<ConsumerMessage<?>>> laneMsgs = new ArrayList<>(lanes.length);
+			for (int i = 0; i < lanes.length; i++) {
+				laneMsgs.add(new ArrayList<ConsumerMessage<?>>());
+			}
+			for (int i = 0; i < msgs.size(); i++) {
+				ConsumerMessage<?> msg = msgs.get(i);
+				laneMsgs.get(laneOf(msg, i, lanes.length)).add(msg);
+			}
+
+			for (int i = 0; i < lanes.length; i++) {
+				if (!laneMsgs.get(i).isEmpty()) {
+					deliver(lanes[i], correlationId, context, laneMsgs.get(i));
+				}
+			}
+		}
+	}
+
+	private int laneOf(ConsumerMessage<?> msg, int index, int laneCount) {
+		String key = msg.getRefKey();
+		// messages without key have no order to keep, spread them evenly
+		int hash = key == null ? index : key.hashCode();
+		return (hash & Integer.MAX_VALUE) % laneCount;
+	}
 
-		executorService.submit(new Runnable() {
+	private void deliver(Executor executor, final long correlationId, final ConsumerContext context,
+	      final List<ConsumerMessage<?>> msgs) {
+		executor.execute(new Runnable() {
 
 			@SuppressWarnings("rawtypes")
 			@Override
@@ -115,7 +199,7 @@ public class DefaultConsumerNotifier implements ConsumerNotifier {
 
 	@Override
 	public ConsumerContext find(long correlationId) {
-		Pair<ConsumerContext, ExecutorService> pair = m_consumerContexs.get(correlationId);
+		Pair<ConsumerContext, Executor[]> pair = m_consumerContexs.get(correlationId);
 		return pair == null ? null : pair.getKey();
 	}
 
@@ -0,0 +1,259 @@
+package com.ctrip.hermes.consumer.engine.prefetch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.ctrip.hermes.core.service.SystemClockService;
+import com.dianping.cat.status.StatusExtension;
+
+/**
+ * Decides how many messages a consumer task pulls, so the listener is kept busy with as few buffered bytes as
+ * possible.
+ * <p>
+ * Messages count as buffered from being decoded until acked or nacked. The prefetch size is the number of messages the
+ * listener processes during three pull round trips, measured while the listener has messages to process. If the listener
+ * runs dry while the broker still has more, the prefetch size is doubled. Buffered plus requested bytes never exceed
+ * the byte budget, estimated with the average size of messages received so far.
+ * <p>
+ * Pulls wait while more than half the prefetch size is buffered, and only acks and nacks make room. If nothing is
+ * received or processed for the stall time, e.g. the listener keeps messages without acking them, the buffered messages
+ * are written off so pulling goes on. The round trip time excludes the time the broker held the pull waiting for
+ * messages, brokers not reporting it give no round trip samples.
+ * <p>
+ * The state is reported in cat heartbeats once registered with {@link com.dianping.cat.status.StatusExtensionRegister}.
+ */
+public class PrefetchController implements StatusExtension {
+
+	// a pull of unknown sized messages should not blow the budget
+	private static final int INITIAL_PREFETCH = 16;
+
+	private static final long RATE_WINDOW_MILLIS = 100L;
+
+	private static final int RTT_HEADROOM = 3;
+
+	// weight of the latest sample in moving averages
+	private static final double ALPHA = 0.2;
+
+	private String m_id;
+
+	private long m_maxBytes;
+
+	private long m_stallMillis;
+
+	private int m_maxMessages;
+
+	private SystemClockService m_systemClockService;
+
+	private int m_prefetch;
+
+	private long m_bufferedMessages;
+
+	private long m_bufferedBytes;
+
+	private int m_inflightMessages;
+
+	private long m_pullSentTime;
+
+	private boolean m_lastPullFull;
+
+	private double m_avgMessageBytes = -1;
+
+	private double m_avgRttMillis = -1;
+
+	// messages per millisecond
+	private double m_rate = -1;
+
+	private long m_windowStart;
+
+	private long m_windowProcessed;
+
+	private boolean m_windowStarved;
+
+	private long m_lastProgressTime;
+
+	private long m_writtenOffMessages;
+
+	/**
+	 * @param maxMessages
+	 *           no more messages are buffered, whatever the size
+	 * @param stallMillis
+	 *           buffered messages are written off once nothing is received or processed for so long
+	 */
+	public PrefetchController(String id, long maxBytes, int maxMessages, long stallMillis,
+	      SystemClockService systemClockService) {
+		m_id = id;
+		m_maxBytes = maxBytes;
+		m_stallMillis = stallMillis;
+		m_maxMessages = Math.max(maxMessages, 1);
+		m_systemClockService = systemClockService;
+		m_prefetch = Math.min(INITIAL_PREFETCH, m_maxMessages);
+		m_windowStart = systemClockService.now();
+		m_lastProgressTime = m_windowStart;
+	}
+
+	/**
+	 * @return messages to pull now, 0 if no pull is needed
+	 */
+	public synchronized int nextPullSize() {
+		if (m_inflightMessages > 0) {
+			return 0;
+		}
+		if (m_bufferedMessages > m_prefetch / 2) {
+			if (m_systemClockService.now() - m_lastProgressTime < m_stallMillis) {
+				return 0;
+			}
+			// acks of written off messages arriving later only make the count low for a while
+			m_writtenOffMessages += m_bufferedMessages;
+			m_bufferedMessages = 0;
+			m_bufferedBytes = 0;
+			m_lastProgressTime = m_systemClockService.now();
+		}
+
+		long size = m_prefetch - m_bufferedMessages;
+		if (m_avgMessageBytes > 0) {
+			size = Math.min(size, (long) ((m_maxBytes - m_bufferedBytes) / m_avgMessageBytes));
+		}
+		return (int) Math.max(size, 0);
+	}
+
+	public synchronized void onPullSent(int size) {
+		m_inflightMessages = size;
+		m_pullSentTime = m_systemClockService.now();
+	}
+
+	/**
+	 * @param received
+	 *           messages received, 0 if the pull failed
+	 * @param heldMillis
+	 *           millis the broker held the pull waiting for messages, -1 if unknown or the pull failed
+	 */
+	public synchronized void onPullDone(int received, long heldMillis) {
+		if (heldMillis >= 0) {
+			m_avgRttMillis = average(m_avgRttMillis,
+			      Math.max(m_systemClockService.now() - m_pullSentTime - heldMillis, 0L));
+		}
+		m_lastPullFull = m_inflightMessages > 0 && received >= m_inflightMessages;
+		m_inflightMessages = 0;
+	}
+
+	/**
+	 * Messages decoded into local cache.
+	 */
+	public synchronized void onReceived(int messages, long bytes) {
+		if (messages <= 0) {
+			return;
+		}
+		m_bufferedMessages += messages;
+		m_bufferedBytes += bytes;
+		m_lastProgressTime = m_systemClockService.now();
+		m_avgMessageBytes = average(m_avgMessageBytes, (double) bytes / messages);
+	}
+
+	/**
+	 * Messages acked or nacked by listener.
+	 *
+	 * @return true if a pull is needed now
+	 */
+	public synchronized boolean onProcessed(int messages) {
+		if (m_bufferedMessages > 0) {
+			// keeps bytes exact when all buffered messages are processed
+			m_bufferedBytes -= m_bufferedBytes * Math.min(messages, m_bufferedMessages) / m_bufferedMessages;
+			m_bufferedMessages = Math.max(m_bufferedMessages - messages, 0);
+		}
+		m_windowProcessed += messages;
+		if (m_bufferedMessages == 0) {
+			m_windowStarved = true;
+		}
+
+		long now = m_systemClockService.now();
+		m_lastProgressTime = now;
+		long elapsed = now - m_windowStart;
+		if (elapsed >= RATE_WINDOW_MILLIS) {
+			adjust(elapsed);
+			m_windowStart = now;
+			m_windowProcessed = 0;
+			m_windowStarved = m_bufferedMessages == 0;
+		}
+
+		return m_inflightMessages == 0 && m_bufferedMessages <= m_prefetch / 2;
+	}
+
+	private void adjust(long elapsedMillis) {
+		if (m_windowStarved) {
+			// rate measured while starved is the pull rate, not the listener's
+			if (m_lastPullFull) {
+				m_prefetch = Math.min(m_prefetch * 2, maxPrefetch());
+			}
+			return;
+		}
+
+		m_rate = average(m_rate, (double) m_windowProcessed / elapsedMillis);
+		if (m_avgRttMillis > 0) {
+			// pulled at half prefetch, so the remaining half lasts one and a half round trips
+			long target = (long) Math.ceil(m_rate * m_avgRttMillis * RTT_HEADROOM);
+			if (target < m_prefetch) {
+				// shrink slowly, the rate may just be a dip
+				target = Math.max(target, m_prefetch * 3L / 4);
+			}
+			m_prefetch = (int) Math.max(Math.min(target, maxPrefetch()), 1);
+		}
+	}
+
+	private int maxPrefetch() {
+		if (m_avgMessageBytes <= 0) {
+			return m_maxMessages;
+		}
+		return (int) Math.max(Math.min(m_maxMessages, m_maxBytes / m_avgMessageBytes), 1);
+	}
+
+	private double average(double average, double sample) {
+		return average < 0 ? sample : ALPHA * sample + (1 - ALPHA) * average;
+	}
+
+	public synchronized int getPrefetchSize() {
+		return m_prefetch;
+	}
+
+	public synchronized long getBufferedMessages() {
+		return m_bufferedMessages;
+	}
+
+	public synchronized long getBufferedBytes() {
+		return m_bufferedBytes;
+	}
+
+	public synchronized long getWrittenOffMessages() {
+		return m_writtenOffMessages;
+	}
+
+	public synchronized long getAvgRttMillis() {
+		return m_avgRttMillis < 0 ? 0 : (long) m_avgRttMillis;
+	}
+
+	public synchronized long getInflightBytes() {
+		return m_avgMessageBytes <= 0 ? 0 : (long) (m_inflightMessages * m_avgMessageBytes);
+	}
+
+	@Override
+	public String getId() {
+		return m_id;
+	}
+
+	@Override
+	public String getDescription() {
+		return "Consumer prefetch of " + m_id;
+	}
+
+	@Override
+	public synchronized Map<String, String> getProperties() {
+		Map<String, String> properties = new LinkedHashMap<>();
+		properties.put("prefetch.size", String.valueOf(m_prefetch));
+		properties.put("queue.depth", String.valueOf(m_bufferedMessages));
+		properties.put("buffered.bytes", String.valueOf(m_bufferedBytes));
+		properties.put("inflight.bytes", String.valueOf(getInflightBytes()));
+		properties.put("listener.rate.per.second", String.valueOf(m_rate < 0 ? 0 : (long) (m_rate * 1000)));
+		properties.put("pull.rtt.millis", String.valueOf(getAvgRttMillis()));
+		properties.put("written.off.messages", String.valueOf(m_writtenOffMessages));
+		return properties;
+	}
+}
@@ -0,0 +1,26 @@
+package com.ctrip.hermes.consumer.engine.runtime;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Threads shared by all consumer tasks of {@link com.ctrip.hermes.consumer.ConsumerType#EVENT_LOOP}, sized by cores
+ * instead of partitions.
+ */
+public interface ConsumerRuntime {
+
+	/**
+	 * Runs pulls and dispatching, tasks on it must not block.
+	 */
+	ScheduledExecutorService getScheduler();
+
+	/**
+	 * Runs lease acquiring and renewing, which block on meta server calls.
+	 */
+	ScheduledExecutorService getLeaseScheduler();
+
+	/**
+	 * Runs message listeners.
+	 */
+	Executor getListenerExecutor();
+}
@@ -0,0 +1,98 @@
+package com.ctrip.hermes.consumer.engine.runtime;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Initializable;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.InitializationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.unidal.lookup.annotation.Inject;
+import org.unidal.lookup.annotation.Named;
+
+import com.ctrip.hermes.consumer.engine.config.ConsumerConfig;
+import com.ctrip.hermes.core.env.ClientEnvironment;
+import com.ctrip.hermes.core.utils.HermesThreadFactory;
+
+@Named(type = ConsumerRuntime.class)
+public class DefaultConsumerRuntime implements ConsumerRuntime, Initializable {
+
+	private static final Logger log = LoggerFactory.getLogger(DefaultConsumerRuntime.class);
+
+	@Inject
+	private ConsumerConfig m_config;
+
+	@Inject
+	private ClientEnvironment m_clientEnv;
+
+	private ScheduledExecutorService m_scheduler;
+
+	private ScheduledExecutorService m_leaseScheduler;
+
+	private ExecutorService m_listenerExecutor;
+
+	@Override
+	public ScheduledExecutorService getScheduler() {
+		return m_scheduler;
+	}
+
+	@Override
+	public ScheduledExecutorService getLeaseScheduler() {
+		return m_leaseScheduler;
+	}
+
+	@Override
+	public Executor getListenerExecutor() {
+		return m_listenerExecutor;
+	}
+
+	@Override
+	public void initialize() throws InitializationException {
+		int schedulerThreadCount = Integer.valueOf(m_clientEnv.getGlobalConfig().getProperty(
+		      "consumer.runtime.scheduler.threadcount", m_config.getDefaultRuntimeSchedulerThreadCount()));
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(schedulerThreadCount,
+		      HermesThreadFactory.create("ConsumerRuntimeScheduler", false));
+		// pull timeouts are cancelled when results arrive, don't keep them until the lease would expire
+		scheduler.setRemoveOnCancelPolicy(true);
+		m_scheduler = scheduler;
+
+		int leaseThreadCount = Integer.valueOf(m_clientEnv.getGlobalConfig().getProperty(
+		      "consumer.runtime.lease.threadcount", m_config.getDefaultRuntimeLeaseThreadCount()));
+		m_leaseScheduler = Executors.newScheduledThreadPool(leaseThreadCount,
+		      HermesThreadFactory.create("ConsumerRuntimeLease", false));
+
+		boolean virtual = Boolean.valueOf(m_clientEnv.getGlobalConfig().getProperty(
+		      "consumer.runtime.listener.virtual", m_config.getDefaultRuntimeListenerVirtualThreadsEnabled()));
+		if (virtual) {
+			m_listenerExecutor = createVirtualThreadExecutor();
+		}
+
+		if (m_listenerExecutor == null) {
+			int listenerThreadCount = Integer.valueOf(m_clientEnv.getGlobalConfig().getProperty(
+			      "consumer.runtime.listener.threadcount", m_config.getDefaultRuntimeListenerThreadCount()));
+			m_listenerExecutor = Executors.newFixedThreadPool(listenerThreadCount,
+			      HermesThreadFactory.create("ConsumerRuntimeListener", false));
+		}
+	}
+
+	/**
+	 * @return executor starting a virtual thread per listener call, null if the JDK has no virtual threads
+	 */
+	private ExecutorService createVirtualThreadExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			ExecutorService executor = (ExecutorService) method.invoke(null);
+			log.info("Consumer listeners run on virtual threads");
+			return executor;
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (Exception e) {
+			log.warn("Can not create virtual thread executor, use thread pool instead", e);
+			return null;
+		}
+	}
+}
@@ -5,7 +5,9 @@ import java.util.List;
 
 import org.unidal.lookup.annotation.Inject;
 
+import com.ctrip.hermes.consumer.engine.ack.DefaultAckMessageAggregator;
 import com.ctrip.hermes.consumer.engine.monitor.PullMessageResultMonitor;
+import com.ctrip.hermes.core.transport.command.AckMessageCommand;
 import com.ctrip.hermes.core.transport.command.CommandType;
 import com.ctrip.hermes.core.transport.command.PullMessageResultCommand;
 import com.ctrip.hermes.core.transport.command.processor.CommandProcessor;
@@ -29,6 +31,8 @@ public class PullMessageResultCommandProcessor implements CommandProcessor {
 	public void process(CommandProcessorContext ctx) {
 		PullMessageResultCommand cmd = (PullMessageResultCommand) ctx.getCommand();
 		cmd.setChannel(ctx.getChannel());
+		ctx.getChannel().attr(DefaultAckMessageAggregator.BROKER_ACK_VERSION)
+		      .set(AckMessageCommand.acceptedVersionOf(cmd.getHeader()));
 		m_messageResultMonitor.resultReceived(cmd);
 	}
 
@@ -0,0 +1,279 @@
+package com.ctrip.hermes.consumer.engine.bootstrap.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ctrip.hermes.consumer.ConsumerType;
+import com.ctrip.hermes.consumer.engine.ConsumerContext;
+import com.ctrip.hermes.consumer.engine.config.ConsumerConfig;
+import com.ctrip.hermes.consumer.engine.lease.ConsumerLeaseManager.ConsumerLeaseKey;
+import com.ctrip.hermes.consumer.engine.monitor.PullMessageResultMonitor;
+import com.ctrip.hermes.consumer.engine.notifier.ConsumerNotifier;
+import com.ctrip.hermes.consumer.engine.runtime.ConsumerRuntime;
+import com.ctrip.hermes.core.lease.Lease;
+import com.ctrip.hermes.core.lease.LeaseAcquireResponse;
+import com.ctrip.hermes.core.lease.LeaseManager;
+import com.ctrip.hermes.core.message.ConsumerMessage;
+import com.ctrip.hermes.core.service.SystemClockService;
+import com.ctrip.hermes.core.transport.command.Command;
+import com.ctrip.hermes.core.transport.command.FetchMessageCommand;
+import com.ctrip.hermes.core.transport.command.PullMessageCommand;
+import com.ctrip.hermes.core.transport.command.PullMessageResultCommand;
+import com.ctrip.hermes.core.transport.endpoint.EndpointClient;
+import com.ctrip.hermes.core.transport.endpoint.EndpointManager;
+import com.ctrip.hermes.meta.entity.Endpoint;
+import com.ctrip.hermes.meta.entity.Topic;
+
+public class EventLoopConsumerTaskTest {
+
+	private static final String SCHEDULER_THREAD = "TestScheduler";
+
+	private static final String LEASE_THREAD = "TestLease";
+
+	private ScheduledExecutorService m_scheduler;
+
+	private ScheduledExecutorService m_leaseScheduler;
+
+	private ExecutorService m_listenerExecutor;
+
+	private TestLeaseManager m_leaseManager;
+
+	private TestNotifier m_notifier;
+
+	private BlockingQueue<Command> m_written = new LinkedBlockingQueue<>();
+
+	private EventLoopConsumerTask m_task;
+
+	@Before
+	public void before() {
+		m_scheduler = Executors.newSingleThreadScheduledExecutor(namedThreads(SCHEDULER_THREAD));
+		m_leaseScheduler = Executors.newSingleThreadScheduledExecutor(namedThreads(LEASE_THREAD));
+		m_listenerExecutor = Executors.newSingleThreadExecutor();
+		m_leaseManager = new TestLeaseManager();
+		m_notifier = new TestNotifier();
+		m_task = createTask();
+	}
+
+	@After
+	public void after() {
+		m_task.close();
+		m_leaseManager.m_metaServerReplies.countDown();
+		m_scheduler.shutdownNow();
+		m_leaseScheduler.shutdownNow();
+		m_listenerExecutor.shutdownNow();
+	}
+
+	@Test
+	public void testLeaseAcquiredOffScheduler() throws Exception {
+		m_leaseManager.m_replies.add(Boolean.TRUE);
+		m_task.run();
+		assertTrue(m_leaseManager.m_called.await(1, TimeUnit.SECONDS));
+
+		// meta server is slow, the scheduler still runs other partitions' steps
+		final CountDownLatch otherStep = new CountDownLatch(1);
+		m_scheduler.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				otherStep.countDown();
+			}
+		});
+		assertTrue(otherStep.await(1, TimeUnit.SECONDS));
+		assertEquals(0, m_notifier.m_registerThreads.size());
+
+		m_leaseManager.m_metaServerReplies.countDown();
+		Command cmd = m_written.poll(1, TimeUnit.SECONDS);
+		assertTrue(cmd instanceof PullMessageCommand);
+		assertEquals(2, ((PullMessageCommand) cmd).getPartition());
+
+		assertEquals(1, m_leaseManager.m_acquireThreads.size());
+		assertTrue(m_leaseManager.m_acquireThreads.get(0).startsWith(LEASE_THREAD));
+		// consuming is handed back to the scheduler
+		assertEquals(1, m_notifier.m_registerThreads.size());
+		assertTrue(m_notifier.m_registerThreads.get(0).startsWith(SCHEDULER_THREAD));
+	}
+
+	@Test
+	public void testLeaseRetriedOffScheduler() throws Exception {
+		m_leaseManager.m_metaServerReplies.countDown();
+		m_leaseManager.m_replies.add(Boolean.FALSE);
+		m_leaseManager.m_replies.add(Boolean.FALSE);
+		m_leaseManager.m_replies.add(Boolean.TRUE);
+		m_task.run();
+
+		assertTrue(m_written.poll(2, TimeUnit.SECONDS) instanceof PullMessageCommand);
+		assertEquals(3, m_leaseManager.m_acquireThreads.size());
+		for (String thread : m_leaseManager.m_acquireThreads) {
+			assertTrue(thread, thread.startsWith(LEASE_THREAD));
+		}
+	}
+
+	private EventLoopConsumerTask createTask() {
+		ConsumerContext context = new ConsumerContext(new Topic("topic"), "group", null, String.class,
+		      ConsumerType.EVENT_LOOP);
+		SystemClockService clock = new SystemClockService() {
+
+			@Override
+			public long now() {
+				return System.currentTimeMillis();
+			}
+		};
+
+		EventLoopConsumerTask task = new EventLoopConsumerTask(context, 2, 10, 5, clock, new ConsumerRuntime() {
+
+			@Override
+			public ScheduledExecutorService getScheduler() {
+				return m_scheduler;
+			}
+
+			@Override
+			public ScheduledExecutorService getLeaseScheduler() {
+				return m_leaseScheduler;
+			}
+
+			@Override
+			public Executor getListenerExecutor() {
+				return m_listenerExecutor;
+			}
+		});
+		task.setConfig(new ConsumerConfig() {
+
+			@Override
+			public long getDefaultLeaseAcquireDelayMillis() {
+				return 10L;
+			}
+		});
+		task.setLeaseManager(m_leaseManager);
+		task.setConsumerNotifier(m_notifier);
+		task.setEndpointManager(new EndpointManager() {
+
+			@Override
+			public Endpoint getEndpoint(String topic, int partition) {
+				return new Endpoint();
+			}
+		});
+		task.setEndpointClient(new EndpointClient() {
+
+			@Override
+			public void writeCommand(Endpoint endpoint, Command cmd) {
+				m_written.offer(cmd);
+			}
+
+			@Override
+			public void writeCommand(Endpoint endpoint, Command cmd, long timeout, TimeUnit timeUnit) {
+				m_written.offer(cmd);
+			}
+
+			@Override
+			public void writeCommand(Endpoint endpoint, Command cmd, int partition, long timeout, TimeUnit timeUnit) {
+				m_written.offer(cmd);
+			}
+		});
+		task.setPullMessageResultMonitor(new PullMessageResultMonitor() {
+
+			@Override
+			public void monitor(PullMessageCommand cmd) {
+			}
+
+			@Override
+			public void monitor(FetchMessageCommand cmd) {
+			}
+
+			@Override
+			public void resultReceived(PullMessageResultCommand ack) {
+			}
+		});
+		return task;
+	}
+
+	private static ThreadFactory namedThreads(final String name) {
+		return new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private static class TestLeaseManager implements LeaseManager<ConsumerLeaseKey> {
+
+		private CountDownLatch m_called = new CountDownLatch(1);
+
+		private CountDownLatch m_metaServerReplies = new CountDownLatch(1);
+
+		// acquired or not of each call, the last one is repeated
+		private BlockingQueue<Boolean> m_replies = new LinkedBlockingQueue<>();
+
+		private List<String> m_acquireThreads = new CopyOnWriteArrayList<>();
+
+		@Override
+		public LeaseAcquireResponse tryAcquireLease(ConsumerLeaseKey key) {
+			m_acquireThreads.add(Thread.currentThread().getName());
+			m_called.countDown();
+			try {
+				m_metaServerReplies.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+
+			Boolean acquired = m_replies.size() > 1 ? m_replies.poll() : m_replies.peek();
+			if (acquired != null && acquired) {
+				return new LeaseAcquireResponse(true, new Lease(1, System.currentTimeMillis() + 60 * 1000L), -1L);
+			}
+			return new LeaseAcquireResponse(false, null, System.currentTimeMillis() + 10L);
+		}
+
+		@Override
+		public LeaseAcquireResponse tryRenewLease(ConsumerLeaseKey key, Lease lease) {
+			return new LeaseAcquireResponse(true, new Lease(1, System.currentTimeMillis() + 60 * 1000L), -1L);
+		}
+	}
+
+	private static class TestNotifier implements ConsumerNotifier {
+
+		private List<String> m_registerThreads = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void register(long correlationId, ConsumerContext consumerContext) {
+			m_registerThreads.add(Thread.currentThread().getName());
+		}
+
+		@Override
+		public void register(long correlationId, ConsumerContext consumerContext, Executor executor) {
+			m_registerThreads.add(Thread.currentThread().getName());
+		}
+
+		@Override
+		public void deregister(long correlationId) {
+		}
+
+		@Override
+		public void messageReceived(long correlationId, List<ConsumerMessage<?>> msgs) {
+		}
+
+		@Override
+		public ConsumerContext find(long correlationId) {
+			return null;
+		}
+	}
+}
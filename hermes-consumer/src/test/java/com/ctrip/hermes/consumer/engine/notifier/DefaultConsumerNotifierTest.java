@@ -0,0 +1,152 @@
+package com.ctrip.hermes.consumer.engine.notifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.unidal.tuple.Pair;
+
+import com.ctrip.hermes.Hermes.Env;
+import com.ctrip.hermes.consumer.ConsumerType;
+import com.ctrip.hermes.consumer.engine.ConsumerContext;
+import com.ctrip.hermes.consumer.engine.config.ConsumerConfig;
+import com.ctrip.hermes.core.env.ClientEnvironment;
+import com.ctrip.hermes.core.message.BaseConsumerMessage;
+import com.ctrip.hermes.core.message.BrokerConsumerMessage;
+import com.ctrip.hermes.core.message.ConsumerMessage;
+import com.ctrip.hermes.core.pipeline.Pipeline;
+import com.ctrip.hermes.meta.entity.Topic;
+
+public class DefaultConsumerNotifierTest {
+
+	private static final int KEY_COUNT = 16;
+
+	private static final int BATCH_COUNT = 50;
+
+	private DefaultConsumerNotifier m_notifier;
+
+	@After
+	public void after() {
+		if (m_notifier != null) {
+			m_notifier.deregister(1L);
+		}
+	}
+
+	@Test
+	public void testSameKeyInOrderOnOneLane() throws Exception {
+		final CountDownLatch delivered = new CountDownLatch(KEY_COUNT * BATCH_COUNT);
+		// key -> delivered seqs and the threads they were delivered on
+		final Map<String, List<Integer>> seqs = new ConcurrentHashMap<>();
+		final Map<String, Set<String>> threads = new ConcurrentHashMap<>();
+		for (int k = 0; k < KEY_COUNT; k++) {
+			seqs.put("key-" + k, new ArrayList<Integer>());
+			threads.put("key-" + k, new HashSet<String>());
+		}
+
+		m_notifier = createNotifier(4, new Pipeline<Void>() {
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public Void put(Object msg) {
+				for (ConsumerMessage<?> consumerMsg : ((Pair<ConsumerContext, List<ConsumerMessage<?>>>) msg).getValue()) {
+					String key = consumerMsg.getRefKey();
+					// a key is only ever touched by its own lane
+					seqs.get(key).add((Integer) consumerMsg.getBody());
+					threads.get(key).add(Thread.currentThread().getName());
+					delivered.countDown();
+				}
+				return null;
+			}
+		});
+		m_notifier.register(1L, new ConsumerContext(new Topic("topic"), "group", null, Integer.class,
+		      ConsumerType.LONG_POLLING));
+
+		for (int b = 0; b < BATCH_COUNT; b++) {
+			List<ConsumerMessage<?>> batch = new ArrayList<>();
+			for (int k = 0; k < KEY_COUNT; k++) {
+				batch.add(message("key-" + k, b));
+			}
+			m_notifier.messageReceived(1L, batch);
+		}
+		assertTrue(delivered.await(5, TimeUnit.SECONDS));
+
+		Set<String> lanes = new HashSet<>();
+		for (int k = 0; k < KEY_COUNT; k++) {
+			String key = "key-" + k;
+			assertEquals(key, 1, threads.get(key).size());
+			lanes.addAll(threads.get(key));
+
+			List<Integer> keySeqs = seqs.get(key);
+			assertEquals(BATCH_COUNT, keySeqs.size());
+			for (int b = 0; b < BATCH_COUNT; b++) {
+				assertEquals(key, Integer.valueOf(b), keySeqs.get(b));
+			}
+		}
+		// keys are spread over lanes
+		assertTrue(lanes.size() > 1);
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private ConsumerMessage<?> message(String key, int seq) {
+		BaseConsumerMessage baseMsg = new BaseConsumerMessage();
+		baseMsg.setRefKey(key);
+		baseMsg.setBody(seq);
+		return new BrokerConsumerMessage(baseMsg);
+	}
+
+	private DefaultConsumerNotifier createNotifier(int laneCount, Pipeline<Void> pipeline) throws Exception {
+		final Properties config = new Properties();
+		config.setProperty("consumer.notifier.lanes", String.valueOf(laneCount));
+
+		DefaultConsumerNotifier notifier = new DefaultConsumerNotifier();
+		inject(notifier, "m_pipeline", pipeline);
+		inject(notifier, "m_config", new ConsumerConfig());
+		inject(notifier, "m_clientEnv", new ClientEnvironment() {
+
+			@Override
+			public Properties getProducerConfig(String topic) throws IOException {
+				return new Properties();
+			}
+
+			@Override
+			public Properties getConsumerConfig(String topic) throws IOException {
+				return config;
+			}
+
+			@Override
+			public Properties getGlobalConfig() {
+				return new Properties();
+			}
+
+			@Override
+			public Env getEnv() {
+				return null;
+			}
+
+			@Override
+			public boolean isLocalMode() {
+				return true;
+			}
+		});
+		return notifier;
+	}
+
+	private static void inject(Object target, String fieldName, Object value) throws Exception {
+		Field field = DefaultConsumerNotifier.class.getDeclaredField(fieldName);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+}
@@ -0,0 +1,122 @@
+package com.ctrip.hermes.consumer.engine.prefetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ctrip.hermes.consumer.engine.config.ConsumerConfig;
+import com.ctrip.hermes.core.service.SystemClockService;
+
+public class PrefetchControllerTest {
+
+	private static final long STALL_MILLIS = 30000L;
+
+	private long m_now;
+
+	private PrefetchController m_controller;
+
+	@Before
+	public void before() {
+		m_now = 1000000L;
+		m_controller = new PrefetchController("test", 1024 * 1024, 1000, STALL_MILLIS, new SystemClockService() {
+			@Override
+			public long now() {
+				return m_now;
+			}
+		});
+	}
+
+	@Test
+	public void testOffByDefault() {
+		assertFalse(Boolean.valueOf(new ConsumerConfig().getDefaultAdaptivePrefetchEnabled()));
+	}
+
+	@Test
+	public void testPullWhenHalfProcessed() {
+		int size = m_controller.nextPullSize();
+		assertEquals(m_controller.getPrefetchSize(), size);
+
+		m_controller.onPullSent(size);
+		assertEquals(0, m_controller.nextPullSize());
+		m_controller.onPullDone(size, 0);
+		m_controller.onReceived(size, size * 100L);
+		assertEquals(0, m_controller.nextPullSize());
+
+		// room for a pull once no more than half the prefetch size is buffered
+		assertFalse(m_controller.onProcessed(size / 2 - 1));
+		assertEquals(0, m_controller.nextPullSize());
+		assertTrue(m_controller.onProcessed(1));
+		assertEquals(size / 2, m_controller.nextPullSize());
+	}
+
+	@Test
+	public void testUnackedMessagesWrittenOffAfterStall() {
+		int size = m_controller.nextPullSize();
+		m_controller.onPullSent(size);
+		m_controller.onPullDone(size, 0);
+		m_controller.onReceived(size, size * 100L);
+
+		// listener keeps the messages without acking
+		m_now += STALL_MILLIS - 1;
+		assertEquals(0, m_controller.nextPullSize());
+
+		m_now += 1;
+		assertEquals(m_controller.getPrefetchSize(), m_controller.nextPullSize());
+		assertEquals(size, m_controller.getWrittenOffMessages());
+		assertEquals(0, m_controller.getBufferedMessages());
+		assertEquals(0, m_controller.getBufferedBytes());
+
+		// late acks of written off messages don't go negative
+		m_controller.onProcessed(size);
+		assertEquals(0, m_controller.getBufferedMessages());
+	}
+
+	@Test
+	public void testProcessingKeepsStallAway() {
+		int size = m_controller.nextPullSize();
+		m_controller.onPullSent(size);
+		m_controller.onPullDone(size, 0);
+		m_controller.onReceived(size, size * 100L);
+
+		// a slow listener still acks now and then
+		for (int i = 0; i < 3; i++) {
+			m_now += STALL_MILLIS - 1;
+			m_controller.onProcessed(1);
+			assertEquals(0, m_controller.nextPullSize());
+		}
+		assertEquals(0, m_controller.getWrittenOffMessages());
+	}
+
+	@Test
+	public void testRttExcludesBrokerHold() {
+		m_controller.onPullSent(10);
+		m_now += 5000;
+		// the broker held the pull until messages came
+		m_controller.onPullDone(10, 4990);
+		assertEquals(10, m_controller.getAvgRttMillis());
+
+		m_controller.onPullSent(10);
+		m_now += 5000;
+		// an empty long poll held until expiry is a round trip too
+		m_controller.onPullDone(0, 4990);
+		assertEquals(10, m_controller.getAvgRttMillis());
+	}
+
+	@Test
+	public void testNoRttSampleWithoutHoldTime() {
+		m_controller.onPullSent(10);
+		m_now += 5000;
+		// broker doesn't report the hold time
+		m_controller.onPullDone(10, -1);
+		assertEquals(0, m_controller.getAvgRttMillis());
+
+		m_controller.onPullSent(10);
+		m_now += 5000;
+		// failed pull
+		m_controller.onPullDone(0, -1);
+		assertEquals(0, m_controller.getAvgRttMillis());
+	}
+}
@@ -0,0 +1,160 @@
+package com.ctrip.hermes.consumer.engine.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ctrip.hermes.Hermes.Env;
+import com.ctrip.hermes.consumer.engine.config.ConsumerConfig;
+import com.ctrip.hermes.core.env.ClientEnvironment;
+
+public class DefaultConsumerRuntimeTest {
+
+	private DefaultConsumerRuntime m_runtime;
+
+	@After
+	public void after() {
+		if (m_runtime != null) {
+			m_runtime.getScheduler().shutdownNow();
+			m_runtime.getLeaseScheduler().shutdownNow();
+			((ExecutorService) m_runtime.getListenerExecutor()).shutdownNow();
+		}
+	}
+
+	@Test
+	public void testBlockingLeaseCallsDontHoldUpScheduler() throws Exception {
+		Properties config = new Properties();
+		config.setProperty("consumer.runtime.scheduler.threadcount", "1");
+		config.setProperty("consumer.runtime.lease.threadcount", "1");
+		m_runtime = createRuntime(config);
+
+		final CountDownLatch leaseCallStarted = new CountDownLatch(1);
+		final CountDownLatch metaServerReplied = new CountDownLatch(1);
+		m_runtime.getLeaseScheduler().execute(new Runnable() {
+
+			@Override
+			public void run() {
+				leaseCallStarted.countDown();
+				await(metaServerReplied);
+			}
+		});
+		assertTrue(leaseCallStarted.await(1, TimeUnit.SECONDS));
+
+		final CountDownLatch pulled = new CountDownLatch(1);
+		m_runtime.getScheduler().execute(new Runnable() {
+
+			@Override
+			public void run() {
+				pulled.countDown();
+			}
+		});
+		assertTrue(pulled.await(1, TimeUnit.SECONDS));
+		metaServerReplied.countDown();
+	}
+
+	@Test
+	public void testListenerThreadPool() throws Exception {
+		Properties config = new Properties();
+		config.setProperty("consumer.runtime.listener.virtual", "false");
+		config.setProperty("consumer.runtime.listener.threadcount", "2");
+		m_runtime = createRuntime(config);
+
+		final AtomicReference<String> threadName = new AtomicReference<>();
+		final CountDownLatch done = new CountDownLatch(1);
+		m_runtime.getListenerExecutor().execute(new Runnable() {
+
+			@Override
+			public void run() {
+				threadName.set(Thread.currentThread().getName());
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(1, TimeUnit.SECONDS));
+		assertTrue(threadName.get(), threadName.get().startsWith("ConsumerRuntimeListener"));
+	}
+
+	@Test
+	public void testVirtualListenerThreads() throws Exception {
+		m_runtime = createRuntime(new Properties());
+
+		final AtomicReference<Thread> thread = new AtomicReference<>();
+		final CountDownLatch done = new CountDownLatch(1);
+		m_runtime.getListenerExecutor().execute(new Runnable() {
+
+			@Override
+			public void run() {
+				thread.set(Thread.currentThread());
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(1, TimeUnit.SECONDS));
+
+		boolean virtualSupported;
+		try {
+			Thread.class.getMethod("isVirtual");
+			virtualSupported = true;
+		} catch (NoSuchMethodException e) {
+			virtualSupported = false;
+		}
+		// falls back to the thread pool on JDKs without virtual threads
+		assertEquals(!virtualSupported, thread.get().getName().startsWith("ConsumerRuntimeListener"));
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private DefaultConsumerRuntime createRuntime(final Properties config) throws Exception {
+		DefaultConsumerRuntime runtime = new DefaultConsumerRuntime();
+		inject(runtime, "m_config", new ConsumerConfig());
+		inject(runtime, "m_clientEnv", new ClientEnvironment() {
+
+			@Override
+			public Properties getProducerConfig(String topic) throws IOException {
+				return new Properties();
+			}
+
+			@Override
+			public Properties getConsumerConfig(String topic) throws IOException {
+				return new Properties();
+			}
+
+			@Override
+			public Properties getGlobalConfig() {
+				return config;
+			}
+
+			@Override
+			public Env getEnv() {
+				return null;
+			}
+
+			@Override
+			public boolean isLocalMode() {
+				return true;
+			}
+		});
+		runtime.initialize();
+		return runtime;
+	}
+
+	private static void inject(Object target, String fieldName, Object value) throws Exception {
+		Field field = DefaultConsumerRuntime.class.getDeclaredField(fieldName);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+}
@@ -41,12 +41,32 @@ public class CoreConfig {
 		return 65535;
 	}
 
+	public boolean isNettyNativeEpollEnabled() {
+		return !"false".equalsIgnoreCase(System.getProperty("nettyNativeEpoll", "true"));
+	}
+
+	public int getNettyWriteBufferHighWaterMark() {
+		return 1024 * 1024;
+	}
+
+	public int getNettyWriteBufferLowWaterMark() {
+		return 512 * 1024;
+	}
+
+	public int getEndpointChannelPoolSize() {
+		return 2;
+	}
+
+	public int getEndpointEventLoopThreadCount() {
+		return 2;
+	}
+
 	public int getEndpointChannelSendBufferSize() {
 		return 1000;
 	}
 
-	public long getEndpointChannelWriterCheckInterval() {
-		return 20;
+	public int getEndpointChannelWriteBatchSize() {
+		return 256;
 	}
 
 	public long getEndpointChannelWriteRetryDelay() {
@@ -0,0 +1,19 @@
+package com.ctrip.hermes.core.message;
+
+import io.netty.channel.Channel;
+
+import com.ctrip.hermes.core.bo.Tpp;
+
+/**
+ * Collects acks and nacks of consumed messages and sends them to the broker in batches.
+ *
+ */
+public interface AckMessageAggregator {
+
+	public void ack(Channel channel, long correlationId, Tpp tpp, String groupId, boolean resend, long msgSeq,
+	      int remainingRetries, long onMessageStartTimeMillis, long onMessageEndTimeMillis);
+
+	public void nack(Channel channel, long correlationId, Tpp tpp, String groupId, boolean resend, long msgSeq,
+	      int remainingRetries, long onMessageStartTimeMillis, long onMessageEndTimeMillis);
+
+}
@@ -29,6 +29,8 @@ public class BrokerConsumerMessage<T> implements ConsumerMessage<T>, PropertiesH
 
 	private Channel m_channel;
 
+	private AckMessageAggregator m_ackMessageAggregator;
+
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public BrokerConsumerMessage(BaseConsumerMessage baseMsg) {
 		m_baseMsg = baseMsg;
@@ -54,6 +56,10 @@ public class BrokerConsumerMessage<T> implements ConsumerMessage<T>, PropertiesH
 		m_channel = channel;
 	}
 
+	public void setAckMessageAggregator(AckMessageAggregator ackMessageAggregator) {
+		m_ackMessageAggregator = ackMessageAggregator;
+	}
+
 	public boolean isPriority() {
 		return m_priority;
 	}
@@ -81,12 +87,18 @@ public class BrokerConsumerMessage<T> implements ConsumerMessage<T>, PropertiesH
 	@Override
 	public void nack() {
 		if (m_baseMsg.nack()) {
-			AckMessageCommand cmd = new AckMessageCommand();
-			cmd.getHeader().setCorrelationId(m_correlationId);
 			Tpp tpp = new Tpp(getTopic(), getPartition(), m_priority);
-			cmd.addNackMsg(tpp, m_groupId, m_resend, m_msgSeq, m_baseMsg.getRemainingRetries(),
-			      m_baseMsg.getOnMessageStartTimeMills(), m_baseMsg.getOnMessageEndTimeMills());
-			m_channel.writeAndFlush(cmd);
+			if (m_ackMessageAggregator != null) {
+				m_ackMessageAggregator.nack(m_channel, m_correlationId, tpp, m_groupId, m_resend, m_msgSeq,
+				      m_baseMsg.getRemainingRetries(), m_baseMsg.getOnMessageStartTimeMills(),
+				      m_baseMsg.getOnMessageEndTimeMills());
+			} else {
+				AckMessageCommand cmd = new AckMessageCommand();
+				cmd.getHeader().setCorrelationId(m_correlationId);
+				cmd.addNackMsg(tpp, m_groupId, m_resend, m_msgSeq, m_baseMsg.getRemainingRetries(),
+				      m_baseMsg.getOnMessageStartTimeMills(), m_baseMsg.getOnMessageEndTimeMills());
+				m_channel.writeAndFlush(cmd);
+			}
 		}
 	}
 
@@ -123,12 +135,18 @@ public class BrokerConsumerMessage<T> implements ConsumerMessage<T>, PropertiesH
 	@Override
 	public void ack() {
 		if (m_baseMsg.ack()) {
-			AckMessageCommand cmd = new AckMessageCommand();
-			cmd.getHeader().setCorrelationId(m_correlationId);
 			Tpp tpp = new Tpp(getTopic(), getPartition(), m_priority);
-			cmd.addAckMsg(tpp, m_groupId, m_resend, m_msgSeq, m_baseMsg.getRemainingRetries(),
-			      m_baseMsg.getOnMessageStartTimeMills(), m_baseMsg.getOnMessageEndTimeMills());
-			m_channel.writeAndFlush(cmd);
+			if (m_ackMessageAggregator != null) {
+				m_ackMessageAggregator.ack(m_channel, m_correlationId, tpp, m_groupId, m_resend, m_msgSeq,
+				      m_baseMsg.getRemainingRetries(), m_baseMsg.getOnMessageStartTimeMills(),
+				      m_baseMsg.getOnMessageEndTimeMills());
+			} else {
+				AckMessageCommand cmd = new AckMessageCommand();
+				cmd.getHeader().setCorrelationId(m_correlationId);
+				cmd.addAckMsg(tpp, m_groupId, m_resend, m_msgSeq, m_baseMsg.getRemainingRetries(),
+				      m_baseMsg.getOnMessageStartTimeMills(), m_baseMsg.getOnMessageEndTimeMills());
+				m_channel.writeAndFlush(cmd);
+			}
 		}
 	}
 
@@ -0,0 +1,64 @@
+package com.ctrip.hermes.core.message;
+
+import io.netty.buffer.ByteBuf;
+
+import com.ctrip.hermes.core.message.payload.PayloadCodec;
+import com.ctrip.hermes.core.message.payload.PayloadCodecFactory;
+
+/**
+ * BaseConsumerMessage whose body is decoded on first {@link #getBody()} instead of on the pull thread.
+ * <p>
+ * Body bytes are copied out of the pulled buffer on construction, so a message neither pins the whole pull buffer nor
+ * depends on being acked or nacked before its body is read. Properties are already decoded lazily by the codec.
+ */
+public class LazyConsumerMessage<T> extends BaseConsumerMessage<T> {
+
+	private byte[] m_bodyBytes;
+
+	private String m_bodyCodecType;
+
+	private Class<T> m_bodyClazz;
+
+	private boolean m_bodyDecoded = false;
+
+	/**
+	 * @param bodyBuf
+	 *           readable bytes are copied, reader index and reference count are left untouched
+	 */
+	public LazyConsumerMessage(ByteBuf bodyBuf, String bodyCodecType, Class<T> bodyClazz) {
+		m_bodyBytes = new byte[bodyBuf.readableBytes()];
+		bodyBuf.getBytes(bodyBuf.readerIndex(), m_bodyBytes);
+		m_bodyCodecType = bodyCodecType;
+		m_bodyClazz = bodyClazz;
+	}
+
+	@Override
+	public synchronized T getBody() {
+		if (!m_bodyDecoded) {
+			PayloadCodec bodyCodec = PayloadCodecFactory.getCodecByType(m_bodyCodecType);
+			m_body = bodyCodec.decode(m_bodyBytes, m_bodyClazz);
+			m_bodyDecoded = true;
+			m_bodyBytes = null;
+		}
+
+		return m_body;
+	}
+
+	@Override
+	public synchronized void setBody(T body) {
+		m_body = body;
+		m_bodyDecoded = true;
+		m_bodyBytes = null;
+	}
+
+	public synchronized boolean isBodyDecoded() {
+		return m_bodyDecoded;
+	}
+
+	@Override
+	public String toString() {
+		return "LazyConsumerMessage{" + "m_bornTime=" + m_bornTime + ", m_refKey='" + m_refKey + '\'' + ", m_topic='"
+		      + m_topic + '\'' + ", m_bodyDecoded=" + m_bodyDecoded + ", m_propertiesHolder=" + m_propertiesHolder
+		      + ", m_status=" + m_status + ", m_remainingRetries=" + m_remainingRetries + '}';
+	}
+}
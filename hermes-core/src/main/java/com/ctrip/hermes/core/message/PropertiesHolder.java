@@ -15,6 +15,7 @@ public class PropertiesHolder {
 
 	private Map<String, String> m_volatileProperties = new HashMap<String, String>();
 
+	// built from durable properties on first use, decoded properties are only scanned when asked for
 	private Set<String> m_rawDurableAppPropertyNames = new HashSet<String>();
 
 	public PropertiesHolder() {
@@ -26,7 +27,9 @@ public class PropertiesHolder {
 	}
 
 	public void addDurableAppProperty(String name, String value) {
-		m_rawDurableAppPropertyNames.add(name);
+		if (m_rawDurableAppPropertyNames != null) {
+			m_rawDurableAppPropertyNames.add(name);
+		}
 		m_durableProperties.put(APP + name, value);
 	}
 
@@ -57,12 +60,7 @@ public class PropertiesHolder {
 	public void setDurableProperties(Map<String, String> durableProperties) {
 		if (durableProperties != null) {
 			m_durableProperties = durableProperties;
-
-			for (String mergedKey : durableProperties.keySet()) {
-				if (mergedKey.startsWith(APP)) {
-					m_rawDurableAppPropertyNames.add(mergedKey.substring(APP.length()));
-				}
-			}
+			m_rawDurableAppPropertyNames = null;
 		}
 	}
 
@@ -77,6 +75,15 @@ public class PropertiesHolder {
 	}
 
 	public Set<String> getRawDurableAppPropertyNames() {
+		if (m_rawDurableAppPropertyNames == null) {
+			Set<String> names = new HashSet<String>();
+			for (String mergedKey : m_durableProperties.keySet()) {
+				if (mergedKey.startsWith(APP)) {
+					names.add(mergedKey.substring(APP.length()));
+				}
+			}
+			m_rawDurableAppPropertyNames = names;
+		}
 		return m_rawDurableAppPropertyNames;
 	}
 
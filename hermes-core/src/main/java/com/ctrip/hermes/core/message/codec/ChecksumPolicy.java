@@ -0,0 +1,52 @@
+package com.ctrip.hermes.core.message.codec;
+
+/**
+ * Where message checksums are verified, set per deployment with system property {@link #PROPERTY}.
+ * <p>
+ * Producers always compute checksums. Broker verifies them on receiving messages from producers, consumer verifies
+ * them on decoding messages delivered by broker. Checksums of codecs which support it are neither computed by broker
+ * on delivery if consumers won't verify them.
+ */
+public enum ChecksumPolicy {
+	OFF(false, false), //
+	PRODUCER_TO_BROKER(true, false), //
+	END_TO_END(true, true), //
+	;
+
+	public static final String PROPERTY = "messageChecksumPolicy";
+
+	private static final ChecksumPolicy CONFIGURED = fromSystemProperty();
+
+	private boolean m_verifyOnBroker;
+
+	private boolean m_verifyOnConsumer;
+
+	private ChecksumPolicy(boolean verifyOnBroker, boolean verifyOnConsumer) {
+		m_verifyOnBroker = verifyOnBroker;
+		m_verifyOnConsumer = verifyOnConsumer;
+	}
+
+	public boolean isVerifyOnBroker() {
+		return m_verifyOnBroker;
+	}
+
+	public boolean isVerifyOnConsumer() {
+		return m_verifyOnConsumer;
+	}
+
+	public static ChecksumPolicy configured() {
+		return CONFIGURED;
+	}
+
+	private static ChecksumPolicy fromSystemProperty() {
+		String value = System.getProperty(PROPERTY);
+		if (value != null) {
+			for (ChecksumPolicy policy : values()) {
+				if (policy.name().equalsIgnoreCase(value.trim())) {
+					return policy;
+				}
+			}
+		}
+		return END_TO_END;
+	}
+}
@@ -10,12 +10,36 @@ import com.ctrip.hermes.core.message.ProducerMessage;
 import com.ctrip.hermes.core.transport.netty.Magic;
 
 /**
+ * Messages of any known version are decoded, they are written with {@link MessageCodecVersion#BINARY_V1} unless system
+ * property {@link #VERSION_PROPERTY} is <code>binary_v2</code>.
+ * <p>
+ * Clients older than V2 can't decode it, so roll it out in this order: upgrade consumers, brokers and producers to a
+ * build knowing V2, then switch brokers to write V2, since they re-encode messages delivered to consumers, and producers
+ * at last.
+ *
  * @author Leo Liang(jhliang@ctrip.com)
  *
  */
 @Named(type = MessageCodec.class)
 public class DefaultMessageCodec implements MessageCodec {
-	private static MessageCodecVersion CURRENT_VERSION = MessageCodecVersion.BINARY_V1;
+	public static final String VERSION_PROPERTY = "messageCodecVersion";
+
+	private static MessageCodecVersion CURRENT_VERSION = writeVersion(System.getProperty(VERSION_PROPERTY));
+
+	static MessageCodecVersion writeVersion(String value) {
+		if (value != null) {
+			for (MessageCodecVersion version : MessageCodecVersion.values()) {
+				if (version.name().equalsIgnoreCase(value.trim())) {
+					return version;
+				}
+			}
+		}
+		return MessageCodecVersion.BINARY_V1;
+	}
+
+	public static MessageCodecVersion getWriteVersion() {
+		return CURRENT_VERSION;
+	}
 
 	@Override
 	public void encode(ProducerMessage<?> msg, ByteBuf buf) {
@@ -44,6 +68,13 @@ public class DefaultMessageCodec implements MessageCodec {
 		return version.getHandler().decode(topic, buf, bodyClazz);
 	}
 
+	@Override
+	public BaseConsumerMessage<?> decodeLazy(String topic, ByteBuf buf, Class<?> bodyClazz) {
+		Magic.readAndCheckMagic(buf);
+		MessageCodecVersion version = getVersion(buf);
+		return version.getHandler().decodeLazy(topic, buf, bodyClazz);
+	}
+
 	@Override
 	public void encode(PartialDecodedMessage msg, ByteBuf buf) {
 		Magic.writeMagic(buf);
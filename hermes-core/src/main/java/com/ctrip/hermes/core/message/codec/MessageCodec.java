@@ -16,5 +16,10 @@ public interface MessageCodec {
 
 	public BaseConsumerMessage<?> decode(String topic, ByteBuf buf, Class<?> bodyClazz);
 
+	/**
+	 * Body is decoded on first access from a copy, the returned message holds no reference to <code>buf</code>.
+	 */
+	public BaseConsumerMessage<?> decodeLazy(String topic, ByteBuf buf, Class<?> bodyClazz);
+
 	void encode(PartialDecodedMessage msg, ByteBuf buf);
 }
@@ -18,6 +18,8 @@ public interface MessageCodecHandler {
 
 	BaseConsumerMessage<?> decode(String topic, ByteBuf buf, Class<?> bodyClazz);
 
+	BaseConsumerMessage<?> decodeLazy(String topic, ByteBuf buf, Class<?> bodyClazz);
+
 	void encode(PartialDecodedMessage msg, ByteBuf buf);
 
 	byte[] encode(ProducerMessage<?> msg, byte version);
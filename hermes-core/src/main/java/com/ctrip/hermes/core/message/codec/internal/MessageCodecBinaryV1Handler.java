@@ -4,11 +4,17 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.ctrip.hermes.core.message.BaseConsumerMessage;
+import com.ctrip.hermes.core.message.LazyConsumerMessage;
 import com.ctrip.hermes.core.message.PartialDecodedMessage;
 import com.ctrip.hermes.core.message.ProducerMessage;
 import com.ctrip.hermes.core.message.PropertiesHolder;
+import com.ctrip.hermes.core.message.codec.ChecksumPolicy;
 import com.ctrip.hermes.core.message.codec.MessageCodecHandler;
 import com.ctrip.hermes.core.message.payload.PayloadCodec;
 import com.ctrip.hermes.core.message.payload.PayloadCodecFactory;
@@ -21,6 +27,43 @@ import com.ctrip.hermes.core.utils.HermesPrimitiveCodec;
  *
  */
 public class MessageCodecBinaryV1Handler implements MessageCodecHandler {
+	private static final Logger log = LoggerFactory.getLogger(MessageCodecBinaryV1Handler.class);
+
+	private static final long UNVERIFIED_LOG_INTERVAL = 10000;
+
+	// frames without checksum met while verifying, e.g. delivered by a broker whose policy says consumers don't verify
+	private static AtomicLong m_unverifiedCount = new AtomicLong(0);
+
+	/**
+	 * Written in place of the checksum when it is not computed, no CRC-32 variant yields it.
+	 */
+	protected static final long NO_CHECKSUM = -1L;
+
+	private ChecksumPolicy m_checksumPolicy;
+
+	public MessageCodecBinaryV1Handler() {
+		this(ChecksumPolicy.configured());
+	}
+
+	public MessageCodecBinaryV1Handler(ChecksumPolicy checksumPolicy) {
+		m_checksumPolicy = checksumPolicy;
+	}
+
+	protected ChecksumPolicy getChecksumPolicy() {
+		return m_checksumPolicy;
+	}
+
+	protected long checksum(ByteBuf buf) {
+		return ChecksumUtil.crc32(buf);
+	}
+
+	/**
+	 * Checksum of a message broker delivers to consumers, always computed as consumers of this version verify it
+	 * unconditionally.
+	 */
+	protected long deliveryChecksum(ByteBuf buf) {
+		return checksum(buf);
+	}
 
 	@Override
 	public byte[] encode(ProducerMessage<?> msg, byte version) {
@@ -76,7 +119,7 @@ public class MessageCodecBinaryV1Handler implements MessageCodecHandler {
 		// body end
 
 		// crc
-		codec.writeLong(ChecksumUtil.crc32(buf.slice(indexBeforeHeader, headerLen + bodyLen)));
+		codec.writeLong(checksum(buf.slice(indexBeforeHeader, headerLen + bodyLen)));
 		int indexEnd = buf.writerIndex();
 
 		int wholeLen = indexEnd - indexAfterWholeLen;
@@ -97,6 +140,10 @@ public class MessageCodecBinaryV1Handler implements MessageCodecHandler {
 
 	@Override
 	public PartialDecodedMessage decodePartial(ByteBuf buf) {
+		return decodePartial(buf, m_checksumPolicy.isVerifyOnBroker());
+	}
+
+	private PartialDecodedMessage decodePartial(ByteBuf buf, boolean verifyChecksum) {
 		HermesPrimitiveCodec codec = new HermesPrimitiveCodec(buf);
 
 		// skip whole length
@@ -105,12 +152,14 @@ public class MessageCodecBinaryV1Handler implements MessageCodecHandler {
 		int headerLen = codec.readInt();
 		// skip body length
 		int bodyLen = codec.readInt();
-		verifyChecksum(buf, headerLen + bodyLen);
+		if (verifyChecksum) {
+			verifyChecksum(buf, headerLen + bodyLen);
+		}
 		PartialDecodedMessage msg = new PartialDecodedMessage();
 		msg.setKey(codec.readString());
 		msg.setBornTime(codec.readLong());
 		msg.setRemainingRetries(codec.readInt());
-		msg.setBodyCodecType(codec.readString());
+		msg.setBodyCodecType(codec.readCachedString());
 
 		int len = codec.readInt();
 		msg.setDurableProperties(buf.readSlice(len));
@@ -127,20 +176,31 @@ public class MessageCodecBinaryV1Handler implements MessageCodecHandler {
 	}
 
 	private void verifyChecksum(ByteBuf buf, int len) {
-		// TODO allow skip verify checksum
-		long actualChecksum = ChecksumUtil.crc32(buf.slice(buf.readerIndex(), len));
 		long expectedChecksum = buf.getLong(buf.readerIndex() + len);
-		if (actualChecksum != expectedChecksum) {
+		if (expectedChecksum == NO_CHECKSUM) {
+			long count = m_unverifiedCount.incrementAndGet();
+			if (count % UNVERIFIED_LOG_INTERVAL == 1) {
+				log.warn("Message without checksum not verified, the sender's {} skips it (unverified count: {})",
+				      ChecksumPolicy.PROPERTY, count);
+			}
+		} else if (checksum(buf.slice(buf.readerIndex(), len)) != expectedChecksum) {
 			throw new IllegalArgumentException("checksum mismatch");
 		}
 	}
 
+	/**
+	 * @return messages without checksum met while checksums are verified
+	 */
+	public static long getUnverifiedCount() {
+		return m_unverifiedCount.get();
+	}
+
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@Override
 	public BaseConsumerMessage<?> decode(String topic, ByteBuf buf, Class<?> bodyClazz) {
 		BaseConsumerMessage msg = new BaseConsumerMessage();
 
-		PartialDecodedMessage decodedMessage = decodePartial(buf);
+		PartialDecodedMessage decodedMessage = decodePartial(buf, m_checksumPolicy.isVerifyOnConsumer());
 		msg.setTopic(topic);
 		msg.setRefKey(decodedMessage.getKey());
 		msg.setBornTime(decodedMessage.getBornTime());
@@ -154,6 +214,24 @@ public class MessageCodecBinaryV1Handler implements MessageCodecHandler {
 		return msg;
 	}
 
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Override
+	public BaseConsumerMessage<?> decodeLazy(String topic, ByteBuf buf, Class<?> bodyClazz) {
+		PartialDecodedMessage decodedMessage = decodePartial(buf, m_checksumPolicy.isVerifyOnConsumer());
+		LazyConsumerMessage msg = new LazyConsumerMessage(decodedMessage.getBody(), decodedMessage.getBodyCodecType(),
+		      bodyClazz);
+
+		msg.setTopic(topic);
+		msg.setRefKey(decodedMessage.getKey());
+		msg.setBornTime(decodedMessage.getBornTime());
+		msg.setRemainingRetries(decodedMessage.getRemainingRetries());
+		Map<String, String> durableProperties = readProperties(decodedMessage.getDurableProperties());
+		Map<String, String> volatileProperties = readProperties(decodedMessage.getVolatileProperties());
+		msg.setPropertiesHolder(new PropertiesHolder(durableProperties, volatileProperties));
+
+		return msg;
+	}
+
 	@Override
 	public void encode(PartialDecodedMessage msg, ByteBuf buf) {
 		HermesPrimitiveCodec codec = new HermesPrimitiveCodec(buf);
@@ -183,7 +261,7 @@ public class MessageCodecBinaryV1Handler implements MessageCodecHandler {
 		// body end
 
 		// crc
-		codec.writeLong(ChecksumUtil.crc32(buf.slice(indexBeforeHeader, headerLen + bodyLen)));
+		codec.writeLong(deliveryChecksum(buf.slice(indexBeforeHeader, headerLen + bodyLen)));
 		int indexEnd = buf.writerIndex();
 
 		// refill whole length
@@ -227,7 +305,7 @@ public class MessageCodecBinaryV1Handler implements MessageCodecHandler {
 
 	private Map<String, String> readProperties(ByteBuf buf) {
 		HermesPrimitiveCodec codec = new HermesPrimitiveCodec(buf);
-		return codec.readStringStringMap();
+		return codec.readLazyStringStringMap();
 	}
 
 }
@@ -0,0 +1,33 @@
+package com.ctrip.hermes.core.message.codec.internal;
+
+import io.netty.buffer.ByteBuf;
+
+import com.ctrip.hermes.core.message.codec.ChecksumPolicy;
+import com.ctrip.hermes.core.utils.ChecksumUtil;
+
+/**
+ * Same layout as {@link MessageCodecBinaryV1Handler}, but checksummed with CRC-32C, and broker skips computing
+ * checksums of delivered messages if its policy says consumers don't verify them. Consumers verifying anyway pass such
+ * messages unverified and count them in {@link #getUnverifiedCount()}.
+ */
+public class MessageCodecBinaryV2Handler extends MessageCodecBinaryV1Handler {
+
+	public MessageCodecBinaryV2Handler() {
+		super();
+	}
+
+	public MessageCodecBinaryV2Handler(ChecksumPolicy checksumPolicy) {
+		super(checksumPolicy);
+	}
+
+	@Override
+	protected long checksum(ByteBuf buf) {
+		return ChecksumUtil.crc32c(buf);
+	}
+
+	@Override
+	protected long deliveryChecksum(ByteBuf buf) {
+		return getChecksumPolicy().isVerifyOnConsumer() ? checksum(buf) : NO_CHECKSUM;
+	}
+
+}
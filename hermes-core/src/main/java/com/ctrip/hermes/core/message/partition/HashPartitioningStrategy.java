@@ -1,26 +1,65 @@
 package com.ctrip.hermes.core.message.partition;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Random;
 
 import org.unidal.lookup.annotation.Named;
 
+import com.ctrip.hermes.meta.entity.Property;
+import com.ctrip.hermes.meta.entity.Topic;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
 /**
+ * Keys are hashed with String.hashCode, unless the topic sets meta property {@link #TOPIC_HASH_PROPERTY} to
+ * {@link #HASH_MURMUR3}. Murmur3 spreads similar keys (e.g. order ids with a common prefix) better, but maps keys to
+ * other partitions, so a topic should switch only when no producer is writing ordered keys to it.
+ * 
  * @author Leo Liang(jhliang@ctrip.com)
  *
  */
 @Named(type = PartitioningStrategy.class)
 public class HashPartitioningStrategy implements PartitioningStrategy {
 
+	public static final String TOPIC_HASH_PROPERTY = "partition.hash";
+
+	public static final String HASH_MURMUR3 = "murmur3";
+
 	private Random m_random = new Random();
 
+	private HashFunction m_murmur3 = Hashing.murmur3_32();
+
 	@Override
 	public int computePartitionNo(String key, int partitionCount) {
+		return computePartitionNo(key, partitionCount, false);
+	}
+
+	@Override
+	public int computePartitionNo(String key, int partitionCount, Topic topic) {
+		return computePartitionNo(key, partitionCount, isMurmur3(topic));
+	}
+
+	private int computePartitionNo(String key, int partitionCount, boolean murmur3) {
 
 		if (key == null) {
-			return Math.abs(m_random.nextInt()) % partitionCount;
+			return m_random.nextInt(partitionCount);
+		} else if (murmur3) {
+			int hash = m_murmur3.hashString(key, StandardCharsets.UTF_8).asInt();
+			return (hash & Integer.MAX_VALUE) % partitionCount;
 		} else {
 			return Math.abs(key.hashCode()) % partitionCount;
 		}
 	}
 
+	private boolean isMurmur3(Topic topic) {
+		if (topic != null && topic.getProperties() != null) {
+			for (Property property : topic.getProperties()) {
+				if (TOPIC_HASH_PROPERTY.equals(property.getName())) {
+					return HASH_MURMUR3.equalsIgnoreCase(property.getValue() == null ? null : property.getValue().trim());
+				}
+			}
+		}
+		return false;
+	}
+
 }
@@ -1,9 +1,16 @@
 package com.ctrip.hermes.core.message.partition;
 
+import com.ctrip.hermes.meta.entity.Topic;
+
 /**
  * @author Leo Liang(jhliang@ctrip.com)
  *
  */
 public interface PartitioningStrategy {
 	public int computePartitionNo(String key, int partitionCount);
+
+	/**
+	 * Like {@link #computePartitionNo(String, int)}, but <code>topic</code>'s meta may choose how keys are partitioned.
+	 */
+	public int computePartitionNo(String key, int partitionCount, Topic topic);
 }
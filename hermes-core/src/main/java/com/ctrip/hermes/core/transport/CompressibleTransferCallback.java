@@ -0,0 +1,19 @@
+package com.ctrip.hermes.core.transport;
+
+import io.netty.buffer.ByteBuf;
+
+import com.ctrip.hermes.core.transport.compress.Compression;
+
+/**
+ * Transfer callback which can hand out its data already compressed, e.g. kept from an earlier transfer of the same
+ * data, so the encoder needn't compress it again.
+ *
+ */
+public interface CompressibleTransferCallback extends TransferCallback {
+
+	/**
+	 * @return data laid out as {@link Compression#compress(ByteBuf)} does, ownership is passed to the caller
+	 */
+	public ByteBuf compressed(Compression compression);
+
+}
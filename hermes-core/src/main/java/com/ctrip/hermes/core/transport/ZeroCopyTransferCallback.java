@@ -0,0 +1,17 @@
+package com.ctrip.hermes.core.transport;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Transfer callback of data which is already stored in its wire format. The encoder links the returned buffer into
+ * the outgoing frame instead of copying it.
+ *
+ */
+public interface ZeroCopyTransferCallback extends TransferCallback {
+
+	/**
+	 * @return encoded data, ownership is passed to the caller
+	 */
+	public ByteBuf region();
+
+}
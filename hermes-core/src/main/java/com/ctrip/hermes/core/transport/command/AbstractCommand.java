@@ -1,6 +1,7 @@
 package com.ctrip.hermes.core.transport.command;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 
 /**
  * @author Leo Liang(jhliang@ctrip.com)
@@ -43,6 +44,17 @@ public abstract class AbstractCommand implements Command {
 		toBytes0(buf);
 	}
 
+	public ByteBuf toByteBuf(ByteBufAllocator allocator) {
+		ByteBuf buf = allocator.buffer();
+		try {
+			toBytes(buf);
+		} catch (RuntimeException e) {
+			buf.release();
+			throw e;
+		}
+		return buf;
+	}
+
 	public void correlate(Command req) {
 		m_header.setCorrelationId(req.getHeader().getCorrelationId());
 	}
@@ -3,6 +3,8 @@ package com.ctrip.hermes.core.transport.command;
 import io.netty.buffer.ByteBuf;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -19,6 +21,28 @@ import com.ctrip.hermes.core.utils.HermesPrimitiveCodec;
 public class AckMessageCommand extends AbstractCommand {
 	private static final long serialVersionUID = 7009170887490443292L;
 
+	public static final int VERSION_ENTRIES = 1;
+
+	/**
+	 * Header version of commands whose acks are encoded as msgSeq ranges, commands of older versions carry one entry per
+	 * message.
+	 */
+	public static final int VERSION_RANGES = 2;
+
+	/**
+	 * Header property of pull results telling the highest ack command version the broker can parse. Brokers not
+	 * sending it only parse {@link #VERSION_ENTRIES}.
+	 */
+	public static final String ACCEPTED_VERSION_PROPERTY = "ackVersion";
+
+	private static final Comparator<AckContext> MSG_SEQ_COMPARATOR = new Comparator<AckContext>() {
+
+		@Override
+		public int compare(AckContext o1, AckContext o2) {
+			return Long.compare(o1.getMsgSeq(), o2.getMsgSeq());
+		}
+	};
+
 	// key: tpp, groupId, isResend
 	private ConcurrentMap<Triple<Tpp, String, Boolean>, List<AckContext>> m_ackMsgSeqs = new ConcurrentHashMap<>();
 
@@ -26,69 +50,205 @@ public class AckMessageCommand extends AbstractCommand {
 	private ConcurrentMap<Triple<Tpp, String, Boolean>, List<AckContext>> m_nackMsgSeqs = new ConcurrentHashMap<>();
 
 	public AckMessageCommand() {
+		this(VERSION_ENTRIES);
+	}
+
+	public AckMessageCommand(int version) {
 		super(CommandType.MESSAGE_ACK);
+		m_header.setVersion(version);
+	}
+
+	public static void writeAcceptedVersion(Header header) {
+		header.addProperty(ACCEPTED_VERSION_PROPERTY, String.valueOf(VERSION_RANGES));
+	}
+
+	/**
+	 * @return version of ack commands to send to the broker which wrote <code>header</code>
+	 */
+	public static int acceptedVersionOf(Header header) {
+		String version = header.getProperties() == null ? null : header.getProperties().get(ACCEPTED_VERSION_PROPERTY);
+		if (version == null) {
+			return VERSION_ENTRIES;
+		}
+
+		try {
+			return Math.min(VERSION_RANGES, Integer.parseInt(version.trim()));
+		} catch (NumberFormatException e) {
+			return VERSION_ENTRIES;
+		}
 	}
 
 	@Override
 	protected void toBytes0(ByteBuf buf) {
 		HermesPrimitiveCodec codec = new HermesPrimitiveCodec(buf);
-		writeMsgSeqMap(codec, m_ackMsgSeqs);
-		writeMsgSeqMap(codec, m_nackMsgSeqs);
-
+		if (m_header.getVersion() >= VERSION_RANGES) {
+			writeMsgSeqRanges(codec, m_ackMsgSeqs);
+			writeMsgSeqRanges(codec, m_nackMsgSeqs);
+		} else {
+			writeMsgSeqMap(codec, m_ackMsgSeqs);
+			writeMsgSeqMap(codec, m_nackMsgSeqs);
+		}
 	}
 
 	@Override
 	protected void parse0(ByteBuf buf) {
 		HermesPrimitiveCodec codec = new HermesPrimitiveCodec(buf);
-		m_ackMsgSeqs = readMsgSeqMap(codec);
-		m_nackMsgSeqs = readMsgSeqMap(codec);
+		if (m_header.getVersion() >= VERSION_RANGES) {
+			m_ackMsgSeqs = readMsgSeqRanges(codec);
+			m_nackMsgSeqs = readMsgSeqRanges(codec);
+		} else {
+			m_ackMsgSeqs = readMsgSeqMap(codec);
+			m_nackMsgSeqs = readMsgSeqMap(codec);
+		}
 	}
 
-	private void writeMsgSeqMap(HermesPrimitiveCodec codec,
+	private void writeKeys(HermesPrimitiveCodec codec, List<Triple<Tpp, String, Boolean>> tppgrs) {
+		codec.writeInt(tppgrs.size());
+		for (Triple<Tpp, String, Boolean> tppgr : tppgrs) {
+			Tpp tpp = tppgr.getFirst();
+			codec.writeString(tpp.getTopic());
+			codec.writeInt(tpp.getPartition());
+			codec.writeInt(tpp.isPriority() ? 0 : 1);
+			codec.writeString(tppgr.getMiddle());
+			codec.writeBoolean(tppgr.getLast());
+		}
+	}
+
+	private List<Triple<Tpp, String, Boolean>> readKeys(HermesPrimitiveCodec codec) {
+		int size = codec.readInt();
+		List<Triple<Tpp, String, Boolean>> tppgrs = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			Tpp tpp = new Tpp(codec.readCachedString(), codec.readInt(), codec.readInt() == 0 ? true : false);
+			String groupId = codec.readCachedString();
+			boolean resend = codec.readBoolean();
+			tppgrs.add(new Triple<>(tpp, groupId, resend));
+		}
+		return tppgrs;
+	}
+
+	/**
+	 * Contexts of each key are sorted and written as runs of consecutive msgSeqs with the same remaining retries. A run
+	 * carries the earliest start and the latest end time of its messages.
+	 */
+	private void writeMsgSeqRanges(HermesPrimitiveCodec codec,
 	      ConcurrentMap<Triple<Tpp, String, Boolean>, List<AckContext>> msgSeqMap) {
 		if (msgSeqMap == null) {
 			codec.writeInt(0);
-		} else {
-			codec.writeInt(msgSeqMap.size());
-			for (Triple<Tpp, String, Boolean> tppgr : msgSeqMap.keySet()) {
-				Tpp tpp = tppgr.getFirst();
-				codec.writeString(tpp.getTopic());
-				codec.writeInt(tpp.getPartition());
-				codec.writeInt(tpp.isPriority() ? 0 : 1);
-				codec.writeString(tppgr.getMiddle());
-				codec.writeBoolean(tppgr.getLast());
+			return;
+		}
+
+		List<Triple<Tpp, String, Boolean>> tppgrs = new ArrayList<>(msgSeqMap.keySet());
+		writeKeys(codec, tppgrs);
+
+		for (Triple<Tpp, String, Boolean> tppgr : tppgrs) {
+			List<AckContext> contexts = msgSeqMap.get(tppgr);
+			contexts = contexts == null ? new ArrayList<AckContext>() : new ArrayList<>(contexts);
+			Collections.sort(contexts, MSG_SEQ_COMPARATOR);
+
+			int runs = 0;
+			for (int i = 0; i < contexts.size(); i = nextRun(contexts, i)) {
+				runs++;
 			}
-			for (Triple<Tpp, String, Boolean> tppgr : msgSeqMap.keySet()) {
-				List<AckContext> contexts = msgSeqMap.get(tppgr);
 
-				if (contexts == null || contexts.isEmpty()) {
-					codec.writeInt(0);
-				} else {
-					codec.writeInt(contexts.size());
-					for (AckContext context : contexts) {
-						codec.writeLong(context.getMsgSeq());
-						codec.writeInt(context.getRemainingRetries());
-						codec.writeLong(context.getOnMessageStartTimeMillis());
-						codec.writeLong(context.getOnMessageEndTimeMillis());
-					}
+			codec.writeInt(runs);
+			for (int i = 0; i < contexts.size();) {
+				int next = nextRun(contexts, i);
+				AckContext first = contexts.get(i);
+				long onMessageStartTimeMillis = first.getOnMessageStartTimeMillis();
+				long onMessageEndTimeMillis = first.getOnMessageEndTimeMillis();
+				for (int j = i + 1; j < next; j++) {
+					onMessageStartTimeMillis = Math.min(onMessageStartTimeMillis, contexts.get(j).getOnMessageStartTimeMillis());
+					onMessageEndTimeMillis = Math.max(onMessageEndTimeMillis, contexts.get(j).getOnMessageEndTimeMillis());
 				}
+
+				codec.writeLong(first.getMsgSeq());
+				codec.writeInt((int) (contexts.get(next - 1).getMsgSeq() - first.getMsgSeq() + 1));
+				codec.writeInt(first.getRemainingRetries());
+				codec.writeLong(onMessageStartTimeMillis);
+				codec.writeLong(onMessageEndTimeMillis);
+
+				i = next;
 			}
 		}
+	}
 
+	/**
+	 * @return index of the first context after the run starting at <tt>start</tt>, duplicated msgSeqs are folded into
+	 *         the run
+	 */
+	private int nextRun(List<AckContext> sortedContexts, int start) {
+		AckContext first = sortedContexts.get(start);
+		long lastSeq = first.getMsgSeq();
+		int i = start + 1;
+		while (i < sortedContexts.size()) {
+			AckContext context = sortedContexts.get(i);
+			if ((context.getMsgSeq() != lastSeq && context.getMsgSeq() != lastSeq + 1)
+			      || context.getRemainingRetries() != first.getRemainingRetries()) {
+				break;
+			}
+			lastSeq = context.getMsgSeq();
+			i++;
+		}
+		return i;
+	}
+
+	private ConcurrentMap<Triple<Tpp, String, Boolean>, List<AckContext>> readMsgSeqRanges(HermesPrimitiveCodec codec) {
+		ConcurrentMap<Triple<Tpp, String, Boolean>, List<AckContext>> msgSeqMap = new ConcurrentHashMap<>();
+
+		List<Triple<Tpp, String, Boolean>> tppgrs = readKeys(codec);
+		for (Triple<Tpp, String, Boolean> tppgr : tppgrs) {
+			List<AckContext> contexts = new ArrayList<>();
+			int runs = codec.readInt();
+			for (int i = 0; i < runs; i++) {
+				long startSeq = codec.readLong();
+				int len = codec.readInt();
+				int remainingRetries = codec.readInt();
+				long onMessageStartTimeMillis = codec.readLong();
+				long onMessageEndTimeMillis = codec.readLong();
+				for (int j = 0; j < len; j++) {
+					contexts.add(new AckContext(startSeq + j, remainingRetries, onMessageStartTimeMillis,
+					      onMessageEndTimeMillis));
+				}
+			}
+			msgSeqMap.put(tppgr, contexts);
+		}
+
+		return msgSeqMap;
+	}
+
+	private void writeMsgSeqMap(HermesPrimitiveCodec codec,
+	      ConcurrentMap<Triple<Tpp, String, Boolean>, List<AckContext>> msgSeqMap) {
+		if (msgSeqMap == null) {
+			codec.writeInt(0);
+			return;
+		}
+
+		List<Triple<Tpp, String, Boolean>> tppgrs = new ArrayList<>(msgSeqMap.keySet());
+		writeKeys(codec, tppgrs);
+
+		for (Triple<Tpp, String, Boolean> tppgr : tppgrs) {
+			List<AckContext> contexts = msgSeqMap.get(tppgr);
+
+			if (contexts == null || contexts.isEmpty()) {
+				codec.writeInt(0);
+			} else {
+				codec.writeInt(contexts.size());
+				for (AckContext context : contexts) {
+					codec.writeLong(context.getMsgSeq());
+					codec.writeInt(context.getRemainingRetries());
+					codec.writeLong(context.getOnMessageStartTimeMillis());
+					codec.writeLong(context.getOnMessageEndTimeMillis());
+				}
+			}
+		}
 	}
 
 	private ConcurrentMap<Triple<Tpp, String, Boolean>, List<AckContext>> readMsgSeqMap(HermesPrimitiveCodec codec) {
 		ConcurrentMap<Triple<Tpp, String, Boolean>, List<AckContext>> msgSeqMap = new ConcurrentHashMap<>();
 
-		int mapSize = codec.readInt();
+		List<Triple<Tpp, String, Boolean>> tppgrs = readKeys(codec);
+		int mapSize = tppgrs.size();
 		if (mapSize != 0) {
-			List<Triple<Tpp, String, Boolean>> tppgrs = new ArrayList<>();
-			for (int i = 0; i < mapSize; i++) {
-				Tpp tpp = new Tpp(codec.readString(), codec.readInt(), codec.readInt() == 0 ? true : false);
-				String groupId = codec.readString();
-				boolean resend = codec.readBoolean();
-				tppgrs.add(new Triple<>(tpp, groupId, resend));
-			}
 			for (int i = 0; i < mapSize; i++) {
 				Triple<Tpp, String, Boolean> tppgr = tppgrs.get(i);
 
@@ -1,6 +1,7 @@
 package com.ctrip.hermes.core.transport.command;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 
 import java.io.Serializable;
 
@@ -15,6 +16,8 @@ public interface Command extends Serializable {
 
 	public void toBytes(ByteBuf buf);
 
+	public ByteBuf toByteBuf(ByteBufAllocator allocator);
+
 	public void release();
 
 }
@@ -11,6 +11,7 @@ public enum CommandType {
 	MESSAGE_SEND(101, SendMessageCommand.class), //
 	MESSAGE_ACK(102, AckMessageCommand.class), //
 	MESSAGE_PULL(103, PullMessageCommand.class), //
+	MESSAGE_FETCH(104, FetchMessageCommand.class), //
 
 	ACK_MESSAGE_SEND(201, SendMessageAckCommand.class), //
 
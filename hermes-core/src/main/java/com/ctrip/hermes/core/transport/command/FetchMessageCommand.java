@@ -0,0 +1,113 @@
+package com.ctrip.hermes.core.transport.command;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ctrip.hermes.core.message.TppConsumerMessageBatch;
+import com.ctrip.hermes.core.transport.compress.Compression;
+import com.ctrip.hermes.core.utils.HermesPrimitiveCodec;
+
+/**
+ * Pulls of many topic-partition-groups in one request, answered by one {@link PullMessageResultCommand} holding the
+ * batches of all of them.
+ * <p>
+ * Batches in the result are told apart by topic and partition only, so a fetch must not pull the same topic-partition
+ * for different groups.
+ */
+public class FetchMessageCommand extends AbstractCommand {
+
+	private static final long serialVersionUID = -2286466452457462178L;
+
+	private List<PullMessageCommand> m_pulls = new ArrayList<>();
+
+	private long m_expireTime = -1L;
+
+	public FetchMessageCommand() {
+		super(CommandType.MESSAGE_FETCH);
+		// fetches are only written by consumers, which decompress results
+		Compression.writeAccepted(m_header);
+	}
+
+	/**
+	 * The fetch expires with the earliest pull, its result is delivered to the future of each pull.
+	 */
+	public void addPull(PullMessageCommand pull) {
+		m_pulls.add(pull);
+		if (m_expireTime < 0 || pull.getExpireTime() < m_expireTime) {
+			m_expireTime = pull.getExpireTime();
+		}
+	}
+
+	public List<PullMessageCommand> getPulls() {
+		return m_pulls;
+	}
+
+	public long getExpireTime() {
+		return m_expireTime;
+	}
+
+	/**
+	 * Split the result by topic-partition and hand each pull its part.
+	 */
+	public void onResultReceived(PullMessageResultCommand result) {
+		try {
+			for (PullMessageCommand pull : m_pulls) {
+				List<TppConsumerMessageBatch> batches = new ArrayList<>();
+				for (TppConsumerMessageBatch batch : result.getBatches()) {
+					if (pull.getTopic().equals(batch.getTopic()) && pull.getPartition() == batch.getPartition()) {
+						batches.add(batch);
+					}
+				}
+				pull.onResultReceived(result.subResult(batches));
+			}
+		} finally {
+			result.release();
+		}
+	}
+
+	public void onTimeout() {
+		for (PullMessageCommand pull : m_pulls) {
+			pull.onTimeout();
+		}
+	}
+
+	@Override
+	public void parse0(ByteBuf buf) {
+		HermesPrimitiveCodec codec = new HermesPrimitiveCodec(buf);
+
+		m_expireTime = codec.readLong();
+		int size = codec.readInt();
+		List<PullMessageCommand> pulls = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			String topic = codec.readCachedString();
+			int partition = codec.readInt();
+			String groupId = codec.readCachedString();
+			int pullSize = codec.readInt();
+			pulls.add(new PullMessageCommand(topic, partition, groupId, pullSize, m_expireTime));
+		}
+		m_pulls = pulls;
+	}
+
+	@Override
+	public void toBytes0(ByteBuf buf) {
+		HermesPrimitiveCodec codec = new HermesPrimitiveCodec(buf);
+
+		codec.writeLong(m_expireTime);
+		codec.writeInt(m_pulls.size());
+		for (PullMessageCommand pull : m_pulls) {
+			codec.writeString(pull.getTopic());
+			codec.writeInt(pull.getPartition());
+			codec.writeString(pull.getGroupId());
+			codec.writeInt(pull.getSize());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "FetchMessageCommand [m_pulls=" + m_pulls + ", m_expireTime=" + m_expireTime + ", m_header=" + m_header
+		      + "]";
+	}
+
+}
@@ -4,6 +4,7 @@ import io.netty.buffer.ByteBuf;
 
 import java.util.concurrent.TimeoutException;
 
+import com.ctrip.hermes.core.transport.compress.Compression;
 import com.ctrip.hermes.core.utils.HermesPrimitiveCodec;
 import com.google.common.util.concurrent.SettableFuture;
 
@@ -38,6 +39,8 @@ public class PullMessageCommand extends AbstractCommand {
 		m_groupId = groupId;
 		m_size = size;
 		m_expireTime = expireTime;
+		// pulls are only written by consumers, which decompress results
+		Compression.writeAccepted(m_header);
 	}
 
 	public SettableFuture<PullMessageResultCommand> getFuture() {
@@ -69,7 +72,10 @@ public class PullMessageCommand extends AbstractCommand {
 	}
 
 	public void onResultReceived(PullMessageResultCommand ack) {
-		m_future.set(ack);
+		// already timed out, nobody will release it
+		if (!m_future.set(ack)) {
+			ack.release();
+		}
 	}
 
 	public void onTimeout() {
@@ -80,9 +86,9 @@ public class PullMessageCommand extends AbstractCommand {
 	public void parse0(ByteBuf buf) {
 		HermesPrimitiveCodec codec = new HermesPrimitiveCodec(buf);
 
-		m_topic = codec.readString();
+		m_topic = codec.readCachedString();
 		m_partition = codec.readInt();
-		m_groupId = codec.readString();
+		m_groupId = codec.readCachedString();
 		m_size = codec.readInt();
 		m_expireTime = codec.readLong();
 	}
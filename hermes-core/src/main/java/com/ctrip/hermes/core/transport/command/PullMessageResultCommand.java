@@ -1,6 +1,8 @@
 package com.ctrip.hermes.core.transport.command;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.Channel;
 
 import java.util.ArrayList;
@@ -8,7 +10,11 @@ import java.util.List;
 
 import com.ctrip.hermes.core.message.TppConsumerMessageBatch;
 import com.ctrip.hermes.core.message.TppConsumerMessageBatch.MessageMeta;
+import com.ctrip.hermes.core.transport.CompressibleTransferCallback;
 import com.ctrip.hermes.core.transport.ManualRelease;
+import com.ctrip.hermes.core.transport.TransferCallback;
+import com.ctrip.hermes.core.transport.ZeroCopyTransferCallback;
+import com.ctrip.hermes.core.transport.compress.Compression;
 import com.ctrip.hermes.core.utils.HermesPrimitiveCodec;
 
 /**
@@ -19,12 +25,19 @@ import com.ctrip.hermes.core.utils.HermesPrimitiveCodec;
 public class PullMessageResultCommand extends AbstractCommand {
 	private static final long serialVersionUID = 7125716603747372895L;
 
+	// millis the broker held the pull waiting for messages
+	public static final String HELD_MILLIS_PROPERTY = "heldMillis";
+
 	private List<TppConsumerMessageBatch> m_batches = new ArrayList<>();
 
 	private transient Channel m_channel;
 
+	private transient Compression m_compression = Compression.NONE;
+
 	public PullMessageResultCommand() {
 		super(CommandType.RESULT_MESSAGE_PULL);
+		// results are only written by brokers, which parse all ack versions of this build
+		AckMessageCommand.writeAcceptedVersion(m_header);
 	}
 
 	public List<TppConsumerMessageBatch> getBatches() {
@@ -37,6 +50,42 @@ public class PullMessageResultCommand extends AbstractCommand {
 		}
 	}
 
+	/**
+	 * Compress each batch's data when writing, the data read by receiver stays compressed until
+	 * {@link Compression#decompress(ByteBuf)} with {@link Compression#valueOf(Header)}.
+	 */
+	public void setCompression(Compression compression) {
+		m_compression = compression;
+		compression.writeTo(m_header);
+	}
+
+	public void setHeldMillis(long heldMillis) {
+		m_header.addProperty(HELD_MILLIS_PROPERTY, String.valueOf(heldMillis));
+	}
+
+	/**
+	 * @return millis the broker held the pull waiting for messages, -1 if the broker doesn't tell
+	 */
+	public long getHeldMillis() {
+		String heldMillis = m_header.getProperties() == null ? null : m_header.getProperties().get(HELD_MILLIS_PROPERTY);
+		return heldMillis == null ? -1L : Long.parseLong(heldMillis);
+	}
+
+	/**
+	 * @return result with part of this result's batches, it shares this result's buffer and must be released on its own
+	 */
+	public PullMessageResultCommand subResult(List<TppConsumerMessageBatch> batches) {
+		PullMessageResultCommand cmd = new PullMessageResultCommand();
+		cmd.m_header = m_header;
+		cmd.m_batches = new ArrayList<>(batches);
+		cmd.m_channel = m_channel;
+		cmd.m_compression = m_compression;
+		if (m_rawBuf != null) {
+			cmd.m_rawBuf = m_rawBuf.retain();
+		}
+		return cmd;
+	}
+
 	public Channel getChannel() {
 		return m_channel;
 	}
@@ -64,20 +113,97 @@ public class PullMessageResultCommand extends AbstractCommand {
 		writeBatchDatas(buf, codec, m_batches);
 	}
 
+	/**
+	 * Batches backed by a {@link ZeroCopyTransferCallback} are linked into the result as they are, only the header, metas
+	 * and length fields are written into new buffers.
+	 */
+	@Override
+	public ByteBuf toByteBuf(ByteBufAllocator allocator) {
+		if (m_compression != Compression.NONE) {
+			// compression needs a copy anyway
+			return super.toByteBuf(allocator);
+		}
+
+		List<ByteBuf> components = new ArrayList<>();
+		ByteBuf buf = allocator.buffer();
+		try {
+			m_header.toBytes(buf);
+			HermesPrimitiveCodec codec = new HermesPrimitiveCodec(buf);
+			writeBatchMetas(codec, m_batches);
+
+			for (TppConsumerMessageBatch batch : m_batches) {
+				TransferCallback transferCallback = batch.getTransferCallback();
+				if (transferCallback instanceof ZeroCopyTransferCallback) {
+					ByteBuf region = ((ZeroCopyTransferCallback) transferCallback).region();
+					codec.writeInt(region.readableBytes());
+					components.add(buf);
+					components.add(region);
+
+					buf = allocator.buffer();
+					codec = new HermesPrimitiveCodec(buf);
+				} else {
+					writeBatchData(buf, codec, batch);
+				}
+			}
+			components.add(buf);
+		} catch (RuntimeException e) {
+			buf.release();
+			for (ByteBuf component : components) {
+				component.release();
+			}
+			throw e;
+		}
+
+		if (components.size() == 1) {
+			return buf;
+		}
+
+		CompositeByteBuf composite = allocator.compositeBuffer(components.size());
+		for (ByteBuf component : components) {
+			if (component.isReadable()) {
+				composite.addComponent(component);
+				composite.writerIndex(composite.writerIndex() + component.readableBytes());
+			} else {
+				component.release();
+			}
+		}
+		return composite;
+	}
+
 	private void writeBatchDatas(ByteBuf buf, HermesPrimitiveCodec codec, List<TppConsumerMessageBatch> batches) {
 		for (TppConsumerMessageBatch batch : batches) {
-			// placeholder for len
-			int start = buf.writerIndex();
-			codec.writeInt(-1);
-			int indexBeforeData = buf.writerIndex();
-			batch.getTransferCallback().transfer(buf);
-			int indexAfterData = buf.writerIndex();
-
-			buf.writerIndex(start);
-			codec.writeInt(indexAfterData - indexBeforeData);
-			buf.writerIndex(indexAfterData);
+			writeBatchData(buf, codec, batch);
+		}
+	}
 
+	private void writeBatchData(ByteBuf buf, HermesPrimitiveCodec codec, TppConsumerMessageBatch batch) {
+		// placeholder for len
+		int start = buf.writerIndex();
+		codec.writeInt(-1);
+		int indexBeforeData = buf.writerIndex();
+		if (m_compression == Compression.NONE) {
+			batch.getTransferCallback().transfer(buf);
+		} else if (batch.getTransferCallback() instanceof CompressibleTransferCallback) {
+			ByteBuf compressed = ((CompressibleTransferCallback) batch.getTransferCallback()).compressed(m_compression);
+			try {
+				buf.writeBytes(compressed);
+			} finally {
+				compressed.release();
+			}
+		} else {
+			ByteBuf data = buf.alloc().heapBuffer();
+			try {
+				batch.getTransferCallback().transfer(data);
+				buf.writeBytes(m_compression.compress(data));
+			} finally {
+				data.release();
+			}
 		}
+		int indexAfterData = buf.writerIndex();
+
+		buf.writerIndex(start);
+		codec.writeInt(indexAfterData - indexBeforeData);
+		buf.writerIndex(indexAfterData);
 	}
 
 	private void readBatchDatas(ByteBuf buf, HermesPrimitiveCodec codec, List<TppConsumerMessageBatch> batches) {
@@ -93,7 +219,7 @@ public class PullMessageResultCommand extends AbstractCommand {
 		for (int i = 0; i < batchSize; i++) {
 			TppConsumerMessageBatch batch = new TppConsumerMessageBatch();
 			int msgSize = codec.readInt();
-			batch.setTopic(codec.readString());
+			batch.setTopic(codec.readCachedString());
 			batch.setPartition(codec.readInt());
 			batch.setPriority(codec.readInt());
 			batch.setResend(codec.readBoolean());
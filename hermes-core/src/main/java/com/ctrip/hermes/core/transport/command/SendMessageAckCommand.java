@@ -2,6 +2,7 @@ package com.ctrip.hermes.core.transport.command;
 
 import io.netty.buffer.ByteBuf;
 
+import com.ctrip.hermes.core.transport.compress.Compression;
 import com.ctrip.hermes.core.utils.HermesPrimitiveCodec;
 
 /**
@@ -16,6 +17,8 @@ public class SendMessageAckCommand extends AbstractCommand {
 
 	public SendMessageAckCommand() {
 		super(CommandType.ACK_MESSAGE_SEND);
+		// acks are only written by brokers, which decompress sent messages
+		Compression.writeAccepted(m_header);
 	}
 
 	public void setSuccess(boolean success) {
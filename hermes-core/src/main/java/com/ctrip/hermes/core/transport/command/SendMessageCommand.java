@@ -1,6 +1,9 @@
 package com.ctrip.hermes.core.transport.command;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -19,6 +22,7 @@ import com.ctrip.hermes.core.message.ProducerMessage;
 import com.ctrip.hermes.core.message.codec.MessageCodec;
 import com.ctrip.hermes.core.result.SendResult;
 import com.ctrip.hermes.core.transport.ManualRelease;
+import com.ctrip.hermes.core.transport.compress.Compression;
 import com.ctrip.hermes.core.utils.HermesPrimitiveCodec;
 import com.ctrip.hermes.core.utils.PlexusComponentLocator;
 import com.google.common.util.concurrent.SettableFuture;
@@ -44,8 +48,12 @@ public class SendMessageCommand extends AbstractCommand {
 
 	private transient Map<Integer, SettableFuture<SendResult>> m_futures = new HashMap<>();
 
+	private transient Map<Integer, ByteBuf> m_encodedMsgs = new HashMap<>();
+
 	private transient AtomicLong m_expireTime = new AtomicLong(0);
 
+	private transient Compression m_compression = Compression.NONE;
+
 	public SendMessageCommand() {
 		super(CommandType.MESSAGE_SEND);
 	}
@@ -56,6 +64,14 @@ public class SendMessageCommand extends AbstractCommand {
 		m_partition = partition;
 	}
 
+	/**
+	 * Compress each priority's payload when writing, receiver decompresses it while parsing.
+	 */
+	public void setCompression(Compression compression) {
+		m_compression = compression;
+		compression.writeTo(m_header);
+	}
+
 	public String getTopic() {
 		return m_topic;
 	}
@@ -81,6 +97,19 @@ public class SendMessageCommand extends AbstractCommand {
 		m_futures.put(msgSeqNo, future);
 	}
 
+	/**
+	 * Add a message already encoded by {@link MessageCodec#encode(ProducerMessage, ByteBuf)}, the encoded bytes are
+	 * written as is instead of encoding the message again. The caller keeps the ownership of <code>encoded</code>.
+	 */
+	public void addMessage(ProducerMessage<?> msg, ByteBuf encoded, SettableFuture<SendResult> future) {
+		addMessage(msg, future);
+		m_encodedMsgs.put(msg.getMsgSeqNo(), encoded);
+	}
+
+	public Collection<ByteBuf> getEncodedMessages() {
+		return m_encodedMsgs.values();
+	}
+
 	private void validate(ProducerMessage<?> msg) {
 		if (!m_topic.equals(msg.getTopic()) || m_partition != msg.getPartition()) {
 			throw new IllegalArgumentException(String.format(
@@ -107,6 +136,15 @@ public class SendMessageCommand extends AbstractCommand {
 		}
 	}
 
+	/**
+	 * Fail messages whose results are not received yet, the command won't be sent any more.
+	 */
+	public void onFailed(Throwable cause) {
+		for (SettableFuture<SendResult> future : m_futures.values()) {
+			future.setException(cause);
+		}
+	}
+
 	@Override
 	public void parse0(ByteBuf buf) {
 		m_rawBuf = buf;
@@ -115,7 +153,7 @@ public class SendMessageCommand extends AbstractCommand {
 
 		m_msgCounter.set(codec.readInt());
 
-		m_topic = codec.readString();
+		m_topic = codec.readCachedString();
 		m_partition = codec.readInt();
 
 		readDatas(buf, codec, m_topic);
@@ -134,6 +172,69 @@ public class SendMessageCommand extends AbstractCommand {
 		writeDatas(buf, codec, m_msgs);
 	}
 
+	/**
+	 * When every message was added with its encoded bytes, the encoded frames are linked into the result as they are and
+	 * only the header, seqNos and length fields are written into new buffers.
+	 */
+	@Override
+	public ByteBuf toByteBuf(ByteBufAllocator allocator) {
+		if (m_compression != Compression.NONE || m_encodedMsgs.size() != m_msgCounter.get()) {
+			return super.toByteBuf(allocator);
+		}
+
+		List<ByteBuf> components = new ArrayList<>();
+		ByteBuf buf = allocator.buffer();
+		try {
+			m_header.toBytes(buf);
+			HermesPrimitiveCodec codec = new HermesPrimitiveCodec(buf);
+
+			codec.writeInt(m_msgCounter.get());
+			codec.writeString(m_topic);
+			codec.writeInt(m_partition);
+
+			codec.writeInt(m_msgs.size());
+			for (Map.Entry<Integer, List<ProducerMessage<?>>> entry : m_msgs.entrySet()) {
+				// priority flag
+				codec.writeInt(entry.getKey());
+
+				List<ProducerMessage<?>> msgs = entry.getValue();
+				writeMsgSeqNos(msgs, codec);
+
+				int payloadLen = 0;
+				for (ProducerMessage<?> msg : msgs) {
+					payloadLen += m_encodedMsgs.get(msg.getMsgSeqNo()).readableBytes();
+				}
+				codec.writeInt(payloadLen);
+				components.add(buf);
+				buf = allocator.buffer();
+				codec = new HermesPrimitiveCodec(buf);
+
+				for (ProducerMessage<?> msg : msgs) {
+					// the command may be written again, so the frames are retained for this write only
+					components.add(m_encodedMsgs.get(msg.getMsgSeqNo()).slice().retain());
+				}
+			}
+			components.add(buf);
+		} catch (RuntimeException e) {
+			buf.release();
+			for (ByteBuf component : components) {
+				component.release();
+			}
+			throw e;
+		}
+
+		CompositeByteBuf composite = allocator.compositeBuffer(components.size());
+		for (ByteBuf component : components) {
+			if (component.isReadable()) {
+				composite.addComponent(component);
+				composite.writerIndex(composite.writerIndex() + component.readableBytes());
+			} else {
+				component.release();
+			}
+		}
+		return composite;
+	}
+
 	private void writeDatas(ByteBuf buf, HermesPrimitiveCodec codec, Map<Integer, List<ProducerMessage<?>>> msgs) {
 		codec.writeInt(msgs.size());
 		for (Map.Entry<Integer, List<ProducerMessage<?>>> entry : m_msgs.entrySet()) {
@@ -146,13 +247,7 @@ public class SendMessageCommand extends AbstractCommand {
 
 	private void writeMsgs(List<ProducerMessage<?>> msgs, HermesPrimitiveCodec codec, ByteBuf buf) {
 		MessageCodec msgCodec = PlexusComponentLocator.lookup(MessageCodec.class);
-		// write msgSeqs
-		codec.writeInt(msgs.size());
-
-		// seqNos
-		for (ProducerMessage<?> msg : msgs) {
-			codec.writeInt(msg.getMsgSeqNo());
-		}
+		writeMsgSeqNos(msgs, codec);
 
 		// placeholder for payload len
 		int indexBeforeLen = buf.writerIndex();
@@ -160,8 +255,12 @@ public class SendMessageCommand extends AbstractCommand {
 
 		int indexBeforePayload = buf.writerIndex();
 		// payload
-		for (ProducerMessage<?> msg : msgs) {
-			msgCodec.encode(msg, buf);
+		if (m_compression == Compression.NONE) {
+			writePayload(msgs, msgCodec, buf);
+		} else {
+			ByteBuf payload = Unpooled.buffer();
+			writePayload(msgs, msgCodec, payload);
+			buf.writeBytes(m_compression.compress(payload));
 		}
 		int indexAfterPayload = buf.writerIndex();
 		int payloadLen = indexAfterPayload - indexBeforePayload;
@@ -173,6 +272,27 @@ public class SendMessageCommand extends AbstractCommand {
 		buf.writerIndex(indexAfterPayload);
 	}
 
+	private void writePayload(List<ProducerMessage<?>> msgs, MessageCodec msgCodec, ByteBuf buf) {
+		for (ProducerMessage<?> msg : msgs) {
+			ByteBuf encoded = m_encodedMsgs.get(msg.getMsgSeqNo());
+			if (encoded != null) {
+				buf.writeBytes(encoded, encoded.readerIndex(), encoded.readableBytes());
+			} else {
+				msgCodec.encode(msg, buf);
+			}
+		}
+	}
+
+	private void writeMsgSeqNos(List<ProducerMessage<?>> msgs, HermesPrimitiveCodec codec) {
+		// write msgSeqs
+		codec.writeInt(msgs.size());
+
+		// seqNos
+		for (ProducerMessage<?> msg : msgs) {
+			codec.writeInt(msg.getMsgSeqNo());
+		}
+	}
+
 	private void readDatas(ByteBuf buf, HermesPrimitiveCodec codec, String topic) {
 		int size = codec.readInt();
 		for (int i = 0; i < size; i++) {
@@ -195,6 +315,10 @@ public class SendMessageCommand extends AbstractCommand {
 		int payloadLen = codec.readInt();
 
 		ByteBuf rawData = buf.readSlice(payloadLen);
+		Compression compression = Compression.valueOf(m_header);
+		if (compression != Compression.NONE) {
+			rawData = compression.decompress(rawData);
+		}
 
 		return new MessageBatchWithRawData(topic, msgSeqs, rawData);
 
@@ -209,6 +333,8 @@ public class SendMessageCommand extends AbstractCommand {
 
 		private List<PartialDecodedMessage> m_msgs;
 
+		private List<ByteBuf> m_msgFrames;
+
 		public MessageBatchWithRawData(String topic, List<Integer> msgSeqs, ByteBuf rawData) {
 			m_topic = topic;
 			m_msgSeqs = msgSeqs;
@@ -232,21 +358,34 @@ public class SendMessageCommand extends AbstractCommand {
 			if (m_msgs == null) {
 				synchronized (this) {
 					if (m_msgs == null) {
-						m_msgs = new ArrayList<>();
+						List<PartialDecodedMessage> msgs = new ArrayList<>();
+						List<ByteBuf> msgFrames = new ArrayList<>();
 
 						ByteBuf tmpBuf = m_rawData.duplicate();
 						MessageCodec messageCodec = PlexusComponentLocator.lookup(MessageCodec.class);
 
 						while (tmpBuf.readableBytes() > 0) {
-							m_msgs.add(messageCodec.decodePartial(tmpBuf));
+							int frameStart = tmpBuf.readerIndex();
+							msgs.add(messageCodec.decodePartial(tmpBuf));
+							msgFrames.add(tmpBuf.slice(frameStart, tmpBuf.readerIndex() - frameStart));
 						}
 
+						m_msgFrames = msgFrames;
+						m_msgs = msgs;
 					}
 				}
 			}
 
 			return m_msgs;
 		}
+
+		/**
+		 * Encoded form of each message in {@link #getMessages()}, exactly as received.
+		 */
+		public List<ByteBuf> getMessageFrames() {
+			getMessages();
+			return m_msgFrames;
+		}
 	}
 
 	public long getExpireTime() {
@@ -0,0 +1,234 @@
+package com.ctrip.hermes.core.transport.compress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ctrip.hermes.core.transport.command.Header;
+import com.ctrip.hermes.meta.entity.Property;
+import com.ctrip.hermes.meta.entity.Topic;
+
+/**
+ * Batch level compression of message payloads on the wire.
+ * <p>
+ * A compressed batch is laid out as [uncompressed length][compressed bytes]. A command carries the compression of its
+ * batches in header property {@link #HEADER_PROPERTY}, no such property means not compressed. Topics enable it with
+ * meta property {@link #TOPIC_PROPERTY}.
+ * <p>
+ * Peers older than compression read compressed batches as garbage, so a command is only compressed for a peer which
+ * announced {@link #ACCEPTED_PROPERTY} in its own commands: consumers in pulls and fetches, brokers in send acks.
+ */
+public enum Compression {
+	NONE("none") {
+		@Override
+		protected void compress(byte[] src, int offset, int length, ByteBuf out) {
+			out.writeBytes(src, offset, length);
+		}
+
+		@Override
+		protected void decompress(byte[] src, int offset, int length, byte[] dest) {
+			System.arraycopy(src, offset, dest, 0, dest.length);
+		}
+	},
+
+	GZIP("gzip") {
+		@Override
+		protected void compress(byte[] src, int offset, int length, ByteBuf out) throws IOException {
+			GZIPOutputStream gzip = new GZIPOutputStream(new ByteBufOutputStream(out));
+			try {
+				gzip.write(src, offset, length);
+			} finally {
+				gzip.close();
+			}
+		}
+
+		@Override
+		protected void decompress(byte[] src, int offset, int length, byte[] dest) throws IOException {
+			GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(src, offset, length));
+			try {
+				int read = 0;
+				while (read < dest.length) {
+					int n = gzip.read(dest, read, dest.length - read);
+					if (n < 0) {
+						throw new IOException("Unexpected end of gzip data");
+					}
+					read += n;
+				}
+			} finally {
+				gzip.close();
+			}
+		}
+	},
+
+	LZ4("lz4") {
+		@Override
+		protected void compress(byte[] src, int offset, int length, ByteBuf out) {
+			LZ4Compressor compressor = LZ4Holder.FACTORY.fastCompressor();
+			int maxLength = compressor.maxCompressedLength(length);
+			out.ensureWritable(maxLength);
+			int written = compressor.compress(src, offset, length, out.array(), out.arrayOffset() + out.writerIndex(),
+			      maxLength);
+			out.writerIndex(out.writerIndex() + written);
+		}
+
+		@Override
+		protected void decompress(byte[] src, int offset, int length, byte[] dest) {
+			LZ4FastDecompressor decompressor = LZ4Holder.FACTORY.fastDecompressor();
+			decompressor.decompress(src, offset, dest, 0, dest.length);
+		}
+	};
+
+	public static final String HEADER_PROPERTY = "compression";
+
+	public static final String TOPIC_PROPERTY = "compression";
+
+	/**
+	 * Header property telling the receiver that the writer can decompress commands sent to it.
+	 */
+	public static final String ACCEPTED_PROPERTY = "acceptCompression";
+
+	private static final Logger log = LoggerFactory.getLogger(Compression.class);
+
+	private String m_name;
+
+	private Compression(String name) {
+		m_name = name;
+	}
+
+	public String getName() {
+		return m_name;
+	}
+
+	/**
+	 * @return compressed copy of <code>src</code>'s readable bytes, <code>src</code> is left untouched
+	 */
+	public ByteBuf compress(ByteBuf src) {
+		int length = src.readableBytes();
+		byte[] bytes;
+		int offset;
+		if (src.hasArray()) {
+			bytes = src.array();
+			offset = src.arrayOffset() + src.readerIndex();
+		} else {
+			bytes = new byte[length];
+			src.getBytes(src.readerIndex(), bytes);
+			offset = 0;
+		}
+
+		ByteBuf out = Unpooled.buffer(length / 2 + 16);
+		out.writeInt(length);
+		try {
+			compress(bytes, offset, length, out);
+		} catch (IOException e) {
+			throw new IllegalStateException(String.format("Compress with %s failed", m_name), e);
+		}
+		return out;
+	}
+
+	/**
+	 * @return decompressed <code>src</code>'s readable bytes, which must be produced by {@link #compress(ByteBuf)}
+	 */
+	public ByteBuf decompress(ByteBuf src) {
+		int length = src.readInt();
+		int compressedLength = src.readableBytes();
+		byte[] bytes;
+		int offset;
+		if (src.hasArray()) {
+			bytes = src.array();
+			offset = src.arrayOffset() + src.readerIndex();
+		} else {
+			bytes = new byte[compressedLength];
+			src.getBytes(src.readerIndex(), bytes);
+			offset = 0;
+		}
+
+		byte[] dest = new byte[length];
+		try {
+			decompress(bytes, offset, compressedLength, dest);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(String.format("Decompress with %s failed", m_name), e);
+		}
+		src.skipBytes(compressedLength);
+		return Unpooled.wrappedBuffer(dest);
+	}
+
+	protected abstract void compress(byte[] src, int offset, int length, ByteBuf out) throws IOException;
+
+	protected abstract void decompress(byte[] src, int offset, int length, byte[] dest) throws IOException;
+
+	public void writeTo(Header header) {
+		if (this != NONE) {
+			header.addProperty(HEADER_PROPERTY, m_name);
+		}
+	}
+
+	public static void writeAccepted(Header header) {
+		header.addProperty(ACCEPTED_PROPERTY, Boolean.TRUE.toString());
+	}
+
+	/**
+	 * @return true if commands sent to the writer of <code>header</code> may be compressed
+	 */
+	public static boolean isAccepted(Header header) {
+		return header.getProperties() != null && Boolean.parseBoolean(header.getProperties().get(ACCEPTED_PROPERTY));
+	}
+
+	public static Compression valueOf(Header header) {
+		String name = header.getProperties() == null ? null : header.getProperties().get(HEADER_PROPERTY);
+		if (name == null) {
+			return NONE;
+		}
+
+		Compression compression = findByName(name);
+		if (compression == null) {
+			throw new IllegalArgumentException(String.format("Unknown compression %s", name));
+		}
+		return compression;
+	}
+
+	/**
+	 * Unknown compression configured in meta is ignored, so a typo won't stop the topic from working.
+	 */
+	public static Compression valueOf(Topic topic) {
+		if (topic != null && topic.getProperties() != null) {
+			for (Property property : topic.getProperties()) {
+				if (TOPIC_PROPERTY.equals(property.getName())) {
+					Compression compression = findByName(property.getValue());
+					if (compression == null) {
+						log.warn("Unknown compression {} of topic {}, ignore it", property.getValue(), topic.getName());
+						return NONE;
+					}
+					return compression;
+				}
+			}
+		}
+		return NONE;
+	}
+
+	private static Compression findByName(String name) {
+		for (Compression compression : values()) {
+			if (compression.m_name.equalsIgnoreCase(name == null ? null : name.trim())) {
+				return compression;
+			}
+		}
+		return null;
+	}
+
+	// pure java implementation, no native library needed
+	private static class LZ4Holder {
+		private static final LZ4Factory FACTORY = LZ4Factory.fastestJavaInstance();
+	}
+
+}
@@ -47,6 +47,14 @@ public class DefaultClientChannelInboundHandler extends AbstractNettyChannelInbo
 		super.channelActive(ctx);
 	}
 
+	@Override
+	public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+		if (ctx.channel().isWritable()) {
+			m_endpointChannel.scheduleWrite();
+		}
+		super.channelWritabilityChanged(ctx);
+	}
+
 	@Override
 	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
 		log.info("Disconnected from broker(addr={})", NettyUtils.parseChannelRemoteAddr(ctx.channel()));
@@ -8,20 +8,24 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.timeout.IdleStateHandler;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.codehaus.plexus.personality.plexus.lifecycle.phase.Initializable;
@@ -30,21 +34,28 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.unidal.lookup.annotation.Inject;
 import org.unidal.lookup.annotation.Named;
+import org.unidal.tuple.Pair;
 
+import com.alibaba.fastjson.JSON;
 import com.ctrip.hermes.core.config.CoreConfig;
 import com.ctrip.hermes.core.meta.MetaService;
 import com.ctrip.hermes.core.service.SystemClockService;
 import com.ctrip.hermes.core.transport.command.Command;
 import com.ctrip.hermes.core.transport.command.processor.CommandProcessorManager;
 import com.ctrip.hermes.core.transport.netty.DefaultNettyChannelOutboundHandler;
-import com.ctrip.hermes.core.transport.netty.MagicNumberPrepender;
+import com.ctrip.hermes.core.transport.netty.MagicNumberAndLengthPrepender;
 import com.ctrip.hermes.core.transport.netty.NettyDecoder;
 import com.ctrip.hermes.core.transport.netty.NettyEncoder;
+import com.ctrip.hermes.core.transport.netty.NettyTransport;
 import com.ctrip.hermes.core.transport.netty.NettyUtils;
 import com.ctrip.hermes.core.utils.HermesThreadFactory;
 import com.ctrip.hermes.meta.entity.Endpoint;
 
 /**
+ * Keeps a pool of {@link CoreConfig#getEndpointChannelPoolSize()} connections to each broker endpoint, spread over
+ * {@link CoreConfig#getEndpointEventLoopThreadCount()} event loops. Commands of the same partition always go through
+ * the same connection, so they reach broker in the order they are written.
+ * 
  * @author Leo Liang(jhliang@ctrip.com)
  *
  */
@@ -52,11 +63,11 @@ import com.ctrip.hermes.meta.entity.Endpoint;
 public class DefaultEndpointClient implements EndpointClient, Initializable {
 	private static final Logger log = LoggerFactory.getLogger(DefaultEndpointClient.class);
 
-	private ConcurrentMap<Endpoint, EndpointChannel> m_channels = new ConcurrentHashMap<>();
+	private ConcurrentMap<Pair<Endpoint, Integer>, EndpointChannel> m_channels = new ConcurrentHashMap<>();
 
-	private EventLoopGroup m_eventLoopGroup;
+	private NettyTransport m_transport;
 
-	private ScheduledExecutorService m_writerThreadPool;
+	private EventLoopGroup m_eventLoopGroup;
 
 	@Inject
 	private CoreConfig m_config;
@@ -70,8 +81,6 @@ public class DefaultEndpointClient implements EndpointClient, Initializable {
 	@Inject
 	private MetaService m_metaService;
 
-	private AtomicBoolean m_started = new AtomicBoolean(false);
-
 	@Override
 	public void writeCommand(Endpoint endpoint, Command cmd) {
 		writeCommand(endpoint, cmd, m_config.getEndpointChannelDefaultWrtieTimeout(), TimeUnit.MILLISECONDS);
@@ -79,25 +88,32 @@ public class DefaultEndpointClient implements EndpointClient, Initializable {
 
 	@Override
 	public void writeCommand(Endpoint endpoint, Command cmd, long timeout, TimeUnit timeUnit) {
-		if (m_started.compareAndSet(false, true)) {
-			scheduleWriterTask();
-		}
+		writeCommand(endpoint, cmd, 0, timeout, timeUnit);
+	}
+
+	@Override
+	public void writeCommand(Endpoint endpoint, Command cmd, int partition, long timeout, TimeUnit timeUnit) {
+		getChannel(endpoint, slotOf(partition)).write(cmd, timeout, timeUnit);
+	}
 
-		getChannel(endpoint).write(cmd, timeout, timeUnit);
+	private int slotOf(int partition) {
+		int poolSize = Math.max(1, m_config.getEndpointChannelPoolSize());
+		return (partition & Integer.MAX_VALUE) % poolSize;
 	}
 
-	private EndpointChannel getChannel(Endpoint endpoint) {
+	private EndpointChannel getChannel(Endpoint endpoint, int slot) {
 		switch (endpoint.getType()) {
 		case Endpoint.BROKER:
-			if (!m_channels.containsKey(endpoint)) {
+			Pair<Endpoint, Integer> key = new Pair<>(endpoint, slot);
+			if (!m_channels.containsKey(key)) {
 				synchronized (m_channels) {
-					if (!m_channels.containsKey(endpoint)) {
-						m_channels.put(endpoint, creatChannel(endpoint));
+					if (!m_channels.containsKey(key)) {
+						m_channels.put(key, creatChannel(endpoint, slot));
 					}
 				}
 			}
 
-			return m_channels.get(endpoint);
+			return m_channels.get(key);
 
 		default:
 			throw new IllegalArgumentException(String.format("Unknown endpoint type: %s", endpoint.getType()));
@@ -106,15 +122,16 @@ public class DefaultEndpointClient implements EndpointClient, Initializable {
 
 	void removeChannel(Endpoint endpoint, EndpointChannel endpointChannel) {
 		EndpointChannel removedChannel = null;
-		if (Endpoint.BROKER.equals(endpoint.getType()) && m_channels.containsKey(endpoint)) {
+		Pair<Endpoint, Integer> key = new Pair<>(endpoint, endpointChannel.getSlot());
+		if (Endpoint.BROKER.equals(endpoint.getType()) && m_channels.containsKey(key)) {
 			synchronized (m_channels) {
-				if (m_channels.containsKey(endpoint)) {
-					EndpointChannel tmp = m_channels.get(endpoint);
+				if (m_channels.containsKey(key)) {
+					EndpointChannel tmp = m_channels.get(key);
 					if (tmp == endpointChannel) {
 						if (tmp.isClosed()) {
-							m_channels.remove(endpoint);
+							m_channels.remove(key);
 						} else if (!tmp.isFlushing() && !tmp.hasUnflushOps()) {
-							m_channels.remove(endpoint);
+							m_channels.remove(key);
 							removedChannel = endpointChannel;
 						}
 					}
@@ -123,13 +140,14 @@ public class DefaultEndpointClient implements EndpointClient, Initializable {
 		}
 
 		if (removedChannel != null) {
-			log.info("Closing idle connection to broker({}:{})", endpoint.getHost(), endpoint.getPort());
+			log.info("Closing idle connection {} to broker({}:{})", endpointChannel.getSlot(), endpoint.getHost(),
+			      endpoint.getPort());
 			removedChannel.close();
 		}
 	}
 
-	private EndpointChannel creatChannel(Endpoint endpoint) {
-		EndpointChannel endpointChannel = new EndpointChannel();
+	private EndpointChannel creatChannel(Endpoint endpoint, int slot) {
+		EndpointChannel endpointChannel = new EndpointChannel(slot);
 		connect(endpoint, endpointChannel);
 		return endpointChannel;
 	}
@@ -171,32 +189,66 @@ public class DefaultEndpointClient implements EndpointClient, Initializable {
 
 	@Override
 	public void initialize() throws InitializationException {
-		m_writerThreadPool = Executors.newSingleThreadScheduledExecutor(HermesThreadFactory.create(
-		      "EndpointChannelWriter", false));
-
-		m_eventLoopGroup = new NioEventLoopGroup(1, HermesThreadFactory.create("NettyWriterEventLoop", false));
+		m_transport = new NettyTransport(m_config.isNettyNativeEpollEnabled());
+		m_eventLoopGroup = m_transport.newEventLoopGroup(Math.max(1, m_config.getEndpointEventLoopThreadCount()),
+		      HermesThreadFactory.create("NettyWriterEventLoop", false));
+
+		if ("true".equalsIgnoreCase(System.getProperty("runningStatusStat", "false"))) {
+			m_eventLoopGroup.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						log.info("Endpoint channels({})", JSON.toJSONString(getStatus()));
+					} catch (Exception e) {
+						// ignore it
+					}
+				}
+			}, 0, m_config.getRunningStatusStatInterval(), TimeUnit.SECONDS);
+		}
+	}
 
+	/**
+	 * @return status of each pooled connection, keyed by broker address and slot
+	 */
+	public Map<String, Map<String, Object>> getStatus() {
+		Map<String, Map<String, Object>> status = new LinkedHashMap<>();
+		List<Map.Entry<Pair<Endpoint, Integer>, EndpointChannel>> entries = new ArrayList<>(m_channels.entrySet());
+		for (Map.Entry<Pair<Endpoint, Integer>, EndpointChannel> entry : entries) {
+			Endpoint endpoint = entry.getKey().getKey();
+			EndpointChannel endpointChannel = entry.getValue();
+			Map<String, Object> channelStatus = new LinkedHashMap<>();
+			channelStatus.put("connected", endpointChannel.isActive());
+			channelStatus.put("writable", endpointChannel.isWritable());
+			channelStatus.put("queueDepth", endpointChannel.getQueueDepth());
+			channelStatus.put("pendingWrites", endpointChannel.getPendingWrites());
+			status.put(String.format("%s:%s#%s", endpoint.getHost(), endpoint.getPort(), entry.getKey().getValue()),
+			      channelStatus);
+		}
+		return status;
 	}
 
 	private Bootstrap createBootstrap(final Endpoint endpoint, final EndpointChannel endpointChannel) {
 		Bootstrap bootstrap = new Bootstrap();
 		bootstrap.group(m_eventLoopGroup);
-		bootstrap.channel(NioSocketChannel.class);
+		bootstrap.channel(m_transport.getSocketChannelClass());
 		bootstrap.option(ChannelOption.SO_KEEPALIVE, true)//
 		      .option(ChannelOption.TCP_NODELAY, true)//
+		      .option(ChannelOption.ALLOCATOR, NettyTransport.ALLOCATOR)//
 		      .option(ChannelOption.SO_SNDBUF, m_config.getNettySendBufferSize())//
 		      .option(ChannelOption.SO_RCVBUF, m_config.getNettyReceiveBufferSize());
 
 		bootstrap.handler(new ChannelInitializer<SocketChannel>() {
 			@Override
 			public void initChannel(SocketChannel ch) throws Exception {
+				NettyTransport.setWriteBufferWaterMark(ch, m_config.getNettyWriteBufferLowWaterMark(),
+				      m_config.getNettyWriteBufferHighWaterMark());
 
 				ch.pipeline().addLast(
 				      //
 				      new DefaultNettyChannelOutboundHandler(),//
 				      new NettyDecoder(), //
-				      new MagicNumberPrepender(), //
-				      new LengthFieldPrepender(4), //
+				      new MagicNumberAndLengthPrepender(), //
 				      new NettyEncoder(), //
 				      new IdleStateHandler(0, 0, m_config.getEndpointChannelMaxIdleTime()),//
 				      new DefaultClientChannelInboundHandler(m_commandProcessorManager, endpoint, endpointChannel,
@@ -207,49 +259,97 @@ public class DefaultEndpointClient implements EndpointClient, Initializable {
 		return bootstrap;
 	}
 
-	private void scheduleWriterTask() {
-		m_writerThreadPool.scheduleWithFixedDelay(new Runnable() {
+	/**
+	 * Commands are queued by callers and written by the channel's event loop. Each enqueue schedules at most one write
+	 * task, which drains the queue into a batch of <code>write()</code>s and one <code>flush()</code>, stopping when the
+	 * channel is over its high water mark. Writability regained, connection established or a batch left behind
+	 * schedules the task again.
+	 * <p>
+	 * A failed write is retried after {@link CoreConfig#getEndpointChannelWriteRetryDelay()} ahead of the queue, failed
+	 * writes in the order they were queued, nothing queued after them is written before.
+	 */
+	class EndpointChannel {
+
+		private int m_slot;
+
+		private AtomicReference<ChannelFuture> m_channelFuture = new AtomicReference<>(null);
+
+		private BlockingQueue<WriteOp> m_opQueue = new LinkedBlockingQueue<>(m_config.getEndpointChannelSendBufferSize());
+
+		private AtomicLong m_opSeq = new AtomicLong(0);
+
+		// failed writes waiting for retry, always written before the queue
+		private BlockingQueue<WriteOp> m_retryOps = new PriorityBlockingQueue<>(16, new Comparator<WriteOp>() {
+
+			@Override
+			public int compare(WriteOp o1, WriteOp o2) {
+				return Long.compare(o1.getSeq(), o2.getSeq());
+			}
+		});
+
+		// written to netty but not completed yet
+		private AtomicInteger m_pendingWrites = new AtomicInteger(0);
+
+		private AtomicBoolean m_writeScheduled = new AtomicBoolean(false);
+
+		private AtomicBoolean m_retryScheduled = new AtomicBoolean(false);
+
+		private AtomicBoolean m_closed = new AtomicBoolean(false);
+
+		private Runnable m_writeTask = new Runnable() {
 
 			@Override
 			public void run() {
+				m_writeScheduled.set(false);
 				try {
-					for (EndpointChannel endpointChannel : m_channels.values()) {
-						if (!endpointChannel.isClosed()) {
-							endpointChannel.flush();
-						}
-					}
-
+					doWrite();
 				} catch (Exception e) {
-					log.warn("Exception occurred in EndpointChannelWriter loop", e);
+					log.warn("Exception occurred while writing to endpoint channel", e);
 				}
 			}
-		}, 0, m_config.getEndpointChannelWriterCheckInterval(), TimeUnit.MILLISECONDS);
-	}
+		};
 
-	class EndpointChannel {
+		public EndpointChannel(int slot) {
+			m_slot = slot;
+		}
 
-		private AtomicReference<ChannelFuture> m_channelFuture = new AtomicReference<>(null);
+		public int getSlot() {
+			return m_slot;
+		}
 
-		private BlockingQueue<WriteOp> m_opQueue = new LinkedBlockingQueue<>(m_config.getEndpointChannelSendBufferSize());
+		public boolean isActive() {
+			ChannelFuture channelFuture = m_channelFuture.get();
+			return channelFuture != null && channelFuture.channel().isActive();
+		}
 
-		private AtomicReference<WriteOp> m_flushingOp = new AtomicReference<>(null);
+		public boolean isWritable() {
+			ChannelFuture channelFuture = m_channelFuture.get();
+			return channelFuture != null && channelFuture.channel().isWritable();
+		}
 
-		private AtomicBoolean m_flushing = new AtomicBoolean(false);
+		public int getQueueDepth() {
+			return m_opQueue.size() + m_retryOps.size();
+		}
 
-		private AtomicBoolean m_closed = new AtomicBoolean(false);
+		public int getPendingWrites() {
+			return m_pendingWrites.get();
+		}
 
 		public void setChannelFuture(ChannelFuture channelFuture) {
 			if (!isClosed()) {
 				m_channelFuture.set(channelFuture);
+				if (channelFuture != null) {
+					scheduleWrite();
+				}
 			}
 		}
 
 		public boolean hasUnflushOps() {
-			return !m_opQueue.isEmpty() || m_flushingOp.get() != null;
+			return !m_opQueue.isEmpty() || !m_retryOps.isEmpty() || m_pendingWrites.get() > 0;
 		}
 
 		public boolean isFlushing() {
-			return m_flushing.get();
+			return m_writeScheduled.get();
 		}
 
 		public boolean isClosed() {
@@ -265,60 +365,101 @@ public class DefaultEndpointClient implements EndpointClient, Initializable {
 			}
 		}
 
-		public void flush() {
-			if (!isClosed()) {
-				ChannelFuture channelFuture = m_channelFuture.get();
+		/**
+		 * Schedule a write task on the channel's event loop unless one is pending, no-op if not connected yet.
+		 */
+		public void scheduleWrite() {
+			if (isClosed()) {
+				return;
+			}
 
-				if (channelFuture != null) {
-					Channel channel = channelFuture.channel();
-					if (channel != null && channel.isActive() && channel.isWritable() && !m_opQueue.isEmpty()) {
-						if (m_flushing.compareAndSet(false, true)) {
-							if (m_flushingOp.compareAndSet(null, m_opQueue.peek())) {
-								m_opQueue.poll();
-								doFlush(channel, m_flushingOp.get());
-							}
-						}
-					}
+			ChannelFuture channelFuture = m_channelFuture.get();
+			if (channelFuture != null && m_writeScheduled.compareAndSet(false, true)) {
+				try {
+					channelFuture.channel().eventLoop().execute(m_writeTask);
+				} catch (RejectedExecutionException e) {
+					m_writeScheduled.set(false);
 				}
 			}
 		}
 
-		private void doFlush(Channel channel, final WriteOp op) {
+		private void doWrite() {
+			ChannelFuture channelFuture = m_channelFuture.get();
+			if (isClosed() || channelFuture == null) {
+				return;
+			}
+
+			Channel channel = channelFuture.channel();
+			if (channel == null || !channel.isActive()) {
+				return;
+			}
+
+			int batchSize = m_config.getEndpointChannelWriteBatchSize();
+			int written = 0;
+			while (written < batchSize && channel.isWritable()) {
+				WriteOp op = nextOp(channel);
+				if (op == null) {
+					break;
+				}
 
-			if (op != null && !op.isExpired()) {
+				if (!op.isExpired()) {
+					m_pendingWrites.incrementAndGet();
+					channel.write(op.getCmd()).addListener(new WriteListener(op));
+					written++;
+				}
+			}
 
-				ChannelFuture future = channel.writeAndFlush(op.getCmd());
+			if (written > 0) {
+				channel.flush();
+			}
 
-				future.addListener(new ChannelFutureListener() {
+			// batch is full, leave the event loop to others before next batch
+			if (written == batchSize && channel.isWritable() && (!m_opQueue.isEmpty() || !m_retryOps.isEmpty())) {
+				scheduleWrite();
+			}
+		}
 
-					@Override
-					public void operationComplete(final ChannelFuture future) throws Exception {
+		/**
+		 * @return null if nothing to write, or the earliest failed write is not due yet
+		 */
+		private WriteOp nextOp(Channel channel) {
+			WriteOp retryOp = m_retryOps.peek();
+			if (retryOp != null) {
+				long delay = retryOp.getRetryTime() - m_systemClockService.now();
+				if (delay > 0) {
+					scheduleRetry(channel, delay);
+					return null;
+				}
+				return m_retryOps.poll();
+			}
+			return m_opQueue.poll();
+		}
 
-						if (future.isSuccess()) {
-							m_flushingOp.set(null);
-							m_flushing.set(false);
-						} else {
-							if (!isClosed()) {
-								future.channel().eventLoop().schedule(new Runnable() {
+		private void scheduleRetry(Channel channel, long delayMillis) {
+			if (m_retryScheduled.compareAndSet(false, true)) {
+				try {
+					channel.eventLoop().schedule(new Runnable() {
 
-									@Override
-									public void run() {
-										doFlush(future.channel(), op);
-									}
-								}, m_config.getEndpointChannelWriteRetryDelay(), TimeUnit.MILLISECONDS);
-							}
+						@Override
+						public void run() {
+							m_retryScheduled.set(false);
+							scheduleWrite();
 						}
-
-					}
-				});
-			} else {
-				m_flushingOp.set(null);
-				m_flushing.set(false);
+					}, delayMillis, TimeUnit.MILLISECONDS);
+				} catch (RejectedExecutionException e) {
+					m_retryScheduled.set(false);
+				}
 			}
 		}
 
 		public void write(Command cmd, long timeout, TimeUnit timeUnit) {
-			if (!isClosed() && !m_opQueue.offer(new WriteOp(cmd, timeout, timeUnit))) {
+			if (isClosed()) {
+				return;
+			}
+
+			if (m_opQueue.offer(new WriteOp(m_opSeq.incrementAndGet(), cmd, timeout, timeUnit))) {
+				scheduleWrite();
+			} else {
 				ChannelFuture channelFuture = m_channelFuture.get();
 				Channel channel = null;
 				if (channelFuture != null) {
@@ -329,16 +470,56 @@ public class DefaultEndpointClient implements EndpointClient, Initializable {
 			}
 		}
 
+		private class WriteListener implements ChannelFutureListener {
+			private WriteOp m_op;
+
+			public WriteListener(WriteOp op) {
+				m_op = op;
+			}
+
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				if (future.isSuccess() || isClosed() || m_op.isExpired()) {
+					m_pendingWrites.decrementAndGet();
+					return;
+				}
+
+				// queued for retry before it stops being pending, so the channel never looks idle in between
+				m_op.setRetryTime(m_systemClockService.now() + m_config.getEndpointChannelWriteRetryDelay());
+				m_retryOps.offer(m_op);
+				m_pendingWrites.decrementAndGet();
+
+				scheduleRetry(future.channel(), m_config.getEndpointChannelWriteRetryDelay());
+			}
+		}
+
 		private class WriteOp {
+			private long m_seq;
+
 			private Command m_cmd;
 
 			private long m_expireTime;
 
-			public WriteOp(Command cmd, long timeout, TimeUnit timeUnit) {
+			private volatile long m_retryTime;
+
+			public WriteOp(long seq, Command cmd, long timeout, TimeUnit timeUnit) {
+				m_seq = seq;
 				m_cmd = cmd;
 				m_expireTime = m_systemClockService.now() + timeUnit.toMillis(timeout);
 			}
 
+			public long getSeq() {
+				return m_seq;
+			}
+
+			public long getRetryTime() {
+				return m_retryTime;
+			}
+
+			public void setRetryTime(long retryTime) {
+				m_retryTime = retryTime;
+			}
+
 			public Command getCmd() {
 				return m_cmd;
 			}
@@ -14,4 +14,10 @@ public interface EndpointClient {
 
 	public void writeCommand(Endpoint endpoint, Command cmd, long timeout, TimeUnit timeUnit);
 
+	/**
+	 * Commands written with the same <code>partition</code> to an endpoint go through the same connection, so their
+	 * order is kept.
+	 */
+	public void writeCommand(Endpoint endpoint, Command cmd, int partition, long timeout, TimeUnit timeUnit);
+
 }
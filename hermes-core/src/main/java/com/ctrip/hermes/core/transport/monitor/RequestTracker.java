@@ -0,0 +1,154 @@
+package com.ctrip.hermes.core.transport.monitor;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ctrip.hermes.core.utils.HermesThreadFactory;
+import com.ctrip.hermes.core.utils.LongObjectHashMap;
+
+/**
+ * Requests waiting for responses, keyed by correlation id.
+ * <p>
+ * Each tracked request gets a timeout on a hashed wheel timer shared by all trackers of the process, so timing out
+ * costs O(1) per request, no map is scanned and no thread is spent per tracker. A request is handed out exactly once,
+ * either by {@link #remove(long)} when its response arrives or to the {@link TimeoutHandler} on the timer thread.
+ */
+public class RequestTracker<T> {
+	private static final Logger log = LoggerFactory.getLogger(RequestTracker.class);
+
+	private static final int SEGMENT_COUNT = 16;
+
+	private Segment<T>[] m_segments;
+
+	private Timer m_timer;
+
+	private TimeoutHandler<T> m_timeoutHandler;
+
+	public RequestTracker(TimeoutHandler<T> timeoutHandler) {
+		this(SharedTimerHolder.TIMER, timeoutHandler);
+	}
+
+	@SuppressWarnings("unchecked")
+	public RequestTracker(Timer timer, TimeoutHandler<T> timeoutHandler) {
+		m_timer = timer;
+		m_timeoutHandler = timeoutHandler;
+		m_segments = new Segment[SEGMENT_COUNT];
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			m_segments[i] = new Segment<T>();
+		}
+	}
+
+	/**
+	 * Track <code>request</code> until it is removed or <code>timeoutMillis</code> passes, a request already tracked
+	 * with the same correlation id is replaced silently.
+	 */
+	public void track(long correlationId, T request, long timeoutMillis) {
+		Entry<T> entry = new Entry<T>(this, correlationId, request);
+		Segment<T> segment = segmentOf(correlationId);
+		Entry<T> replaced;
+		synchronized (segment) {
+			replaced = segment.m_entries.put(correlationId, entry);
+		}
+		if (replaced != null) {
+			replaced.cancel();
+		}
+
+		entry.m_timeout = m_timer.newTimeout(entry, Math.max(0L, timeoutMillis), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the request, or null if it's not tracked or already timed out
+	 */
+	public T remove(long correlationId) {
+		Segment<T> segment = segmentOf(correlationId);
+		Entry<T> entry;
+		synchronized (segment) {
+			entry = segment.m_entries.remove(correlationId);
+		}
+
+		if (entry == null) {
+			return null;
+		}
+		entry.cancel();
+		return entry.m_request;
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment<T> segment : m_segments) {
+			synchronized (segment) {
+				size += segment.m_entries.size();
+			}
+		}
+		return size;
+	}
+
+	private void expire(Entry<T> entry) {
+		Segment<T> segment = segmentOf(entry.m_correlationId);
+		synchronized (segment) {
+			if (segment.m_entries.get(entry.m_correlationId) != entry) {
+				return;
+			}
+			segment.m_entries.remove(entry.m_correlationId);
+		}
+
+		try {
+			m_timeoutHandler.onTimeout(entry.m_correlationId, entry.m_request);
+		} catch (Exception e) {
+			log.warn("Exception occurred while handling timeout of request(correlationId={})", entry.m_correlationId, e);
+		}
+	}
+
+	private Segment<T> segmentOf(long correlationId) {
+		return m_segments[(int) (correlationId & (SEGMENT_COUNT - 1))];
+	}
+
+	public interface TimeoutHandler<T> {
+		void onTimeout(long correlationId, T request);
+	}
+
+	private static class Segment<T> {
+		private LongObjectHashMap<Entry<T>> m_entries = new LongObjectHashMap<>();
+	}
+
+	private static class Entry<T> implements TimerTask {
+		private RequestTracker<T> m_tracker;
+
+		private long m_correlationId;
+
+		private T m_request;
+
+		private volatile Timeout m_timeout;
+
+		public Entry(RequestTracker<T> tracker, long correlationId, T request) {
+			m_tracker = tracker;
+			m_correlationId = correlationId;
+			m_request = request;
+		}
+
+		@Override
+		public void run(Timeout timeout) throws Exception {
+			m_tracker.expire(this);
+		}
+
+		// a timeout not set yet fires later and finds the entry gone
+		public void cancel() {
+			Timeout timeout = m_timeout;
+			if (timeout != null) {
+				timeout.cancel();
+			}
+		}
+	}
+
+	private static class SharedTimerHolder {
+		private static final Timer TIMER = new HashedWheelTimer(HermesThreadFactory.create("RequestTimeoutTimer", true),
+		      10, TimeUnit.MILLISECONDS, 1024);
+	}
+}
@@ -0,0 +1,29 @@
+package com.ctrip.hermes.core.transport.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+import java.util.List;
+
+/**
+ * Prepends magic number and frame length without copying the frame itself.
+ *
+ */
+public class MagicNumberAndLengthPrepender extends MessageToMessageEncoder<ByteBuf> {
+
+	@Override
+	protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+		ByteBuf prefix = ctx.alloc().buffer(Magic.length() + 4);
+		Magic.writeMagic(prefix);
+		prefix.writeInt(msg.readableBytes());
+
+		CompositeByteBuf frame = ctx.alloc().compositeBuffer(2);
+		frame.addComponent(prefix);
+		frame.addComponent(msg.retain());
+		frame.writerIndex(prefix.readableBytes() + msg.readableBytes());
+		out.add(frame);
+	}
+
+}
@@ -1,16 +1,17 @@
 package com.ctrip.hermes.core.transport.netty;
 
-import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+import java.util.List;
 
 import com.ctrip.hermes.core.transport.command.Command;
 
-public class NettyEncoder extends MessageToByteEncoder<Command> {
+public class NettyEncoder extends MessageToMessageEncoder<Command> {
 
 	@Override
-	protected void encode(ChannelHandlerContext ctx, Command command, ByteBuf out) throws Exception {
-		command.toBytes(out);
+	protected void encode(ChannelHandlerContext ctx, Command command, List<Object> out) throws Exception {
+		out.add(command.toByteBuf(ctx.alloc()));
 	}
 
 }
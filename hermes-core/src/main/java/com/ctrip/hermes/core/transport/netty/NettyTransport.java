@@ -0,0 +1,76 @@
+package com.ctrip.hermes.core.transport.netty;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transport shared by broker and clients.
+ * <p>
+ * Native epoll is used if enabled and its library loads on this machine, otherwise NIO. The channels and event loop
+ * groups of one transport must not be mixed with the other's. All channels allocate from one pooled direct allocator.
+ */
+public class NettyTransport {
+	private static final Logger log = LoggerFactory.getLogger(NettyTransport.class);
+
+	public static final ByteBufAllocator ALLOCATOR = new PooledByteBufAllocator(true);
+
+	private boolean m_epoll;
+
+	public NettyTransport(boolean epollEnabled) {
+		m_epoll = epollEnabled && Epoll.isAvailable();
+		if (epollEnabled && !m_epoll) {
+			log.info("Native epoll transport is not available({}), use nio instead", Epoll.unavailabilityCause());
+		}
+	}
+
+	public boolean isEpoll() {
+		return m_epoll;
+	}
+
+	/**
+	 * @param threads
+	 *           0 for netty's default, twice the number of processors
+	 */
+	public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+		return m_epoll ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+	}
+
+	public Class<? extends SocketChannel> getSocketChannelClass() {
+		return m_epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+	}
+
+	public Class<? extends ServerSocketChannel> getServerSocketChannelClass() {
+		return m_epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+	}
+
+	/**
+	 * Set write buffer water marks in an order that never makes low above high, which netty would reject.
+	 */
+	public static void setWriteBufferWaterMark(Channel channel, int low, int high) {
+		ChannelConfig config = channel.config();
+		if (low > config.getWriteBufferHighWaterMark()) {
+			config.setWriteBufferHighWaterMark(high);
+			config.setWriteBufferLowWaterMark(low);
+		} else {
+			config.setWriteBufferLowWaterMark(low);
+			config.setWriteBufferHighWaterMark(high);
+		}
+	}
+}
@@ -3,9 +3,36 @@ package com.ctrip.hermes.core.utils;
 import io.netty.buffer.ByteBuf;
 
 import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 
 public class ChecksumUtil {
 
+	private static final int CHUNK_SIZE = 8192;
+
+	// java.util.zip.CRC32C is intrinsified since JDK 9, reflectively loaded as we still compile for JDK 7
+	private static final Class<?> JDK_CRC32C = loadJdkCrc32C();
+
+	private static final ThreadLocal<Checksum> CRC32C = new ThreadLocal<Checksum>() {
+		@Override
+		protected Checksum initialValue() {
+			if (JDK_CRC32C != null) {
+				try {
+					return (Checksum) JDK_CRC32C.newInstance();
+				} catch (Exception e) {
+					// fall through
+				}
+			}
+			return new Crc32C();
+		}
+	};
+
+	private static final ThreadLocal<byte[]> CHUNKS = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[CHUNK_SIZE];
+		}
+	};
+
 	public static long crc32(ByteBuf buf) {
 		CRC32 crc32 = new CRC32();
 		
@@ -28,4 +55,38 @@ public class ChecksumUtil {
 		return crc32.getValue();
 	}
 
+	/**
+	 * CRC-32C of <code>buf</code>'s readable bytes, reader index is left untouched. Heap buffers are checksummed in
+	 * place, direct ones are copied through a small per thread chunk.
+	 */
+	public static long crc32c(ByteBuf buf) {
+		Checksum crc32c = CRC32C.get();
+		crc32c.reset();
+
+		int index = buf.readerIndex();
+		int length = buf.readableBytes();
+		if (buf.hasArray()) {
+			crc32c.update(buf.array(), buf.arrayOffset() + index, length);
+		} else {
+			byte[] chunk = CHUNKS.get();
+			while (length > 0) {
+				int n = Math.min(length, chunk.length);
+				buf.getBytes(index, chunk, 0, n);
+				crc32c.update(chunk, 0, n);
+				index += n;
+				length -= n;
+			}
+		}
+
+		return crc32c.getValue();
+	}
+
+	private static Class<?> loadJdkCrc32C() {
+		try {
+			return Class.forName("java.util.zip.CRC32C");
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+
 }
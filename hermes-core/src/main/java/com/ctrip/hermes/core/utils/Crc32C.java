@@ -0,0 +1,51 @@
+package com.ctrip.hermes.core.utils;
+
+import java.util.zip.Checksum;
+
+/**
+ * Table driven CRC-32C (Castagnoli), only used on JVMs without <code>java.util.zip.CRC32C</code>.
+ */
+public class Crc32C implements Checksum {
+
+	// reflected polynomial 0x1EDC6F41
+	private static final int POLY = 0x82F63B78;
+
+	private static final int[] TABLE = new int[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc = i;
+			for (int j = 0; j < 8; j++) {
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLY : crc >>> 1;
+			}
+			TABLE[i] = crc;
+		}
+	}
+
+	private int m_crc = 0xFFFFFFFF;
+
+	@Override
+	public void update(int b) {
+		m_crc = (m_crc >>> 8) ^ TABLE[(m_crc ^ b) & 0xFF];
+	}
+
+	@Override
+	public void update(byte[] b, int off, int len) {
+		int crc = m_crc;
+		for (int i = off; i < off + len; i++) {
+			crc = (crc >>> 8) ^ TABLE[(crc ^ b[i]) & 0xFF];
+		}
+		m_crc = crc;
+	}
+
+	@Override
+	public long getValue() {
+		return (~m_crc) & 0xFFFFFFFFL;
+	}
+
+	@Override
+	public void reset() {
+		m_crc = 0xFFFFFFFF;
+	}
+
+}
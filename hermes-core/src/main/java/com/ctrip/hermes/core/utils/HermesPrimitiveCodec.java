@@ -6,8 +6,6 @@ import java.nio.ByteOrder;
 import java.util.HashMap;
 import java.util.Map;
 
-import com.google.common.base.Charsets;
-
 public class HermesPrimitiveCodec {
 
 	private static final byte NULL = -1;
@@ -69,9 +67,9 @@ public class HermesPrimitiveCodec {
 		if (null == str) {
 			writeNull();
 		} else {
-			int length = str.getBytes(Charsets.UTF_8).length;
+			int length = Utf8Util.utf8Length(str);
 			m_buf.writeInt(length);
-			m_buf.writeBytes(str.getBytes(Charsets.UTF_8));
+			Utf8Util.write(m_buf, str, length);
 		}
 	}
 
@@ -82,9 +80,26 @@ public class HermesPrimitiveCodec {
 		} else {
 			readerIndexBack(m_buf, 1);
 			int strLen = m_buf.readInt();
-			byte[] strBytes = new byte[strLen];
-			m_buf.readBytes(strBytes);
-			return new String(strBytes, Charsets.UTF_8);
+			String str = Utf8Util.read(m_buf, m_buf.readerIndex(), strLen);
+			m_buf.skipBytes(strLen);
+			return str;
+		}
+	}
+
+	/**
+	 * Same as {@link #readString()}, but short strings are served from {@link StringCache}. Only for values repeated
+	 * across messages, like topic names, group ids and codec types.
+	 */
+	public String readCachedString() {
+		byte firstByte = m_buf.readByte();
+		if (NULL == firstByte) {
+			return null;
+		} else {
+			readerIndexBack(m_buf, 1);
+			int strLen = m_buf.readInt();
+			String str = StringCache.get(m_buf, m_buf.readerIndex(), strLen);
+			m_buf.skipBytes(strLen);
+			return str;
 		}
 	}
 
@@ -174,6 +189,36 @@ public class HermesPrimitiveCodec {
 		}
 	}
 
+	/**
+	 * Reads a map written by {@link #writeStringStringMap(Map)} as a {@link LazyStringStringMap}, the encoded entries are
+	 * copied out, so the view stays valid after the buffer is released.
+	 */
+	public Map<String, String> readLazyStringStringMap() {
+		byte firstByte = m_buf.readByte();
+		if (NULL == firstByte) {
+			return null;
+		} else {
+			readerIndexBack(m_buf, 1);
+			int start = m_buf.readerIndex();
+			int length = m_buf.readInt();
+			for (int i = 0; i < length * 2; i++) {
+				skipString();
+			}
+
+			byte[] data = new byte[m_buf.readerIndex() - start];
+			m_buf.getBytes(start, data);
+			return new LazyStringStringMap(data);
+		}
+	}
+
+	private void skipString() {
+		if (NULL == m_buf.readByte()) {
+			return;
+		}
+		readerIndexBack(m_buf, 1);
+		m_buf.skipBytes(m_buf.readInt());
+	}
+
 	public Map<Long, Integer> readLongIntMap() {
 		byte firstByte = m_buf.readByte();
 		if (NULL == firstByte) {
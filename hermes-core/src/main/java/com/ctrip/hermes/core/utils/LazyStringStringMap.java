@@ -0,0 +1,128 @@
+package com.ctrip.hermes.core.utils;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Read only view of a map encoded by {@link HermesPrimitiveCodec#writeStringStringMap(Map)}, keys are compared
+ * against the encoded bytes and only the value looked up is decoded.
+ * <p>
+ * The whole map is decoded into a HashMap on first iteration or modification.
+ */
+public class LazyStringStringMap extends AbstractMap<String, String> {
+
+	private static final byte NULL = -1;
+
+	// map size followed by entries
+	private byte[] m_data;
+
+	private int m_size;
+
+	private Map<String, String> m_map;
+
+	public LazyStringStringMap(byte[] data) {
+		m_data = data;
+		m_size = readInt(0);
+	}
+
+	@Override
+	public int size() {
+		return m_map != null ? m_map.size() : m_size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (m_map != null) {
+			return m_map.containsKey(key);
+		}
+		return findValue(key) >= 0;
+	}
+
+	@Override
+	public String get(Object key) {
+		if (m_map != null) {
+			return m_map.get(key);
+		}
+		int valuePos = findValue(key);
+		return valuePos < 0 ? null : readString(valuePos);
+	}
+
+	@Override
+	public String put(String key, String value) {
+		return materialize().put(key, value);
+	}
+
+	@Override
+	public String remove(Object key) {
+		return materialize().remove(key);
+	}
+
+	@Override
+	public void clear() {
+		materialize().clear();
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		return materialize().entrySet();
+	}
+
+	private Map<String, String> materialize() {
+		if (m_map == null) {
+			Map<String, String> map = new HashMap<>();
+			int pos = 4;
+			for (int i = 0; i < m_size; i++) {
+				int valuePos = skipString(pos);
+				map.put(readString(pos), readString(valuePos));
+				pos = skipString(valuePos);
+			}
+			m_map = map;
+			m_data = null;
+		}
+		return m_map;
+	}
+
+	private int findValue(Object key) {
+		if (key != null && !(key instanceof String)) {
+			return -1;
+		}
+
+		int pos = 4;
+		for (int i = 0; i < m_size; i++) {
+			int valuePos = skipString(pos);
+			if (keyMatches(pos, (String) key)) {
+				return valuePos;
+			}
+			pos = skipString(valuePos);
+		}
+		return -1;
+	}
+
+	private boolean keyMatches(int pos, String key) {
+		if (m_data[pos] == NULL) {
+			return key == null;
+		}
+		return key != null && Utf8Util.equals(m_data, pos + 4, readInt(pos), key);
+	}
+
+	private int skipString(int pos) {
+		return m_data[pos] == NULL ? pos + 1 : pos + 4 + readInt(pos);
+	}
+
+	private String readString(int pos) {
+		if (m_data[pos] == NULL) {
+			return null;
+		}
+		return new String(m_data, pos + 4, readInt(pos), Charsets.UTF_8);
+	}
+
+	private int readInt(int pos) {
+		return (m_data[pos] & 0xFF) << 24 | (m_data[pos + 1] & 0xFF) << 16 | (m_data[pos + 2] & 0xFF) << 8
+		      | (m_data[pos + 3] & 0xFF);
+	}
+
+}
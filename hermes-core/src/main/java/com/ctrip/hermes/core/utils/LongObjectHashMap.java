@@ -0,0 +1,138 @@
+package com.ctrip.hermes.core.utils;
+
+/**
+ * Open addressing hash map with primitive long keys, so keys are neither boxed nor wrapped in entries. Not thread
+ * safe, null values are not allowed.
+ */
+public class LongObjectHashMap<V> {
+
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] m_keys;
+
+	private Object[] m_values;
+
+	private int m_mask;
+
+	private int m_size;
+
+	private int m_resizeThreshold;
+
+	public LongObjectHashMap() {
+		this(16);
+	}
+
+	public LongObjectHashMap(int expectedSize) {
+		int capacity = 2;
+		while (capacity * LOAD_FACTOR < expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int index = indexOf(key);
+		return index < 0 ? null : (V) m_values[index];
+	}
+
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Null value is not allowed");
+		}
+
+		int index = hash(key) & m_mask;
+		while (m_values[index] != null) {
+			if (m_keys[index] == key) {
+				V old = (V) m_values[index];
+				m_values[index] = value;
+				return old;
+			}
+			index = (index + 1) & m_mask;
+		}
+
+		m_keys[index] = key;
+		m_values[index] = value;
+		if (++m_size > m_resizeThreshold) {
+			rehash(m_values.length << 1);
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int index = indexOf(key);
+		if (index < 0) {
+			return null;
+		}
+
+		V old = (V) m_values[index];
+		m_values[index] = null;
+		m_size--;
+
+		// shift following entries of the probe chain back, so lookups never stop at the hole
+		int hole = index;
+		int next = (hole + 1) & m_mask;
+		while (m_values[next] != null) {
+			int home = hash(m_keys[next]) & m_mask;
+			boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+			if (!stays) {
+				m_keys[hole] = m_keys[next];
+				m_values[hole] = m_values[next];
+				m_values[next] = null;
+				hole = next;
+			}
+			next = (next + 1) & m_mask;
+		}
+
+		return old;
+	}
+
+	public int size() {
+		return m_size;
+	}
+
+	public boolean isEmpty() {
+		return m_size == 0;
+	}
+
+	private int indexOf(long key) {
+		int index = hash(key) & m_mask;
+		while (m_values[index] != null) {
+			if (m_keys[index] == key) {
+				return index;
+			}
+			index = (index + 1) & m_mask;
+		}
+		return -1;
+	}
+
+	private void allocate(int capacity) {
+		m_keys = new long[capacity];
+		m_values = new Object[capacity];
+		m_mask = capacity - 1;
+		m_resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void rehash(int capacity) {
+		long[] keys = m_keys;
+		Object[] values = m_values;
+
+		allocate(capacity);
+		m_size = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				put(keys[i], (V) values[i]);
+			}
+		}
+	}
+
+	private static int hash(long key) {
+		// correlation ids are sequential, spread them over the table
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.ctrip.hermes.core.utils;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Shared cache of short strings which are decoded again and again, like topic names, group ids and codec types.
+ * <p>
+ * Direct mapped, a slot is simply overwritten on collision. Entries are immutable, so racy reads and writes of the
+ * slots are safe.
+ */
+public class StringCache {
+
+	public static final int MAX_LENGTH = 64;
+
+	private static final int SIZE = 1024;
+
+	private static final Entry[] ENTRIES = new Entry[SIZE];
+
+	public static String get(ByteBuf buf, int index, int len) {
+		if (len > MAX_LENGTH) {
+			return Utf8Util.read(buf, index, len);
+		}
+
+		int hash = 1;
+		for (int i = index; i < index + len; i++) {
+			hash = 31 * hash + buf.getByte(i);
+		}
+		int slot = (hash ^ (hash >>> 16)) & (SIZE - 1);
+
+		Entry entry = ENTRIES[slot];
+		if (entry != null && entry.matches(buf, index, len)) {
+			return entry.m_str;
+		}
+
+		byte[] bytes = new byte[len];
+		buf.getBytes(index, bytes);
+		String str = Utf8Util.read(buf, index, len);
+		ENTRIES[slot] = new Entry(bytes, str);
+
+		return str;
+	}
+
+	private static class Entry {
+		private final byte[] m_bytes;
+
+		private final String m_str;
+
+		public Entry(byte[] bytes, String str) {
+			m_bytes = bytes;
+			m_str = str;
+		}
+
+		public boolean matches(ByteBuf buf, int index, int len) {
+			if (m_bytes.length != len) {
+				return false;
+			}
+			for (int i = 0; i < len; i++) {
+				if (m_bytes[i] != buf.getByte(index + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.ctrip.hermes.core.utils;
+
+import io.netty.buffer.ByteBuf;
+
+import com.google.common.base.Charsets;
+
+/**
+ * UTF-8 helpers working on ByteBuf directly, the output is the same as <code>String.getBytes(UTF_8)</code>.
+ */
+public class Utf8Util {
+
+	public static int utf8Length(CharSequence str) {
+		int len = 0;
+		int charLen = str.length();
+		for (int i = 0; i < charLen; i++) {
+			char c = str.charAt(i);
+			if (c < 0x80) {
+				len++;
+			} else if (c < 0x800) {
+				len += 2;
+			} else if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < charLen && Character.isLowSurrogate(str.charAt(i + 1))) {
+					len += 4;
+					i++;
+				} else {
+					// malformed, replaced by '?'
+					len++;
+				}
+			} else {
+				len += 3;
+			}
+		}
+		return len;
+	}
+
+	/**
+	 * @param utf8Len
+	 *           must be the result of {@link #utf8Length(CharSequence)}
+	 */
+	public static void write(ByteBuf buf, CharSequence str, int utf8Len) {
+		buf.ensureWritable(utf8Len);
+
+		int index = buf.writerIndex();
+		int charLen = str.length();
+		for (int i = 0; i < charLen; i++) {
+			char c = str.charAt(i);
+			if (c < 0x80) {
+				buf.setByte(index++, c);
+			} else if (c < 0x800) {
+				buf.setByte(index++, 0xC0 | (c >> 6));
+				buf.setByte(index++, 0x80 | (c & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < charLen && Character.isLowSurrogate(str.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, str.charAt(++i));
+					buf.setByte(index++, 0xF0 | (codePoint >> 18));
+					buf.setByte(index++, 0x80 | ((codePoint >> 12) & 0x3F));
+					buf.setByte(index++, 0x80 | ((codePoint >> 6) & 0x3F));
+					buf.setByte(index++, 0x80 | (codePoint & 0x3F));
+				} else {
+					buf.setByte(index++, '?');
+				}
+			} else {
+				buf.setByte(index++, 0xE0 | (c >> 12));
+				buf.setByte(index++, 0x80 | ((c >> 6) & 0x3F));
+				buf.setByte(index++, 0x80 | (c & 0x3F));
+			}
+		}
+
+		buf.writerIndex(index);
+	}
+
+	/**
+	 * Decodes without copying into a temporary byte array when the buffer is heap based.
+	 */
+	public static String read(ByteBuf buf, int index, int len) {
+		if (len == 0) {
+			return "";
+		}
+		if (buf.hasArray()) {
+			return new String(buf.array(), buf.arrayOffset() + index, len, Charsets.UTF_8);
+		} else {
+			return buf.toString(index, len, Charsets.UTF_8);
+		}
+	}
+
+	public static boolean equals(byte[] bytes, int offset, int len, String str) {
+		if (str.length() > len) {
+			return false;
+		}
+
+		int charIndex = 0;
+		for (int i = offset; i < offset + len; i++) {
+			byte b = bytes[i];
+			if (b < 0) {
+				// not ascii, rare for property names
+				return new String(bytes, offset, len, Charsets.UTF_8).equals(str);
+			}
+			if (charIndex >= str.length() || str.charAt(charIndex++) != b) {
+				return false;
+			}
+		}
+		return charIndex == str.length();
+	}
+
+}
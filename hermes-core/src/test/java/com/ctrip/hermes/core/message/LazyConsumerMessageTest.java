@@ -0,0 +1,39 @@
+package com.ctrip.hermes.core.message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.junit.Test;
+
+public class LazyConsumerMessageTest {
+
+	@Test
+	public void testBodyCopiedWithoutRetainingBuffer() {
+		ByteBuf buf = Unpooled.wrappedBuffer(new byte[] { 1, 2, 3 });
+		buf.readByte();
+		LazyConsumerMessage<String> msg = new LazyConsumerMessage<>(buf.slice(), "json", String.class);
+		assertEquals(1, buf.refCnt());
+		assertEquals(1, buf.readerIndex());
+
+		buf.release();
+		assertTrue(msg.ack());
+		assertFalse(msg.isBodyDecoded());
+
+		// second ack is ignored
+		assertFalse(msg.ack());
+		assertFalse(msg.nack());
+	}
+
+	@Test
+	public void testSetBodySkipsDecoding() {
+		ByteBuf buf = Unpooled.wrappedBuffer(new byte[] { 1, 2, 3 });
+		LazyConsumerMessage<String> msg = new LazyConsumerMessage<>(buf.slice(), "json", String.class);
+
+		msg.setBody("body");
+		assertEquals("body", msg.getBody());
+		assertTrue(msg.ack());
+	}
+}
@@ -0,0 +1,56 @@
+package com.ctrip.hermes.core.message.codec;
+
+import static org.junit.Assert.assertEquals;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.ctrip.hermes.core.message.PartialDecodedMessage;
+import com.ctrip.hermes.core.transport.netty.Magic;
+
+public class DefaultMessageCodecTest {
+
+	@Test
+	public void testWritesV1ByDefault() {
+		assertEquals(MessageCodecVersion.BINARY_V1, DefaultMessageCodec.writeVersion(null));
+		assertEquals(MessageCodecVersion.BINARY_V1, DefaultMessageCodec.writeVersion("unknown"));
+		assertEquals(MessageCodecVersion.BINARY_V1, DefaultMessageCodec.getWriteVersion());
+
+		PartialDecodedMessage msg = new PartialDecodedMessage();
+		msg.setKey("key");
+		msg.setBornTime(1000L);
+		msg.setBodyCodecType("json");
+		msg.setBody(Unpooled.wrappedBuffer("body".getBytes(StandardCharsets.UTF_8)));
+
+		ByteBuf buf = Unpooled.buffer();
+		new DefaultMessageCodec().encode(msg, buf);
+		assertEquals(MessageCodecVersion.BINARY_V1.getVersion(), buf.getByte(Magic.length()));
+	}
+
+	@Test
+	public void testSwitchToV2() {
+		assertEquals(MessageCodecVersion.BINARY_V2, DefaultMessageCodec.writeVersion("binary_v2"));
+		assertEquals(MessageCodecVersion.BINARY_V2, DefaultMessageCodec.writeVersion(" BINARY_V2 "));
+	}
+
+	@Test
+	public void testDecodesBothVersions() {
+		for (MessageCodecVersion version : MessageCodecVersion.values()) {
+			PartialDecodedMessage msg = new PartialDecodedMessage();
+			msg.setKey("key-" + version.getVersion());
+			msg.setBornTime(1000L);
+			msg.setBodyCodecType("json");
+			msg.setBody(Unpooled.wrappedBuffer("body".getBytes(StandardCharsets.UTF_8)));
+
+			ByteBuf buf = Unpooled.buffer();
+			Magic.writeMagic(buf);
+			buf.writeByte(version.getVersion());
+			version.getHandler().encode(msg, buf);
+
+			assertEquals("key-" + version.getVersion(), new DefaultMessageCodec().decodePartial(buf).getKey());
+		}
+	}
+}
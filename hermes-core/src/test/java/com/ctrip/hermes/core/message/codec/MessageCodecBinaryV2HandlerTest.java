@@ -0,0 +1,94 @@
+package com.ctrip.hermes.core.message.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.ctrip.hermes.core.message.PartialDecodedMessage;
+import com.ctrip.hermes.core.message.codec.internal.MessageCodecBinaryV2Handler;
+
+public class MessageCodecBinaryV2HandlerTest {
+
+	@Test
+	public void testEndToEnd() {
+		MessageCodecBinaryV2Handler handler = new MessageCodecBinaryV2Handler(ChecksumPolicy.END_TO_END);
+		ByteBuf buf = encode(handler);
+
+		PartialDecodedMessage msg = handler.decodePartial(buf.duplicate());
+		assertEquals("key", msg.getKey());
+		assertArrayEquals("body".getBytes(StandardCharsets.UTF_8), msg.readBody());
+
+		assertMismatch(handler, corruptBody(buf));
+	}
+
+	@Test
+	public void testProducerToBrokerSkipsDeliveryChecksum() {
+		MessageCodecBinaryV2Handler handler = new MessageCodecBinaryV2Handler(ChecksumPolicy.PRODUCER_TO_BROKER);
+		ByteBuf buf = encode(handler);
+
+		assertEquals(-1L, buf.getLong(buf.writerIndex() - 8));
+
+		// broker side verification passes as no checksum was computed
+		PartialDecodedMessage msg = handler.decodePartial(buf.duplicate());
+		assertEquals("key", msg.getKey());
+	}
+
+	@Test
+	public void testCountsUnverifiedMessages() {
+		MessageCodecBinaryV2Handler producerToBroker = new MessageCodecBinaryV2Handler(ChecksumPolicy.PRODUCER_TO_BROKER);
+		MessageCodecBinaryV2Handler endToEnd = new MessageCodecBinaryV2Handler(ChecksumPolicy.END_TO_END);
+
+		long unverified = MessageCodecBinaryV2Handler.getUnverifiedCount();
+		endToEnd.decodePartial(encode(endToEnd));
+		assertEquals(unverified, MessageCodecBinaryV2Handler.getUnverifiedCount());
+
+		// delivered by a broker which assumes consumers don't verify
+		PartialDecodedMessage msg = endToEnd.decodePartial(encode(producerToBroker));
+		assertEquals("key", msg.getKey());
+		assertEquals(unverified + 1, MessageCodecBinaryV2Handler.getUnverifiedCount());
+	}
+
+	@Test
+	public void testOffSkipsVerification() {
+		MessageCodecBinaryV2Handler endToEnd = new MessageCodecBinaryV2Handler(ChecksumPolicy.END_TO_END);
+		MessageCodecBinaryV2Handler off = new MessageCodecBinaryV2Handler(ChecksumPolicy.OFF);
+
+		PartialDecodedMessage msg = off.decodePartial(corruptBody(encode(endToEnd)));
+		assertEquals("key", msg.getKey());
+	}
+
+	private ByteBuf encode(MessageCodecBinaryV2Handler handler) {
+		PartialDecodedMessage msg = new PartialDecodedMessage();
+		msg.setKey("key");
+		msg.setBornTime(1000L);
+		msg.setBodyCodecType("json");
+		msg.setBody(Unpooled.wrappedBuffer("body".getBytes(StandardCharsets.UTF_8)));
+
+		ByteBuf buf = Unpooled.buffer();
+		handler.encode(msg, buf);
+		return buf;
+	}
+
+	private ByteBuf corruptBody(ByteBuf buf) {
+		ByteBuf corrupted = buf.copy();
+		// last byte of body, right before the checksum
+		int index = corrupted.writerIndex() - 9;
+		corrupted.setByte(index, corrupted.getByte(index) + 1);
+		return corrupted;
+	}
+
+	private void assertMismatch(MessageCodecBinaryV2Handler handler, ByteBuf buf) {
+		try {
+			handler.decodePartial(buf);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("checksum mismatch", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.ctrip.hermes.core.message.partition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.ctrip.hermes.meta.entity.Property;
+import com.ctrip.hermes.meta.entity.Topic;
+
+public class HashPartitioningStrategyTest {
+
+	@Test
+	public void testHashCodeByDefault() {
+		HashPartitioningStrategy strategy = new HashPartitioningStrategy();
+		Topic topic = new Topic("topic");
+		for (int i = 0; i < 100; i++) {
+			String key = "order-" + i;
+			int expected = Math.abs(key.hashCode()) % 7;
+			assertEquals(expected, strategy.computePartitionNo(key, 7));
+			assertEquals(expected, strategy.computePartitionNo(key, 7, topic));
+			assertEquals(expected, strategy.computePartitionNo(key, 7, null));
+		}
+	}
+
+	@Test
+	public void testMurmur3SameKeySamePartition() {
+		HashPartitioningStrategy strategy = new HashPartitioningStrategy();
+		Topic topic = murmur3Topic();
+		for (int i = 0; i < 100; i++) {
+			String key = "order-" + i;
+			assertEquals(strategy.computePartitionNo(key, 7, topic), strategy.computePartitionNo(key, 7, topic));
+		}
+	}
+
+	@Test
+	public void testMurmur3KeysSpreadEvenly() {
+		HashPartitioningStrategy strategy = new HashPartitioningStrategy();
+		Topic topic = murmur3Topic();
+		int partitionCount = 8;
+		int keyCount = 80000;
+		int[] counts = new int[partitionCount];
+		for (int i = 0; i < keyCount; i++) {
+			int partition = strategy.computePartitionNo("order-" + i, partitionCount, topic);
+			assertTrue(partition >= 0 && partition < partitionCount);
+			counts[partition]++;
+		}
+
+		int expected = keyCount / partitionCount;
+		for (int count : counts) {
+			assertTrue(String.valueOf(count), Math.abs(count - expected) < expected / 10);
+		}
+	}
+
+	@Test
+	public void testWithoutKey() {
+		HashPartitioningStrategy strategy = new HashPartitioningStrategy();
+		for (int i = 0; i < 1000; i++) {
+			int partition = strategy.computePartitionNo(null, 3);
+			assertTrue(partition >= 0 && partition < 3);
+		}
+	}
+
+	private Topic murmur3Topic() {
+		Topic topic = new Topic("topic");
+		topic.addProperty(new Property(HashPartitioningStrategy.TOPIC_HASH_PROPERTY)
+		      .setValue(HashPartitioningStrategy.HASH_MURMUR3));
+		return topic;
+	}
+}
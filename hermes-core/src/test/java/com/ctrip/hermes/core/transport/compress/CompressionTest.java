@@ -0,0 +1,85 @@
+package com.ctrip.hermes.core.transport.compress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.ctrip.hermes.core.transport.command.FetchMessageCommand;
+import com.ctrip.hermes.core.transport.command.Header;
+import com.ctrip.hermes.core.transport.command.PullMessageCommand;
+import com.ctrip.hermes.core.transport.command.SendMessageAckCommand;
+
+public class CompressionTest {
+
+	@Test
+	public void testCompressAndDecompress() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			sb.append("{\"id\":").append(i).append(",\"name\":\"hermes\",\"status\":\"OK\"}");
+		}
+		byte[] raw = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+		for (Compression compression : Compression.values()) {
+			ByteBuf src = Unpooled.directBuffer().writeBytes(raw);
+			ByteBuf compressed = compression.compress(src);
+			assertEquals(raw.length, src.readableBytes());
+			if (compression != Compression.NONE) {
+				assertTrue(compression.getName(), compressed.readableBytes() < raw.length / 3);
+			}
+
+			ByteBuf decompressed = compression.decompress(compressed);
+			assertEquals(0, compressed.readableBytes());
+			assertEquals(Unpooled.wrappedBuffer(raw), decompressed);
+		}
+	}
+
+	@Test
+	public void testEmpty() {
+		for (Compression compression : Compression.values()) {
+			ByteBuf decompressed = compression.decompress(compression.compress(Unpooled.EMPTY_BUFFER));
+			assertEquals(0, decompressed.readableBytes());
+		}
+	}
+
+	@Test
+	public void testHeader() {
+		Header header = new Header();
+		assertEquals(Compression.NONE, Compression.valueOf(header));
+
+		Compression.NONE.writeTo(header);
+		assertTrue(header.getProperties().isEmpty());
+
+		Compression.LZ4.writeTo(header);
+		assertEquals(Compression.LZ4, Compression.valueOf(header));
+	}
+
+	@Test
+	public void testAccepted() {
+		assertFalse(Compression.isAccepted(new Header()));
+
+		// announced by consumers' pulls and fetches and by brokers' send acks
+		assertTrue(Compression.isAccepted(new PullMessageCommand().getHeader()));
+		assertTrue(Compression.isAccepted(new FetchMessageCommand().getHeader()));
+		assertTrue(Compression.isAccepted(new SendMessageAckCommand().getHeader()));
+
+		// kept through the wire
+		ByteBuf buf = Unpooled.buffer();
+		new PullMessageCommand().getHeader().toBytes(buf);
+		Header header = new Header();
+		header.parse(buf);
+		assertTrue(Compression.isAccepted(header));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownInHeader() {
+		Header header = new Header();
+		header.addProperty(Compression.HEADER_PROPERTY, "snappy");
+		Compression.valueOf(header);
+	}
+}
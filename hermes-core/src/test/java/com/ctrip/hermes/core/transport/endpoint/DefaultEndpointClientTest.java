@@ -0,0 +1,395 @@
+package com.ctrip.hermes.core.transport.endpoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalEventLoopGroup;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.unidal.tuple.Pair;
+
+import com.ctrip.hermes.core.config.CoreConfig;
+import com.ctrip.hermes.core.meta.MetaService;
+import com.ctrip.hermes.core.service.SystemClockService;
+import com.ctrip.hermes.core.transport.command.AckMessageCommand;
+import com.ctrip.hermes.core.transport.command.Command;
+import com.ctrip.hermes.core.transport.endpoint.DefaultEndpointClient.EndpointChannel;
+import com.ctrip.hermes.meta.entity.Endpoint;
+
+public class DefaultEndpointClientTest {
+
+	private static final long RETRY_DELAY_MILLIS = 200L;
+
+	private EventLoopGroup m_group;
+
+	private Channel m_serverChannel;
+
+	private Channel m_channel;
+
+	// correlation ids of commands written successfully, in order
+	private List<Long> m_written = new ArrayList<>();
+
+	private AtomicInteger m_flushes = new AtomicInteger(0);
+
+	private AtomicInteger m_failures = new AtomicInteger(0);
+
+	// correlation ids whose first write fails
+	private Set<Long> m_failOnce = new HashSet<>();
+
+	private DefaultEndpointClient m_client;
+
+	private EventLoopGroup m_brokerGroup;
+
+	// connections accepted by the broker, in order
+	private List<SocketChannel> m_accepted = new CopyOnWriteArrayList<>();
+
+	@Before
+	public void before() throws Exception {
+		m_group = new LocalEventLoopGroup(1);
+		LocalAddress address = new LocalAddress("endpoint-client-test");
+		m_serverChannel = new ServerBootstrap().group(m_group).channel(LocalServerChannel.class)
+		      .childHandler(new ChannelInboundHandlerAdapter()).bind(address).sync().channel();
+		m_channel = new Bootstrap().group(m_group).channel(LocalChannel.class).handler(new RecordingHandler())
+		      .connect(address).sync().channel();
+	}
+
+	@After
+	public void after() throws Exception {
+		m_channel.close().sync();
+		m_serverChannel.close().sync();
+		m_group.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+		if (m_client != null) {
+			for (EndpointChannel endpointChannel : channels().values()) {
+				endpointChannel.close();
+			}
+			((EventLoopGroup) get(m_client, "m_eventLoopGroup")).shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+		}
+		if (m_brokerGroup != null) {
+			m_brokerGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+		}
+	}
+
+	@Test
+	public void testSlotSelectedByPartition() throws Exception {
+		Endpoint endpoint = startBroker();
+		m_client = createClient(2);
+
+		for (int partition = -1; partition < 6; partition++) {
+			m_client.writeCommand(endpoint, command(partition), partition, 10, TimeUnit.SECONDS);
+		}
+
+		// a connection per slot, partitions of the same slot share it
+		Map<Pair<Endpoint, Integer>, EndpointChannel> channels = channels();
+		assertEquals(2, channels.size());
+		EndpointChannel slot0 = channels.get(new Pair<>(endpoint, 0));
+		EndpointChannel slot1 = channels.get(new Pair<>(endpoint, 1));
+		assertEquals(0, slot0.getSlot());
+		assertEquals(1, slot1.getSlot());
+		assertSame(slot1, channel(endpoint, -1));
+		assertSame(slot0, channel(endpoint, 4));
+		assertSame(slot1, channel(endpoint, 5));
+
+		awaitAccepted(2);
+		awaitActive(slot0);
+		awaitActive(slot1);
+		assertEquals(2, m_accepted.size());
+	}
+
+	@Test
+	public void testIdleChannelRemovedFromPool() throws Exception {
+		Endpoint endpoint = startBroker();
+		m_client = createClient(2);
+
+		m_client.writeCommand(endpoint, command(0), 0, 10, TimeUnit.SECONDS);
+		EndpointChannel endpointChannel = channel(endpoint, 0);
+		awaitActive(endpointChannel);
+		awaitFlushed(endpointChannel);
+
+		// a channel no longer pooled is left alone
+		m_client.removeChannel(endpoint, m_client.new EndpointChannel(0));
+		assertSame(endpointChannel, channel(endpoint, 0));
+
+		m_client.removeChannel(endpoint, endpointChannel);
+		assertTrue(endpointChannel.isClosed());
+		assertTrue(channels().isEmpty());
+
+		// writing again opens a new connection for the slot
+		m_client.writeCommand(endpoint, command(2), 2, 10, TimeUnit.SECONDS);
+		EndpointChannel newChannel = channel(endpoint, 0);
+		assertNotSame(endpointChannel, newChannel);
+		awaitActive(newChannel);
+		awaitAccepted(2);
+	}
+
+	@Test
+	public void testReconnectKeepsPooledChannel() throws Exception {
+		Endpoint endpoint = startBroker();
+		m_client = createClient(1);
+
+		m_client.writeCommand(endpoint, command(0), 0, 10, TimeUnit.SECONDS);
+		EndpointChannel endpointChannel = channel(endpoint, 0);
+		awaitActive(endpointChannel);
+		awaitAccepted(1);
+
+		// broker drops the connection
+		m_accepted.get(0).close().sync();
+		awaitAccepted(2);
+		awaitActive(endpointChannel);
+
+		assertFalse(endpointChannel.isClosed());
+		assertSame(endpointChannel, channel(endpoint, 0));
+		assertEquals(1, channels().size());
+
+		m_client.writeCommand(endpoint, command(1), 0, 10, TimeUnit.SECONDS);
+		awaitFlushed(endpointChannel);
+	}
+
+	@Test
+	public void testOneFlushPerBatch() throws Exception {
+		EndpointChannel endpointChannel = createEndpointChannel(2);
+		for (long i = 0; i < 5; i++) {
+			endpointChannel.write(command(i), 10, TimeUnit.SECONDS);
+		}
+		// queued before connected, written once the connection is known
+		assertEquals(5, endpointChannel.getQueueDepth());
+		endpointChannel.setChannelFuture(m_channel.newSucceededFuture());
+
+		awaitWritten(5);
+		assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L), written());
+		assertEquals(3, m_flushes.get());
+		assertEquals(0, endpointChannel.getQueueDepth());
+		assertEquals(0, endpointChannel.getPendingWrites());
+	}
+
+	@Test
+	public void testFailedWritesRetriedAheadOfQueue() throws Exception {
+		m_failOnce.addAll(Arrays.asList(0L, 1L));
+		EndpointChannel endpointChannel = createEndpointChannel(10);
+		for (long i = 0; i < 5; i++) {
+			endpointChannel.write(command(i), 10, TimeUnit.SECONDS);
+		}
+		endpointChannel.setChannelFuture(m_channel.newSucceededFuture());
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (m_failures.get() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		// nothing after the failed write goes out before its retry
+		assertEquals(1, m_failures.get());
+		assertTrue(written().isEmpty());
+		assertTrue(endpointChannel.hasUnflushOps());
+
+		// queued while the failed write waits for retry
+		for (long i = 5; i < 8; i++) {
+			endpointChannel.write(command(i), 10, TimeUnit.SECONDS);
+		}
+
+		awaitWritten(8);
+		assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L), written());
+		assertEquals(2, m_failures.get());
+		assertEquals(0, endpointChannel.getQueueDepth());
+		assertEquals(0, endpointChannel.getPendingWrites());
+	}
+
+	private Endpoint startBroker() throws Exception {
+		m_brokerGroup = new NioEventLoopGroup(1);
+		Channel serverChannel = new ServerBootstrap().group(m_brokerGroup).channel(NioServerSocketChannel.class)
+		      .childHandler(new ChannelInitializer<SocketChannel>() {
+			      @Override
+			      protected void initChannel(SocketChannel ch) throws Exception {
+				      m_accepted.add(ch);
+			      }
+		      }).bind("127.0.0.1", 0).sync().channel();
+
+		Endpoint endpoint = new Endpoint();
+		endpoint.setId("broker-0");
+		endpoint.setType(Endpoint.BROKER);
+		endpoint.setHost("127.0.0.1");
+		endpoint.setPort(((InetSocketAddress) serverChannel.localAddress()).getPort());
+		return endpoint;
+	}
+
+	private DefaultEndpointClient createClient(final int poolSize) throws Exception {
+		DefaultEndpointClient client = new DefaultEndpointClient();
+		inject(client, "m_config", new CoreConfig() {
+			@Override
+			public int getEndpointChannelPoolSize() {
+				return poolSize;
+			}
+
+			@Override
+			public long getEndpointChannelAutoReconnectDelay() {
+				return 0;
+			}
+
+			@Override
+			public boolean isNettyNativeEpollEnabled() {
+				return false;
+			}
+		});
+		inject(client, "m_systemClockService", new SystemClockService() {
+			@Override
+			public long now() {
+				return System.currentTimeMillis();
+			}
+		});
+		inject(client, "m_metaService", Proxy.newProxyInstance(MetaService.class.getClassLoader(),
+		      new Class<?>[] { MetaService.class }, new InvocationHandler() {
+			      @Override
+			      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				      if ("containsEndpoint".equals(method.getName())) {
+					      return true;
+				      }
+				      throw new UnsupportedOperationException(method.getName());
+			      }
+		      }));
+		client.initialize();
+		return client;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<Pair<Endpoint, Integer>, EndpointChannel> channels() throws Exception {
+		return (Map<Pair<Endpoint, Integer>, EndpointChannel>) get(m_client, "m_channels");
+	}
+
+	private EndpointChannel channel(Endpoint endpoint, int partition) throws Exception {
+		int poolSize = ((CoreConfig) get(m_client, "m_config")).getEndpointChannelPoolSize();
+		return channels().get(new Pair<>(endpoint, (partition & Integer.MAX_VALUE) % poolSize));
+	}
+
+	private void awaitAccepted(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (m_accepted.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, m_accepted.size());
+	}
+
+	private void awaitActive(EndpointChannel endpointChannel) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!endpointChannel.isActive() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(endpointChannel.isActive());
+	}
+
+	private void awaitFlushed(EndpointChannel endpointChannel) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (endpointChannel.hasUnflushOps() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertFalse(endpointChannel.hasUnflushOps());
+	}
+
+	private EndpointChannel createEndpointChannel(final int batchSize) throws Exception {
+		DefaultEndpointClient client = new DefaultEndpointClient();
+		inject(client, "m_config", new CoreConfig() {
+			@Override
+			public int getEndpointChannelWriteBatchSize() {
+				return batchSize;
+			}
+
+			@Override
+			public long getEndpointChannelWriteRetryDelay() {
+				return RETRY_DELAY_MILLIS;
+			}
+		});
+		inject(client, "m_systemClockService", new SystemClockService() {
+			@Override
+			public long now() {
+				return System.currentTimeMillis();
+			}
+		});
+		return client.new EndpointChannel(0);
+	}
+
+	private Command command(long correlationId) {
+		AckMessageCommand cmd = new AckMessageCommand();
+		cmd.getHeader().setCorrelationId(correlationId);
+		return cmd;
+	}
+
+	private List<Long> written() {
+		synchronized (m_written) {
+			return new ArrayList<>(m_written);
+		}
+	}
+
+	private void awaitWritten(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (written().size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, written().size());
+	}
+
+	private static void inject(Object target, String fieldName, Object value) throws Exception {
+		Field field = DefaultEndpointClient.class.getDeclaredField(fieldName);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+
+	private static Object get(Object target, String fieldName) throws Exception {
+		Field field = DefaultEndpointClient.class.getDeclaredField(fieldName);
+		field.setAccessible(true);
+		return field.get(target);
+	}
+
+	private class RecordingHandler extends ChannelOutboundHandlerAdapter {
+
+		@Override
+		public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+			long correlationId = ((Command) msg).getHeader().getCorrelationId();
+			if (m_failOnce.remove(correlationId)) {
+				m_failures.incrementAndGet();
+				promise.setFailure(new IOException("write failed"));
+			} else {
+				synchronized (m_written) {
+					m_written.add(correlationId);
+				}
+				promise.setSuccess();
+			}
+		}
+
+		@Override
+		public void flush(ChannelHandlerContext ctx) throws Exception {
+			m_flushes.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.ctrip.hermes.core.transport.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.netty.util.HashedWheelTimer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ctrip.hermes.core.transport.monitor.RequestTracker.TimeoutHandler;
+
+public class RequestTrackerTest {
+
+	private HashedWheelTimer m_timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+
+	@After
+	public void tearDown() {
+		m_timer.stop();
+	}
+
+	@Test
+	public void testRemoveBeforeTimeout() throws Exception {
+		final List<String> timeouts = new CopyOnWriteArrayList<>();
+		RequestTracker<String> tracker = new RequestTracker<>(m_timer, new TimeoutHandler<String>() {
+
+			@Override
+			public void onTimeout(long correlationId, String request) {
+				timeouts.add(request);
+			}
+		});
+
+		tracker.track(1L, "a", 50);
+		assertEquals(1, tracker.size());
+		assertEquals("a", tracker.remove(1L));
+		assertNull(tracker.remove(1L));
+
+		Thread.sleep(150);
+		assertTrue(timeouts.isEmpty());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(2);
+		final List<String> timeouts = new CopyOnWriteArrayList<>();
+		RequestTracker<String> tracker = new RequestTracker<>(m_timer, new TimeoutHandler<String>() {
+
+			@Override
+			public void onTimeout(long correlationId, String request) {
+				timeouts.add(correlationId + request);
+				latch.countDown();
+			}
+		});
+
+		tracker.track(1L, "a", 20);
+		tracker.track(2L, "b", 0);
+		tracker.track(3L, "c", 10000);
+
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertTrue(timeouts.contains("1a"));
+		assertTrue(timeouts.contains("2b"));
+		assertEquals(1, tracker.size());
+
+		// timed out requests are handed out only once
+		assertNull(tracker.remove(1L));
+		assertEquals("c", tracker.remove(3L));
+	}
+
+	@Test
+	public void testReplace() throws Exception {
+		final List<String> timeouts = new CopyOnWriteArrayList<>();
+		RequestTracker<String> tracker = new RequestTracker<>(m_timer, new TimeoutHandler<String>() {
+
+			@Override
+			public void onTimeout(long correlationId, String request) {
+				timeouts.add(request);
+			}
+		});
+
+		tracker.track(1L, "a", 20);
+		tracker.track(1L, "b", 10000);
+
+		Thread.sleep(150);
+		assertTrue(timeouts.isEmpty());
+		assertEquals("b", tracker.remove(1L));
+	}
+}
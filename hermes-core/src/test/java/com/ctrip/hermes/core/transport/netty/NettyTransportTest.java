@@ -0,0 +1,43 @@
+package com.ctrip.hermes.core.transport.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import org.junit.Test;
+
+public class NettyTransportTest {
+
+	@Test
+	public void testNioWhenEpollDisabled() {
+		NettyTransport transport = new NettyTransport(false);
+
+		assertFalse(transport.isEpoll());
+		assertEquals(NioSocketChannel.class, transport.getSocketChannelClass());
+		assertEquals(NioServerSocketChannel.class, transport.getServerSocketChannelClass());
+
+		NioEventLoopGroup group = (NioEventLoopGroup) transport.newEventLoopGroup(1, null);
+		group.shutdownGracefully();
+	}
+
+	@Test
+	public void testSetWriteBufferWaterMark() {
+		EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+
+		// both above netty's default high water mark
+		NettyTransport.setWriteBufferWaterMark(channel, 512 * 1024, 1024 * 1024);
+		assertEquals(512 * 1024, channel.config().getWriteBufferLowWaterMark());
+		assertEquals(1024 * 1024, channel.config().getWriteBufferHighWaterMark());
+
+		// both below current low water mark
+		NettyTransport.setWriteBufferWaterMark(channel, 1024, 2048);
+		assertEquals(1024, channel.config().getWriteBufferLowWaterMark());
+		assertEquals(2048, channel.config().getWriteBufferHighWaterMark());
+
+		channel.finish();
+	}
+}
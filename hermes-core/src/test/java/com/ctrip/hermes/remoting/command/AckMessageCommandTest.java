@@ -1,11 +1,89 @@
 package com.ctrip.hermes.remoting.command;
 
+import static org.junit.Assert.assertEquals;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.unidal.tuple.Triple;
+
+import com.ctrip.hermes.core.bo.Tpp;
+import com.ctrip.hermes.core.transport.command.AckMessageCommand;
+import com.ctrip.hermes.core.transport.command.AckMessageCommand.AckContext;
+import com.ctrip.hermes.core.transport.command.Header;
 
 /**
  * @author Leo Liang(jhliang@ctrip.com)
  *
  */
 public class AckMessageCommandTest {
+
+	@Test
+	public void testRanges() {
+		AckMessageCommand cmd = new AckMessageCommand(AckMessageCommand.VERSION_RANGES);
+		Tpp tpp = new Tpp("t1", 1, true);
+		// out of order, duplicated and with a gap
+		long[] msgSeqs = { 3, 1, 2, 2, 4, 7, 8 };
+		for (long msgSeq : msgSeqs) {
+			cmd.addAckMsg(tpp, "g1", false, msgSeq, 0, 100 + msgSeq, 200 + msgSeq);
+		}
+		cmd.addNackMsg(tpp, "g1", true, 10, 2, 0, 0);
+		cmd.addNackMsg(tpp, "g1", true, 11, 1, 0, 0);
+
+		ByteBuf buf = Unpooled.buffer();
+		cmd.toBytes(buf);
+
+		AckMessageCommand decodedCmd = new AckMessageCommand();
+		Header header = new Header();
+		header.parse(buf);
+		decodedCmd.parse(buf, header);
+
+		List<AckContext> acks = decodedCmd.getAckMsgs().get(new Triple<>(tpp, "g1", false));
+		long[] expectedSeqs = { 1, 2, 3, 4, 7, 8 };
+		assertEquals(expectedSeqs.length, acks.size());
+		for (int i = 0; i < expectedSeqs.length; i++) {
+			assertEquals(expectedSeqs[i], acks.get(i).getMsgSeq());
+		}
+		assertEquals(101L, acks.get(0).getOnMessageStartTimeMillis());
+		assertEquals(204L, acks.get(0).getOnMessageEndTimeMillis());
+
+		List<AckContext> nacks = decodedCmd.getNackMsgs().get(new Triple<>(tpp, "g1", true));
+		assertEquals(2, nacks.size());
+		assertEquals(2, nacks.get(0).getRemainingRetries());
+		assertEquals(1, nacks.get(1).getRemainingRetries());
+	}
+
+	@Test
+	public void testEntriesForOldBrokers() {
+		Header resultHeader = new Header();
+		assertEquals(AckMessageCommand.VERSION_ENTRIES, AckMessageCommand.acceptedVersionOf(resultHeader));
+		AckMessageCommand.writeAcceptedVersion(resultHeader);
+		assertEquals(AckMessageCommand.VERSION_RANGES, AckMessageCommand.acceptedVersionOf(resultHeader));
+
+		AckMessageCommand cmd = new AckMessageCommand();
+		Tpp tpp = new Tpp("t1", 1, true);
+		cmd.addAckMsg(tpp, "g1", false, 2, 0, 100, 200);
+		cmd.addAckMsg(tpp, "g1", false, 1, 0, 101, 201);
+
+		ByteBuf buf = Unpooled.buffer();
+		cmd.toBytes(buf);
+
+		AckMessageCommand decodedCmd = new AckMessageCommand();
+		Header header = new Header();
+		header.parse(buf);
+		assertEquals(AckMessageCommand.VERSION_ENTRIES, header.getVersion());
+		decodedCmd.parse(buf, header);
+
+		// one entry per message, in the order added
+		List<AckContext> acks = decodedCmd.getAckMsgs().get(new Triple<>(tpp, "g1", false));
+		assertEquals(2, acks.size());
+		assertEquals(2L, acks.get(0).getMsgSeq());
+		assertEquals(1L, acks.get(1).getMsgSeq());
+		assertEquals(201L, acks.get(1).getOnMessageEndTimeMillis());
+	}
+
 	// @Test
 	// public void test() {
 	// AckMessageCommand cmd = new AckMessageCommand();
@@ -0,0 +1,111 @@
+package com.ctrip.hermes.remoting.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import com.ctrip.hermes.core.message.TppConsumerMessageBatch;
+import com.ctrip.hermes.core.message.TppConsumerMessageBatch.MessageMeta;
+import com.ctrip.hermes.core.transport.TransferCallback;
+import com.ctrip.hermes.core.transport.command.FetchMessageCommand;
+import com.ctrip.hermes.core.transport.command.Header;
+import com.ctrip.hermes.core.transport.command.PullMessageCommand;
+import com.ctrip.hermes.core.transport.command.PullMessageResultCommand;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class FetchMessageCommandTest {
+
+	@Test
+	public void testEncodeAndDecode() {
+		FetchMessageCommand cmd = new FetchMessageCommand();
+		cmd.addPull(new PullMessageCommand("t1", 0, "g1", 10, 2000L));
+		cmd.addPull(new PullMessageCommand("t2", 3, "g1", 20, 1000L));
+
+		ByteBuf buf = Unpooled.buffer();
+		cmd.toBytes(buf);
+
+		FetchMessageCommand decodedCmd = new FetchMessageCommand();
+		Header header = new Header();
+		header.parse(buf);
+		decodedCmd.parse(buf, header);
+
+		// expires with the earliest pull
+		assertEquals(1000L, decodedCmd.getExpireTime());
+		assertEquals(cmd.getHeader().getCorrelationId(), decodedCmd.getHeader().getCorrelationId());
+		assertEquals(2, decodedCmd.getPulls().size());
+
+		PullMessageCommand pull = decodedCmd.getPulls().get(1);
+		assertEquals("t2", pull.getTopic());
+		assertEquals(3, pull.getPartition());
+		assertEquals("g1", pull.getGroupId());
+		assertEquals(20, pull.getSize());
+		assertEquals(1000L, pull.getExpireTime());
+	}
+
+	@Test
+	public void testSplitResult() throws InterruptedException, ExecutionException {
+		PullMessageResultCommand result = new PullMessageResultCommand();
+		result.addBatches(Arrays.asList(createBatch("t1", 0, 1), createBatch("t2", 3, 2), createBatch("t1", 0, 3)));
+		ByteBuf buf = Unpooled.buffer();
+		result.toBytes(buf);
+
+		PullMessageResultCommand decodedResult = new PullMessageResultCommand();
+		Header header = new Header();
+		header.parse(buf);
+		decodedResult.parse(buf, header);
+
+		FetchMessageCommand cmd = new FetchMessageCommand();
+		PullMessageCommand pull1 = createPull("t1", 0);
+		PullMessageCommand pull2 = createPull("t2", 3);
+		PullMessageCommand pull3 = createPull("t3", 0);
+		cmd.addPull(pull1);
+		cmd.addPull(pull2);
+		cmd.addPull(pull3);
+
+		cmd.onResultReceived(decodedResult);
+
+		PullMessageResultCommand result1 = pull1.getFuture().get();
+		PullMessageResultCommand result2 = pull2.getFuture().get();
+		PullMessageResultCommand result3 = pull3.getFuture().get();
+		assertEquals(2, result1.getBatches().size());
+		assertEquals(1L, result1.getBatches().get(0).getMessageMetas().get(0).getId());
+		assertEquals(3L, result1.getBatches().get(1).getMessageMetas().get(0).getId());
+		assertEquals(1, result2.getBatches().size());
+		assertEquals("t2", result2.getBatches().get(0).getTopic());
+		assertTrue(result3.getBatches().isEmpty());
+
+		// the fetch released its own reference, each sub result holds one
+		assertEquals(3, buf.refCnt());
+		result1.release();
+		result2.release();
+		result3.release();
+		assertEquals(0, buf.refCnt());
+	}
+
+	private PullMessageCommand createPull(String topic, int partition) {
+		PullMessageCommand pull = new PullMessageCommand(topic, partition, "g1", 10, 1000L);
+		pull.setFuture(SettableFuture.<PullMessageResultCommand> create());
+		return pull;
+	}
+
+	private TppConsumerMessageBatch createBatch(String topic, int partition, long msgSeq) {
+		TppConsumerMessageBatch batch = new TppConsumerMessageBatch();
+		batch.setTopic(topic);
+		batch.setPartition(partition);
+		batch.addMessageMeta(new MessageMeta(msgSeq, 0, msgSeq, 0, false));
+		batch.setTransferCallback(new TransferCallback() {
+
+			@Override
+			public void transfer(ByteBuf out) {
+				out.writeInt(0);
+			}
+		});
+		return batch;
+	}
+}
@@ -1,9 +1,12 @@
 package com.ctrip.hermes.remoting.command;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -71,6 +74,72 @@ public class SendMessageCommandTest extends ComponentTestCase {
 
 	}
 
+	@Test
+	public void testDecodeLazy() {
+		String topic = "topic1";
+
+		Map<String, String> durableProps = new HashMap<>();
+		durableProps.put("dkey", "dvalue");
+
+		ProducerMessage<String> msg = createProducerMessage(topic, "body", "key", "partition", 100, true, durableProps,
+		      new HashMap<String, String>());
+
+		MessageCodec codec = lookup(MessageCodec.class);
+
+		ByteBuf buf = Unpooled.buffer();
+		codec.encode(msg, buf);
+		codec.encode(msg, buf);
+
+		BaseConsumerMessage<?> cmsg1 = codec.decodeLazy(topic, buf, String.class);
+		BaseConsumerMessage<?> cmsg2 = codec.decodeLazy(topic, buf, String.class);
+		buf.release();
+
+		// undecoded messages don't keep the buffer alive
+		assertEquals(0, buf.refCnt());
+		assertEquals("key", cmsg1.getRefKey());
+		assertEquals("dvalue", cmsg1.getDurableAppProperty("dkey"));
+
+		assertEquals(msg.getBody(), cmsg1.getBody());
+		assertTrue(cmsg1.ack());
+		assertEquals(msg.getBody(), cmsg1.getBody());
+
+		assertTrue(cmsg2.nack());
+		assertEquals(msg.getBody(), cmsg2.getBody());
+	}
+
+	@Test
+	public void testToByteBufWithEncodedMessages() {
+		String topic = "topic";
+		int partition = 100;
+		MessageCodec codec = lookup(MessageCodec.class);
+
+		SendMessageCommand cmd = new SendMessageCommand(topic, partition);
+		SendMessageCommand encodedCmd = new SendMessageCommand(topic, partition);
+		encodedCmd.getHeader().setCorrelationId(cmd.getHeader().getCorrelationId());
+
+		List<ByteBuf> frames = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			ProducerMessage<String> msg = createProducerMessage(topic, "body" + i, "key" + i, "partition", partition,
+			      i % 2 == 0, new HashMap<String, String>(), new HashMap<String, String>());
+			ByteBuf frame = Unpooled.buffer();
+			codec.encode(msg, frame);
+			frames.add(frame);
+
+			cmd.addMessage(msg, SettableFuture.<SendResult> create());
+			encodedCmd.addMessage(msg, frame, SettableFuture.<SendResult> create());
+		}
+
+		ByteBuf expected = cmd.toByteBuf(UnpooledByteBufAllocator.DEFAULT);
+		ByteBuf actual = encodedCmd.toByteBuf(UnpooledByteBufAllocator.DEFAULT);
+		assertEquals(expected, actual);
+
+		// frames are retained by the written buffer only
+		actual.release();
+		for (ByteBuf frame : frames) {
+			assertEquals(1, frame.refCnt());
+		}
+	}
+
 	@Test
 	public void testEncodeAndDecodeWithSinglePriorityMessage() {
 		String topic = "topic";
@@ -0,0 +1,41 @@
+package com.ctrip.hermes.utils;
+
+import static org.junit.Assert.assertEquals;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ctrip.hermes.core.utils.ChecksumUtil;
+import com.ctrip.hermes.core.utils.Crc32C;
+
+public class ChecksumUtilTest {
+
+	@Test
+	public void testCrc32cCheckValue() {
+		byte[] bytes = "123456789".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(0xE3069283L, ChecksumUtil.crc32c(Unpooled.wrappedBuffer(bytes)));
+
+		Crc32C crc32c = new Crc32C();
+		crc32c.update(bytes, 0, bytes.length);
+		assertEquals(0xE3069283L, crc32c.getValue());
+	}
+
+	@Test
+	public void testCrc32cHeapAndDirectAgree() {
+		byte[] bytes = new byte[20000];
+		new Random(1).nextBytes(bytes);
+
+		Crc32C expected = new Crc32C();
+		expected.update(bytes, 100, 19000);
+
+		ByteBuf heap = Unpooled.wrappedBuffer(bytes).slice(100, 19000);
+		ByteBuf direct = Unpooled.directBuffer(bytes.length).writeBytes(bytes).slice(100, 19000);
+		assertEquals(expected.getValue(), ChecksumUtil.crc32c(heap));
+		assertEquals(expected.getValue(), ChecksumUtil.crc32c(direct));
+		assertEquals(0, direct.readerIndex());
+	}
+}
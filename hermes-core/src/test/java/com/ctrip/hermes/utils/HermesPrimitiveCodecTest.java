@@ -1,7 +1,10 @@
 package com.ctrip.hermes.utils;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 
@@ -13,6 +16,7 @@ import org.junit.Test;
 import org.unidal.lookup.ComponentTestCase;
 
 import com.ctrip.hermes.core.utils.HermesPrimitiveCodec;
+import com.google.common.base.Charsets;
 
 public class HermesPrimitiveCodecTest extends ComponentTestCase {
 
@@ -186,6 +190,77 @@ public class HermesPrimitiveCodecTest extends ComponentTestCase {
 		assertEquals(raw, decoded);
 	}
 
+	@Test
+	public void testStringSameBytesAsGetBytes() {
+		// 2, 3 and 4 bytes chars, a malformed surrogate and a direct buffer
+		String[] strs = { "", "ascii", "\u00e9t\u00e9", "\u4e2d\u6587", "\ud83d\ude00 emoji", "bad \ud83d surrogate",
+		      "trailing \ud83d" };
+		for (ByteBuf buf : new ByteBuf[] { Unpooled.buffer(1), Unpooled.directBuffer(1) }) {
+			HermesPrimitiveCodec codec = new HermesPrimitiveCodec(buf);
+			for (String str : strs) {
+				buf.clear();
+				codec.writeString(str);
+
+				byte[] expected = str.getBytes(Charsets.UTF_8);
+				assertEquals(expected.length, buf.getInt(0));
+				byte[] actual = new byte[expected.length];
+				buf.getBytes(4, actual);
+				assertArrayEquals(expected, actual);
+
+				assertEquals(new String(expected, Charsets.UTF_8), codec.readString());
+			}
+		}
+	}
+
+	@Test
+	public void testCachedString() {
+		ByteBuf buf = Unpooled.buffer();
+
+		HermesPrimitiveCodec codec = new HermesPrimitiveCodec(buf);
+		codec.writeString("topic.cached");
+		codec.writeString("topic.cached");
+		codec.writeString(null);
+
+		String first = codec.readCachedString();
+		assertEquals("topic.cached", first);
+		assertSame(first, codec.readCachedString());
+		assertNull(codec.readCachedString());
+	}
+
+	@Test
+	public void testLazyStringStringMap() {
+		Map<String, String> raw = new HashMap<>();
+		raw.put("APP.key", "value");
+		raw.put("\u4e2d\u6587", "\u4e2d\u6587-value");
+		raw.put("nullValue", null);
+		raw.put(null, "nullKey");
+
+		ByteBuf buf = Unpooled.buffer();
+
+		HermesPrimitiveCodec codec = new HermesPrimitiveCodec(buf);
+		codec.writeStringStringMap(raw);
+		codec.writeStringStringMap(null);
+		codec.writeInt(7);
+
+		Map<String, String> decoded = codec.readLazyStringStringMap();
+		assertNull(codec.readLazyStringStringMap());
+		assertEquals(7, codec.readInt());
+		buf.release();
+
+		assertEquals(4, decoded.size());
+		assertEquals("value", decoded.get("APP.key"));
+		assertEquals("\u4e2d\u6587-value", decoded.get("\u4e2d\u6587"));
+		assertEquals("nullKey", decoded.get(null));
+		assertTrue(decoded.containsKey("nullValue"));
+		assertNull(decoded.get("APP.ke"));
+		assertNull(decoded.get("APP.key2"));
+		assertEquals(raw, decoded);
+
+		decoded.put("added", "1");
+		assertEquals("1", decoded.get("added"));
+		assertEquals(5, decoded.size());
+	}
+
 	@Test
 	public void testLongIntMap() {
 		Map<Long, Integer> raw = new HashMap<>();
@@ -0,0 +1,49 @@
+package com.ctrip.hermes.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ctrip.hermes.core.utils.LongObjectHashMap;
+
+public class LongObjectHashMapTest {
+
+	@Test
+	public void testPutGetRemove() {
+		LongObjectHashMap<String> map = new LongObjectHashMap<>();
+		assertNull(map.put(1L, "a"));
+		assertEquals("a", map.put(1L, "b"));
+		assertEquals("b", map.get(1L));
+		assertNull(map.get(2L));
+		assertEquals("b", map.remove(1L));
+		assertNull(map.remove(1L));
+		assertEquals(0, map.size());
+	}
+
+	@Test
+	public void testAgainstHashMap() {
+		LongObjectHashMap<Long> map = new LongObjectHashMap<>(4);
+		Map<Long, Long> expected = new HashMap<>();
+		Random random = new Random(1);
+
+		for (int i = 0; i < 200000; i++) {
+			// narrow key range so puts and removes hit each other and probe chains get long
+			long key = random.nextInt(5000) - 2500L;
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), map.remove(key));
+			} else {
+				assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+
+		for (long key = -2500L; key < 2500L; key++) {
+			assertEquals(expected.get(key), map.get(key));
+		}
+	}
+}
@@ -7,6 +7,7 @@ import org.unidal.lookup.configuration.AbstractResourceConfigurator;
 import org.unidal.lookup.configuration.Component;
 
 import com.ctrip.hermes.core.env.ClientEnvironment;
+import com.ctrip.hermes.core.message.codec.MessageCodec;
 import com.ctrip.hermes.core.message.partition.PartitioningStrategy;
 import com.ctrip.hermes.core.meta.MetaService;
 import com.ctrip.hermes.core.pipeline.PipelineSink;
@@ -67,6 +68,7 @@ public class ComponentsConfigurator extends AbstractResourceConfigurator {
 		      .req(EndpointClient.class)//
 		      .req(ClientEnvironment.class)//
 		      .req(SystemClockService.class)//
+		      .req(MessageCodec.class)//
 		);
 
 		// command processors
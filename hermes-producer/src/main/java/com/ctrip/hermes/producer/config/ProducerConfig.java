@@ -25,6 +25,61 @@ public class ProducerConfig {
 		return 200;
 	}
 
+	/**
+	 * Max SendMessageCommands waiting for broker's acceptance per topic-partition. With more than one, a rejected
+	 * command may be resent after later commands were accepted, so keep it 1 if message order matters.
+	 */
+	public String getDefaultBrokerSenderMaxInFlightCommands() {
+		return "1";
+	}
+
+	/**
+	 * A batch is closed once it reaches this many encoded bytes, even if it has less messages than the batch size.
+	 */
+	public String getDefaultBrokerSenderBatchSizeBytes() {
+		return "262144";
+	}
+
+	/**
+	 * How long a message may wait in the task queue for its batch to fill up.
+	 */
+	public String getDefaultBrokerSenderLingerMillis() {
+		return "10";
+	}
+
+	/**
+	 * Max bytes of encoded messages waiting to be accepted by broker, shared by all topic-partitions.
+	 */
+	public String getDefaultBrokerSenderBufferPoolSizeBytes() {
+		return "67108864";
+	}
+
+	/**
+	 * What to do when the buffer pool or the task queue is full: block, fail or drop.
+	 */
+	public String getDefaultBrokerSenderBufferFullPolicy() {
+		return "block";
+	}
+
+	public String getDefaultBrokerSenderBufferFullBlockTimeoutMillis() {
+		return "1000";
+	}
+
+	/**
+	 * Whether messages without partition key stick to one partition until its batch is closed, instead of a random
+	 * partition per message.
+	 */
+	public String getDefaultBrokerSenderStickyPartitioningEnabled() {
+		return "false";
+	}
+
+	/**
+	 * Whether the sticky partition is picked by broker acceptance latency of partitions instead of evenly.
+	 */
+	public String getDefaultBrokerSenderStickyPartitioningLatencyWeighted() {
+		return "false";
+	}
+
 	public String getDefaultBrokerSenderTaskQueueSize() {
 		return "10000";
 	}
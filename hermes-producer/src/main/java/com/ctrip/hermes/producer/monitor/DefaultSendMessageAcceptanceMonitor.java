@@ -1,15 +1,14 @@
 package com.ctrip.hermes.producer.monitor;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Future;
-import java.util.concurrent.locks.ReentrantLock;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.unidal.lookup.annotation.Named;
 
+import com.ctrip.hermes.core.transport.command.SendMessageAckCommand;
+import com.ctrip.hermes.core.transport.monitor.RequestTracker;
+import com.ctrip.hermes.core.transport.monitor.RequestTracker.TimeoutHandler;
 import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.ListenableFuture;
 
 /**
  * @author Leo Liang(jhliang@ctrip.com)
@@ -19,41 +18,36 @@ import com.google.common.util.concurrent.AbstractFuture;
 public class DefaultSendMessageAcceptanceMonitor implements SendMessageAcceptanceMonitor {
 	private static final Logger log = LoggerFactory.getLogger(DefaultSendMessageAcceptanceMonitor.class);
 
-	private Map<Long, CancelableFuture> m_futures = new ConcurrentHashMap<>();
+	private RequestTracker<CancelableFuture> m_futures = new RequestTracker<>(new TimeoutHandler<CancelableFuture>() {
 
-	private ReentrantLock m_lock = new ReentrantLock();
+		@Override
+		public void onTimeout(long correlationId, CancelableFuture future) {
+			future.cancel(true);
+		}
+	});
 
 	@Override
-	public Future<Boolean> monitor(long correlationId) {
+	public ListenableFuture<SendMessageAckCommand> monitor(long correlationId, long timeoutMillis) {
 		CancelableFuture future = new CancelableFuture(correlationId);
-		m_lock.lock();
-		try {
-			m_futures.put(correlationId, future);
-		} finally {
-			m_lock.unlock();
-		}
+		m_futures.track(correlationId, future, timeoutMillis);
 		return future;
 	}
 
 	@Override
-	public void received(long correlationId, boolean success) {
+	public void received(SendMessageAckCommand ack) {
+		long correlationId = ack.getHeader().getCorrelationId();
 		if (log.isDebugEnabled()) {
-			log.debug("Broker acceptance result is {} for correlationId {}", success, correlationId);
+			log.debug("Broker acceptance result is {} for correlationId {}", ack.isSuccess(), correlationId);
 		}
 
-		m_lock.lock();
-		try {
-			CancelableFuture future = m_futures.remove(correlationId);
-			if (future != null) {
-				future.set(success);
-			}
-		} finally {
-			m_lock.unlock();
+		CancelableFuture future = m_futures.remove(correlationId);
+		if (future != null) {
+			future.set(ack);
 		}
 
 	}
 
-	private class CancelableFuture extends AbstractFuture<Boolean> {
+	private class CancelableFuture extends AbstractFuture<SendMessageAckCommand> {
 		private long m_correlationId;
 
 		public CancelableFuture(long correlationId) {
@@ -61,19 +55,14 @@ public class DefaultSendMessageAcceptanceMonitor implements SendMessageAcceptanc
 		}
 
 		@Override
-		public boolean set(Boolean value) {
+		public boolean set(SendMessageAckCommand value) {
 			return super.set(value);
 		}
 
 		@Override
 		public boolean cancel(boolean mayInterruptIfRunning) {
 			super.cancel(mayInterruptIfRunning);
-			m_lock.lock();
-			try {
-				m_futures.remove(m_correlationId);
-			} finally {
-				m_lock.unlock();
-			}
+			m_futures.remove(m_correlationId);
 			return true;
 		}
 	}
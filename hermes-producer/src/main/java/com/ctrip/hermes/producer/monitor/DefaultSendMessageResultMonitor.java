@@ -1,14 +1,7 @@
 package com.ctrip.hermes.producer.monitor;
 
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 
-import org.codehaus.plexus.personality.plexus.lifecycle.phase.Initializable;
-import org.codehaus.plexus.personality.plexus.lifecycle.phase.InitializationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.unidal.lookup.annotation.Inject;
@@ -19,7 +12,8 @@ import com.ctrip.hermes.core.message.ProducerMessage;
 import com.ctrip.hermes.core.service.SystemClockService;
 import com.ctrip.hermes.core.transport.command.SendMessageCommand;
 import com.ctrip.hermes.core.transport.command.SendMessageResultCommand;
-import com.ctrip.hermes.core.utils.HermesThreadFactory;
+import com.ctrip.hermes.core.transport.monitor.RequestTracker;
+import com.ctrip.hermes.core.transport.monitor.RequestTracker.TimeoutHandler;
 import com.dianping.cat.Cat;
 import com.dianping.cat.message.Transaction;
 import com.dianping.cat.message.spi.MessageTree;
@@ -29,38 +23,33 @@ import com.dianping.cat.message.spi.MessageTree;
  *
  */
 @Named(type = SendMessageResultMonitor.class)
-public class DefaultSendMessageResultMonitor implements SendMessageResultMonitor, Initializable {
+public class DefaultSendMessageResultMonitor implements SendMessageResultMonitor {
 	private static final Logger log = LoggerFactory.getLogger(DefaultSendMessageResultMonitor.class);
 
 	@Inject
 	private SystemClockService m_systemClockService;
 
-	private Map<Long, SendMessageCommand> m_cmds = new ConcurrentHashMap<>();
+	private RequestTracker<SendMessageCommand> m_cmds = new RequestTracker<>(new TimeoutHandler<SendMessageCommand>() {
 
-	private ReentrantLock m_lock = new ReentrantLock();
+		@Override
+		public void onTimeout(long correlationId, SendMessageCommand cmd) {
+			if (log.isDebugEnabled()) {
+				log.debug("No result received for SendMessageCommand(correlationId={}) until timeout", correlationId);
+			}
+		}
+	});
 
 	@Override
 	public void monitor(SendMessageCommand cmd) {
 		if (cmd != null) {
-			m_lock.lock();
-			try {
-				m_cmds.put(cmd.getHeader().getCorrelationId(), cmd);
-			} finally {
-				m_lock.unlock();
-			}
+			m_cmds.track(cmd.getHeader().getCorrelationId(), cmd, cmd.getExpireTime() - m_systemClockService.now());
 		}
 	}
 
 	@Override
 	public void resultReceived(SendMessageResultCommand result) {
 		if (result != null) {
-			SendMessageCommand sendMessageCommand = null;
-			m_lock.lock();
-			try {
-				sendMessageCommand = m_cmds.remove(result.getHeader().getCorrelationId());
-			} finally {
-				m_lock.unlock();
-			}
+			SendMessageCommand sendMessageCommand = m_cmds.remove(result.getHeader().getCorrelationId());
 			if (sendMessageCommand != null) {
 				try {
 					sendMessageCommand.onResultReceived(result);
@@ -92,37 +81,4 @@ public class DefaultSendMessageResultMonitor implements SendMessageResultMonitor
 			}
 		}
 	}
-
-	@Override
-	public void initialize() throws InitializationException {
-		Executors.newSingleThreadScheduledExecutor(
-		      HermesThreadFactory.create("SendMessageResultMonitor-HouseKeeper", true)).scheduleWithFixedDelay(
-		      new Runnable() {
-
-			      @Override
-			      public void run() {
-				      try {
-					      m_lock.lock();
-					      try {
-						      for (Map.Entry<Long, SendMessageCommand> entry : m_cmds.entrySet()) {
-							      SendMessageCommand cmd = entry.getValue();
-							      Long correlationId = entry.getKey();
-							      if (cmd.getExpireTime() < m_systemClockService.now()) {
-								      m_cmds.remove(correlationId);
-							      }
-						      }
-
-					      } finally {
-						      m_lock.unlock();
-					      }
-
-				      } catch (Exception e) {
-					      // ignore
-					      if (log.isDebugEnabled()) {
-						      log.debug("Exception occurred while running SendMessageResultMonitor-HouseKeeper", e);
-					      }
-				      }
-			      }
-		      }, 5, 5, TimeUnit.SECONDS);
-	}
 }
@@ -1,6 +1,7 @@
 package com.ctrip.hermes.producer.monitor;
 
-import java.util.concurrent.Future;
+import com.ctrip.hermes.core.transport.command.SendMessageAckCommand;
+import com.google.common.util.concurrent.ListenableFuture;
 
 /**
  * @author Leo Liang(jhliang@ctrip.com)
@@ -8,8 +9,13 @@ import java.util.concurrent.Future;
  */
 public interface SendMessageAcceptanceMonitor {
 
-	public Future<Boolean> monitor(long correlationId);
+	/**
+	 * The returned future is completed when broker's acceptance arrives, callbacks can be attached to it instead of
+	 * blocking on it. Cancel it to stop monitoring, it's cancelled automatically if nothing arrives in
+	 * <code>timeoutMillis</code>.
+	 */
+	public ListenableFuture<SendMessageAckCommand> monitor(long correlationId, long timeoutMillis);
 
-	public void received(long correlationId, boolean success);
+	public void received(SendMessageAckCommand ack);
 
 }
@@ -37,6 +37,11 @@ public abstract class AbstractMessageSender implements MessageSender {
 	@Inject
 	protected SendMessageResultMonitor m_messageResultMonitor;
 
+	/**
+	 * Partitions messages without partition key if set, otherwise {@link #m_partitioningAlgo} does.
+	 */
+	protected StickyPartitioner m_stickyPartitioner;
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -51,8 +56,16 @@ public abstract class AbstractMessageSender implements MessageSender {
 	protected abstract Future<SendResult> doSend(ProducerMessage<?> msg);
 
 	protected void preSend(ProducerMessage<?> msg) {
-		int partitionNo = m_partitioningAlgo.computePartitionNo(msg.getPartitionKey(),
-		      m_metaService.listPartitionsByTopic(msg.getTopic()).size());
+		int partitionCount = m_metaService.listPartitionsByTopic(msg.getTopic()).size();
+		int partitionNo;
+		if (msg.getPartitionKey() == null && m_stickyPartitioner != null) {
+			partitionNo = m_stickyPartitioner.computePartitionNo(msg.getTopic(), partitionCount);
+		} else if (msg.getPartitionKey() == null) {
+			partitionNo = m_partitioningAlgo.computePartitionNo(null, partitionCount);
+		} else {
+			partitionNo = m_partitioningAlgo.computePartitionNo(msg.getPartitionKey(), partitionCount,
+			      m_metaService.findTopicByName(msg.getTopic()));
+		}
 		msg.setPartition(partitionNo);
 	}
 
@@ -1,21 +1,25 @@
 package com.ctrip.hermes.producer.sender;
 
+import io.netty.buffer.ByteBuf;
+
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Disposable;
 import org.codehaus.plexus.personality.plexus.lifecycle.phase.Initializable;
 import org.codehaus.plexus.personality.plexus.lifecycle.phase.InitializationException;
 import org.slf4j.Logger;
@@ -25,23 +29,32 @@ import org.unidal.lookup.annotation.Named;
 import org.unidal.tuple.Pair;
 
 import com.ctrip.hermes.core.env.ClientEnvironment;
+import com.ctrip.hermes.core.exception.MessageSendException;
 import com.ctrip.hermes.core.message.ProducerMessage;
+import com.ctrip.hermes.core.message.codec.MessageCodec;
 import com.ctrip.hermes.core.result.SendResult;
 import com.ctrip.hermes.core.service.SystemClockService;
+import com.ctrip.hermes.core.transport.command.SendMessageAckCommand;
 import com.ctrip.hermes.core.transport.command.SendMessageCommand;
+import com.ctrip.hermes.core.transport.compress.Compression;
 import com.ctrip.hermes.core.utils.HermesThreadFactory;
 import com.ctrip.hermes.meta.entity.Endpoint;
 import com.ctrip.hermes.producer.config.ProducerConfig;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 
 /**
+ * Encoded messages hold bytes of {@link MessageBufferPool} until broker accepts them, or until they fail for good since
+ * the sender is disposed.
+ * 
  * @author Leo Liang(jhliang@ctrip.com)
  *
  */
 @Named(type = MessageSender.class, value = Endpoint.BROKER)
-public class BrokerMessageSender extends AbstractMessageSender implements MessageSender, Initializable {
+public class BrokerMessageSender extends AbstractMessageSender implements MessageSender, Initializable, Disposable {
 
 	private static Logger log = LoggerFactory.getLogger(BrokerMessageSender.class);
 
@@ -54,12 +67,35 @@ public class BrokerMessageSender extends AbstractMessageSender implements Messag
 	@Inject
 	private SystemClockService m_systemClockService;
 
+	@Inject
+	private MessageCodec m_messageCodec;
+
 	private ConcurrentMap<Pair<String, Integer>, TaskQueue> m_taskQueues = new ConcurrentHashMap<>();
 
 	private ExecutorService m_callbackExecutorService;
 
+	private MessageBufferPool m_bufferPool;
+
+	private BufferFullPolicy m_bufferFullPolicy;
+
+	private long m_bufferFullBlockTimeoutMillis;
+
+	private AtomicLong m_droppedMessageCount = new AtomicLong(0);
+
+	private int m_batchSize;
+
+	private int m_batchSizeBytes;
+
+	private long m_lingerMillis;
+
+	private volatile EndpointSender m_endpointSender;
+
+	private ScheduledExecutorService m_endpointSenderExecutor;
+
 	private AtomicBoolean m_started = new AtomicBoolean(false);
 
+	private AtomicBoolean m_closed = new AtomicBoolean(false);
+
 	@Override
 	public Future<SendResult> doSend(ProducerMessage<?> msg) {
 
@@ -71,17 +107,51 @@ public class BrokerMessageSender extends AbstractMessageSender implements Messag
 		m_taskQueues.putIfAbsent(
 		      tp,
 		      new TaskQueue(msg.getTopic(), msg.getPartition(), Integer.valueOf(m_clientEnv.getGlobalConfig()
-		            .getProperty("producer.sender.taskqueue.size", m_config.getDefaultBrokerSenderTaskQueueSize()))));
+		            .getProperty("producer.sender.taskqueue.size", m_config.getDefaultBrokerSenderTaskQueueSize())),
+		            Integer.valueOf(m_clientEnv.getGlobalConfig().getProperty("producer.sender.inflight.max",
+		                  m_config.getDefaultBrokerSenderMaxInFlightCommands()))));
 
 		return m_taskQueues.get(tp).submit(msg);
 	}
 
+	/**
+	 * Messages dropped by {@link BufferFullPolicy#DROP} since started.
+	 */
+	public long getDroppedMessageCount() {
+		return m_droppedMessageCount.get();
+	}
+
 	private void startEndpointSender() {
 		long checkInterval = Long.valueOf(m_clientEnv.getGlobalConfig().getProperty("producer.networkio.interval",
 		      m_config.getDefaultBrokerSenderNetworkIoCheckIntervalMillis()));
 
-		Executors.newSingleThreadScheduledExecutor(HermesThreadFactory.create("ProducerEndpointSender", false))
-		      .scheduleWithFixedDelay(new EndpointSender(), 0, checkInterval, TimeUnit.MILLISECONDS);
+		m_endpointSender = new EndpointSender();
+		m_endpointSenderExecutor = Executors.newSingleThreadScheduledExecutor(HermesThreadFactory.create(
+		      "ProducerEndpointSender", false));
+		m_endpointSenderExecutor.scheduleWithFixedDelay(m_endpointSender, 0, checkInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Fail messages not accepted by broker yet and give their bytes back to the pool. Commands in flight are failed once
+	 * broker rejects them or they time out.
+	 */
+	@Override
+	public void dispose() {
+		if (!m_closed.compareAndSet(false, true)) {
+			return;
+		}
+
+		if (m_endpointSenderExecutor != null) {
+			m_endpointSenderExecutor.shutdownNow();
+			m_endpointSender.m_taskExecThreadPool.shutdownNow();
+		}
+
+		for (TaskQueue queue : m_taskQueues.values()) {
+			queue.failAll();
+		}
+
+		// callbacks of the failed messages still run
+		m_callbackExecutorService.shutdown();
 	}
 
 	private class EndpointSender implements Runnable {
@@ -134,6 +204,10 @@ public class BrokerMessageSender extends AbstractMessageSender implements Messag
 
 	}
 
+	/**
+	 * Sends commands of one topic-partition until its in-flight window is full. It doesn't wait for broker's acceptance,
+	 * which is handled by {@link AcceptanceCallback}.
+	 */
 	private class SendTask implements Runnable {
 
 		private String m_topic;
@@ -154,12 +228,11 @@ public class BrokerMessageSender extends AbstractMessageSender implements Messag
 		@Override
 		public void run() {
 			try {
-				int batchSize = Integer.valueOf(m_clientEnv.getGlobalConfig().getProperty("producer.sender.batchsize",
-				      m_config.getDefaultBrokerSenderBatchSize()));
-				SendMessageCommand cmd = m_taskQueue.peek(batchSize);
-
-				if (cmd != null && sendMessagesToBroker(cmd)) {
-					m_taskQueue.pop();
+				SendMessageCommand cmd = null;
+				while ((cmd = m_taskQueue.pollForSend()) != null) {
+					if (!sendMessagesToBroker(cmd)) {
+						break;
+					}
 				}
 			} catch (Exception e) {
 				// ignore
@@ -172,88 +245,242 @@ public class BrokerMessageSender extends AbstractMessageSender implements Messag
 
 		}
 
-		private boolean sendMessagesToBroker(SendMessageCommand cmd) throws InterruptedException, ExecutionException,
-		      TimeoutException {
+		private boolean sendMessagesToBroker(SendMessageCommand cmd) {
 			Endpoint endpoint = m_endpointManager.getEndpoint(m_topic, m_partition);
 			if (endpoint != null) {
 				cmd.setExpireTime(m_systemClockService.now() + m_config.getSendMessageReadResultTimeoutMillis());
-				Future<Boolean> future = m_messageAcceptanceMonitor.monitor(cmd.getHeader().getCorrelationId());
-				m_messageResultMonitor.monitor(cmd);
-
 				long timeout = m_config.getDefaultBrokerSenderSendTimeoutMillis();
 
-				m_endpointClient.writeCommand(endpoint, cmd, timeout, TimeUnit.MILLISECONDS);
+				final ListenableFuture<SendMessageAckCommand> future = m_messageAcceptanceMonitor.monitor(cmd
+				      .getHeader().getCorrelationId(), timeout);
+				m_messageResultMonitor.monitor(cmd);
+
+				Futures.addCallback(future, new AcceptanceCallback(m_topic, m_partition, m_taskQueue, cmd,
+				      m_systemClockService.now()), MoreExecutors.sameThreadExecutor());
 
-				Boolean brokerAccepted = null;
 				try {
-					brokerAccepted = future.get(timeout, TimeUnit.MILLISECONDS);
-				} catch (TimeoutException e) {
+					m_endpointClient.writeCommand(endpoint, cmd, m_partition, timeout, TimeUnit.MILLISECONDS);
+				} catch (RuntimeException e) {
+					// rejected by the acceptance callback
 					future.cancel(true);
-				}
-
-				if (brokerAccepted != null && brokerAccepted) {
-					return true;
-				} else {
 					return false;
 				}
+
+				return true;
 			} else {
 				// ignore
 				if (log.isDebugEnabled()) {
 					log.debug("No endpoint found, ignore it");
 				}
+				m_taskQueue.rejected(cmd);
 				return false;
 			}
 		}
 	}
 
-	private class TaskQueue {
+	class AcceptanceCallback implements FutureCallback<SendMessageAckCommand> {
+
+		private Pair<String, Integer> m_tp;
+
+		private TaskQueue m_taskQueue;
+
+		private SendMessageCommand m_cmd;
+
+		private long m_sendTime;
+
+		public AcceptanceCallback(String topic, int partition, TaskQueue taskQueue, SendMessageCommand cmd,
+		      long sendTime) {
+			m_tp = new Pair<String, Integer>(topic, partition);
+			m_taskQueue = taskQueue;
+			m_cmd = cmd;
+			m_sendTime = sendTime;
+		}
+
+		@Override
+		public void onSuccess(SendMessageAckCommand ack) {
+			recordLatency();
+			m_taskQueue.setCompressionAccepted(Compression.isAccepted(ack.getHeader()));
+			if (ack.isSuccess()) {
+				// broker has the bytes, they won't be resent
+				for (ByteBuf encoded : m_cmd.getEncodedMessages()) {
+					m_bufferPool.release(encoded);
+				}
+				m_taskQueue.accepted();
+
+				// refill the window now instead of waiting for next EndpointSender round
+				if (m_endpointSender != null && !m_closed.get() && m_taskQueue.hasTask()) {
+					m_endpointSender.scheduleTaskExecution(m_tp, m_taskQueue);
+				}
+			} else {
+				m_taskQueue.rejected(m_cmd);
+			}
+		}
+
+		@Override
+		public void onFailure(Throwable t) {
+			recordLatency();
+			// timeout or write failure, will be resent by next EndpointSender round
+			m_taskQueue.rejected(m_cmd);
+		}
+
+		private void recordLatency() {
+			if (m_stickyPartitioner != null) {
+				m_stickyPartitioner.recordLatency(m_tp.getKey(), m_tp.getValue(), m_systemClockService.now() - m_sendTime);
+			}
+		}
+	}
+
+	class TaskQueue {
 		private String m_topic;
 
 		private int m_partition;
 
-		private AtomicReference<SendMessageCommand> m_cmd = new AtomicReference<>(null);
+		private Pair<String, Integer> m_tp;
+
+		private AtomicLong m_queuedBytes = new AtomicLong(0);
+
+		private int m_maxInFlight;
+
+		private int m_inFlight = 0;
+
+		// brokers older than compression can't decompress, so compress only after the broker announced it
+		private volatile boolean m_compressionAccepted = false;
+
+		// rejected commands, resent before new ones and in the order they were created
+		private PriorityQueue<SendMessageCommand> m_rejectedCmds = new PriorityQueue<>(11,
+		      new Comparator<SendMessageCommand>() {
+
+			      @Override
+			      public int compare(SendMessageCommand c1, SendMessageCommand c2) {
+				      return Long.compare(c1.getHeader().getCorrelationId(), c2.getHeader().getCorrelationId());
+			      }
+		      });
 
 		private BlockingQueue<ProducerWorkerContext> m_queue;
 
-		public TaskQueue(String topic, int partition, int queueSize) {
+		public TaskQueue(String topic, int partition, int queueSize, int maxInFlight) {
 			m_topic = topic;
 			m_partition = partition;
+			m_tp = new Pair<String, Integer>(topic, partition);
 			m_queue = new LinkedBlockingQueue<>(queueSize);
+			m_maxInFlight = Math.max(1, maxInFlight);
+		}
+
+		/**
+		 * @return next command to send, or null if there is nothing to send or the in-flight window is full
+		 */
+		public synchronized SendMessageCommand pollForSend() {
+			if (m_inFlight >= m_maxInFlight) {
+				return null;
+			}
+
+			SendMessageCommand cmd = m_rejectedCmds.poll();
+			if (cmd == null && isBatchReady()) {
+				cmd = createSendMessageCommand();
+			}
+
+			if (cmd != null) {
+				m_inFlight++;
+			}
+			return cmd;
+		}
+
+		public void setCompressionAccepted(boolean compressionAccepted) {
+			m_compressionAccepted = compressionAccepted;
 		}
 
-		public void pop() {
-			m_cmd.set(null);
+		public synchronized void accepted() {
+			m_inFlight--;
 		}
 
-		public SendMessageCommand peek(int size) {
-			if (m_cmd.get() == null) {
-				m_cmd.set(createSendMessageCommand(size));
+		public synchronized void rejected(SendMessageCommand cmd) {
+			m_inFlight--;
+			if (m_closed.get()) {
+				fail(cmd);
+			} else {
+				m_rejectedCmds.offer(cmd);
 			}
-			return m_cmd.get();
 		}
 
-		private SendMessageCommand createSendMessageCommand(int size) {
+		/**
+		 * Fail queued messages and rejected commands, releasing their bytes.
+		 */
+		public synchronized void failAll() {
+			SendMessageCommand cmd;
+			while ((cmd = m_rejectedCmds.poll()) != null) {
+				fail(cmd);
+			}
+
+			ProducerWorkerContext context;
+			while ((context = m_queue.poll()) != null) {
+				m_queuedBytes.addAndGet(-context.m_encoded.readableBytes());
+				m_bufferPool.release(context.m_encoded);
+				context.m_future.setException(new MessageSendException("Producer closed"));
+			}
+		}
+
+		private void fail(SendMessageCommand cmd) {
+			for (ByteBuf encoded : cmd.getEncodedMessages()) {
+				m_bufferPool.release(encoded);
+			}
+			cmd.onFailed(new MessageSendException("Producer closed"));
+		}
+
+		/**
+		 * Close a batch when it reaches the batch size or batch bytes, whichever comes first.
+		 */
+		private SendMessageCommand createSendMessageCommand() {
 			SendMessageCommand cmd = null;
-			List<ProducerWorkerContext> contexts = new ArrayList<>(size);
-			m_queue.drainTo(contexts, size);
-			if (!contexts.isEmpty()) {
-				cmd = new SendMessageCommand(m_topic, m_partition);
-				for (ProducerWorkerContext context : contexts) {
-					cmd.addMessage(context.m_msg, context.m_future);
+			int bytes = 0;
+			while (cmd == null || cmd.getMessageCount() < m_batchSize) {
+				ProducerWorkerContext context = m_queue.peek();
+				if (context == null) {
+					break;
 				}
+
+				int msgBytes = context.m_encoded.readableBytes();
+				if (cmd != null && bytes + msgBytes > m_batchSizeBytes) {
+					break;
+				}
+
+				m_queue.poll();
+				if (cmd == null) {
+					cmd = new SendMessageCommand(m_topic, m_partition);
+					if (m_compressionAccepted) {
+						cmd.setCompression(Compression.valueOf(m_metaService.findTopicByName(m_topic)));
+					}
+				}
+				cmd.addMessage(context.m_msg, context.m_encoded, context.m_future);
+				bytes += msgBytes;
+			}
+
+			m_queuedBytes.addAndGet(-bytes);
+			if (cmd != null && m_stickyPartitioner != null) {
+				m_stickyPartitioner.onBatchClosed(m_topic, m_partition);
 			}
 			return cmd;
 		}
 
-		public boolean hasTask() {
-			return m_cmd.get() != null || !m_queue.isEmpty();
+		/**
+		 * A batch is ready once it is full or its oldest message has waited for the linger time.
+		 */
+		private boolean isBatchReady() {
+			ProducerWorkerContext head = m_queue.peek();
+			if (head == null) {
+				return false;
+			}
+
+			return m_queue.size() >= m_batchSize || m_queuedBytes.get() >= m_batchSizeBytes
+			      || m_systemClockService.now() - head.m_enqueueTime >= m_lingerMillis;
+		}
+
+		public synchronized boolean hasTask() {
+			return m_inFlight < m_maxInFlight && (!m_rejectedCmds.isEmpty() || isBatchReady());
 		}
 
 		public Future<SendResult> submit(final ProducerMessage<?> msg) {
 			SettableFuture<SendResult> future = SettableFuture.create();
 
-			m_queue.offer(new ProducerWorkerContext(msg, future));
-
 			if (msg.getCallback() != null) {
 				Futures.addCallback(future, new FutureCallback<SendResult>() {
 
@@ -269,9 +496,60 @@ public class BrokerMessageSender extends AbstractMessageSender implements Messag
 				}, m_callbackExecutorService);
 			}
 
+			ByteBuf encoded = m_bufferPool.allocate(256);
+			try {
+				m_messageCodec.encode(msg, encoded);
+			} catch (RuntimeException e) {
+				m_bufferPool.discard(encoded);
+				future.setException(new MessageSendException("Encode message failed", e));
+				return future;
+			}
+
+			boolean enqueued = false;
+			try {
+				enqueued = enqueue(new ProducerWorkerContext(msg, encoded, future, m_systemClockService.now()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			if (enqueued) {
+				if (m_closed.get()) {
+					// disposed while enqueuing, not failed by dispose()
+					failAll();
+				} else if (m_queuedBytes.get() >= m_batchSizeBytes && m_endpointSender != null) {
+					// a full batch needn't wait for next EndpointSender round
+					m_endpointSender.scheduleTaskExecution(m_tp, this);
+				}
+			} else if (m_bufferFullPolicy == BufferFullPolicy.DROP) {
+				m_droppedMessageCount.incrementAndGet();
+				future.setException(new MessageSendException("Message dropped since producer buffer is full"));
+			} else {
+				future.setException(new MessageSendException("Producer buffer is full"));
+			}
+
 			return future;
 		}
 
+		private boolean enqueue(ProducerWorkerContext context) throws InterruptedException {
+			long timeout = m_bufferFullPolicy == BufferFullPolicy.BLOCK ? m_bufferFullBlockTimeoutMillis : 0L;
+			long deadline = m_systemClockService.now() + timeout;
+
+			if (!m_bufferPool.reserve(context.m_encoded, timeout)) {
+				m_bufferPool.discard(context.m_encoded);
+				return false;
+			}
+
+			int bytes = context.m_encoded.readableBytes();
+			m_queuedBytes.addAndGet(bytes);
+			if (!m_queue.offer(context, Math.max(0L, deadline - m_systemClockService.now()), TimeUnit.MILLISECONDS)) {
+				m_queuedBytes.addAndGet(-bytes);
+				m_bufferPool.release(context.m_encoded);
+				return false;
+			}
+
+			return true;
+		}
+
 	}
 
 	@Override
@@ -282,18 +560,75 @@ public class BrokerMessageSender extends AbstractMessageSender implements Messag
 		m_callbackExecutorService = Executors.newFixedThreadPool(callbackThreadCount,
 		      HermesThreadFactory.create("ProducerCallback", false));
 
+		m_batchSize = Integer.valueOf(m_clientEnv.getGlobalConfig().getProperty("producer.sender.batchsize",
+		      m_config.getDefaultBrokerSenderBatchSize()));
+		m_batchSizeBytes = Integer.valueOf(m_clientEnv.getGlobalConfig().getProperty("producer.sender.batchsize.bytes",
+		      m_config.getDefaultBrokerSenderBatchSizeBytes()));
+		m_lingerMillis = Long.valueOf(m_clientEnv.getGlobalConfig().getProperty("producer.sender.linger",
+		      m_config.getDefaultBrokerSenderLingerMillis()));
+
+		m_bufferPool = new MessageBufferPool(Long.valueOf(m_clientEnv.getGlobalConfig().getProperty(
+		      "producer.sender.bufferpool.size", m_config.getDefaultBrokerSenderBufferPoolSizeBytes())));
+		m_bufferFullPolicy = BufferFullPolicy.fromString(m_clientEnv.getGlobalConfig().getProperty(
+		      "producer.sender.bufferfull.policy", m_config.getDefaultBrokerSenderBufferFullPolicy()));
+		m_bufferFullBlockTimeoutMillis = Long.valueOf(m_clientEnv.getGlobalConfig().getProperty(
+		      "producer.sender.bufferfull.block.timeout", m_config.getDefaultBrokerSenderBufferFullBlockTimeoutMillis()));
+
+		if (Boolean.valueOf(m_clientEnv.getGlobalConfig().getProperty("producer.partitioner.sticky",
+		      m_config.getDefaultBrokerSenderStickyPartitioningEnabled()))) {
+			m_stickyPartitioner = new StickyPartitioner(Boolean.valueOf(m_clientEnv.getGlobalConfig().getProperty(
+			      "producer.partitioner.sticky.latency.weighted",
+			      m_config.getDefaultBrokerSenderStickyPartitioningLatencyWeighted())));
+		}
+
 	}
 
 	private static class ProducerWorkerContext {
 		private ProducerMessage<?> m_msg;
 
+		private ByteBuf m_encoded;
+
 		private SettableFuture<SendResult> m_future;
 
-		public ProducerWorkerContext(ProducerMessage<?> msg, SettableFuture<SendResult> future) {
+		private long m_enqueueTime;
+
+		public ProducerWorkerContext(ProducerMessage<?> msg, ByteBuf encoded, SettableFuture<SendResult> future,
+		      long enqueueTime) {
 			m_msg = msg;
+			m_encoded = encoded;
 			m_future = future;
+			m_enqueueTime = enqueueTime;
 		}
 
 	}
 
+	/**
+	 * What {@link BrokerMessageSender#send(ProducerMessage)} does when the buffer pool or the task queue is full.
+	 */
+	public static enum BufferFullPolicy {
+		/**
+		 * wait for room up to the block timeout, then fail
+		 */
+		BLOCK,
+		/**
+		 * fail the message immediately
+		 */
+		FAIL,
+		/**
+		 * fail the message immediately and count it in {@link BrokerMessageSender#getDroppedMessageCount()}
+		 */
+		DROP;
+
+		public static BufferFullPolicy fromString(String policy) {
+			for (BufferFullPolicy value : values()) {
+				if (value.name().equalsIgnoreCase(policy == null ? null : policy.trim())) {
+					return value;
+				}
+			}
+
+			log.warn("Unknown producer buffer full policy {}, use {}", policy, BLOCK);
+			return BLOCK;
+		}
+	}
+
 }
@@ -0,0 +1,111 @@
+package com.ctrip.hermes.producer.sender;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded pool of direct buffers holding encoded messages until broker accepts them.
+ * <p>
+ * Buffers come from netty's pooled allocator so the memory is reused, this class only bounds the total bytes handed
+ * out. A buffer is encoded first and then {@link #reserve(ByteBuf, long)}d with its readable bytes, so the buffer must
+ * not be read or written until it is {@link #release(ByteBuf)}d.
+ */
+public class MessageBufferPool {
+
+	private long m_totalBytes;
+
+	private long m_availableBytes;
+
+	private ByteBufAllocator m_allocator;
+
+	private ReentrantLock m_lock = new ReentrantLock();
+
+	private Condition m_bytesReleased = m_lock.newCondition();
+
+	public MessageBufferPool(long totalBytes) {
+		this(totalBytes, PooledByteBufAllocator.DEFAULT);
+	}
+
+	public MessageBufferPool(long totalBytes, ByteBufAllocator allocator) {
+		m_totalBytes = totalBytes;
+		m_availableBytes = totalBytes;
+		m_allocator = allocator;
+	}
+
+	/**
+	 * @return a buffer not counted in the pool yet, {@link #reserve(ByteBuf, long)} or {@link #discard(ByteBuf)} it
+	 */
+	public ByteBuf allocate(int initialCapacity) {
+		return m_allocator.directBuffer(initialCapacity);
+	}
+
+	/**
+	 * Count <code>buf</code>'s readable bytes in the pool, waiting up to <code>timeoutMillis</code> for other buffers
+	 * being released if the pool is exhausted.
+	 *
+	 * @return false if there is still no room after <code>timeoutMillis</code>
+	 */
+	public boolean reserve(ByteBuf buf, long timeoutMillis) throws InterruptedException {
+		int size = buf.readableBytes();
+		if (size > m_totalBytes) {
+			return false;
+		}
+
+		long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		m_lock.lock();
+		try {
+			while (m_availableBytes < size) {
+				if (nanos <= 0) {
+					return false;
+				}
+				nanos = m_bytesReleased.awaitNanos(nanos);
+			}
+			m_availableBytes -= size;
+			return true;
+		} finally {
+			m_lock.unlock();
+		}
+	}
+
+	/**
+	 * Give a reserved buffer back to the pool.
+	 */
+	public void release(ByteBuf buf) {
+		int size = buf.readableBytes();
+		buf.release();
+
+		m_lock.lock();
+		try {
+			m_availableBytes += size;
+			m_bytesReleased.signalAll();
+		} finally {
+			m_lock.unlock();
+		}
+	}
+
+	/**
+	 * Free a buffer which was never reserved.
+	 */
+	public void discard(ByteBuf buf) {
+		buf.release();
+	}
+
+	public long getTotalBytes() {
+		return m_totalBytes;
+	}
+
+	public long getAvailableBytes() {
+		m_lock.lock();
+		try {
+			return m_availableBytes;
+		} finally {
+			m_lock.unlock();
+		}
+	}
+
+}
@@ -0,0 +1,127 @@
+package com.ctrip.hermes.producer.sender;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.unidal.tuple.Pair;
+
+/**
+ * Partitioner for messages without partition key.
+ * <p>
+ * All keyless messages of a topic go to one partition until a batch of that partition is closed, then another
+ * partition is picked. So keyless messages fill up a few batches instead of being spread into a small batch per
+ * partition. If latency weighted, partitions accepting commands faster are more likely to be picked.
+ */
+public class StickyPartitioner {
+
+	private static final int NONE = -1;
+
+	// weight of the latest sample in the moving average
+	private static final double LATENCY_ALPHA = 0.2;
+
+	private boolean m_latencyWeighted;
+
+	private Random m_random = new Random();
+
+	private ConcurrentMap<String, AtomicInteger> m_stickyPartitions = new ConcurrentHashMap<>();
+
+	private ConcurrentMap<Pair<String, Integer>, LatencyStat> m_latencies = new ConcurrentHashMap<>();
+
+	public StickyPartitioner(boolean latencyWeighted) {
+		m_latencyWeighted = latencyWeighted;
+	}
+
+	public int computePartitionNo(String topic, int partitionCount) {
+		AtomicInteger sticky = m_stickyPartitions.get(topic);
+		if (sticky == null) {
+			m_stickyPartitions.putIfAbsent(topic, new AtomicInteger(NONE));
+			sticky = m_stickyPartitions.get(topic);
+		}
+
+		while (true) {
+			int partition = sticky.get();
+			if (partition >= 0 && partition < partitionCount) {
+				return partition;
+			}
+
+			int next = nextPartition(topic, partitionCount);
+			if (sticky.compareAndSet(partition, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * Called when a batch of the topic-partition is closed, keyless messages move to another partition if they were
+	 * sticking to this one.
+	 */
+	public void onBatchClosed(String topic, int partition) {
+		AtomicInteger sticky = m_stickyPartitions.get(topic);
+		if (sticky != null) {
+			sticky.compareAndSet(partition, NONE);
+		}
+	}
+
+	/**
+	 * Record how long the broker took to accept a command of the topic-partition, used only if latency weighted.
+	 */
+	public void recordLatency(String topic, int partition, long latencyMillis) {
+		if (!m_latencyWeighted) {
+			return;
+		}
+
+		Pair<String, Integer> tp = new Pair<String, Integer>(topic, partition);
+		LatencyStat stat = m_latencies.get(tp);
+		if (stat == null) {
+			m_latencies.putIfAbsent(tp, new LatencyStat());
+			stat = m_latencies.get(tp);
+		}
+		stat.record(latencyMillis);
+	}
+
+	private int nextPartition(String topic, int partitionCount) {
+		if (partitionCount <= 1) {
+			return 0;
+		}
+
+		if (!m_latencyWeighted) {
+			return m_random.nextInt(partitionCount);
+		}
+
+		// weight is inverse of average latency, partitions without samples are weighted as zero latency
+		double[] weights = new double[partitionCount];
+		double totalWeight = 0;
+		for (int i = 0; i < partitionCount; i++) {
+			LatencyStat stat = m_latencies.get(new Pair<String, Integer>(topic, i));
+			weights[i] = 1.0 / (1.0 + (stat == null ? 0 : stat.getAverage()));
+			totalWeight += weights[i];
+		}
+
+		double r = m_random.nextDouble() * totalWeight;
+		for (int i = 0; i < partitionCount; i++) {
+			r -= weights[i];
+			if (r < 0) {
+				return i;
+			}
+		}
+		return partitionCount - 1;
+	}
+
+	private static class LatencyStat {
+		private double m_average = -1;
+
+		public synchronized void record(long latencyMillis) {
+			if (m_average < 0) {
+				m_average = latencyMillis;
+			} else {
+				m_average = LATENCY_ALPHA * latencyMillis + (1 - LATENCY_ALPHA) * m_average;
+			}
+		}
+
+		public synchronized double getAverage() {
+			return m_average < 0 ? 0 : m_average;
+		}
+	}
+}
@@ -27,8 +27,7 @@ public class SendMessageAckCommandProcessor implements CommandProcessor {
 
 	@Override
 	public void process(CommandProcessorContext ctx) {
-		SendMessageAckCommand cmd = (SendMessageAckCommand) ctx.getCommand();
-		m_messageAcceptanceMonitor.received(cmd.getHeader().getCorrelationId(), cmd.isSuccess());
+		m_messageAcceptanceMonitor.received((SendMessageAckCommand) ctx.getCommand());
 	}
 
 }
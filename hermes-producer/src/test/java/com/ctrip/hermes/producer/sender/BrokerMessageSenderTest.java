@@ -0,0 +1,365 @@
+package com.ctrip.hermes.producer.sender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.unidal.tuple.Pair;
+
+import com.ctrip.hermes.Hermes.Env;
+import com.ctrip.hermes.core.env.ClientEnvironment;
+import com.ctrip.hermes.core.exception.MessageSendException;
+import com.ctrip.hermes.core.message.BaseConsumerMessage;
+import com.ctrip.hermes.core.message.PartialDecodedMessage;
+import com.ctrip.hermes.core.message.ProducerMessage;
+import com.ctrip.hermes.core.message.codec.MessageCodec;
+import com.ctrip.hermes.core.meta.MetaService;
+import com.ctrip.hermes.core.result.SendResult;
+import com.ctrip.hermes.core.service.SystemClockService;
+import com.ctrip.hermes.core.transport.command.SendMessageAckCommand;
+import com.ctrip.hermes.core.transport.command.SendMessageCommand;
+import com.ctrip.hermes.core.transport.compress.Compression;
+import com.ctrip.hermes.meta.entity.Property;
+import com.ctrip.hermes.meta.entity.Topic;
+import com.ctrip.hermes.producer.config.ProducerConfig;
+import com.ctrip.hermes.producer.sender.BrokerMessageSender.TaskQueue;
+
+public class BrokerMessageSenderTest {
+
+	private static final int MESSAGE_BYTES = 10;
+
+	@Test
+	public void testInFlightWindow() throws Exception {
+		BrokerMessageSender sender = createSender(new Properties());
+		TaskQueue queue = sender.new TaskQueue("topic", 0, 100, 2);
+		submit(queue, 5);
+
+		assertNotNull(queue.pollForSend());
+		assertNotNull(queue.pollForSend());
+		assertFalse(queue.hasTask());
+		assertNull(queue.pollForSend());
+
+		queue.accepted();
+		assertTrue(queue.hasTask());
+		assertNotNull(queue.pollForSend());
+		assertNull(queue.pollForSend());
+	}
+
+	@Test
+	public void testRejectedCommandsSentFirstInCreationOrder() throws Exception {
+		BrokerMessageSender sender = createSender(new Properties());
+		TaskQueue queue = sender.new TaskQueue("topic", 0, 100, 3);
+		submit(queue, 5);
+
+		SendMessageCommand cmd1 = queue.pollForSend();
+		SendMessageCommand cmd2 = queue.pollForSend();
+		SendMessageCommand cmd3 = queue.pollForSend();
+		queue.rejected(cmd3);
+		queue.rejected(cmd1);
+
+		// cmd2 is still in flight
+		assertSame(cmd1, queue.pollForSend());
+		assertSame(cmd3, queue.pollForSend());
+		assertNull(queue.pollForSend());
+
+		queue.accepted();
+		SendMessageCommand cmd4 = queue.pollForSend();
+		assertTrue(cmd4 != cmd2);
+		assertTrue(cmd4.getHeader().getCorrelationId() > cmd3.getHeader().getCorrelationId());
+	}
+
+	@Test
+	public void testAcceptanceCallback() throws Exception {
+		BrokerMessageSender sender = createSender(new Properties());
+		TaskQueue queue = sender.new TaskQueue("topic", 0, 100, 1);
+		MessageBufferPool pool = getField(sender, "m_bufferPool");
+		long total = pool.getTotalBytes();
+		submit(queue, 3);
+		assertEquals(total - 3 * MESSAGE_BYTES, pool.getAvailableBytes());
+
+		// not accepted by broker, resent next
+		SendMessageCommand cmd = queue.pollForSend();
+		sender.new AcceptanceCallback("topic", 0, queue, cmd, 0).onSuccess(ack(false));
+		assertSame(cmd, queue.pollForSend());
+
+		// timeout or write failure, resent next
+		sender.new AcceptanceCallback("topic", 0, queue, cmd, 0).onFailure(new IOException());
+		assertSame(cmd, queue.pollForSend());
+
+		// accepted, its buffers are given back and the window moves
+		sender.new AcceptanceCallback("topic", 0, queue, cmd, 0).onSuccess(ack(true));
+		assertEquals(total - 2 * MESSAGE_BYTES, pool.getAvailableBytes());
+		for (ByteBuf encoded : cmd.getEncodedMessages()) {
+			assertEquals(0, encoded.refCnt());
+		}
+		assertTrue(queue.pollForSend() != cmd);
+	}
+
+	@Test
+	public void testCompressOnlyAfterBrokerAccepts() throws Exception {
+		BrokerMessageSender sender = createSender(new Properties());
+		final Topic topic = new Topic("topic").addProperty(new Property(Compression.TOPIC_PROPERTY).setValue("lz4"));
+		setField(sender, "m_metaService", Proxy.newProxyInstance(MetaService.class.getClassLoader(),
+		      new Class<?>[] { MetaService.class }, new InvocationHandler() {
+			      @Override
+			      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				      return "findTopicByName".equals(method.getName()) ? topic : null;
+			      }
+		      }));
+		TaskQueue queue = sender.new TaskQueue("topic", 0, 100, 1);
+		submit(queue, 3);
+
+		// broker not known to decompress yet
+		SendMessageCommand cmd = queue.pollForSend();
+		assertEquals(Compression.NONE, Compression.valueOf(cmd.getHeader()));
+
+		sender.new AcceptanceCallback("topic", 0, queue, cmd, 0).onSuccess(ack(true));
+		cmd = queue.pollForSend();
+		assertEquals(Compression.LZ4, Compression.valueOf(cmd.getHeader()));
+
+		// acks without the announcement come from an older broker
+		SendMessageAckCommand oldAck = ack(true);
+		oldAck.getHeader().getProperties().clear();
+		sender.new AcceptanceCallback("topic", 0, queue, cmd, 0).onSuccess(oldAck);
+		assertEquals(Compression.NONE, Compression.valueOf(queue.pollForSend().getHeader()));
+	}
+
+	@Test
+	public void testBufferFullFail() throws Exception {
+		BrokerMessageSender sender = createSender(bufferFullConfig("fail"));
+		TaskQueue queue = sender.new TaskQueue("topic", 0, 100, 1);
+		submit(queue, 2);
+
+		assertFailed(submit(queue), "Producer buffer is full");
+		assertEquals(0, sender.getDroppedMessageCount());
+	}
+
+	@Test
+	public void testBufferFullDrop() throws Exception {
+		BrokerMessageSender sender = createSender(bufferFullConfig("drop"));
+		TaskQueue queue = sender.new TaskQueue("topic", 0, 100, 1);
+		submit(queue, 2);
+
+		assertFailed(submit(queue), "Message dropped since producer buffer is full");
+		assertFailed(submit(queue), "Message dropped since producer buffer is full");
+		assertEquals(2, sender.getDroppedMessageCount());
+	}
+
+	@Test
+	public void testBufferFullBlock() throws Exception {
+		Properties config = bufferFullConfig("block");
+		config.setProperty("producer.sender.bufferfull.block.timeout", "50");
+		BrokerMessageSender sender = createSender(config);
+		TaskQueue queue = sender.new TaskQueue("topic", 0, 100, 1);
+		submit(queue, 2);
+
+		long start = System.currentTimeMillis();
+		assertFailed(submit(queue), "Producer buffer is full");
+		assertTrue(System.currentTimeMillis() - start >= 50);
+
+		// room is made once broker accepts a command
+		SendMessageCommand cmd = queue.pollForSend();
+		sender.new AcceptanceCallback("topic", 0, queue, cmd, 0).onSuccess(ack(true));
+		assertFalse(submit(queue).isDone());
+	}
+
+	@Test
+	public void testDisposeReleasesBuffers() throws Exception {
+		BrokerMessageSender sender = createSender(new Properties());
+		TaskQueue queue = sender.new TaskQueue("topic", 0, 100, 2);
+		setField(sender, "m_taskQueues", singletonQueues(queue));
+		MessageBufferPool pool = getField(sender, "m_bufferPool");
+		Future<SendResult> rejected = submit(queue);
+		Future<SendResult> inFlight = submit(queue);
+		Future<SendResult> queued = submit(queue);
+
+		SendMessageCommand rejectedCmd = queue.pollForSend();
+		SendMessageCommand inFlightCmd = queue.pollForSend();
+		queue.rejected(rejectedCmd);
+
+		sender.dispose();
+		assertFailed(rejected, "Producer closed");
+		assertFailed(queued, "Producer closed");
+		assertFalse(inFlight.isDone());
+		assertEquals(pool.getTotalBytes() - MESSAGE_BYTES, pool.getAvailableBytes());
+
+		// not accepted after dispose, never resent
+		sender.new AcceptanceCallback("topic", 0, queue, inFlightCmd, 0).onFailure(new IOException());
+		assertFailed(inFlight, "Producer closed");
+		assertEquals(pool.getTotalBytes(), pool.getAvailableBytes());
+		assertNull(queue.pollForSend());
+
+		assertFailed(submit(queue), "Producer closed");
+		assertEquals(pool.getTotalBytes(), pool.getAvailableBytes());
+	}
+
+	private Properties bufferFullConfig(String policy) {
+		Properties config = new Properties();
+		// room for two messages
+		config.setProperty("producer.sender.bufferpool.size", String.valueOf(2 * MESSAGE_BYTES + 1));
+		config.setProperty("producer.sender.bufferfull.policy", policy);
+		return config;
+	}
+
+	private SendMessageAckCommand ack(boolean success) {
+		SendMessageAckCommand ack = new SendMessageAckCommand();
+		ack.setSuccess(success);
+		return ack;
+	}
+
+	private ConcurrentMap<Pair<String, Integer>, TaskQueue> singletonQueues(TaskQueue queue) {
+		ConcurrentMap<Pair<String, Integer>, TaskQueue> queues = new ConcurrentHashMap<>();
+		queues.put(new Pair<String, Integer>("topic", 0), queue);
+		return queues;
+	}
+
+	private void assertFailed(Future<SendResult> future, String message) throws Exception {
+		assertTrue(future.isDone());
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof MessageSendException);
+			assertEquals(message, e.getCause().getMessage());
+			return;
+		}
+		throw new AssertionError("Future should have failed");
+	}
+
+	private void submit(TaskQueue queue, int count) {
+		for (int i = 0; i < count; i++) {
+			submit(queue);
+		}
+	}
+
+	private Future<SendResult> submit(TaskQueue queue) {
+		ProducerMessage<String> msg = new ProducerMessage<>("topic", "body");
+		msg.setPartition(0);
+		return queue.submit(msg);
+	}
+
+	static BrokerMessageSender createSender(Properties globalConfig) throws Exception {
+		final Properties config = new Properties();
+		// one message per batch, sent without lingering
+		config.setProperty("producer.sender.batchsize", "1");
+		config.setProperty("producer.sender.linger", "0");
+		config.putAll(globalConfig);
+
+		BrokerMessageSender sender = new BrokerMessageSender();
+		setField(sender, "m_config", new ProducerConfig());
+		setField(sender, "m_clientEnv", new ClientEnvironment() {
+
+			@Override
+			public Properties getProducerConfig(String topic) throws IOException {
+				return new Properties();
+			}
+
+			@Override
+			public Properties getConsumerConfig(String topic) throws IOException {
+				return new Properties();
+			}
+
+			@Override
+			public Properties getGlobalConfig() {
+				return config;
+			}
+
+			@Override
+			public Env getEnv() {
+				return null;
+			}
+
+			@Override
+			public boolean isLocalMode() {
+				return true;
+			}
+		});
+		setField(sender, "m_systemClockService", new SystemClockService() {
+			@Override
+			public long now() {
+				return System.currentTimeMillis();
+			}
+		});
+		setField(sender, "m_messageCodec", new TestMessageCodec());
+		setField(sender, "m_metaService", Proxy.newProxyInstance(MetaService.class.getClassLoader(),
+		      new Class<?>[] { MetaService.class }, new InvocationHandler() {
+			      @Override
+			      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				      // topics without compression
+				      return null;
+			      }
+		      }));
+		sender.initialize();
+		return sender;
+	}
+
+	static void setField(Object target, String name, Object value) throws Exception {
+		findField(target.getClass(), name).set(target, value);
+	}
+
+	@SuppressWarnings("unchecked")
+	static <T> T getField(Object target, String name) throws Exception {
+		return (T) findField(target.getClass(), name).get(target);
+	}
+
+	private static Field findField(Class<?> clazz, String name) throws NoSuchFieldException {
+		for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+			try {
+				Field field = c.getDeclaredField(name);
+				field.setAccessible(true);
+				return field;
+			} catch (NoSuchFieldException e) {
+				// try super class
+			}
+		}
+		throw new NoSuchFieldException(name);
+	}
+
+	private static class TestMessageCodec implements MessageCodec {
+
+		@Override
+		public void encode(ProducerMessage<?> msg, ByteBuf buf) {
+			buf.writeBytes(new byte[MESSAGE_BYTES]);
+		}
+
+		@Override
+		public byte[] encode(ProducerMessage<?> msg) {
+			return new byte[MESSAGE_BYTES];
+		}
+
+		@Override
+		public PartialDecodedMessage decodePartial(ByteBuf buf) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public BaseConsumerMessage<?> decode(String topic, ByteBuf buf, Class<?> bodyClazz) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public BaseConsumerMessage<?> decodeLazy(String topic, ByteBuf buf, Class<?> bodyClazz) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void encode(PartialDecodedMessage msg, ByteBuf buf) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
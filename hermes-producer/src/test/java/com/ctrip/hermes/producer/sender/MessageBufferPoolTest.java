@@ -0,0 +1,91 @@
+package com.ctrip.hermes.producer.sender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class MessageBufferPoolTest {
+
+	private MessageBufferPool m_pool = new MessageBufferPool(100, UnpooledByteBufAllocator.DEFAULT);
+
+	@Test
+	public void testReserveAndRelease() throws Exception {
+		ByteBuf buf1 = encoded(60);
+		ByteBuf buf2 = encoded(40);
+
+		assertTrue(m_pool.reserve(buf1, 0));
+		assertTrue(m_pool.reserve(buf2, 0));
+		assertEquals(0, m_pool.getAvailableBytes());
+
+		m_pool.release(buf1);
+		assertEquals(60, m_pool.getAvailableBytes());
+		assertEquals(0, buf1.refCnt());
+
+		m_pool.release(buf2);
+		assertEquals(100, m_pool.getAvailableBytes());
+	}
+
+	@Test
+	public void testReserveFailsWhenExhausted() throws Exception {
+		assertTrue(m_pool.reserve(encoded(80), 0));
+		assertFalse(m_pool.reserve(encoded(30), 0));
+
+		long start = System.currentTimeMillis();
+		assertFalse(m_pool.reserve(encoded(30), 50));
+		assertTrue(System.currentTimeMillis() - start >= 50);
+
+		// never fits whatever is released
+		assertFalse(m_pool.reserve(encoded(101), 1000));
+		assertEquals(20, m_pool.getAvailableBytes());
+	}
+
+	@Test
+	public void testReserveWaitsForRelease() throws Exception {
+		final ByteBuf buf = encoded(80);
+		assertTrue(m_pool.reserve(buf, 0));
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicBoolean reserved = new AtomicBoolean(false);
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					reserved.set(m_pool.reserve(encoded(50), 5000));
+				} catch (InterruptedException e) {
+					// fail below
+				}
+			}
+		};
+		waiter.start();
+		started.await();
+
+		m_pool.release(buf);
+		waiter.join(TimeUnit.SECONDS.toMillis(5));
+		assertTrue(reserved.get());
+		assertEquals(50, m_pool.getAvailableBytes());
+	}
+
+	@Test
+	public void testDiscardNeverReserved() throws Exception {
+		ByteBuf buf = encoded(30);
+		m_pool.discard(buf);
+
+		assertEquals(0, buf.refCnt());
+		assertEquals(100, m_pool.getAvailableBytes());
+	}
+
+	private ByteBuf encoded(int size) {
+		ByteBuf buf = m_pool.allocate(size);
+		buf.writeZero(size);
+		return buf;
+	}
+}
@@ -0,0 +1,75 @@
+package com.ctrip.hermes.producer.sender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class StickyPartitionerTest {
+
+	@Test
+	public void testStickUntilBatchClosed() {
+		StickyPartitioner partitioner = new StickyPartitioner(false);
+		int partition = partitioner.computePartitionNo("topic", 8);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(partition, partitioner.computePartitionNo("topic", 8));
+		}
+
+		// batches of other partitions don't move it
+		partitioner.onBatchClosed("topic", (partition + 1) % 8);
+		assertEquals(partition, partitioner.computePartitionNo("topic", 8));
+
+		Set<Integer> partitions = new HashSet<>();
+		for (int i = 0; i < 1000; i++) {
+			int current = partitioner.computePartitionNo("topic", 8);
+			assertTrue(current >= 0 && current < 8);
+			partitions.add(current);
+			partitioner.onBatchClosed("topic", current);
+		}
+		assertEquals(8, partitions.size());
+	}
+
+	@Test
+	public void testTopicsStickSeparately() {
+		StickyPartitioner partitioner = new StickyPartitioner(false);
+		int partition = partitioner.computePartitionNo("topic1", 1000);
+		for (int i = 0; i < 100; i++) {
+			partitioner.onBatchClosed("topic2", partitioner.computePartitionNo("topic2", 1000));
+		}
+		assertEquals(partition, partitioner.computePartitionNo("topic1", 1000));
+	}
+
+	@Test
+	public void testPartitionCountShrinks() {
+		StickyPartitioner partitioner = new StickyPartitioner(false);
+		int partition;
+		do {
+			partitioner.onBatchClosed("topic", partitioner.computePartitionNo("topic", 8));
+			partition = partitioner.computePartitionNo("topic", 8);
+		} while (partition < 4);
+
+		partition = partitioner.computePartitionNo("topic", 4);
+		assertTrue(partition >= 0 && partition < 4);
+	}
+
+	@Test
+	public void testLatencyWeighted() {
+		StickyPartitioner partitioner = new StickyPartitioner(true);
+		for (int i = 0; i < 10; i++) {
+			partitioner.recordLatency("topic", 0, 1);
+			partitioner.recordLatency("topic", 1, 1000);
+		}
+
+		int[] counts = new int[2];
+		for (int i = 0; i < 10000; i++) {
+			int partition = partitioner.computePartitionNo("topic", 2);
+			counts[partition]++;
+			partitioner.onBatchClosed("topic", partition);
+		}
+		// weights are 1/2 and 1/1001
+		assertTrue(counts[0] + " vs " + counts[1], counts[0] > counts[1] * 100);
+	}
+}
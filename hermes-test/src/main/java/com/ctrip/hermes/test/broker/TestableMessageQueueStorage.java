@@ -30,10 +30,11 @@ public class TestableMessageQueueStorage implements MessageQueueStorage {
 	private DataPool m_dataPool = new DataPool();
 
 	@Override
-	public void appendMessages(Tpp tpp, Collection<MessageBatchWithRawData> batches) throws Exception {
+	public List<Long> appendMessages(Tpp tpp, Collection<MessageBatchWithRawData> batches) throws Exception {
 		for (MessageBatchWithRawData batch : batches) {
 			m_dataPool.insertMsgs(tpp, batch.getMessages());
 		}
+		return null;
 	}
 
 	@Override